@@ -1,37 +1,50 @@
 package org.mjd.repro;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
-import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Function;
 
 import org.mjd.repro.async.AsyncMessageJobExecutor;
+import org.mjd.repro.async.CompletionMessageJobExecutor;
 import org.mjd.repro.async.SequentialMessageJobExecutor;
+import org.mjd.repro.buffer.BufferPool;
 import org.mjd.repro.handlers.message.MessageHandler;
+import org.mjd.repro.handlers.message.MessageHandler.ConnectionContext;
+import org.mjd.repro.handlers.message.StreamingMessageHandler;
 import org.mjd.repro.handlers.op.AcceptProtocol;
 import org.mjd.repro.handlers.op.ReadOpHandler;
 import org.mjd.repro.handlers.op.WriteOpHandler;
+import org.mjd.repro.handlers.response.ResponseBufferRefiner;
 import org.mjd.repro.handlers.response.ResponseRefiner;
+import org.mjd.repro.handlers.routing.AdmissionControl;
 import org.mjd.repro.handlers.routing.SuppliedMsgHandlerRouter;
+import org.mjd.repro.loop.IoLoop;
+import org.mjd.repro.loop.IoLoopGroup;
+import org.mjd.repro.loop.LoopTaskQueue;
 import org.mjd.repro.message.factory.MessageFactory;
-import org.mjd.repro.message.factory.MessageFactory.MessageCreationException;
+import org.mjd.repro.readers.FrameDecoder;
+import org.mjd.repro.readers.header.HeaderCodec;
+import org.mjd.repro.util.ReusePort;
 import org.mjd.repro.util.chain.ProtocolChain;
 import org.mjd.repro.writers.ChannelWriter;
+import org.mjd.repro.writers.FileRegionWriter;
 import org.mjd.repro.writers.RefiningChannelWriter;
 import org.mjd.repro.writers.SizeHeaderWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static java.nio.channels.SelectionKey.OP_ACCEPT;
+import static org.mjd.repro.util.thread.Threads.called;
 
 /**
  * The main server class. This is a non-blocking selectoer based server that processes messages of type MsgType.
@@ -45,11 +58,27 @@ public final class Server<MsgType> {
 	private static final Logger LOG = LoggerFactory.getLogger(Server.class);
 	private static final String DEFAULT_MSG_HANDLER_ID = "default";
 	private final Map<String, MessageHandler<MsgType>> msgHandlers = new HashMap<>();
-	private final List<ResponseRefiner<MsgType>> responseRefiners = new ArrayList<>();
-	private final AsyncMessageJobExecutor<MsgType> asyncMsgJobExecutor;
-	private final ProtocolChain<SelectionKey> keyProtocol;
-	private ServerSocketChannel serverChannel;
-	private Selector selector;
+	private final List<ResponseBufferRefiner<MsgType>> responseRefiners = new ArrayList<>();
+	private final List<AsyncMessageJobExecutor<MsgType>> asyncMsgJobExecutors = new ArrayList<>();
+	private final List<IoLoop> workerLoops = new ArrayList<>();
+	private final List<IoLoop> acceptLoops = new ArrayList<>();
+	private final List<ServerSocketChannel> serverChannels = new ArrayList<>();
+	private final MessageFactory<MsgType> messageFactory;
+	private final Function<MsgType, String> handlerRouter;
+	private final BufferPool bufferPool;
+	private final int receiveBufferSize;
+	private final int maxFrameSize;
+	private final int streamingThreshold;
+	private final HeaderCodec headerCodec;
+	private final long readBudgetBytes;
+	private final int readBudgetMessages;
+	private final long lowWatermark;
+	private final long highWatermark;
+	private final boolean respondOnCompletion;
+	private final AdmissionControl admissionControl;
+	private final IoLoop serverLoop;
+	private StreamingMessageHandler<MsgType> streamingHandler;
+	private ExecutorService workerLoopThreads;
 	private int port;
 
 	/**
@@ -104,17 +133,88 @@ public final class Server<MsgType> {
 	 */
 	public Server(final InetSocketAddress serverAddress, final MessageFactory<MsgType> messageFactory,
 				  final Function<MsgType, String> handlerRouter) {
-		setupNonblockingServer(serverAddress);
-		final ChannelWriter<MsgType, SelectionKey> channelWriter =
-				new RefiningChannelWriter<>(selector, responseRefiners, (k, b) -> SizeHeaderWriter.from(k, b));
-		asyncMsgJobExecutor = new SequentialMessageJobExecutor<>(selector, channelWriter, true);
+		this(serverAddress, messageFactory, handlerRouter, ServerConfig.defaults());
+	}
 
-		final SuppliedMsgHandlerRouter<MsgType> msgRouter =
-				new SuppliedMsgHandlerRouter<>(handlerRouter, msgHandlers, channelWriter, asyncMsgJobExecutor);
-		keyProtocol = new ProtocolChain<SelectionKey>()
-							.add(new AcceptProtocol<>(serverChannel, selector))
-							.add(new ReadOpHandler<>(messageFactory, msgRouter))
-							.add(new WriteOpHandler<>(channelWriter));
+	/**
+	 * Creates a fully initialised non-blocking {@link Server} tuned by the given {@link ServerConfig}.</br>
+	 * The server will bind on an available port provided by the OS. The port number is available via
+	 * {@link #getPort()}</br>
+	 * All messages will be routed through the default message handler.
+	 *
+	 * @param messageFactory {@link MessageFactory} used to decode messages exepcted by this server
+	 * @param config         the {@link ServerConfig} this server is setup with
+	 */
+	public Server(final MessageFactory<MsgType> messageFactory, final ServerConfig config) {
+		this(new InetSocketAddress(0), messageFactory, (msg) -> DEFAULT_MSG_HANDLER_ID, config);
+	}
+
+	/**
+	 * Creates a fully initialised non-blocking {@link Server} tuned by the given {@link ServerConfig}.</br>
+	 * The server is not started and will not accept connections until you call {@link #start()}.</br>
+	 * The server will attempt to bind on the given {@link InetSocketAddress} {@code serverAddress}</br>
+	 * This server will route all messages based upon the given {@code handlerRouter}
+	 * </p>
+	 * If the {@code config} asks for worker {@link IoLoop}s, the server selector only accepts connections. Each
+	 * accepted client is handed to one of the worker loops which reads, decodes and writes on it's own selector and
+	 * thread. Otherwise, everything runs on the single selector loop that {@link #start()} enters.
+	 * </p>
+	 * If the {@code config} asks for more than one listener, each listener gets it's own accept loop. Where supported,
+	 * each also gets it's own server channel bound with SO_REUSEPORT; without worker loops, each listener loop also
+	 * serves the clients it accepts.
+	 *
+	 * @param serverAddress  the address this server shoudl bind to
+	 * @param messageFactory {@link MessageFactory} used to decode messages exepcted by this server
+	 * @param handlerRouter  a fucntional that accepts a message of type MsgType and returns a {@link MessageHandler} ID
+	 *                       string.
+	 * @param config         the {@link ServerConfig} this server is setup with
+	 * @throws UncheckedIOException if the server cannot bind to the {@code serverAddress}
+	 */
+	public Server(final InetSocketAddress serverAddress, final MessageFactory<MsgType> messageFactory,
+				  final Function<MsgType, String> handlerRouter, final ServerConfig config) {
+		this.messageFactory = messageFactory;
+		this.handlerRouter = handlerRouter;
+		this.bufferPool = config.getBufferPool();
+		this.receiveBufferSize = config.getReceiveBufferSize();
+		this.maxFrameSize = config.getMaxFrameSize();
+		this.streamingThreshold = config.getStreamingThreshold();
+		this.headerCodec = config.getHeaderCodec();
+		this.readBudgetBytes = config.getReadBudgetBytes();
+		this.readBudgetMessages = config.getReadBudgetMessages();
+		this.lowWatermark = config.getLowWatermark();
+		this.highWatermark = config.getHighWatermark();
+		this.respondOnCompletion = config.isRespondOnCompletion();
+		this.admissionControl = config.getAdmissionControl();
+		setupNonblockingServer(serverAddress, config.getListeners());
+		IoLoopGroup ioLoopGroup = null;
+		if (config.getIoLoops() > 0) {
+			for (int i = 0; i < config.getIoLoops(); i++) {
+				final Selector workerSelector = openSelector();
+				final LoopTaskQueue workerTasks = new LoopTaskQueue(workerSelector);
+				workerLoops.add(new IoLoop("IoLoop-" + i, workerSelector, workerTasks,
+										   addIoHandlers(new ProtocolChain<>(), workerTasks),
+										   config.isOptimisedSelectedKeys()));
+			}
+			ioLoopGroup = new IoLoopGroup(workerLoops, config.getBalancing());
+		}
+		for (int i = 0; i < config.getListeners(); i++) {
+			// Without SO_REUSEPORT there is only one server channel which every accept loop shares
+			final ServerSocketChannel serverChannel = serverChannels.get(i % serverChannels.size());
+			final String name = i == 0 ? "The Director" : "The Director " + i;
+			final Selector selector = openSelector();
+			final LoopTaskQueue tasks = new LoopTaskQueue(selector);
+			registerForAccept(serverChannel, selector, name);
+			final ProtocolChain<SelectionKey> keyProtocol = new ProtocolChain<>();
+			if (ioLoopGroup == null) {
+				keyProtocol.add(new AcceptProtocol<>(serverChannel, selector));
+				addIoHandlers(keyProtocol, tasks);
+			}
+			else {
+				keyProtocol.add(new AcceptProtocol<>(serverChannel, ioLoopGroup));
+			}
+			acceptLoops.add(new IoLoop(name, selector, tasks, keyProtocol, config.isOptimisedSelectedKeys()));
+		}
+		serverLoop = acceptLoops.get(0);
 	}
 
 	/**
@@ -123,8 +223,9 @@ public final class Server<MsgType> {
 	 */
 	public void start() {
 		LOG.info("Server starting..");
-		asyncMsgJobExecutor.start();
-		enterBlockingServerLoop();
+		asyncMsgJobExecutors.forEach(AsyncMessageJobExecutor::start);
+		startWorkerLoops();
+		serverLoop.run();
 		closeDownServer();
 	}
 
@@ -170,7 +271,39 @@ public final class Server<MsgType> {
 	 * @notThreadSafe
 	 */
 	public Server<MsgType> addHandler(final ResponseRefiner<MsgType> handler) {
-		this.responseRefiners.add(handler);
+		this.responseRefiners.add(ResponseBufferRefiner.adapt(handler));
+		return this;
+	}
+
+	/**
+	 * Adds a {@link ResponseBufferRefiner} to the chain that refines every response, after those already added. Unlike
+	 * a {@link ResponseRefiner}, it refines the response in place and so adds no copy of it.
+	 *
+	 * @param refiner the {@link ResponseBufferRefiner} to add
+	 * @return This {@link Server} instance. Useful for chaining.
+	 *
+	 * @notThreadSafe
+	 */
+	public Server<MsgType> addRefiner(final ResponseBufferRefiner<MsgType> refiner) {
+		this.responseRefiners.add(refiner);
+		return this;
+	}
+
+	/**
+	 * Sets the {@link StreamingMessageHandler} that message bodies over the {@link ServerConfig#getStreamingThreshold()
+	 * streaming threshold} are handed to, in chunks, instead of being decoded. There can only be one; repeated
+	 * attempts to set it will be ignored.
+	 *
+	 * @param handler the {@link StreamingMessageHandler} large bodies are streamed to
+	 * @return This {@link Server} instance. Useful for chaining.
+	 * @notThreadSafe
+	 */
+	public Server<MsgType> addHandler(final StreamingMessageHandler<MsgType> handler) {
+		if (streamingHandler != null) {
+			LOG.warn("Streaming Message Handler already exists. Repeated attempts to add handlers will be ignored");
+			return this;
+		}
+		streamingHandler = handler;
 		return this;
 	}
 
@@ -188,7 +321,8 @@ public final class Server<MsgType> {
 	 * @return true of the server is ready to process clients.
 	 */
 	public boolean isAvailable() {
-		return serverChannel.isOpen() && selector != null && selector.isOpen();
+		return !serverChannels.isEmpty() && serverChannels.stream().allMatch(ServerSocketChannel::isOpen)
+				&& serverLoop != null && serverLoop.isOpen();
 	}
 
 	/**
@@ -204,49 +338,168 @@ public final class Server<MsgType> {
 		return port;
 	}
 
-	private void setupNonblockingServer(final InetSocketAddress address) {
+	/**
+	 * Opens and binds the server channels. When more than one {@code listeners} is requested, and SO_REUSEPORT is
+	 * supported, that many server channels are bound to the same address so the kernel spreads incoming connections
+	 * across them. Otherwise a single server channel is opened. If one of the extra channels cannot be bound, the
+	 * accept loops share the channels that were.
+	 *
+	 * @param address   the address to bind to
+	 * @param listeners the number of listening sockets wanted
+	 * @throws UncheckedIOException if not even one server channel can be bound
+	 */
+	private void setupNonblockingServer(final InetSocketAddress address, final int listeners) {
+		final boolean reusePort;
 		try {
-			selector = Selector.open();
-			serverChannel = ServerSocketChannel.open();
-			serverChannel.bind(address);
-			serverChannel.configureBlocking(false);
-			serverChannel.register(selector, OP_ACCEPT, "The Director");
-			port = ((InetSocketAddress)serverChannel.getLocalAddress()).getPort();
+			final ServerSocketChannel firstChannel = ServerSocketChannel.open();
+			reusePort = listeners > 1 && ReusePort.isSupportedBy(firstChannel);
+			if (listeners > 1 && !reusePort) {
+				LOG.info("SO_REUSEPORT is not supported; {} accept loops will share one server channel", listeners);
+			}
+			bindServerChannel(firstChannel, address, reusePort);
+			port = ((InetSocketAddress)firstChannel.getLocalAddress()).getPort();
 		}
 		catch (final IOException e) {
 			LOG.error("Fatal server setup up server channel: {}", e.toString());
+			throw new UncheckedIOException(e);
+		}
+		if (reusePort) {
+			// Bind the rest to the resolved port in case the OS assigned it
+			final InetSocketAddress boundAddress = new InetSocketAddress(address.getAddress(), port);
+			for (int i = 1; i < listeners; i++) {
+				try {
+					bindServerChannel(ServerSocketChannel.open(), boundAddress, true);
+				}
+				catch (final IOException e) {
+					LOG.warn("Could not bind server channel {} of {}, the accept loops will share the {} bound: {}",
+							 i + 1, listeners, serverChannels.size(), e.toString());
+					break;
+				}
+			}
 		}
 	}
 
-	private void enterBlockingServerLoop() {
+	/**
+	 * Binds the server channel and, once it is bound and non-blocking, adds it to the {@link #serverChannels}. A
+	 * channel that fails is closed.
+	 *
+	 * @throws IOException if the channel could not be bound
+	 */
+	private void bindServerChannel(final ServerSocketChannel serverChannel, final InetSocketAddress address,
+								   final boolean reusePort) throws IOException {
 		try {
-			while (!Thread.interrupted()) {
-				selector.select();
-				final Set<SelectionKey> selectedKeys = selector.selectedKeys();
-				handleReadyKeys(selectedKeys.iterator());
+			if (reusePort) {
+				ReusePort.enable(serverChannel);
 			}
+			serverChannel.bind(address);
+			serverChannel.configureBlocking(false);
 		}
-		catch(final ClosedSelectorException e) {
-			LOG.warn("Selector closed when getting keys; probably shutting down");
+		catch (final IOException e) {
+			serverChannel.close();
+			throw e;
+		}
+		serverChannels.add(serverChannel);
+	}
+
+	private static void registerForAccept(final ServerSocketChannel serverChannel, final Selector selector,
+										  final String name) {
+		try {
+			serverChannel.register(selector, OP_ACCEPT, name);
 		}
 		catch (final IOException e) {
-			LOG.error("Fatal server error: {}", e.toString(), e);
+			LOG.error("Fatal server setup registering server channel: {}", e.toString());
+		}
+	}
+
+	/**
+	 * Adds the read and write handlers for clients registered with the selector of the given {@link LoopTaskQueue} to
+	 * the given {@code keyProtocol}. Each selector gets it's own {@link ChannelWriter} and
+	 * {@link AsyncMessageJobExecutor}; all of them share the server's {@link BufferPool}.
+	 *
+	 * @param keyProtocol the {@link ProtocolChain} to add the handlers to
+	 * @param tasks       the {@link LoopTaskQueue} of the loop that selects for the clients
+	 * @return the given {@code keyProtocol}
+	 */
+	private ProtocolChain<SelectionKey> addIoHandlers(final ProtocolChain<SelectionKey> keyProtocol,
+													  final LoopTaskQueue tasks) {
+		final ChannelWriter<MsgType, SelectionKey> channelWriter =
+				new RefiningChannelWriter<>(tasks, responseRefiners,
+											(k, b) -> b.getFileRegion() == null
+													? SizeHeaderWriter.from(k, b, bufferPool, headerCodec)
+													: FileRegionWriter.from(k, b, headerCodec),
+											lowWatermark, highWatermark);
+		final AsyncMessageJobExecutor<MsgType> asyncMsgJobExecutor = respondOnCompletion
+				? new CompletionMessageJobExecutor<>(channelWriter, true)
+				: new SequentialMessageJobExecutor<>(channelWriter, true);
+		asyncMsgJobExecutors.add(asyncMsgJobExecutor);
+
+		final SuppliedMsgHandlerRouter<MsgType> msgRouter =
+				new SuppliedMsgHandlerRouter<>(handlerRouter, msgHandlers, channelWriter, asyncMsgJobExecutor,
+											   bufferPool, admissionControl);
+		return keyProtocol.add(new ReadOpHandler<>(msgRouter, key -> createDecoder(key, channelWriter), bufferPool,
+												   receiveBufferSize, readBudgetBytes, readBudgetMessages))
+						  .add(new WriteOpHandler<>(channelWriter));
+	}
+
+	/**
+	 * Creates the {@link FrameDecoder} for a newly read from client, streaming large bodies if this server has a
+	 * {@link StreamingMessageHandler}. Runs on the loop thread, after {@link #start()}, so sees every handler added.
+	 *
+	 * @param key           the client's {@link SelectionKey}
+	 * @param channelWriter the {@link ChannelWriter} of the loop serving the client
+	 * @return a new {@link FrameDecoder}
+	 */
+	private FrameDecoder<MsgType> createDecoder(final SelectionKey key,
+												final ChannelWriter<MsgType, SelectionKey> channelWriter) {
+		final FrameDecoder<MsgType> decoder =
+				new FrameDecoder<>(String.valueOf(key.attachment()), messageFactory, bufferPool, maxFrameSize,
+								   headerCodec);
+		if (streamingHandler != null) {
+			decoder.streamBodiesOver(streamingThreshold, streamingHandler,
+									 new ConnectionContext<>(channelWriter, key, bufferPool));
 		}
+		return decoder;
 	}
 
-	private void handleReadyKeys(final Iterator<SelectionKey> keyIterator) throws MessageCreationException {
-		while (keyIterator.hasNext()) {
-			keyProtocol.handle(keyIterator.next());
-			keyIterator.remove();
+	/**
+	 * Starts every loop other than the {@link #serverLoop} on it's own thread, that is, the worker loops and any
+	 * additional accept loops.
+	 */
+	private void startWorkerLoops() {
+		final List<IoLoop> backgroundLoops = new ArrayList<>(workerLoops);
+		backgroundLoops.addAll(acceptLoops.subList(1, acceptLoops.size()));
+		if (!backgroundLoops.isEmpty()) {
+			workerLoopThreads = Executors.newFixedThreadPool(backgroundLoops.size(), called("IoLoop-%d"));
+			backgroundLoops.forEach(workerLoopThreads::execute);
+		}
+	}
+
+	private static Selector openSelector() {
+		try {
+			return Selector.open();
+		}
+		catch (final IOException e) {
+			LOG.error("Fatal server setup, could not open selector: {}", e.toString());
+			throw new UncheckedIOException(e);
 		}
 	}
 
 	private void closeDownServer() {
 		LOG.info("Server shutting down...");
 		try {
-			asyncMsgJobExecutor.stop();
-			selector.close();
-			serverChannel.close();
+			asyncMsgJobExecutors.forEach(AsyncMessageJobExecutor::stop);
+			for (final IoLoop workerLoop : workerLoops) {
+				workerLoop.close();
+			}
+			for (final IoLoop acceptLoop : acceptLoops) {
+				acceptLoop.close();
+			}
+			if (workerLoopThreads != null) {
+				workerLoopThreads.shutdownNow();
+			}
+			for (final ServerSocketChannel serverChannel : serverChannels) {
+				serverChannel.close();
+			}
 		}
 		catch (final IOException e) {
 			LOG.error("Error shutting down server: {}. We're going anyway ¯\\_(ツ)_/¯ ", e.toString());
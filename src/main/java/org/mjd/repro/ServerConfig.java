@@ -0,0 +1,405 @@
+package org.mjd.repro;
+
+import org.mjd.repro.async.CompletionMessageJobExecutor;
+import org.mjd.repro.async.SequentialMessageJobExecutor;
+import org.mjd.repro.buffer.BufferPool;
+import org.mjd.repro.handlers.message.StreamingMessageHandler;
+import org.mjd.repro.handlers.op.AcceptProtocol;
+import org.mjd.repro.handlers.routing.AdmissionControl;
+import org.mjd.repro.loop.IoLoop;
+import org.mjd.repro.loop.IoLoopGroup.Balancing;
+import org.mjd.repro.loop.SelectedKeySet;
+import org.mjd.repro.message.factory.MessageFactory;
+import org.mjd.repro.readers.header.FlaggedHeaderCodec;
+import org.mjd.repro.readers.header.HeaderCodec;
+import org.mjd.repro.readers.header.IntHeaderReader;
+import org.mjd.repro.readers.header.VarIntHeaderCodec;
+
+/**
+ * Optional tuning for a {@link Server}. The {@link #defaults()} match the behaviour of a {@link Server} constructed
+ * without a {@link ServerConfig}, that is, a single selector loop that accepts, reads and writes.
+ *
+ * Example:
+ * <pre class="code"><code class="java">
+ * ServerConfig config = ServerConfig.builder().ioLoops(4).balancing(Balancing.LEAST_CONNECTIONS).build();
+ * </code></pre>
+ *
+ * @Immutable
+ * @ThreadSafe
+ */
+public final class ServerConfig {
+	/** Default maximum message body size, 64 MiB */
+	public static final int DEFAULT_MAX_FRAME_SIZE = 64 << 20;
+	/** Default size above which bodies are streamed, 1 MiB */
+	public static final int DEFAULT_STREAMING_THRESHOLD = 1 << 20;
+	/** Default bytes one read event may read from a client, 64 KiB */
+	public static final long DEFAULT_READ_BUDGET_BYTES = 64 << 10;
+	/** Default messages one read event may decode from a client */
+	public static final int DEFAULT_READ_BUDGET_MESSAGES = 64;
+	/** Default queued outbound bytes at or below which a suspended client is read from again, 0 */
+	public static final long DEFAULT_LOW_WATERMARK = 0;
+	/**
+	 * Default queued outbound bytes above which a client is no longer read from, {@link Long#MAX_VALUE}, so by default
+	 * a client is always read from however many responses are queued for it
+	 */
+	public static final long DEFAULT_HIGH_WATERMARK = Long.MAX_VALUE;
+	private final int ioLoops;
+	private final Balancing balancing;
+	private final int listeners;
+	private final boolean optimisedSelectedKeys;
+	private final BufferPool bufferPool;
+	private final int receiveBufferSize;
+	private final int maxFrameSize;
+	private final int streamingThreshold;
+	private final HeaderCodec headerCodec;
+	private final long readBudgetBytes;
+	private final int readBudgetMessages;
+	private final long lowWatermark;
+	private final long highWatermark;
+	private final boolean respondOnCompletion;
+	private final AdmissionControl admissionControl;
+
+	private ServerConfig(final Builder builder) {
+		this.ioLoops = builder.ioLoops;
+		this.balancing = builder.balancing;
+		this.listeners = builder.listeners;
+		this.optimisedSelectedKeys = builder.optimisedSelectedKeys;
+		this.bufferPool = builder.bufferPool == null ? new BufferPool() : builder.bufferPool;
+		this.receiveBufferSize = builder.receiveBufferSize;
+		this.maxFrameSize = builder.maxFrameSize;
+		this.streamingThreshold = builder.streamingThreshold;
+		this.headerCodec = builder.headerCodec;
+		this.readBudgetBytes = builder.readBudgetBytes;
+		this.readBudgetMessages = builder.readBudgetMessages;
+		this.lowWatermark = builder.lowWatermark;
+		this.highWatermark = builder.highWatermark;
+		this.respondOnCompletion = builder.respondOnCompletion;
+		this.admissionControl = builder.admissionControl;
+	}
+
+	/**
+	 * @return the number of worker {@link IoLoop}s. 0 means the server runs everything on one selector loop.
+	 */
+	public int getIoLoops() {
+		return ioLoops;
+	}
+
+	/** @return how accepted clients are spread across worker {@link IoLoop}s */
+	public Balancing getBalancing() {
+		return balancing;
+	}
+
+	/** @return the number of listening sockets, each with it's own accept loop */
+	public int getListeners() {
+		return listeners;
+	}
+
+	/** @return true if selector loops should walk an array backed {@link SelectedKeySet} where the JDK allows it */
+	public boolean isOptimisedSelectedKeys() {
+		return optimisedSelectedKeys;
+	}
+
+	/** @return the {@link BufferPool} the server's read and write paths borrow I/O buffers from */
+	public BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	/** @return the size, in bytes, of the buffer each client read is made into */
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	/** @return the largest message body, in bytes, a client may send before it's connection is closed */
+	public int getMaxFrameSize() {
+		return maxFrameSize;
+	}
+
+	/** @return bodies larger than this, in bytes, go to the {@link StreamingMessageHandler} if there is one */
+	public int getStreamingThreshold() {
+		return streamingThreshold;
+	}
+
+	/** @return the {@link HeaderCodec} that decodes request frame headers and encodes response frame headers */
+	public HeaderCodec getHeaderCodec() {
+		return headerCodec;
+	}
+
+	/** @return the bytes one read event may read from a client before the loop moves on to other clients */
+	public long getReadBudgetBytes() {
+		return readBudgetBytes;
+	}
+
+	/** @return the messages one read event may decode from a client before the loop moves on to other clients */
+	public int getReadBudgetMessages() {
+		return readBudgetMessages;
+	}
+
+	/** @return the queued outbound bytes at or below which a client whose reads were suspended is read from again */
+	public long getLowWatermark() {
+		return lowWatermark;
+	}
+
+	/** @return the queued outbound bytes above which a client is no longer read from */
+	public long getHighWatermark() {
+		return highWatermark;
+	}
+
+	/**
+	 * @return true if responses are written as their jobs complete, by a {@link CompletionMessageJobExecutor}, false
+	 *         if they are written in the order their messages were read, by a {@link SequentialMessageJobExecutor}
+	 */
+	public boolean isRespondOnCompletion() {
+		return respondOnCompletion;
+	}
+
+	/** @return the {@link AdmissionControl} that bounds the messages in flight, or null if they are not bounded */
+	public AdmissionControl getAdmissionControl() {
+		return admissionControl;
+	}
+
+	/** @return a {@link ServerConfig} with the default single loop settings */
+	public static ServerConfig defaults() {
+		return builder().build();
+	}
+
+	/** @return a new {@link Builder} initialised with the default settings */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Builder for {@link ServerConfig}.
+	 *
+	 * @NotThreadSafe
+	 */
+	public static final class Builder {
+		private int ioLoops;
+		private Balancing balancing = Balancing.ROUND_ROBIN;
+		private int listeners = 1;
+		private boolean optimisedSelectedKeys = true;
+		private BufferPool bufferPool;
+		private int receiveBufferSize = 4096;
+		private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+		private int streamingThreshold = DEFAULT_STREAMING_THRESHOLD;
+		private HeaderCodec headerCodec = new IntHeaderReader();
+		private long readBudgetBytes = DEFAULT_READ_BUDGET_BYTES;
+		private int readBudgetMessages = DEFAULT_READ_BUDGET_MESSAGES;
+		private long lowWatermark = DEFAULT_LOW_WATERMARK;
+		private long highWatermark = DEFAULT_HIGH_WATERMARK;
+		private boolean respondOnCompletion;
+		private AdmissionControl admissionControl;
+
+		private Builder() {
+			// Use ServerConfig.builder()
+		}
+
+		/**
+		 * Sets the number of worker {@link IoLoop}s. When greater than 0 the server's own selector only accepts
+		 * connections and hands each client to one of the worker loops, each with it's own selector and thread.
+		 *
+		 * @param loops number of worker loops, 0 for the single loop default
+		 * @return this {@link Builder}
+		 */
+		public Builder ioLoops(final int loops) {
+			if (loops < 0) {
+				throw new IllegalArgumentException("ioLoops cannot be negative: " + loops);
+			}
+			this.ioLoops = loops;
+			return this;
+		}
+
+		/**
+		 * @param strategy how accepted clients are spread across worker {@link IoLoop}s
+		 * @return this {@link Builder}
+		 */
+		public Builder balancing(final Balancing strategy) {
+			this.balancing = strategy;
+			return this;
+		}
+
+		/**
+		 * Sets the number of listening sockets. Each listener has it's own selector loop and {@link AcceptProtocol}.
+		 * When SO_REUSEPORT is supported each listener binds it's own server channel to the same port so the kernel
+		 * spreads new connections across them; otherwise the listeners share one server channel.
+		 * </p>
+		 * Without worker {@link IoLoop}s each listener loop also serves the clients it accepts.
+		 *
+		 * @param count number of listeners, at least 1
+		 * @return this {@link Builder}
+		 */
+		public Builder listeners(final int count) {
+			if (count < 1) {
+				throw new IllegalArgumentException("A server needs at least one listener: " + count);
+			}
+			this.listeners = count;
+			return this;
+		}
+
+		/**
+		 * Sets whether each selector loop installs an array backed {@link SelectedKeySet} into it's selector. This
+		 * saves hashing and iterator removal on every selected key. It is on by default and falls back to the
+		 * selector's own selected keys when the JDK does not allow the set to be installed.
+		 *
+		 * @param optimised false to always use the selector's own selected keys
+		 * @return this {@link Builder}
+		 */
+		public Builder optimisedSelectedKeys(final boolean optimised) {
+			this.optimisedSelectedKeys = optimised;
+			return this;
+		}
+
+		/**
+		 * Sets the {@link BufferPool} the server borrows direct buffers from to read requests and write responses.
+		 * Unless given, each {@link ServerConfig} gets it's own pool with the {@link BufferPool} defaults. Pass a pool
+		 * to cap it's memory differently, or to read it's metrics.
+		 *
+		 * @param pool the {@link BufferPool} to use
+		 * @return this {@link Builder}
+		 */
+		public Builder bufferPool(final BufferPool pool) {
+			this.bufferPool = pool;
+			return this;
+		}
+
+		/**
+		 * Sets the size of the buffer client data is read into. Bodies larger than this are read over several reads.
+		 * The buffer is borrowed from the {@link BufferPool} so sizes up to it's largest size class are pooled.
+		 *
+		 * @param size the receive buffer size in bytes, at least 1
+		 * @return this {@link Builder}
+		 */
+		public Builder receiveBufferSize(final int size) {
+			if (size < 1) {
+				throw new IllegalArgumentException("The receive buffer size must be positive: " + size);
+			}
+			this.receiveBufferSize = size;
+			return this;
+		}
+
+		/**
+		 * Sets the largest message body a client may send. A frame header announcing a larger body closes the
+		 * connection as soon as it is read, before anything is allocated for the body. This applies to streamed bodies
+		 * too.
+		 *
+		 * @param size the maximum body size in bytes, at least 1
+		 * @return this {@link Builder}
+		 */
+		public Builder maxFrameSize(final int size) {
+			if (size < 1) {
+				throw new IllegalArgumentException("The maximum frame size must be positive: " + size);
+			}
+			this.maxFrameSize = size;
+			return this;
+		}
+
+		/**
+		 * Sets the body size above which bodies are handed in chunks to the server's
+		 * {@link StreamingMessageHandler}, rather than decoded into messages. Has no effect unless the server is given
+		 * a {@link StreamingMessageHandler}.
+		 *
+		 * @param size the threshold in bytes, 0 or more
+		 * @return this {@link Builder}
+		 */
+		public Builder streamingThreshold(final int size) {
+			if (size < 0) {
+				throw new IllegalArgumentException("The streaming threshold cannot be negative: " + size);
+			}
+			this.streamingThreshold = size;
+			return this;
+		}
+
+		/**
+		 * Sets the {@link HeaderCodec} for the header that prefixes every request and response frame. The default is
+		 * an {@link IntHeaderReader}, a 4 byte body size. A {@link VarIntHeaderCodec} saves bandwidth when most
+		 * messages are small and a {@link FlaggedHeaderCodec} also carries flags to the {@link MessageFactory}.
+		 * Clients must frame their messages with the same codec.
+		 *
+		 * @param codec the {@link HeaderCodec} to use
+		 * @return this {@link Builder}
+		 */
+		public Builder headerCodec(final HeaderCodec codec) {
+			if (codec == null) {
+				throw new IllegalArgumentException("A server needs a header codec");
+			}
+			this.headerCodec = codec;
+			return this;
+		}
+
+		/**
+		 * Sets how much one read event may read from a client before it's selector loop moves on. A client with more
+		 * to read is read again on the loop's next turn, after the other ready clients, so a client sending as fast as
+		 * it can cannot starve the others. Reading stops at whichever limit is reached first, and always after at
+		 * least one read.
+		 *
+		 * @param bytes    the bytes a read event may read, at least 1. {@link Long#MAX_VALUE} for no limit.
+		 * @param messages the messages a read event may decode, at least 1. {@link Integer#MAX_VALUE} for no limit.
+		 * @return this {@link Builder}
+		 */
+		public Builder readBudget(final long bytes, final int messages) {
+			if (bytes < 1 || messages < 1) {
+				throw new IllegalArgumentException("Read budgets must be positive: " + bytes + ", " + messages);
+			}
+			this.readBudgetBytes = bytes;
+			this.readBudgetMessages = messages;
+			return this;
+		}
+
+		/**
+		 * Sets the write watermarks of each client. Once more than {@code high} bytes of responses are queued for a
+		 * client, because it is not reading them as fast as they are produced, the server stops reading it's requests.
+		 * Reading resumes once the queue is written down to {@code low} bytes, so a client cannot make the server
+		 * buffer an unbounded amount of responses.
+		 * </p>
+		 * By default reading is never suspended. A client that sends a burst of requests before reading any of the
+		 * responses, blocking whilst it writes, deadlocks with a server that has stopped reading it, so a
+		 * {@code high} watermark should leave room for the largest burst of responses such clients expect.
+		 *
+		 * @param low  queued outbound bytes at or below which reading resumes, at least 0
+		 * @param high queued outbound bytes above which reading is suspended, greater than {@code low}.
+		 *             {@link Long#MAX_VALUE} to never suspend reading.
+		 * @return this {@link Builder}
+		 */
+		public Builder writeWatermarks(final long low, final long high) {
+			if (low < 0 || high <= low) {
+				throw new IllegalArgumentException("Watermarks must satisfy 0 <= low < high: " + low + ", " + high);
+			}
+			this.lowWatermark = low;
+			this.highWatermark = high;
+			return this;
+		}
+
+		/**
+		 * Sets whether each response is written as soon as it's message's job completes, by a
+		 * {@link CompletionMessageJobExecutor}, rather than in the order the messages were read, by a
+		 * {@link SequentialMessageJobExecutor} that waits on each job in turn. Writing on completion stops a slow call
+		 * delaying the responses behind it, but responses to a client may then overtake each other, so it suits
+		 * protocols that match responses to requests by ID, such as RPC. It is off by default.
+		 *
+		 * @param onCompletion true to write responses in the order their jobs complete
+		 * @return this {@link Builder}
+		 */
+		public Builder respondOnCompletion(final boolean onCompletion) {
+			this.respondOnCompletion = onCompletion;
+			return this;
+		}
+
+		/**
+		 * Sets the {@link AdmissionControl} that bounds the messages handed to handlers but not yet completed, across
+		 * the server and for each handler. A message over a limit is answered at once with it's handler's overloaded
+		 * response instead of queueing behind the others, so an overloaded server fails fast rather than slowly. Keep
+		 * a reference to it to read the messages in flight and rejected. There is no bound by default.
+		 *
+		 * @param control the {@link AdmissionControl} to use
+		 * @return this {@link Builder}
+		 */
+		public Builder admissionControl(final AdmissionControl control) {
+			this.admissionControl = control;
+			return this;
+		}
+
+		/** @return a new {@link ServerConfig} */
+		public ServerConfig build() {
+			return new ServerConfig(this);
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package org.mjd.repro.async;
 
+import java.util.List;
+
 /**
  * {@link AsyncMessageJobExecutor}s processes {@link AsyncMessageJob}s once it has been started.
  *
@@ -28,5 +30,16 @@ public interface AsyncMessageJobExecutor<MsgType> {
 	 */
 	void add(AsyncMessageJob<MsgType> job);
 
+	/**
+	 * Adds the {@link AsyncMessageJob}s for a batch of messages read together from one connection. Implementations
+	 * that can should write the batch's responses together. The default adds each job in turn.
+	 *
+	 * @param jobs {@link AsyncMessageJob}s to add, in the order their messages were read
+	 */
+	default void addBatch(final List<AsyncMessageJob<MsgType>> jobs) {
+		for (final AsyncMessageJob<MsgType> job : jobs) {
+			add(job);
+		}
+	}
 
 }
@@ -0,0 +1,156 @@
+package org.mjd.repro.async;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.JdkFutureAdapters;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.mjd.repro.handlers.message.MessageHandler;
+import org.mjd.repro.writers.ChannelWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.mjd.repro.util.thread.Threads.called;
+
+/**
+ * Completion driven implementation of an {@link AsyncMessageJobExecutor}.</br>
+ * Rather than waiting on each job in turn, as the {@link SequentialMessageJobExecutor} does, a callback is attached to
+ * each job's {@link Future}; the thread that completes the job hands it's result straight to the channelWriter, which
+ * queues it on the connection and wakes up it's selector loop. Responses therefore go out in the order their jobs
+ * complete, so a slow job delays no response but it's own and nothing is polled.
+ * </p>
+ * {@link MessageHandler}s should return a {@link ListenableFuture} or {@link CompletableFuture}, e.g. by submitting to
+ * a {@link MoreExecutors#listeningDecorator(ExecutorService) listening executor}. Any other {@link Future} that is not
+ * already done is waited for on a thread of it's own, borrowed from a cached pool, which works but costs a thread per
+ * outstanding job.
+ * </p>
+ * Jobs of a batch, see {@link #addBatch(List)}, that are done by the time they are added are handed to the
+ * channelWriter together; the rest are written as each completes. Nothing is written for a job whose result is
+ * {@link MessageHandler#RESPONDED}, as it's handler has already written it's response, nor for a job that fails,
+ * which is logged.
+ *
+ * @param <MsgType> the type of message the jobs handle
+ *
+ * @ThreadSafe
+ */
+public final class CompletionMessageJobExecutor<MsgType> implements AsyncMessageJobExecutor<MsgType> {
+	private static final Logger LOG = LoggerFactory.getLogger(CompletionMessageJobExecutor.class);
+
+	private final ExecutorService waiters = Executors.newCachedThreadPool(called("AsyncMsgJobWaiter"));
+	private final JobResponseWriter<MsgType> responseWriter;
+	private volatile boolean stopped;
+
+	/**
+	 * Constructs a fully initialised {@link CompletionMessageJobExecutor}
+	 *
+	 * @param writer           a {@link ChannelWriter} that can write responses back to the correct clients
+	 * @param acknowledgeVoids whether this executor should write back void responses, i.e., acknowledgements when the
+	 *                         result of the message job is empty
+	 */
+	public CompletionMessageJobExecutor(final ChannelWriter<MsgType, SelectionKey> writer, final boolean acknowledgeVoids) {
+		this.responseWriter = new JobResponseWriter<>(writer, acknowledgeVoids);
+	}
+
+	@Override
+	public void start() {
+		// Nothing to start, jobs are written by the threads that complete them
+	}
+
+	/**
+	 * Stops writing the results of jobs, including those already added, and interrupts any thread waiting on a job
+	 */
+	@Override
+	public void stop() {
+		stopped = true;
+		waiters.shutdownNow();
+	}
+
+	@Override
+	public void add(final AsyncMessageJob<MsgType> job) {
+		final Future<Optional<ByteBuffer>> future = job.getMessageJob();
+		if (future.isDone()) {
+			complete(job);
+		}
+		else if (future instanceof CompletableFuture) {
+			((CompletableFuture<?>) future).whenComplete((result, failure) -> complete(job));
+		}
+		else {
+			listenable(future).addListener(() -> complete(job), MoreExecutors.directExecutor());
+		}
+	}
+
+	@Override
+	public void addBatch(final List<AsyncMessageJob<MsgType>> jobs) {
+		final List<AsyncMessageJob<MsgType>> done = new ArrayList<>(jobs.size());
+		final List<Optional<ByteBuffer>> results = new ArrayList<>(jobs.size());
+		for (final AsyncMessageJob<MsgType> job : jobs) {
+			if (job.getMessageJob().isDone()) {
+				final Optional<Optional<ByteBuffer>> result = resultOf(job);
+				if (result.isPresent()) {
+					done.add(job);
+					results.add(result.get());
+				}
+			}
+			else {
+				add(job);
+			}
+		}
+		if (!done.isEmpty() && !stopped) {
+			responseWriter.writeResponses(done, results);
+		}
+	}
+
+	/**
+	 * Writes the result of a job that is done, on the thread that completed it
+	 *
+	 * @param job the completed job
+	 */
+	private void complete(final AsyncMessageJob<MsgType> job) {
+		final Optional<Optional<ByteBuffer>> result = resultOf(job);
+		if (result.isPresent() && !stopped) {
+			responseWriter.writeResponse(job, result.get());
+		}
+	}
+
+	/**
+	 * @param job a job that is done
+	 * @return the job's result, or empty if the job failed or was cancelled
+	 */
+	private static <MsgType> Optional<Optional<ByteBuffer>> resultOf(final AsyncMessageJob<MsgType> job) {
+		try {
+			return Optional.of(job.getMessageJob().get());
+		}
+		catch (final ExecutionException e) {
+			LOG.error("Error in message processing job {}", job, e.getCause());
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (final RuntimeException e) {
+			LOG.debug("Message processing job {} was cancelled", job);
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * @param future a job's {@link Future}
+	 * @return the {@code future} if it is a {@link ListenableFuture}, otherwise a {@link ListenableFuture} that
+	 *         completes once a thread from {@link #waiters} has waited for it
+	 */
+	private ListenableFuture<Optional<ByteBuffer>> listenable(final Future<Optional<ByteBuffer>> future) {
+		if (future instanceof ListenableFuture) {
+			return (ListenableFuture<Optional<ByteBuffer>>) future;
+		}
+		LOG.trace("{} cannot call back when it completes; waiting for it on a thread of it's own", future);
+		return JdkFutureAdapters.listenInPoolThread(future, waiters);
+	}
+}
@@ -0,0 +1,85 @@
+package org.mjd.repro.async;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.mjd.repro.handlers.message.MessageHandler;
+import org.mjd.repro.writers.ChannelWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands the results of {@link AsyncMessageJob}s to a {@link ChannelWriter}, as every {@link AsyncMessageJobExecutor}
+ * must. An empty result is acknowledged with an empty response if asked to, and nothing is written for a result that
+ * is {@link MessageHandler#RESPONDED}, as it's handler has already written it's response.
+ *
+ * @param <MsgType> the type of message the jobs handle
+ *
+ * @ThreadSafe if the {@link ChannelWriter} is
+ */
+final class JobResponseWriter<MsgType> {
+	private static final Logger LOG = LoggerFactory.getLogger(JobResponseWriter.class);
+	private final ChannelWriter<MsgType, SelectionKey> channelWriter;
+	private final boolean acknowledgeVoids;
+
+	JobResponseWriter(final ChannelWriter<MsgType, SelectionKey> channelWriter, final boolean acknowledgeVoids) {
+		this.channelWriter = channelWriter;
+		this.acknowledgeVoids = acknowledgeVoids;
+	}
+
+	/**
+	 * Writes the results of jobs for the same key together, with one hand over to the {@link ChannelWriter}
+	 *
+	 * @param jobs    the jobs, all for the same key
+	 * @param results the result of each of the {@code jobs}, in the same order
+	 */
+	void writeResponses(final List<AsyncMessageJob<MsgType>> jobs, final List<Optional<ByteBuffer>> results) {
+		if (jobs.size() == 1) {
+			writeResponse(jobs.get(0), results.get(0));
+			return;
+		}
+		final List<MsgType> messages = new ArrayList<>(jobs.size());
+		final List<ByteBuffer> responses = new ArrayList<>(jobs.size());
+		for (int i = 0; i < jobs.size(); i++) {
+			final Optional<ByteBuffer> result = results.get(i);
+			if (isResponded(result)) {
+				continue;
+			}
+			if (result.isPresent() || acknowledgeVoids) {
+				messages.add(jobs.get(i).getMessage());
+				responses.add(result.orElseGet(() -> ByteBuffer.allocate(0)));
+			}
+		}
+		if (!messages.isEmpty()) {
+			channelWriter.prepWrites(jobs.get(0).getKey(), messages, responses);
+		}
+	}
+
+	/**
+	 * @param job    the job
+	 * @param result the {@code job}'s result
+	 */
+	void writeResponse(final AsyncMessageJob<MsgType> job, final Optional<ByteBuffer> result) {
+		if (isResponded(result)) {
+			LOG.trace("Call {} has already been responded to", job);
+		}
+		else if (result.isPresent()) {
+			channelWriter.prepWrite(job.getKey(), job.getMessage(), result.get());
+		}
+		else if (acknowledgeVoids) {
+			LOG.trace("No return for call {}; Writing empty buffer back", job);
+			channelWriter.prepWrite(job.getKey(), job.getMessage(), ByteBuffer.allocate(0));
+		}
+	}
+
+	/**
+	 * @param result the result of a job
+	 * @return true if the job's handler has already handed it's response to the channelWriter
+	 */
+	private static boolean isResponded(final Optional<ByteBuffer> result) {
+		return result.isPresent() && result.get() == MessageHandler.RESPONDED;
+	}
+}
@@ -2,9 +2,12 @@ package org.mjd.repro.async;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -12,6 +15,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import org.mjd.repro.handlers.message.MessageHandler;
 import org.mjd.repro.handlers.op.WriteOpHandler;
 import org.mjd.repro.writers.ChannelWriter;
 import org.slf4j.Logger;
@@ -22,7 +26,15 @@ import static org.mjd.repro.util.thread.Threads.called;
 /**
  * Single threaded sequential implementation of an {@link AsyncMessageJobExecutor}.</br>
  * In this implementation one {@link AsyncMessageJob} will be processed one at a time, in the order they were added.
- * When writing the results of the job to the channelWriter, the associated Selector is woken up.
+ * The results of the job are handed to the channelWriter which is responsible for waking up the selector loop.
+ * </p>
+ * A batch of jobs, see {@link #addBatch(List)}, is processed as one: it's results are waited for in order and the
+ * responses of those that have completed are handed to the channelWriter together, so a pipelined burst from one
+ * client costs one hand over to the selector loop rather than one per message.
+ * </p>
+ * Nothing is written for a job whose result is {@link MessageHandler#RESPONDED}, as it's handler has already written
+ * it's response, nor for a job that failed or was cancelled, which is logged. The rest of it's batch is written as
+ * usual.
  *
  * @param <MsgType>
  */
@@ -30,24 +42,18 @@ public final class SequentialMessageJobExecutor<MsgType> implements AsyncMessage
 	private static final Logger LOG = LoggerFactory.getLogger(SequentialMessageJobExecutor.class);
 
 	private final ExecutorService executor = Executors.newSingleThreadExecutor(called("AsyncMsgJobExec"));
-	private final ChannelWriter<MsgType, SelectionKey> channelWriter;
-	private final Selector selector;
-	private final BlockingQueue<AsyncMessageJob<MsgType>> messageJobs = new LinkedBlockingQueue<>();
-	private final boolean acknowledgeVoids;
+	private final BlockingQueue<List<AsyncMessageJob<MsgType>>> messageJobs = new LinkedBlockingQueue<>();
+	private final JobResponseWriter<MsgType> responseWriter;
 
 	/**
 	 * Constructs a fully initialised {@link SequentialMessageJobExecutor}
 	 *
-	 * @param selector         the selector associated with the message jobs with executor processes.
 	 * @param writer           a {@link WriteOpHandler} that can write responses back to the correct clients
 	 * @param acknowledgeVoids whether this executor shoudl write back void responses, i.e., acknowledgements when the
 	 *                         result of the message job is empty
 	 */
-	public SequentialMessageJobExecutor(final Selector selector, final ChannelWriter<MsgType, SelectionKey> writer,
-			final boolean acknowledgeVoids) {
-		this.selector = selector;
-		this.channelWriter = writer;
-		this.acknowledgeVoids = acknowledgeVoids;
+	public SequentialMessageJobExecutor(final ChannelWriter<MsgType, SelectionKey> writer, final boolean acknowledgeVoids) {
+		this.responseWriter = new JobResponseWriter<>(writer, acknowledgeVoids);
 	}
 
 	@Override
@@ -62,16 +68,21 @@ public final class SequentialMessageJobExecutor<MsgType> implements AsyncMessage
 
 	@Override
 	public void add(final AsyncMessageJob<MsgType> job) {
-		messageJobs.add(job);
+		messageJobs.add(Collections.singletonList(job));
+	}
+
+	@Override
+	public void addBatch(final List<AsyncMessageJob<MsgType>> jobs) {
+		if (!jobs.isEmpty()) {
+			messageJobs.add(jobs);
+		}
 	}
 
 	/**
 	 * Takes {@link AsyncMessageJob} instances from the blocking queue and waits for 500ms fo rthem to complete. If they
 	 * don't complete in that time, they are put back on the end of the queue and the next job is checked.</br>
 	 * The result is checked if a job is complete (or completes within the timeout). If present, that is, the
-	 * {@link AsyncMessageJob} returned a result, it is sent to the {@link #channelWriter}.
-	 * </p>
-	 * The selector is always woken up in case the key changed within a blocking {@link Selector#select()} call.
+	 * {@link AsyncMessageJob} returned a result, it is sent to the channelWriter.
 	 */
 	private void startAsyncMessageJobHandler() {
 		try {
@@ -83,39 +94,44 @@ public final class SequentialMessageJobExecutor<MsgType> implements AsyncMessage
 			LOG.info("Interrupted whilst waiting for jobs; the server is likely shutting down");
 			Thread.currentThread().interrupt();
 		}
-		catch (final ExecutionException e) {
-			LOG.error("Error in message processing job", e);
-		}
 	}
 
-	private AsyncMessageJob<MsgType> processJobs() throws InterruptedException, ExecutionException {
-		AsyncMessageJob<MsgType> job = null;
+	private void processJobs() throws InterruptedException {
+		final List<AsyncMessageJob<MsgType>> jobs = messageJobs.take();
+		LOG.trace("[{}] Found {} jobs. There are {} batches remaining.", jobs.get(0).getKey().attachment(),
+				  jobs.size(), messageJobs.size());
+		final List<AsyncMessageJob<MsgType>> completed = new ArrayList<>(jobs.size());
+		final List<Optional<ByteBuffer>> results = new ArrayList<>(jobs.size());
+		int waited = 0;
 		try {
-			job = messageJobs.take();
-			LOG.trace("[{}] Found a job. There are {} remaining.", job.getKey().attachment(), messageJobs.size());
-			writeResponse(job, job.getMessageJob().get(500, TimeUnit.MILLISECONDS));
-			selector.wakeup();
+			for (; waited < jobs.size(); waited++) {
+				final AsyncMessageJob<MsgType> job = jobs.get(waited);
+				try {
+					results.add(job.getMessageJob().get(500, TimeUnit.MILLISECONDS));
+					completed.add(job);
+				}
+				catch (final ExecutionException e) {
+					LOG.error("Error in message processing job {}", job, e.getCause());
+				}
+				catch (final CancellationException e) {
+					LOG.debug("Message processing job {} was cancelled", job);
+				}
+			}
 		}
 		catch (final TimeoutException e) {
 			try {
 				LOG.debug("Waiting for job timed out, putting it back on the end of the queue");
-				messageJobs.put(job);
+				messageJobs.put(jobs.subList(waited, jobs.size()));
 			}
 			catch (final InterruptedException ie) {
 				LOG.info("Interrupted whilst returning unfinished job; the server is likely shutting down");
 				Thread.currentThread().interrupt();
 			}
 		}
-		return job;
-	}
-
-	private void writeResponse(final AsyncMessageJob<MsgType> job, final Optional<ByteBuffer> result) {
-		if (result.isPresent()) {
-			channelWriter.prepWrite(job.getKey(), job.getMessage(), result.get());
-		}
-		else if (acknowledgeVoids) {
-			LOG.trace("No return for call {}; Writing empty buffer back", job);
-			channelWriter.prepWrite(job.getKey(), job.getMessage(), ByteBuffer.allocate(0));
+		finally {
+			if (!completed.isEmpty()) {
+				responseWriter.writeResponses(completed, results);
+			}
 		}
 	}
 }
@@ -0,0 +1,362 @@
+package org.mjd.repro.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import org.mjd.repro.util.thread.Threads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link BufferPool} hands out direct, off-heap, {@link ByteBuffer}s for channel I/O and takes them back once they
+ * are finished with. Reading into, or writing from, a heap buffer makes the JDK copy through a temporary direct
+ * buffer on every call; pooling direct buffers avoids both the copy and the cost of allocating direct memory.
+ * </p>
+ * Buffers come in power-of-two size classes, from {@link #getMinBufferSize()} to {@link #getMaxBufferSize()}. A
+ * request is rounded up to the smallest class that fits it. Released buffers are cached per thread, up to a small
+ * number per class, and beyond that in a pool shared by all threads. A selector loop that borrows and returns a
+ * buffer on each read therefore reuses the same buffer without contending with other loops. Virtual threads, which
+ * typically run a single task and die, have no cache and use the shared pool.
+ * </p>
+ * The direct memory held by the pool, whether lent out or cached, never exceeds {@link #getMaxMemory()}. Once it is
+ * reached, and for requests larger than the largest class, {@link #acquire(int)} falls back to an unpooled heap
+ * buffer which {@link #release(ByteBuffer)} ignores.
+ * </p>
+ * The pool knows the buffers it allocated by identity, so it only ever takes back those: a buffer it did not allocate,
+ * a view of one it did, e.g. a {@link ByteBuffer#duplicate() duplicate} or {@link ByteBuffer#slice() slice}, and a
+ * buffer already released are all ignored. A pooled buffer that is lost, never released, no longer counts towards the
+ * cap once it is garbage collected. The buffers cached by a thread that has died are taken into the shared pool, and
+ * the thread let go, whenever another thread's cache is created, so short lived threads do not pile up, and once the
+ * cap is reached.
+ * </p>
+ * Metrics:
+ * <ul>
+ * <li>{@link #getHits()}: acquisitions served by a cached buffer</li>
+ * <li>{@link #getMisses()}: acquisitions that had to allocate</li>
+ * <li>{@link #getOutstanding()}: pooled buffers acquired and not yet released</li>
+ * <li>{@link #getPooledMemory()}: bytes of direct memory allocated by the pool</li>
+ * <li>{@link #getThreadCacheCount()}: threads holding a cache of buffers</li>
+ * </ul>
+ *
+ * @ThreadSafe buffers may be acquired and released from any thread. A buffer itself must only be used by one thread
+ *             at a time and must not be used once it has been released.
+ */
+public final class BufferPool {
+	private static final Logger LOG = LoggerFactory.getLogger(BufferPool.class);
+	/** Smallest size class, in bytes, of the default pool */
+	public static final int DEFAULT_MIN_BUFFER_SIZE = 256;
+	/** Largest size class, in bytes, of the default pool */
+	public static final int DEFAULT_MAX_BUFFER_SIZE = 1 << 20;
+	/** Cap, in bytes, on the direct memory of the default pool */
+	public static final long DEFAULT_MAX_MEMORY = 64L << 20;
+	/** Buffers of each size class cached per thread in the default pool */
+	public static final int DEFAULT_THREAD_CACHE_SIZE = 8;
+
+	private final int minShift;
+	private final int maxBufferSize;
+	private final long maxMemory;
+	private final int threadCacheSize;
+	private final Queue<ByteBuffer>[] shared;
+	private final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCaches;
+	/** Every thread's cache, so the caches of threads that have died can be reclaimed */
+	private final ConcurrentMap<Thread, ArrayDeque<ByteBuffer>[]> threadCacheOwners = new ConcurrentHashMap<>();
+	/** Every buffer allocated by this pool and not yet garbage collected, by identity */
+	private final Cache<ByteBuffer, Ownership> owned;
+	private final AtomicLong pooledMemory = new AtomicLong();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder outstanding = new LongAdder();
+
+	/**
+	 * Constructs a fully initialised {@link BufferPool} with the default size classes, memory cap and thread caches.
+	 */
+	public BufferPool() {
+		this(DEFAULT_MIN_BUFFER_SIZE, DEFAULT_MAX_BUFFER_SIZE, DEFAULT_MAX_MEMORY, DEFAULT_THREAD_CACHE_SIZE);
+	}
+
+	/**
+	 * Constructs a fully initialised {@link BufferPool}.
+	 *
+	 * @param minBufferSize   size of the smallest size class, a power of two
+	 * @param maxBufferSize   size of the largest size class, a power of two no smaller than {@code minBufferSize}
+	 * @param maxMemory       cap on the bytes of direct memory the pool allocates
+	 * @param threadCacheSize number of released buffers of each size class cached per thread, 0 for no thread caches
+	 */
+	@SuppressWarnings("unchecked")
+	public BufferPool(final int minBufferSize, final int maxBufferSize, final long maxMemory,
+					  final int threadCacheSize) {
+		if (Integer.bitCount(minBufferSize) != 1 || Integer.bitCount(maxBufferSize) != 1
+				|| minBufferSize > maxBufferSize) {
+			throw new IllegalArgumentException("Buffer sizes must be powers of two with min <= max: "
+											   + minBufferSize + ", " + maxBufferSize);
+		}
+		if (maxMemory < 0 || threadCacheSize < 0) {
+			throw new IllegalArgumentException("maxMemory and threadCacheSize cannot be negative: "
+											   + maxMemory + ", " + threadCacheSize);
+		}
+		this.minShift = Integer.numberOfTrailingZeros(minBufferSize);
+		this.maxBufferSize = maxBufferSize;
+		this.maxMemory = maxMemory;
+		this.threadCacheSize = threadCacheSize;
+		final int sizeClasses = Integer.numberOfTrailingZeros(maxBufferSize) - minShift + 1;
+		shared = new Queue[sizeClasses];
+		for (int i = 0; i < sizeClasses; i++) {
+			shared[i] = new ConcurrentLinkedQueue<>();
+		}
+		threadCaches = ThreadLocal.withInitial(() -> {
+			final ArrayDeque<ByteBuffer>[] caches = new ArrayDeque[sizeClasses];
+			for (int i = 0; i < sizeClasses; i++) {
+				caches[i] = new ArrayDeque<>(threadCacheSize);
+			}
+			reclaimDeadThreadCaches();
+			threadCacheOwners.put(Thread.currentThread(), caches);
+			return caches;
+		});
+		owned = CacheBuilder.newBuilder().weakKeys().removalListener(this::onCollected).build();
+	}
+
+	/**
+	 * Acquires a cleared buffer of at least {@code size} bytes. The buffer's capacity, and limit, may be larger than
+	 * {@code size}. It should be given back via {@link #release(ByteBuffer)} once finished with.
+	 *
+	 * @param size minimum number of bytes required
+	 * @return a direct buffer from the pool or, if the pool cannot provide one, an unpooled heap buffer
+	 */
+	public ByteBuffer acquire(final int size) {
+		if (size > maxBufferSize) {
+			misses.increment();
+			LOG.trace("{} bytes is larger than the largest size class, allocating an unpooled buffer", size);
+			return ByteBuffer.allocate(size);
+		}
+		final int sizeClass = sizeClassOf(size);
+		final ArrayDeque<ByteBuffer>[] caches = threadCaches();
+		ByteBuffer buffer = caches == null ? null : caches[sizeClass].poll();
+		if (buffer == null) {
+			buffer = shared[sizeClass].poll();
+		}
+		if (buffer != null) {
+			return lend(buffer);
+		}
+		final int capacity = 1 << (sizeClass + minShift);
+		if (!reserve(capacity)) {
+			buffer = reclaim(sizeClass);
+			if (buffer != null) {
+				return lend(buffer);
+			}
+			if (!reserve(capacity)) {
+				misses.increment();
+				LOG.trace("Pool memory cap of {} bytes reached, allocating an unpooled buffer", maxMemory);
+				return ByteBuffer.allocate(size);
+			}
+		}
+		misses.increment();
+		outstanding.increment();
+		final ByteBuffer allocated = ByteBuffer.allocateDirect(capacity);
+		owned.put(allocated, new Ownership(capacity));
+		return allocated;
+	}
+
+	/**
+	 * Gives a buffer obtained from {@link #acquire(int)} back to the pool. Unpooled buffers are ignored, so every
+	 * acquired buffer can be released regardless of where it came from. So are views of pooled buffers and buffers
+	 * already released, which the pool would otherwise lend to two owners at once.
+	 *
+	 * @param buffer the buffer to release, it must not be used again by the caller
+	 */
+	public void release(final ByteBuffer buffer) {
+		final Ownership ownership = owned.getIfPresent(buffer);
+		if (ownership == null) {
+			return;
+		}
+		if (!ownership.lent.compareAndSet(true, false)) {
+			LOG.warn("Ignoring a buffer of {} bytes released twice", buffer.capacity());
+			return;
+		}
+		outstanding.decrement();
+		buffer.clear();
+		final int sizeClass = sizeClassOf(buffer.capacity());
+		final ArrayDeque<ByteBuffer>[] caches = threadCaches();
+		if (caches != null && caches[sizeClass].size() < threadCacheSize) {
+			caches[sizeClass].push(buffer);
+		}
+		else {
+			shared[sizeClass].offer(buffer);
+		}
+	}
+
+	/**
+	 * Makes sure there are at least {@code size} bytes left in a buffer being written to. A buffer without them is
+	 * swapped for a larger one from the pool, with the bytes written so far, from 0 to it's position, copied across,
+	 * and released.
+	 *
+	 * @param buffer a buffer from {@link #acquire(int)} being written to; it must not be used again if it is swapped
+	 * @param size   the number of bytes about to be written
+	 * @return the given {@code buffer} if it has room, otherwise the larger buffer, positioned after the copied bytes
+	 */
+	public ByteBuffer ensureRemaining(final ByteBuffer buffer, final int size) {
+		if (buffer.remaining() >= size) {
+			return buffer;
+		}
+		final int required = Math.addExact(buffer.position(), size);
+		final ByteBuffer grown = acquire(Math.max(required, (int) Math.min(Integer.MAX_VALUE, buffer.capacity() * 2L)));
+		buffer.flip();
+		grown.put(buffer);
+		release(buffer);
+		LOG.trace("Grew a buffer of {} bytes to {} for {} more bytes", buffer.capacity(), grown.capacity(), size);
+		return grown;
+	}
+
+	/**
+	 * @param buffer a buffer from {@link #acquire(int)}
+	 * @return true if the buffer was allocated by this pool and must be released, false if it is an unpooled buffer or a
+	 *         view of a pooled one
+	 */
+	public boolean isPooled(final ByteBuffer buffer) {
+		return owned.getIfPresent(buffer) != null;
+	}
+
+	/** @return the size, in bytes, of the smallest size class */
+	public int getMinBufferSize() {
+		return 1 << minShift;
+	}
+
+	/** @return the size, in bytes, of the largest size class */
+	public int getMaxBufferSize() {
+		return maxBufferSize;
+	}
+
+	/** @return the cap on the bytes of direct memory this pool allocates */
+	public long getMaxMemory() {
+		return maxMemory;
+	}
+
+	/** @return the number of acquisitions served by a cached buffer */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/** @return the number of acquisitions that had to allocate a buffer, pooled or not */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/** @return the number of pooled buffers acquired and not yet released */
+	public long getOutstanding() {
+		return outstanding.sum();
+	}
+
+	/** @return the bytes of direct memory allocated by this pool, whether lent out or cached, and not yet collected */
+	public long getPooledMemory() {
+		return pooledMemory.get();
+	}
+
+	/** @return the number of threads holding a cache of buffers, including any that have died since one was created */
+	public int getThreadCacheCount() {
+		return threadCacheOwners.size();
+	}
+
+	@Override
+	public String toString() {
+		return "BufferPool [hits=" + getHits() + ", misses=" + getMisses() + ", outstanding=" + getOutstanding()
+				+ ", pooledMemory=" + getPooledMemory() + "/" + maxMemory + "]";
+	}
+
+	/**
+	 * @return the calling thread's caches, or null if it has none because it is a virtual thread, which would strand
+	 *         it's cached buffers when it ends, or the pool has no thread caches
+	 */
+	private ArrayDeque<ByteBuffer>[] threadCaches() {
+		if (threadCacheSize == 0 || Threads.isVirtual(Thread.currentThread())) {
+			return null;
+		}
+		return threadCaches.get();
+	}
+
+	private ByteBuffer lend(final ByteBuffer buffer) {
+		final Ownership ownership = owned.getIfPresent(buffer);
+		if (ownership != null) {
+			ownership.lent.set(true);
+		}
+		hits.increment();
+		outstanding.increment();
+		return buffer;
+	}
+
+	/**
+	 * Reclaims what it can once the memory cap is reached: the memory of lost buffers that have been garbage collected
+	 * and the cached buffers of threads that have died, which are moved to the shared pool.
+	 *
+	 * @param sizeClass the size class wanted
+	 * @return a buffer of the size class from the shared pool, or null if there is none
+	 */
+	private ByteBuffer reclaim(final int sizeClass) {
+		owned.cleanUp();
+		reclaimDeadThreadCaches();
+		return shared[sizeClass].poll();
+	}
+
+	/** Moves the cached buffers of threads that have died to the shared pool and lets go of the threads */
+	private void reclaimDeadThreadCaches() {
+		for (final Map.Entry<Thread, ArrayDeque<ByteBuffer>[]> entry : threadCacheOwners.entrySet()) {
+			// A thread that is no longer alive can no longer touch it's cache, so it's safe to drain from here
+			if (!entry.getKey().isAlive() && threadCacheOwners.remove(entry.getKey(), entry.getValue())) {
+				for (int i = 0; i < shared.length; i++) {
+					shared[i].addAll(entry.getValue()[i]);
+				}
+				LOG.debug("Reclaimed the buffer cache of dead thread {}", entry.getKey().getName());
+			}
+		}
+	}
+
+	private void onCollected(final RemovalNotification<ByteBuffer, Ownership> notification) {
+		if (notification.getCause() == RemovalCause.COLLECTED) {
+			final Ownership ownership = notification.getValue();
+			pooledMemory.addAndGet(-ownership.capacity);
+			if (ownership.lent.get()) {
+				outstanding.decrement();
+			}
+			LOG.debug("A pooled buffer of {} bytes was lost without being released", ownership.capacity);
+		}
+	}
+
+	private int sizeClassOf(final int size) {
+		if (size <= 1 << minShift) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - minShift;
+	}
+
+	private boolean reserve(final int capacity) {
+		long current;
+		do {
+			current = pooledMemory.get();
+			if (current + capacity > maxMemory) {
+				return false;
+			}
+		}
+		while (!pooledMemory.compareAndSet(current, current + capacity));
+		return true;
+	}
+
+	/** Whether a buffer allocated by the pool is lent out, kept apart from the buffer so it can be collected if lost */
+	private static final class Ownership {
+		private final int capacity;
+		private final AtomicBoolean lent = new AtomicBoolean(true);
+
+		Ownership(final int capacity) {
+			this.capacity = capacity;
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package org.mjd.repro.connection;
+
+import java.nio.channels.SelectionKey;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.mjd.repro.handlers.op.AcceptProtocol;
+import org.mjd.repro.readers.FrameDecoder;
+import org.mjd.repro.writers.Writer;
+
+/**
+ * A {@link Connection} holds the state of one client connection. The {@link AcceptProtocol} attaches one to the
+ * {@link SelectionKey} of every client it accepts so the read and write paths reach their state through
+ * {@link SelectionKey#attachment()} rather than by looking the channel up in shared maps.
+ * </p>
+ * It holds:
+ * <ul>
+ * <li>a numeric id, unique for the lifetime of the server</li>
+ * <li>the {@link FrameDecoder} of the frames read from the connection, which holds any partially read frame</li>
+ * <li>the queue of outbound {@link Writer}s waiting for the channel to become writable</li>
+ * <li>a lock-free queue of {@link Writer}s handed over by other threads, waiting to join the outbound queue</li>
+ * <li>counters of messages read, responses written and reads cut short by the read budget</li>
+ * </ul>
+ *
+ * @NotThreadSafe the state must only be used by the selector loop thread that serves the connection, apart from
+ *                {@link #queuePending(Writer)} which any thread may call. The counters may be read from other threads
+ *                but are then only approximate.
+ */
+public final class Connection {
+	private final long id;
+	private final Queue<Writer> outbound = new ArrayDeque<>();
+	private final Queue<Writer> pending = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean drainScheduled = new AtomicBoolean();
+	private FrameDecoder<?> decoder;
+	private volatile long messagesRead;
+	private volatile long responsesWritten;
+	private volatile long readYields;
+	private volatile long outboundBytes;
+	private volatile boolean readSuspended;
+	private volatile long readSuspensions;
+
+	/**
+	 * Constructs a fully initialised {@link Connection}.
+	 *
+	 * @param id the numeric id of this connection
+	 */
+	public Connection(final long id) {
+		this.id = id;
+	}
+
+	/**
+	 * @param key a client {@link SelectionKey} registered by an {@link AcceptProtocol}
+	 * @return the {@link Connection} attached to the given {@code key}
+	 */
+	public static Connection of(final SelectionKey key) {
+		return (Connection) key.attachment();
+	}
+
+	/** @return the numeric id of this connection */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * @param <MsgType> the type of message the decoder decodes
+	 * @return the {@link FrameDecoder} of this connection, or null if nothing has been read yet
+	 */
+	@SuppressWarnings("unchecked")
+	public <MsgType> FrameDecoder<MsgType> getDecoder() {
+		return (FrameDecoder<MsgType>) decoder;
+	}
+
+	/**
+	 * @param decoder the {@link FrameDecoder} for the frames read from this connection
+	 */
+	public void setDecoder(final FrameDecoder<?> decoder) {
+		this.decoder = decoder;
+	}
+
+	/** @return the {@link Writer}s waiting to write to this connection, in the order they were queued */
+	public Queue<Writer> getOutbound() {
+		return outbound;
+	}
+
+	/**
+	 * Hands a {@link Writer} over to the loop thread. Producers only contend with other producers writing to this
+	 * connection, never with those writing to other connections. The {@link Writer} waits, in order, until the loop
+	 * thread {@link #drainPending(Consumer) drains} it into the outbound queue.
+	 * </p>
+	 * May be called by any thread.
+	 *
+	 * @param writer the {@link Writer} for a response to this connection
+	 * @return true if the caller must schedule a drain on the loop thread, i.e., no drain is already due
+	 */
+	public boolean queuePending(final Writer writer) {
+		pending.add(writer);
+		return drainScheduled.compareAndSet(false, true);
+	}
+
+	/**
+	 * Hands every pending {@link Writer} to the given {@code consumer}, in the order they were queued. A
+	 * {@link Writer} queued whilst draining is either drained now or makes {@link #queuePending(Writer)} ask for
+	 * another drain.
+	 *
+	 * @param consumer receives each pending {@link Writer}
+	 * @return the number of {@link Writer}s drained
+	 */
+	public int drainPending(final Consumer<Writer> consumer) {
+		// Reset before draining so any writer queued from here on schedules another drain
+		drainScheduled.set(false);
+		int drained = 0;
+		Writer writer;
+		while ((writer = pending.poll()) != null) {
+			consumer.accept(writer);
+			drained++;
+		}
+		return drained;
+	}
+
+	/**
+	 * Releases, and then removes, every queued outbound and pending {@link Writer}. Used when the connection will
+	 * never be written to again, e.g., it has closed.
+	 */
+	public void discardOutbound() {
+		outbound.forEach(Writer::release);
+		outbound.clear();
+		drainPending(Writer::release);
+		outboundBytes = 0;
+	}
+
+	/**
+	 * Counts bytes queued to be written to this connection
+	 *
+	 * @param bytes the bytes queued
+	 */
+	public void outboundQueued(final long bytes) {
+		outboundBytes += bytes;
+	}
+
+	/**
+	 * Counts queued bytes that have been written to this connection
+	 *
+	 * @param bytes the bytes written
+	 */
+	public void outboundWritten(final long bytes) {
+		outboundBytes -= bytes;
+	}
+
+	/** Marks this connection as no longer read from, because too many bytes are queued to be written to it */
+	public void suspendReads() {
+		readSuspended = true;
+		readSuspensions++;
+	}
+
+	/** Marks this connection as read from again */
+	public void resumeReads() {
+		readSuspended = false;
+	}
+
+	/** Counts a message completely read from this connection */
+	public void messageRead() {
+		messagesRead++;
+	}
+
+	/**
+	 * Counts messages completely read from this connection
+	 *
+	 * @param count the number of messages read
+	 */
+	public void messagesRead(final int count) {
+		messagesRead += count;
+	}
+
+	/** Counts a response written to this connection */
+	public void responseWritten() {
+		responsesWritten++;
+	}
+
+	/** Counts a read event that stopped reading because it used up it's read budget */
+	public void readYielded() {
+		readYields++;
+	}
+
+	/** @return the number of messages completely read from this connection */
+	public long getMessagesRead() {
+		return messagesRead;
+	}
+
+	/** @return the number of responses written to this connection */
+	public long getResponsesWritten() {
+		return responsesWritten;
+	}
+
+	/** @return the number of read events that stopped reading because they used up their read budget */
+	public long getReadYields() {
+		return readYields;
+	}
+
+	/** @return the bytes queued to be written to this connection */
+	public long getOutboundBytes() {
+		return outboundBytes;
+	}
+
+	/** @return true if this connection is not being read from until it's queued outbound bytes are written */
+	public boolean isReadSuspended() {
+		return readSuspended;
+	}
+
+	/** @return the number of times reading from this connection was suspended */
+	public long getReadSuspensions() {
+		return readSuspensions;
+	}
+
+	@Override
+	public String toString() {
+		return "client " + id;
+	}
+}
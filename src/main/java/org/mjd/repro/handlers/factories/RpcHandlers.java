@@ -1,18 +1,31 @@
 package org.mjd.repro.handlers.factories;
 
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.function.Function;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang3.reflect.MethodUtils;
+import org.mjd.repro.async.CompletionMessageJobExecutor;
+import org.mjd.repro.buffer.BufferPool;
 import org.mjd.repro.handlers.message.MessageHandler;
 import org.mjd.repro.handlers.rpcrequest.RpcRequestInvoker;
 import org.mjd.repro.handlers.rpcrequest.SuppliedRpcRequestInvoker;
 import org.mjd.repro.message.RpcRequest;
+import org.mjd.repro.rpc.Inline;
 import org.mjd.repro.rpc.ReflectionInvoker;
 import org.mjd.repro.serialisation.Marshaller;
+import org.mjd.repro.util.thread.KeyedExecutor;
+import org.mjd.repro.util.thread.OrderedKeyedExecutor;
+import org.mjd.repro.util.thread.Threads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Factory and utility methods for RPC based {@link MessageHandler}s.
@@ -23,8 +36,17 @@ import org.mjd.repro.serialisation.Marshaller;
  *
  * MessageHandler&ltInteger&gt mh = singleThreadRpcInvoker(marshaller, targetObj);
  * </code></pre>
+ *
+ * The handlers' executors return {@link ListenableFuture}s, so a {@link CompletionMessageJobExecutor} can write each
+ * response as soon as it's call completes.
+ * </p>
+ * Methods of the RPC target annotated {@link Inline} are invoked on the selector thread, whichever executor the
+ * handler has, except by handlers whose target is supplied per request. The handlers with a fixed target throw an
+ * {@link IllegalArgumentException} if it annotates some, but not all, of the public overloads of a method.
  */
 public final class RpcHandlers {
+	private static final Logger LOG = LoggerFactory.getLogger(RpcHandlers.class);
+
 	private RpcHandlers() {
 		// static factories holder class
 	}
@@ -36,7 +58,8 @@ public final class RpcHandlers {
 	 * @return {@link MessageHandler} for {@link RpcRequest} messages.
 	 */
 	public static <R extends RpcRequest> MessageHandler<R> directRpcInvoker(final Marshaller marshaller, final Object rpcTarget) {
-		return new RpcRequestInvoker<>(MoreExecutors.newDirectExecutorService(), marshaller, new ReflectionInvoker(rpcTarget));
+		return new RpcRequestInvoker<>(MoreExecutors.newDirectExecutorService(), marshaller, new ReflectionInvoker(rpcTarget),
+				inlineMethodsOf(rpcTarget));
 	}
 
 	/**
@@ -49,7 +72,8 @@ public final class RpcHandlers {
 	 */
 	public static <R extends RpcRequest> MessageHandler<R> singleThreadRpcInvoker(final Marshaller marshaller, final Object rpcTarget) {
 		final ThreadFactory nameFactory = new ThreadFactoryBuilder().setNameFormat(RpcRequestInvoker.class.getName()).build();
-		return new RpcRequestInvoker<>(Executors.newSingleThreadExecutor(nameFactory), marshaller, new ReflectionInvoker(rpcTarget));
+		return new RpcRequestInvoker<>(MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor(nameFactory)),
+				marshaller, new ReflectionInvoker(rpcTarget), inlineMethodsOf(rpcTarget));
 	}
 
 	/**
@@ -63,8 +87,67 @@ public final class RpcHandlers {
 	public static <R extends RpcRequest> MessageHandler<R> newFixedThreadRpcInvoker(final Marshaller marshaller, final Object rpcTarget,
 			final int threadCount) {
 		final ThreadFactory nameFactory = new ThreadFactoryBuilder().setNameFormat(RpcRequestInvoker.class.getName()).build();
-		return new RpcRequestInvoker<>(Executors.newFixedThreadPool(threadCount, nameFactory), marshaller,
-				new ReflectionInvoker(rpcTarget));
+		return new RpcRequestInvoker<>(MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threadCount, nameFactory)),
+				marshaller, new ReflectionInvoker(rpcTarget), inlineMethodsOf(rpcTarget));
+	}
+
+	/**
+	 * Creates a new {@link MessageHandler} that invokes each {@link RpcRequest} method using reflection on a virtual
+	 * thread of it's own, when the runtime has virtual threads (Java 21 or later). Calls that block, e.g. on JDBC or
+	 * file I/O, then only hold a cheap virtual thread, so many thousands can be in flight without a pool sized for
+	 * them. On older runtimes the calls are invoked in a fixed size pool of {@code fallbackThreadCount} platform
+	 * threads, as with {@link #newFixedThreadRpcInvoker(Marshaller, Object, int)}.
+	 *
+	 * @param rpcTarget           the Obejct to execute methods upon.
+	 * @param fallbackThreadCount the number of threads in the pool used when there are no virtual threads
+	 * @return {@link MessageHandler} for {@link RpcRequest} messages.
+	 */
+	public static <R extends RpcRequest> MessageHandler<R> newVirtualThreadRpcInvoker(final Marshaller marshaller,
+			final Object rpcTarget, final int fallbackThreadCount) {
+		final ExecutorService executor = Threads.newVirtualThreadPerTaskExecutor().orElseGet(() -> {
+			LOG.info("Virtual threads are not available; RPC calls will use {} platform threads", fallbackThreadCount);
+			final ThreadFactory nameFactory = new ThreadFactoryBuilder().setNameFormat(RpcRequestInvoker.class.getName()).build();
+			return Executors.newFixedThreadPool(fallbackThreadCount, nameFactory);
+		});
+		return new RpcRequestInvoker<>(MoreExecutors.listeningDecorator(executor), marshaller, new ReflectionInvoker(rpcTarget),
+				inlineMethodsOf(rpcTarget));
+	}
+
+	/**
+	 * Creates a new {@link MessageHandler} that invokes {@link RpcRequest} methods using reflection in a fixed size thread
+	 * pool, in order for each client. Requests from the same connection are invoked one at a time, in the order they
+	 * were read, as with {@link #singleThreadRpcInvoker(Marshaller, Object)}, whilst requests from different connections
+	 * are invoked in parallel, as with {@link #newFixedThreadRpcInvoker(Marshaller, Object, int)}. No thread is
+	 * dedicated to a connection, see {@link OrderedKeyedExecutor}.
+	 *
+	 * @param rpcTarget   the Obejct to execute methods upon.
+	 * @param threadCount the number of threads to use in the thread pool
+	 * @return {@link MessageHandler} for {@link RpcRequest} messages.
+	 */
+	public static <R extends RpcRequest> MessageHandler<R> newConnectionOrderedRpcInvoker(final Marshaller marshaller,
+			final Object rpcTarget, final int threadCount) {
+		final ThreadFactory nameFactory = new ThreadFactoryBuilder().setNameFormat(RpcRequestInvoker.class.getName()).build();
+		return new RpcRequestInvoker<>(new OrderedKeyedExecutor(Executors.newFixedThreadPool(threadCount, nameFactory)),
+				marshaller, new ReflectionInvoker(rpcTarget), inlineMethodsOf(rpcTarget));
+	}
+
+	/**
+	 * Creates a new {@link MessageHandler} that invokes {@link RpcRequest} methods using reflection in a fixed size thread
+	 * pool, as {@link #newFixedThreadRpcInvoker(Marshaller, Object, int)}, but marshalls each response straight into a
+	 * buffer from the server's {@link BufferPool} and hands it to the connection's writer, so responses cost no new
+	 * arrays and skip the server's job executor. Responses are then written as their calls complete, so a client that
+	 * pipelines requests may get them out of order and must match them by request ID.
+	 *
+	 * @param rpcTarget   the Obejct to execute methods upon.
+	 * @param threadCount the number of threads to use in the thread pool
+	 * @return {@link MessageHandler} for {@link RpcRequest} messages.
+	 */
+	public static <R extends RpcRequest> MessageHandler<R> newPooledResponseRpcInvoker(final Marshaller marshaller,
+			final Object rpcTarget, final int threadCount) {
+		final ThreadFactory nameFactory = new ThreadFactoryBuilder().setNameFormat(RpcRequestInvoker.class.getName()).build();
+		return new RpcRequestInvoker<>(
+				KeyedExecutor.unordered(MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threadCount, nameFactory))),
+				marshaller, new ReflectionInvoker(rpcTarget), inlineMethodsOf(rpcTarget), true);
 	}
 
 	/**
@@ -80,7 +163,30 @@ public final class RpcHandlers {
 	public static <R extends RpcRequest> MessageHandler<R> newFixedThreadRpcInvoker(final Marshaller marshaller, final int threadCount,
 			final Function<R, Object> rpcTargetSupplier) {
 		final ThreadFactory nameFactory = new ThreadFactoryBuilder().setNameFormat(SuppliedRpcRequestInvoker.class.getName()).build();
-		return new SuppliedRpcRequestInvoker<>(Executors.newFixedThreadPool(threadCount, nameFactory), marshaller,
+		return new SuppliedRpcRequestInvoker<>(
+				MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threadCount, nameFactory)), marshaller,
 				new ReflectionInvoker(), rpcTargetSupplier);
 	}
+
+	/**
+	 * @param rpcTarget the Object RPC methods are executed upon
+	 * @return the names of the {@code rpcTarget}'s methods annotated {@link Inline}
+	 * @throws IllegalArgumentException if a method annotated {@link Inline} has a public overload that is not, as
+	 *                                  requests are matched to inline methods by name alone
+	 */
+	private static Set<String> inlineMethodsOf(final Object rpcTarget) {
+		final Set<String> inlineMethods = new HashSet<>();
+		for (final Method method : MethodUtils.getMethodsWithAnnotation(rpcTarget.getClass(), Inline.class)) {
+			inlineMethods.add(method.getName());
+		}
+		for (final Method method : rpcTarget.getClass().getMethods()) {
+			if (inlineMethods.contains(method.getName()) && !method.isBridge()
+					&& !method.isAnnotationPresent(Inline.class)) {
+				throw new IllegalArgumentException("Overload " + method + " must also be annotated @"
+												   + Inline.class.getSimpleName() + " as requests are matched to "
+												   + "inline methods by name");
+			}
+		}
+		return inlineMethods;
+	}
 }
@@ -3,9 +3,15 @@ package org.mjd.repro.handlers.message;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
 import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 
+import org.mjd.repro.buffer.BufferPool;
+import org.mjd.repro.handlers.response.FileRegion;
+import org.mjd.repro.handlers.response.ResponseBuffer;
 import org.mjd.repro.writers.ChannelWriter;
 
 /**
@@ -18,15 +24,46 @@ import org.mjd.repro.writers.ChannelWriter;
  */
 public interface MessageHandler<MsgType> {
 
+	/**
+	 * The result of a handler that has already handed it's response to the {@link ChannelWriter}, e.g., by
+	 * {@link ConnectionContext#respond(Object, FileRegion)}. Nothing more is written for the message, not even an
+	 * acknowledgement. Recognised by identity.
+	 */
+	ByteBuffer RESPONDED = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
 	/**
 	 * Thrown by implementations of {@link MessageHandler} if there is a {@link RuntimeException} handling the message.
 	 */
 	final class HandlerException extends RuntimeException {
 		private static final long serialVersionUID = 1L;
+		/** The message of the {@link HandlerException} for a message rejected because the server is overloaded */
+		public static final String OVERLOADED = "Server overloaded, message rejected";
+		/** The message of the {@link HandlerException} for a message not answered before it's deadline */
+		public static final String TIMED_OUT = "Deadline passed, message timed out";
 
 		public HandlerException(final String message, final Throwable cause) {
 			super(message, cause);
 		}
+
+		private HandlerException(final String message) {
+			super(message, null, false, false);
+		}
+
+		/**
+		 * @return a {@link HandlerException} for a message rejected because the server is overloaded, without a stack
+		 *         trace so it marshalls compactly
+		 */
+		public static HandlerException overloaded() {
+			return new HandlerException(OVERLOADED);
+		}
+
+		/**
+		 * @return a {@link HandlerException} for a message not answered before it's deadline, without a stack trace so
+		 *         it marshalls compactly
+		 */
+		public static HandlerException timedOut() {
+			return new HandlerException(TIMED_OUT);
+		}
 	}
 
 	/**
@@ -40,17 +77,33 @@ public interface MessageHandler<MsgType> {
 		private final SelectionKey key;
 		/** The {@link ChannelWriter} associated with the {@link #key} */
 		private final ChannelWriter<MsgType, SelectionKey> writer;
+		/** The server's {@link BufferPool}, for handlers to build responses in, or null */
+		private final BufferPool bufferPool;
 
 		/**
-		 * Constructs a fully initialised {@link ConnectionContext}
+		 * Constructs a fully initialised {@link ConnectionContext} without a {@link BufferPool}
 		 *
 		 * @param channelWriter the {@link ChannelWriter} associated with the {@link SelectionKey} and it's
 		 * 						{@link Channel}
 		 * @param key           the {@link SelectionKey} the message was decoded for.
 		 */
 		public ConnectionContext(final ChannelWriter<MsgType, SelectionKey> channelWriter, final SelectionKey key) {
+			this(channelWriter, key, null);
+		}
+
+		/**
+		 * Constructs a fully initialised {@link ConnectionContext}
+		 *
+		 * @param channelWriter the {@link ChannelWriter} associated with the {@link SelectionKey} and it's
+		 * 						{@link Channel}
+		 * @param key           the {@link SelectionKey} the message was decoded for.
+		 * @param bufferPool    the server's {@link BufferPool}, or null if handlers should not borrow from it
+		 */
+		public ConnectionContext(final ChannelWriter<MsgType, SelectionKey> channelWriter, final SelectionKey key,
+								 final BufferPool bufferPool) {
 			this.writer = channelWriter;
 			this.key = key;
+			this.bufferPool = bufferPool;
 		}
 
 		/**
@@ -66,6 +119,41 @@ public interface MessageHandler<MsgType> {
 		public ChannelWriter<MsgType, SelectionKey> getWriter() {
 			return writer;
 		}
+
+		/**
+		 * @return {@link #bufferPool}, which may be null
+		 */
+		public BufferPool getBufferPool() {
+			return bufferPool;
+		}
+
+		/**
+		 * Responds to the given {@code message} with a {@link ResponseBuffer}, e.g., one marshalled into a buffer
+		 * from the {@link #getBufferPool() pool}. The response is queued straight away, so it may overtake responses
+		 * to messages read before this one that are still being handled.
+		 *
+		 * @param message  the message responded to
+		 * @param response the response to write, which is released once written
+		 * @return the result for the {@link MessageHandler} to return, {@link MessageHandler#RESPONDED}
+		 */
+		public Optional<ByteBuffer> respond(final MsgType message, final ResponseBuffer response) {
+			writer.prepWrite(key, message, response);
+			return Optional.of(RESPONDED);
+		}
+
+		/**
+		 * Responds to the given {@code message} with a {@link FileRegion}, which is sent straight from the file to the
+		 * client's socket. The response is queued straight away, so it may overtake responses to messages read before
+		 * this one that are still being handled.
+		 *
+		 * @param message    the message responded to
+		 * @param fileRegion the {@link FileRegion} to send as the body of the response
+		 * @return the result for the {@link MessageHandler} to return, a completed {@link Future} of
+		 *         {@link MessageHandler#RESPONDED}
+		 */
+		public Future<Optional<ByteBuffer>> respond(final MsgType message, final FileRegion fileRegion) {
+			return CompletableFuture.completedFuture(respond(message, ResponseBuffer.of(fileRegion)));
+		}
 	}
 
 	/**
@@ -77,9 +165,48 @@ public interface MessageHandler<MsgType> {
 	 *
 	 * The {@link ByteBuffer} must be flipped to a readable state.
 	 *
+	 * A response served from a file, e.g., a snapshot or blob, need not be read onto the heap. Return
+	 * {@link ConnectionContext#respond(Object, FileRegion)} with a {@link FileRegion} of it and the file is sent
+	 * straight to the client's socket. Likewise a handler that marshalls it's response into a buffer from the
+	 * {@link ConnectionContext#getBufferPool() pool} returns {@link ConnectionContext#respond(Object, ResponseBuffer)}.
+	 *
 	 * @param connectionContext {@link ConnectionContext} associated with the given {@code message}
 	 * @param message           the message to handle
 	 * @return a Future containing an optional return value to write to the client that sent the message
 	 */
 	Future<Optional<ByteBuffer>> handle(ConnectionContext<MsgType> connectionContext, MsgType message);
+
+	/**
+	 * Handles a batch of messages that were read together from one connection, e.g. a client's pipelined requests.
+	 * Implementations that hand work to an executor can override this to run the whole batch as one task.
+	 * </p>
+	 * The default calls {@link #handle(ConnectionContext, Object)} for each message in turn.
+	 *
+	 * @param connectionContext {@link ConnectionContext} associated with the given {@code messages}
+	 * @param messages          the messages to handle, in the order they were read
+	 * @return a Future for each message, in the same order, as {@link #handle(ConnectionContext, Object)} would return
+	 */
+	default List<Future<Optional<ByteBuffer>>> handleBatch(final ConnectionContext<MsgType> connectionContext,
+														   final List<MsgType> messages) {
+		final List<Future<Optional<ByteBuffer>>> results = new ArrayList<>(messages.size());
+		for (final MsgType message : messages) {
+			results.add(handle(connectionContext, message));
+		}
+		return results;
+	}
+
+	/**
+	 * The response to a message that is rejected, without being handled, because the server is overloaded, see
+	 * {@link org.mjd.repro.handlers.routing.AdmissionControl}. It is written straight away, so it must be cheap to
+	 * build.
+	 * </p>
+	 * The default is an empty acknowledgement. Handlers whose clients wait on a reply to each message, e.g. RPC,
+	 * override this to reply with an error the client can recognise, e.g., {@link HandlerException#overloaded()}.
+	 *
+	 * @param message the message rejected
+	 * @return the response to write, the {@link ByteBuffer} flipped to a readable state, or empty to acknowledge it
+	 */
+	default Optional<ByteBuffer> overloaded(final MsgType message) {
+		return Optional.empty();
+	}
 }
@@ -0,0 +1,56 @@
+package org.mjd.repro.handlers.message;
+
+import java.nio.ByteBuffer;
+
+import org.mjd.repro.handlers.message.MessageHandler.ConnectionContext;
+
+/**
+ * A {@link StreamingMessageHandler} receives message bodies too large to be decoded into a single message. Instead of
+ * being decoded by the server's message factory, and routed to a {@link MessageHandler}, the body of any frame larger
+ * than the server's streaming threshold is handed to this handler in chunks, as it is read, so it never has to be held
+ * in memory as a whole.
+ * </p>
+ * For each streamed body the handler sees {@link #bodyStarted(ConnectionContext, int)}, then one or more
+ * {@link #bodyChunk(ConnectionContext, ByteBuffer)} calls in order, and then either
+ * {@link #bodyEnded(ConnectionContext)} or, if the connection closes part way through,
+ * {@link #bodyAborted(ConnectionContext)}. All calls are made on the selector loop thread serving the connection, so
+ * implementations should be quick, e.g., hand the chunk to a file channel or queue.
+ *
+ * @param <MsgType> the type of message the server decodes, used for the {@link ConnectionContext}
+ */
+public interface StreamingMessageHandler<MsgType> {
+
+	/**
+	 * Called when the header of a frame with a body over the streaming threshold has been read.
+	 *
+	 * @param connectionContext the {@link ConnectionContext} of the connection the body is read from
+	 * @param bodySize          the size of the whole body in bytes
+	 */
+	void bodyStarted(ConnectionContext<MsgType> connectionContext, int bodySize);
+
+	/**
+	 * Called with the next chunk of the body. The chunk is a read-only view of the server's read buffers and is only
+	 * valid for the duration of this call; copy out anything that must be kept.
+	 *
+	 * @param connectionContext the {@link ConnectionContext} of the connection the body is read from
+	 * @param chunk             the next bytes of the body, from it's position to it's limit
+	 */
+	void bodyChunk(ConnectionContext<MsgType> connectionContext, ByteBuffer chunk);
+
+	/**
+	 * Called once the last chunk of the body has been handed over.
+	 *
+	 * @param connectionContext the {@link ConnectionContext} of the connection the body was read from
+	 */
+	void bodyEnded(ConnectionContext<MsgType> connectionContext);
+
+	/**
+	 * Called instead of {@link #bodyEnded(ConnectionContext)} if the connection ends before the whole body is read.
+	 * By default nothing is done.
+	 *
+	 * @param connectionContext the {@link ConnectionContext} of the connection the body was read from
+	 */
+	default void bodyAborted(final ConnectionContext<MsgType> connectionContext) {
+		// Nothing to clean up
+	}
+}
@@ -6,7 +6,9 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.mjd.repro.connection.Connection;
 import org.mjd.repro.util.chain.AbstractHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,16 +22,20 @@ import static java.nio.channels.SelectionKey.OP_READ;
  * the given key is not in the acceptable state and valid, it is passed on to the next handler. If it is acceptable and
  * valid a {@link SocketChannel} will be created by accepting the connection on the server socker provided at
  * construction time. This client {@link SocketChannel} will be in non-blocking mode and registered with the
- * {@link Selector} for {@link SelectionKey#OP_READ}. A unique ID is attached to the key associated with thie new
- * reigstration.
+ * {@link Selector} for {@link SelectionKey#OP_READ}. A new {@link Connection}, with a unique ID, is attached to the key
+ * associated with thie new reigstration. IDs are unique across every {@link AcceptProtocol} so several can accept for
+ * one server.
+ * </p>
+ * Alternatively a {@link Registrar} can be provided, in which case the accepted client is handed to it rather than
+ * registered with the server channel's {@link Selector}. This allows clients to be served by other selectors.
  *
  * @param <K> the type of {@link SelectionKey} this handler handles.
  */
 public final class AcceptProtocol<K extends SelectionKey> extends AbstractHandler<K> {
 	private static final Logger LOG = LoggerFactory.getLogger(AcceptProtocol.class);
 	private final ServerSocketChannel serverChannel;
-	private final Selector selector;
-	private long conId;
+	private final Registrar registrar;
+	private static final AtomicLong conIds = new AtomicLong();
 	private Acceptor acceptor;
 
 	@FunctionalInterface
@@ -37,6 +43,15 @@ public final class AcceptProtocol<K extends SelectionKey> extends AbstractHandle
 		SelectableChannel accept(ServerSocketChannel serverSocketChannel) throws IOException;
 	}
 
+	/**
+	 * Registers an accepted, non-blocking, client channel for {@link SelectionKey#OP_READ} with a {@link Selector}
+	 * of the implementation's choosing.
+	 */
+	@FunctionalInterface
+	public interface Registrar {
+		void register(SelectableChannel clientChannel, Object attachment) throws IOException;
+	}
+
 	/**
 	 * Constructs a fully initialised {@link AcceptProtocol} for the given {@link ServerSocketChannel} that has been
 	 * registered with with given {@link Selector}.
@@ -49,9 +64,24 @@ public final class AcceptProtocol<K extends SelectionKey> extends AbstractHandle
 	}
 
 	public AcceptProtocol(final ServerSocketChannel channel, final Selector selector, final Acceptor acceptor) {
+		this(channel, acceptor, (client, attachment) -> client.register(selector, OP_READ, attachment));
+	}
+
+	/**
+	 * Constructs a fully initialised {@link AcceptProtocol} for the given {@link ServerSocketChannel}. Accepted clients
+	 * are handed to the given {@link Registrar}.
+	 *
+	 * @param channel   server channel this handler accepts connections for.
+	 * @param registrar the {@link Registrar} accepted clients are handed to.
+	 */
+	public AcceptProtocol(final ServerSocketChannel channel, final Registrar registrar) {
+		this(channel, (ssc) -> ssc.accept(), registrar);
+	}
+
+	public AcceptProtocol(final ServerSocketChannel channel, final Acceptor acceptor, final Registrar registrar) {
 		this.serverChannel = channel;
-		this.selector = selector;
 		this.acceptor = acceptor;
+		this.registrar = registrar;
 	}
 
 	@SuppressWarnings("resource") // SocketChannel is registered with selector
@@ -64,9 +94,9 @@ public final class AcceptProtocol<K extends SelectionKey> extends AbstractHandle
 				clientChannel = acceptor.accept(serverChannel);
 				if (clientChannel != null) {
 					clientChannel.configureBlocking(false);
-					clientChannel.register(selector, OP_READ, "client " + conId);
-					LOG.trace("Socket accepted for client {}", conId);
-					conId++;
+					final Connection connection = new Connection(conIds.getAndIncrement());
+					registrar.register(clientChannel, connection);
+					LOG.trace("Socket accepted for {}", connection);
 					return;
 				}
 				return;
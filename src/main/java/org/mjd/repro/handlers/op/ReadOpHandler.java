@@ -3,21 +3,24 @@ package org.mjd.repro.handlers.op;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SelectionKey;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
 
-import com.google.common.base.Joiner;
+import org.mjd.repro.buffer.BufferPool;
+import org.mjd.repro.connection.Connection;
 import org.mjd.repro.handlers.routing.MessageHandlerRouter;
 import org.mjd.repro.message.factory.MessageFactory;
-import org.mjd.repro.readers.MessageReader;
-import org.mjd.repro.readers.RequestReader;
+import org.mjd.repro.message.factory.MessageFactory.MessageCreationException;
+import org.mjd.repro.readers.FrameDecoder;
+import org.mjd.repro.readers.InvalidFrameException;
 import org.mjd.repro.util.chain.AbstractHandler;
 import org.mjd.repro.util.chain.Handler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import static org.mjd.repro.util.Mapper.findInMap;
 import static org.mjd.repro.util.SelectionKeys.closeChannel;
 
 /**
@@ -27,21 +30,36 @@ import static org.mjd.repro.util.SelectionKeys.closeChannel;
  * </p>
  * The {@link ReadOpHandler} is able to read and decoded messages from the {@link Channel} associated with a
  * {@link SelectionKey}. It is able to do this over 1 to n reads, for example, in non-blocking I/O. Once a message has
- * been decoded, it is reported back to the {@link MessageHandlerRouter} given at construction.
+ * been decoded, it is reported back to the {@link MessageHandlerRouter} given at construction. All the messages decoded
+ * in one read event are reported together, a lone message with
+ * {@link MessageHandlerRouter#routeToHandler(SelectionKey, Object)} and several, e.g. a client's pipelined requests,
+ * as a batch with {@link MessageHandlerRouter#routeBatch(SelectionKey, List)}.
  * </p>
- * Messages are decoded using the givein {@link MessageFactory}
+ * Messages are decoded using the givein {@link MessageFactory} by the {@link FrameDecoder} of the {@link Connection}
+ * attached to the key. A message that takes more than one read is held by that decoder until it is complete.
+ * </p>
+ * Each read is made into a direct buffer borrowed from a {@link BufferPool} for the duration of the read, so the
+ * channel fills it without the JDK copying through a temporary direct buffer.
+ * </p>
+ * So that one client sending as fast as it can does not starve the other clients of the same selector loop, each read
+ * event has a budget of bytes and of messages. Once either is used up the handler stops reading and moves on; any data
+ * still waiting in the socket keeps the key readable so it is read again on the next turn of the loop, after the other
+ * ready keys have had their turn. The budget is checked between reads, so a read event can overrun it by up to one
+ * receive buffer.
  *
  * @param <MsgType> the type of messages this read decodes.
  * @param <K> the type of {@link SelectionKey}
  */
 public final class ReadOpHandler<MsgType, K extends SelectionKey> extends AbstractHandler<K> {
 	private static final Logger LOG = LoggerFactory.getLogger(ReadOpHandler.class);
+	private static final int DEFAULT_RECEIVE_BUFFER_SIZE = 4096;
 
-	private final MessageFactory<MsgType> messageFactory;
+	private final Function<SelectionKey, FrameDecoder<MsgType>> decoderFactory;
 	private final MessageHandlerRouter<MsgType> msgHandler;
-	private final ByteBuffer bodyBuffer = ByteBuffer.allocate(4096);
-	private final Map<Channel, MessageReader<MsgType>> readers = new HashMap<>();
-	private ByteBuffer headerBuffer;
+	private final BufferPool bufferPool;
+	private final int receiveBufferSize;
+	private final long readBudgetBytes;
+	private final int readBudgetMessages;
 
 	/**
 	 * Constructs a ready to use {@link ReadOpHandler} for message types MsgType.
@@ -50,95 +68,162 @@ public final class ReadOpHandler<MsgType, K extends SelectionKey> extends Abstra
 	 * @param msgRouter    	 the {@link MessageHandlerRouter} decoded messages are forwarded to for routing to handlers
 	 */
 	public ReadOpHandler(final MessageFactory<MsgType> messageFactory, final MessageHandlerRouter<MsgType> msgRouter) {
-		this.messageFactory = messageFactory;
+		this(messageFactory, msgRouter, new BufferPool(), DEFAULT_RECEIVE_BUFFER_SIZE);
+	}
+
+	/**
+	 * Constructs a ready to use {@link ReadOpHandler} for message types MsgType that reads into buffers borrowed from
+	 * the given {@link BufferPool}.
+	 *
+	 * @param messageFactory    the {@link MessageFactory} used to decode messages from bytes read off the
+	 *                          {@link Channel}
+	 * @param msgRouter         the {@link MessageHandlerRouter} decoded messages are forwarded to for routing to
+	 *                          handlers
+	 * @param bufferPool        the {@link BufferPool} receive buffers are borrowed from
+	 * @param receiveBufferSize the size, in bytes, of the buffer each read is made into
+	 */
+	public ReadOpHandler(final MessageFactory<MsgType> messageFactory, final MessageHandlerRouter<MsgType> msgRouter,
+						 final BufferPool bufferPool, final int receiveBufferSize) {
+		this(msgRouter, key -> new FrameDecoder<>(String.valueOf(key.attachment()), messageFactory, bufferPool),
+			 bufferPool, receiveBufferSize);
+	}
+
+	/**
+	 * Constructs a ready to use {@link ReadOpHandler} for message types MsgType whose connections decode with
+	 * {@link FrameDecoder}s from the given {@code decoderFactory}, e.g., to limit the frame size or stream large
+	 * bodies.
+	 *
+	 * @param msgRouter         the {@link MessageHandlerRouter} decoded messages are forwarded to for routing to
+	 *                          handlers
+	 * @param decoderFactory    creates the {@link FrameDecoder} for a key when it is first read from
+	 * @param bufferPool        the {@link BufferPool} receive buffers are borrowed from
+	 * @param receiveBufferSize the size, in bytes, of the buffer each read is made into
+	 */
+	public ReadOpHandler(final MessageHandlerRouter<MsgType> msgRouter,
+						 final Function<SelectionKey, FrameDecoder<MsgType>> decoderFactory,
+						 final BufferPool bufferPool, final int receiveBufferSize) {
+		this(msgRouter, decoderFactory, bufferPool, receiveBufferSize, Long.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Constructs a ready to use {@link ReadOpHandler} for message types MsgType that stops reading a key once a read
+	 * event has read {@code readBudgetBytes} bytes or decoded {@code readBudgetMessages} messages, leaving the rest for
+	 * the next turn of the selector loop.
+	 *
+	 * @param msgRouter          the {@link MessageHandlerRouter} decoded messages are forwarded to for routing to
+	 *                           handlers
+	 * @param decoderFactory     creates the {@link FrameDecoder} for a key when it is first read from
+	 * @param bufferPool         the {@link BufferPool} receive buffers are borrowed from
+	 * @param receiveBufferSize  the size, in bytes, of the buffer each read is made into
+	 * @param readBudgetBytes    the bytes a read event may read before yielding
+	 * @param readBudgetMessages the messages a read event may decode before yielding
+	 */
+	public ReadOpHandler(final MessageHandlerRouter<MsgType> msgRouter,
+						 final Function<SelectionKey, FrameDecoder<MsgType>> decoderFactory,
+						 final BufferPool bufferPool, final int receiveBufferSize, final long readBudgetBytes,
+						 final int readBudgetMessages) {
+		this.decoderFactory = decoderFactory;
 		this.msgHandler = msgRouter;
+		this.bufferPool = bufferPool;
+		this.receiveBufferSize = receiveBufferSize;
+		this.readBudgetBytes = readBudgetBytes;
+		this.readBudgetMessages = readBudgetMessages;
 	}
 
 	@Override
 	public void handle(final K key) {
 		LOG.trace("[{}] - read op handler", key.attachment());
 		if (key.isReadable() && key.isValid()) {
-			final MessageReader<MsgType> msgReader = findInMap(readers, key.channel())
-														.or(() -> RequestReader.from(key, messageFactory));
-			createHeaderBuffer(msgReader);
-			clearReadBuffers();
+			final Connection connection = Connection.of(key);
+			FrameDecoder<MsgType> decoder = connection.getDecoder();
+			if (decoder == null) {
+				decoder = decoderFactory.apply(key);
+				connection.setDecoder(decoder);
+			}
+			final ByteBuffer receiveBuffer = bufferPool.acquire(receiveBufferSize);
+			final List<MsgType> decoded = new ArrayList<>();
+			boolean endOfStream;
 			try {
-				ByteBuffer[] unread = msgReader.read(headerBuffer, bodyBuffer);
-				processMessageReaderResults(key, msgReader);
-				while (thereIsUnreadData(unread)) {
-					unread = readUnreadData(key, unread);
-					// ^ Can a client hog the server here? There is a max buffer read.
-				}
+				endOfStream = readAndDecode(key, decoder, receiveBuffer, decoded);
 			}
-			catch (final IOException e) {
-				LOG.error("Error reading messages for {}.", key.attachment());
-				return;
+			catch (final InvalidFrameException | MessageCreationException e) {
+				LOG.error("[{}] Cannot decode messages, closing the connection: {}", key.attachment(), e.toString());
+				endOfStream = true;
+			}
+			finally {
+				// The decoder copies out any partial frame, nothing refers to the buffer once the read is decoded
+				bufferPool.release(receiveBuffer);
+			}
+			routeDecoded(key, decoded);
+			if (endOfStream) {
+				handleEndOfStream(key);
 			}
 		}
 		passOnToNextHandler(key);
 	}
 
 	/**
-	 * We lazily create the header buffer because it's size is given by {@link MessageReader#getHeaderSize()}
-	 * which we don't know until runtime.
+	 * Reads from the key's channel into the {@code receiveBuffer} and decodes it, again and again whilst each read
+	 * fills the buffer, that is, whilst the client may have sent more, and the read budget is not used up.
 	 *
-	 * @param msgReader a reader this handler uses to decode messages.
+	 * @param key           the readable {@link SelectionKey}
+	 * @param decoder       the {@link FrameDecoder} of the key's {@link Connection}
+	 * @param receiveBuffer the buffer to read into
+	 * @param decoded       receives the decoded messages
+	 * @return true if the client has closed it's end of the connection
 	 */
-	private void createHeaderBuffer(final MessageReader<MsgType> msgReader) {
-		if (headerBuffer == null) {
-			headerBuffer = ByteBuffer.allocate(msgReader.getHeaderSize());
+	private boolean readAndDecode(final SelectionKey key, final FrameDecoder<MsgType> decoder,
+								  final ByteBuffer receiveBuffer, final List<MsgType> decoded) {
+		final ReadableByteChannel channel = (ReadableByteChannel) key.channel();
+		long totalRead = 0;
+		int bytesRead;
+		do {
+			receiveBuffer.clear();
+			try {
+				bytesRead = channel.read(receiveBuffer);
+			}
+			catch (final IOException e) {
+				LOG.trace("[{}] Client channel disconnected in read. Ending stream.", key.attachment());
+				return true;
+			}
+			receiveBuffer.flip();
+			decoder.decode(receiveBuffer, decoded::add);
+			totalRead += Math.max(bytesRead, 0);
 		}
+		while (bytesRead == receiveBuffer.capacity() && withinBudget(key, totalRead, decoded.size()));
+		return bytesRead == -1;
 	}
 
-	private void processMessageReaderResults(final SelectionKey key, final MessageReader<MsgType> reader) {
-		if (reader.isEndOfStream()) {
-			handleEndOfStream(key);
+	private boolean withinBudget(final SelectionKey key, final long totalRead, final int decoded) {
+		if (totalRead < readBudgetBytes && decoded < readBudgetMessages) {
+			return true;
 		}
-		else if (reader.messageComplete()) {
-			handleCompleteMsg(reader, key);
-		}
-	}
-
-	private void handleCompleteMsg(final MessageReader<MsgType> reader, final SelectionKey key) {
-		LOG.debug("Passing message {} to handlers.", reader.getMessage().get());
-		msgHandler.routeToHandler(key, reader.getMessage().get());
-		readers.remove(key.channel());
-		LOG.trace("[{}] Reader is complete, removed it from reader jobs. " + "There are {} read jobs remaining. {}",
-				key.attachment(), readers.size(), Joiner.on(",").withKeyValueSeparator("=").join(readers));
+		LOG.trace("[{}] Read budget used, {} bytes and {} messages; yielding to other keys", key.attachment(),
+				  totalRead, decoded);
+		Connection.of(key).readYielded();
+		return false;
 	}
 
-	private ByteBuffer[] readUnreadData(final SelectionKey key, final ByteBuffer[] unread) throws IOException {
-		final ByteBuffer unreadHeader = unread[0];
-		final ByteBuffer unreadBody = unread[1];
-		final RequestReader<MsgType> followReader = RequestReader.from(key, messageFactory);
-		final ByteBuffer[] nextUnread = followReader.readPreloaded(unreadHeader, unreadBody);
-		processMessageReaderResults(key, followReader);
-		if (!followReader.messageComplete()) {
-			readers.put(key.channel(), followReader);
+	private void routeDecoded(final SelectionKey key, final List<MsgType> decoded) {
+		if (decoded.size() == 1) {
+			LOG.debug("Passing message {} to handlers.", decoded.get(0));
+			msgHandler.routeToHandler(key, decoded.get(0));
 		}
-		return nextUnread;
+		else if (!decoded.isEmpty()) {
+			LOG.debug("Passing a batch of {} messages to handlers.", decoded.size());
+			msgHandler.routeBatch(key, decoded);
+		}
+		Connection.of(key).messagesRead(decoded.size());
 	}
 
 	private void handleEndOfStream(final SelectionKey key) {
 		LOG.debug("{} end of stream.", key.attachment());
-		readers.remove(key.channel());
+		final Connection connection = Connection.of(key);
+		final FrameDecoder<MsgType> decoder = connection.getDecoder();
+		if (decoder != null) {
+			decoder.release();
+		}
+		connection.discardOutbound();
 		closeChannel(key);
 	}
-
-	private void clearReadBuffers() {
-		headerBuffer.clear();
-		bodyBuffer.clear();
-	}
-
-	/**
-	 * If the unread header buffer has data then a reader returned unread data.
-	 *
-	 * @param unread the header body {@link ByteBuffer} array.
-	 *
-	 * @return true if there is unread data.
-	 */
-	private static boolean thereIsUnreadData(final ByteBuffer[] unread) {
-		return unread[0].capacity() > 0;
-	}
-
 }
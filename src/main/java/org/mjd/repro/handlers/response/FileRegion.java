@@ -0,0 +1,104 @@
+package org.mjd.repro.handlers.response;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link FileRegion} is a response body that is a region of a file, sent to the client with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)} so the file's bytes go from the
+ * file system to the socket without ever being read onto the heap. A handler serving file or blob data hands one to
+ * it's connection's writer, see {@link ResponseBuffer#of(FileRegion)}, rather than returning the data in a buffer.
+ * </p>
+ * The file must not shrink whilst the region is being sent; if it does the connection is closed, as the client has
+ * been promised more bytes than are left.
+ *
+ * @ThreadSafe
+ */
+public final class FileRegion {
+	private static final Logger LOG = LoggerFactory.getLogger(FileRegion.class);
+	private final FileChannel file;
+	private final long position;
+	private final long count;
+	private final boolean owned;
+
+	private FileRegion(final FileChannel file, final long position, final long count, final boolean owned) {
+		if (position < 0 || count < 0 || count > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid region of " + count + " bytes at " + position);
+		}
+		this.file = file;
+		this.position = position;
+		this.count = count;
+		this.owned = owned;
+	}
+
+	/**
+	 * Creates a {@link FileRegion} of an open file. The caller keeps ownership of the {@code file}, which must stay
+	 * open until the region is sent.
+	 *
+	 * @param file     the file to send part of
+	 * @param position the position in the {@code file} the region starts at
+	 * @param count    the number of bytes in the region
+	 * @return a new {@link FileRegion}
+	 */
+	public static FileRegion of(final FileChannel file, final long position, final long count) {
+		return new FileRegion(file, position, count, false);
+	}
+
+	/**
+	 * Opens the whole of the file at the given {@code path} as a {@link FileRegion}. The file is closed once the
+	 * region is sent, or discarded.
+	 *
+	 * @param path the file to send
+	 * @return a new {@link FileRegion}
+	 * @throws IOException if the file cannot be opened
+	 */
+	public static FileRegion open(final Path path) throws IOException {
+		final FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new FileRegion(file, 0, file.size(), true);
+		}
+		catch (final IllegalArgumentException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/** @return the file the region is part of */
+	public FileChannel getFile() {
+		return file;
+	}
+
+	/** @return the position in the file the region starts at */
+	public long getPosition() {
+		return position;
+	}
+
+	/** @return the number of bytes in the region */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Closes the file if this {@link FileRegion} opened it, see {@link #open(Path)}
+	 */
+	public void release() {
+		if (owned) {
+			try {
+				file.close();
+			}
+			catch (final IOException e) {
+				LOG.warn("Error closing file of {}: {}", this, e.toString());
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "FileRegion[position=" + position + " count=" + count + "]";
+	}
+}
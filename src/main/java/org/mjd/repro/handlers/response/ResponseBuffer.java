@@ -0,0 +1,245 @@
+package org.mjd.repro.handlers.response;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.mjd.repro.buffer.BufferPool;
+import org.mjd.repro.writers.SizeHeaderWriter;
+
+/**
+ * A {@link ResponseBuffer} is a response on it's way to the wire that can have bytes prepended to it without copying
+ * it. The response is held as an ordered composite of buffer segments, each readable from it's position to it's
+ * limit, so the payload a handler returns is never copied to put a request ID or frame header in front of it.
+ * </p>
+ * Bytes are prepended into headroom: free space before the first segment's position that this {@link ResponseBuffer}
+ * owns. A payload buffer can be wrapped together with headroom it's producer reserved in front of it, see
+ * {@link #wrap(ByteBuffer, int)}, in which case prepended bytes are written in place and the response stays in one
+ * contiguous buffer. Without enough headroom a small segment is allocated in front of the payload, leaving headroom of
+ * it's own for anything prepended after, e.g., the {@link SizeHeaderWriter}'s frame header.
+ * </p>
+ * A payload borrowed from a {@link BufferPool}, see {@link #pooled(ByteBuffer, int, BufferPool)}, is given back to
+ * the pool by {@link #release()} once the response is written, or discarded.
+ * </p>
+ * A response can also end in a {@link FileRegion}, see {@link #of(FileRegion)}, which is sent from the file after the
+ * segments. Such a response can be prepended to like any other but cannot be flattened into, or replaced by, a single
+ * buffer, so a {@link ResponseRefiner} cannot refine it.
+ *
+ * @NotThreadSafe
+ */
+public final class ResponseBuffer {
+	/** Headroom a producer should reserve in front of a response, enough for a request ID and any frame header */
+	public static final int HEADROOM = 16;
+	/** Size of the segments allocated for prepended bytes, enough for a request ID and a frame header */
+	private static final int PREFIX_SEGMENT_SIZE = 32;
+	private ByteBuffer[] segments = new ByteBuffer[2];
+	private int count;
+	private int headroom;
+	private final FileRegion fileRegion;
+	private final BufferPool pool;
+	private final ByteBuffer pooledPayload;
+	private boolean released;
+
+	private ResponseBuffer(final ByteBuffer payload, final int headroom, final FileRegion fileRegion,
+						   final BufferPool pool) {
+		segments[0] = payload;
+		count = 1;
+		this.headroom = headroom;
+		this.fileRegion = fileRegion;
+		this.pool = pool;
+		this.pooledPayload = pool == null ? null : payload;
+	}
+
+	/**
+	 * @param payload the response, readable from it's position to it's limit
+	 * @return a {@link ResponseBuffer} of the given {@code payload}, without headroom
+	 */
+	public static ResponseBuffer wrap(final ByteBuffer payload) {
+		return new ResponseBuffer(payload, 0, null, null);
+	}
+
+	/**
+	 * @param payload  the response, readable from it's position to it's limit
+	 * @param headroom the number of bytes before the {@code payload}'s position that are free to be prepended into
+	 * @return a {@link ResponseBuffer} of the given {@code payload} and headroom
+	 */
+	public static ResponseBuffer wrap(final ByteBuffer payload, final int headroom) {
+		checkHeadroom(payload, headroom);
+		return new ResponseBuffer(payload, headroom, null, null);
+	}
+
+	/**
+	 * @param payload  the response, readable from it's position to it's limit, in a buffer borrowed from the
+	 *                 {@code pool}
+	 * @param headroom the number of bytes before the {@code payload}'s position that are free to be prepended into
+	 * @param pool     the {@link BufferPool} the {@code payload} is given back to by {@link #release()}
+	 * @return a {@link ResponseBuffer} of the given {@code payload} and headroom
+	 */
+	public static ResponseBuffer pooled(final ByteBuffer payload, final int headroom, final BufferPool pool) {
+		checkHeadroom(payload, headroom);
+		return new ResponseBuffer(payload, headroom, null, pool);
+	}
+
+	private static void checkHeadroom(final ByteBuffer payload, final int headroom) {
+		if (headroom < 0 || headroom > payload.position() || payload.isReadOnly() && headroom > 0) {
+			throw new IllegalArgumentException("Buffer " + payload + " cannot have " + headroom + " bytes of headroom");
+		}
+	}
+
+	/**
+	 * @param fileRegion the body of the response
+	 * @return a {@link ResponseBuffer} of the given {@link FileRegion}, with headroom for a request ID and frame header
+	 *         in front of it
+	 */
+	public static ResponseBuffer of(final FileRegion fileRegion) {
+		final ByteBuffer prefix = ByteBuffer.allocate(PREFIX_SEGMENT_SIZE);
+		prefix.position(PREFIX_SEGMENT_SIZE);
+		return new ResponseBuffer(prefix, PREFIX_SEGMENT_SIZE, fileRegion, null);
+	}
+
+	/**
+	 * Reserves {@code size} bytes in front of the response, in the headroom if there is enough, and returns them to be
+	 * written to.
+	 *
+	 * @param size the number of bytes to prepend
+	 * @return a buffer whose {@code size} bytes, from it's position to it's limit, are to be written with the
+	 *         prepended bytes
+	 */
+	public ByteBuffer prepend(final int size) {
+		if (headroom < size) {
+			final ByteBuffer segment = ByteBuffer.allocate(Math.max(size, PREFIX_SEGMENT_SIZE));
+			segment.position(segment.limit());
+			insertFirst(segment);
+			headroom = segment.capacity();
+		}
+		final ByteBuffer first = segments[0];
+		final int start = first.position() - size;
+		first.position(start);
+		headroom -= size;
+		final ByteBuffer prepended = first.duplicate();
+		prepended.limit(start + size);
+		return prepended;
+	}
+
+	/**
+	 * Prepends a long
+	 *
+	 * @param value the long to put in front of the response
+	 * @return this {@link ResponseBuffer}
+	 */
+	public ResponseBuffer prependLong(final long value) {
+		prepend(Long.BYTES).putLong(value);
+		return this;
+	}
+
+	/**
+	 * Prepends an int
+	 *
+	 * @param value the int to put in front of the response
+	 * @return this {@link ResponseBuffer}
+	 */
+	public ResponseBuffer prependInt(final int value) {
+		prepend(Integer.BYTES).putInt(value);
+		return this;
+	}
+
+	/** @return the number of bytes in the response, including any {@link FileRegion} */
+	public int remaining() {
+		long remaining = fileRegion == null ? 0 : fileRegion.getCount();
+		for (int i = 0; i < count; i++) {
+			remaining += segments[i].remaining();
+		}
+		return Math.toIntExact(remaining);
+	}
+
+	/** @return the number of bytes that can be prepended without allocating */
+	public int getHeadroom() {
+		return headroom;
+	}
+
+	/** @return the {@link FileRegion} the response ends in, or null if it is all in it's segments */
+	public FileRegion getFileRegion() {
+		return fileRegion;
+	}
+
+	/**
+	 * @return the segments of the response, in order, each readable from it's position to it's limit; any
+	 *         {@link FileRegion} follows them
+	 */
+	public ByteBuffer[] getSegments() {
+		return Arrays.copyOf(segments, count);
+	}
+
+	/**
+	 * The response as a single buffer, for code that cannot take segments, e.g., a {@link ResponseRefiner}. A response
+	 * in one segment is returned without copying, as it is when it has no headroom, or as a slice that starts at it's
+	 * position; a response in several segments is copied into a new buffer.
+	 *
+	 * @return the response, readable from position 0 to the limit
+	 * @throws IllegalStateException if the response ends in a {@link FileRegion}
+	 */
+	public ByteBuffer toByteBuffer() {
+		requireInMemory();
+		if (count == 1) {
+			final ByteBuffer only = segments[0];
+			return headroom == 0 && only.position() == 0 ? only : only.slice();
+		}
+		final ByteBuffer whole = ByteBuffer.allocate(remaining());
+		for (int i = 0; i < count; i++) {
+			whole.put(segments[i].duplicate());
+		}
+		whole.flip();
+		return whole;
+	}
+
+	/**
+	 * Replaces the whole response, e.g., with the result of a {@link ResponseRefiner}
+	 *
+	 * @param response the new response, readable from it's position to it's limit
+	 * @throws IllegalStateException if the response ends in a {@link FileRegion}
+	 */
+	public void replace(final ByteBuffer response) {
+		requireInMemory();
+		Arrays.fill(segments, 0, count, null);
+		segments[0] = response;
+		count = 1;
+		headroom = 0;
+	}
+
+	/**
+	 * Gives back anything the response holds once it has been written, or discarded: a pooled payload goes back to
+	 * it's {@link BufferPool} and a {@link FileRegion} is released. The response must not be used afterwards.
+	 * Releasing more than once does nothing.
+	 */
+	public void release() {
+		if (!released) {
+			released = true;
+			if (pool != null) {
+				pool.release(pooledPayload);
+			}
+			if (fileRegion != null) {
+				fileRegion.release();
+			}
+		}
+	}
+
+	private void requireInMemory() {
+		if (fileRegion != null) {
+			throw new IllegalStateException("A response ending in " + fileRegion + " cannot be held in one buffer");
+		}
+	}
+
+	private void insertFirst(final ByteBuffer segment) {
+		if (count == segments.length) {
+			segments = Arrays.copyOf(segments, count * 2);
+		}
+		System.arraycopy(segments, 0, segments, 1, count);
+		segments[0] = segment;
+		count++;
+	}
+
+	@Override
+	public String toString() {
+		return "ResponseBuffer[segments=" + count + " remaining=" + remaining() + " headroom=" + headroom
+				+ (fileRegion == null ? "" : " " + fileRegion) + "]";
+	}
+}
@@ -0,0 +1,39 @@
+package org.mjd.repro.handlers.response;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link ResponseBufferRefiner} refines a response in place, e.g., by prepending a request ID into it's
+ * {@link ResponseBuffer}, rather than returning a new buffer as a {@link ResponseRefiner} does. A chain of them adds
+ * no copies of the payload.
+ *
+ * @param <T> the type of message the response answers
+ */
+@FunctionalInterface
+public interface ResponseBufferRefiner<T> {
+
+	/**
+	 * Refines the response to the given {@code message}
+	 *
+	 * @param message  the message the response answers
+	 * @param response the response to refine
+	 */
+	void refine(T message, ResponseBuffer response);
+
+	/**
+	 * Adapts a {@link ResponseRefiner} so it can be chained with {@link ResponseBufferRefiner}s. The response is
+	 * handed to it as a single buffer, see {@link ResponseBuffer#toByteBuffer()}, and replaced by the buffer it
+	 * returns, once flipped.
+	 *
+	 * @param <T>     the type of message the response answers
+	 * @param refiner the {@link ResponseRefiner} to adapt
+	 * @return a {@link ResponseBufferRefiner} that delegates to the given {@code refiner}
+	 */
+	static <T> ResponseBufferRefiner<T> adapt(final ResponseRefiner<T> refiner) {
+		return (message, response) -> {
+			final ByteBuffer refined = refiner.execute(message, response.toByteBuffer());
+			refined.flip();
+			response.replace(refined);
+		};
+	}
+}
@@ -2,6 +2,7 @@ package org.mjd.repro.handlers.response.provided;
 
 import java.nio.ByteBuffer;
 
+import org.mjd.repro.handlers.response.ResponseBuffer;
 import org.mjd.repro.message.RequestWithArgs;
 
 public final class RpcRequestRefiners {
@@ -23,5 +24,15 @@ public final class RpcRequestRefiners {
 		public ByteBuffer requestId(RequestWithArgs rpcRequest, ByteBuffer buffer) {
 			return ByteBuffer.allocate(Long.BYTES + buffer.capacity()).putLong(rpcRequest.getId()).put(buffer);
 		}
+
+		/**
+		 * Prepends the RPC request ID to the given response in place, without copying it.
+		 *
+		 * @param rpcRequest the request the response answers
+		 * @param response   the response to prepend the request's ID to
+		 */
+		public void requestIdInPlace(final RequestWithArgs rpcRequest, final ResponseBuffer response) {
+			response.prependLong(rpcRequest.getId());
+		}
 	}
 }
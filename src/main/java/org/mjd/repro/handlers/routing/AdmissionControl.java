@@ -0,0 +1,312 @@
+package org.mjd.repro.handlers.routing;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.mjd.repro.handlers.message.MessageHandler;
+
+/**
+ * Bounds the number of messages a server has in flight, that is, handed to their {@link MessageHandler} but not yet
+ * completed, whether queued on the handler's executor or running. There is a limit for the whole server and, if set,
+ * for each handler. A message over either limit is not handled at all: the {@link SuppliedMsgHandlerRouter} replies at
+ * once with the handler's {@link MessageHandler#overloaded(Object) overloaded} response, so the client can back off,
+ * and the queues behind the handlers stay bounded however hard the server is pushed.
+ * </p>
+ * The limit for the whole server may instead be a {@link GradientLimit}, which adapts to the latency of the messages
+ * completed, from admission to completion of their {@link Future}, so the server sheds load when it's handlers slow
+ * down and takes more once they speed up.
+ * </p>
+ * The messages in flight and the messages rejected, overall and for each handler, are exposed for monitoring. One
+ * {@link AdmissionControl} is shared by every selector loop of a server.
+ *
+ * @ThreadSafe
+ */
+public final class AdmissionControl {
+	private final int maxInFlight;
+	private final GradientLimit gradientLimit;
+	private final Map<String, Integer> handlerLimits;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final LongAdder rejections = new LongAdder();
+	private final ConcurrentMap<String, HandlerCounts> handlerCounts = new ConcurrentHashMap<>();
+
+	private AdmissionControl(final Builder builder) {
+		this.maxInFlight = builder.maxInFlight;
+		this.gradientLimit = builder.gradientLimit;
+		this.handlerLimits = new HashMap<>(builder.handlerLimits);
+	}
+
+	/** @return a new {@link Builder}, without limits */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Admits a message for the given handler if neither the server nor the handler is at it's limit. An admitted
+	 * message must be {@link #release(String) released} once handled.
+	 *
+	 * @param handlerId the ID of the {@link MessageHandler} the message is routed to
+	 * @return true if the message is admitted, false if it is rejected
+	 */
+	public boolean tryAdmit(final String handlerId) {
+		final HandlerCounts handler = countsFor(handlerId);
+		if (inFlight.incrementAndGet() > getLimit()) {
+			inFlight.decrementAndGet();
+			reject(handler);
+			return false;
+		}
+		if (handler.inFlight.incrementAndGet() > handler.limit) {
+			handler.inFlight.decrementAndGet();
+			inFlight.decrementAndGet();
+			reject(handler);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Releases a message admitted by {@link #tryAdmit(String)}
+	 *
+	 * @param handlerId the ID of the {@link MessageHandler} the message was routed to
+	 */
+	public void release(final String handlerId) {
+		countsFor(handlerId).inFlight.decrementAndGet();
+		inFlight.decrementAndGet();
+	}
+
+	/**
+	 * Releases a message admitted by {@link #tryAdmit(String)} once it's handling completes, sampling the time it took
+	 * since {@code admitted} for the {@link GradientLimit}, if there is one. Timing from before the message is handed
+	 * to it's handler counts work a handler does before it returns, e.g., inline, as well as the wait for the
+	 * {@code job}. A {@link ListenableFuture} or {@link CompletableFuture} is released by callback. Any other
+	 * {@link Future} is wrapped so it is released when it's result is first got, which is how every job executor
+	 * learns it has completed.
+	 *
+	 * @param handlerId the ID of the {@link MessageHandler} the message was routed to
+	 * @param admitted  the {@link System#nanoTime()} at which the message was admitted, before it was handled
+	 * @param job       the {@link Future} of the message's handling
+	 * @return the {@link Future} to hand on in place of the {@code job}
+	 */
+	public Future<Optional<ByteBuffer>> releaseOnCompletion(final String handlerId, final long admitted,
+															final Future<Optional<ByteBuffer>> job) {
+		if (job.isDone()) {
+			complete(handlerId, admitted);
+			return job;
+		}
+		if (job instanceof ListenableFuture) {
+			((ListenableFuture<?>) job).addListener(() -> complete(handlerId, admitted), MoreExecutors.directExecutor());
+			return job;
+		}
+		if (job instanceof CompletableFuture) {
+			((CompletableFuture<?>) job).whenComplete((result, failure) -> complete(handlerId, admitted));
+			return job;
+		}
+		return new ReleasingFuture(job, () -> complete(handlerId, admitted));
+	}
+
+	/** @return the number of messages admitted but not yet completed, across every handler */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @param handlerId the ID of a {@link MessageHandler}
+	 * @return the number of messages admitted for the handler but not yet completed
+	 */
+	public int getInFlight(final String handlerId) {
+		return countsFor(handlerId).inFlight.get();
+	}
+
+	/** @return the number of messages rejected, across every handler */
+	public long getRejections() {
+		return rejections.sum();
+	}
+
+	/**
+	 * @param handlerId the ID of a {@link MessageHandler}
+	 * @return the number of messages for the handler that were rejected
+	 */
+	public long getRejections(final String handlerId) {
+		return countsFor(handlerId).rejections.sum();
+	}
+
+	/** @return the most messages that may ever be in flight across every handler */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * @return the current limit on messages in flight across every handler, which adapts if there is a
+	 *         {@link GradientLimit}
+	 */
+	public int getLimit() {
+		return gradientLimit == null ? maxInFlight : Math.min(maxInFlight, gradientLimit.getLimit());
+	}
+
+	/** @return the {@link GradientLimit} the limit across every handler adapts by, or null if it is fixed */
+	public GradientLimit getGradientLimit() {
+		return gradientLimit;
+	}
+
+	private void complete(final String handlerId, final long admitted) {
+		if (gradientLimit != null) {
+			gradientLimit.onSample(System.nanoTime() - admitted, inFlight.get());
+		}
+		release(handlerId);
+	}
+
+	private void reject(final HandlerCounts handler) {
+		rejections.increment();
+		handler.rejections.increment();
+	}
+
+	private HandlerCounts countsFor(final String handlerId) {
+		final HandlerCounts counts = handlerCounts.get(handlerId);
+		return counts != null ? counts : handlerCounts.computeIfAbsent(handlerId, id ->
+				new HandlerCounts(handlerLimits.getOrDefault(id, Integer.MAX_VALUE)));
+	}
+
+	/** In flight and rejected counts of one handler */
+	private static final class HandlerCounts {
+		private final int limit;
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final LongAdder rejections = new LongAdder();
+
+		HandlerCounts(final int limit) {
+			this.limit = limit;
+		}
+	}
+
+	/** A {@link Future} that runs a release action the first time it's result, or failure, is got */
+	private static final class ReleasingFuture implements Future<Optional<ByteBuffer>> {
+		private final Future<Optional<ByteBuffer>> job;
+		private final Runnable release;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		ReleasingFuture(final Future<Optional<ByteBuffer>> job, final Runnable release) {
+			this.job = job;
+			this.release = release;
+		}
+
+		@Override
+		public Optional<ByteBuffer> get() throws InterruptedException, ExecutionException {
+			try {
+				return job.get();
+			}
+			finally {
+				releaseIfDone();
+			}
+		}
+
+		@Override
+		public Optional<ByteBuffer> get(final long timeout, final TimeUnit unit)
+				throws InterruptedException, ExecutionException, TimeoutException {
+			try {
+				return job.get(timeout, unit);
+			}
+			finally {
+				releaseIfDone();
+			}
+		}
+
+		@Override
+		public boolean cancel(final boolean mayInterruptIfRunning) {
+			try {
+				return job.cancel(mayInterruptIfRunning);
+			}
+			finally {
+				releaseIfDone();
+			}
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return job.isCancelled();
+		}
+
+		@Override
+		public boolean isDone() {
+			return job.isDone();
+		}
+
+		private void releaseIfDone() {
+			if (job.isDone() && released.compareAndSet(false, true)) {
+				release.run();
+			}
+		}
+	}
+
+	/**
+	 * Builder for {@link AdmissionControl}.
+	 *
+	 * @NotThreadSafe
+	 */
+	public static final class Builder {
+		private int maxInFlight = Integer.MAX_VALUE;
+		private GradientLimit gradientLimit;
+		private final Map<String, Integer> handlerLimits = new HashMap<>();
+
+		private Builder() {
+			// Use AdmissionControl.builder()
+		}
+
+		/**
+		 * Sets the limit on messages in flight across every handler
+		 *
+		 * @param limit the most messages in flight, at least 1
+		 * @return this {@link Builder}
+		 */
+		public Builder maxInFlight(final int limit) {
+			if (limit < 1) {
+				throw new IllegalArgumentException("The in flight limit must be positive: " + limit);
+			}
+			this.maxInFlight = limit;
+			return this;
+		}
+
+		/**
+		 * Sets a {@link GradientLimit} that adapts the limit on messages in flight across every handler to their
+		 * latency. The {@link #maxInFlight(int) fixed limit}, if set, still caps it.
+		 *
+		 * @param limit the {@link GradientLimit}, which is not shared with another {@link AdmissionControl}
+		 * @return this {@link Builder}
+		 */
+		public Builder adaptiveLimit(final GradientLimit limit) {
+			this.gradientLimit = limit;
+			return this;
+		}
+
+		/**
+		 * Sets the limit on messages in flight for one handler
+		 *
+		 * @param handlerId the ID of the {@link MessageHandler}, as returned by the server's handler router
+		 * @param limit     the most messages in flight for the handler, at least 1
+		 * @return this {@link Builder}
+		 */
+		public Builder maxInFlight(final String handlerId, final int limit) {
+			if (limit < 1) {
+				throw new IllegalArgumentException("The in flight limit must be positive: " + limit);
+			}
+			handlerLimits.put(handlerId, limit);
+			return this;
+		}
+
+		/** @return a new {@link AdmissionControl} */
+		public AdmissionControl build() {
+			return new AdmissionControl(this);
+		}
+	}
+}
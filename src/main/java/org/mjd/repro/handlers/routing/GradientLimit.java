@@ -0,0 +1,105 @@
+package org.mjd.repro.handlers.routing;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A limit on messages in flight that adapts to the latency of the messages completed, so an {@link AdmissionControl}
+ * need not be given a fixed limit up front. It follows the gradient algorithm, comparing a short term average of the
+ * round trip time, from admission to completion, with a long term average standing in for the time without load.
+ * </p>
+ * While the short term RTT stays within {@link #TOLERANCE} of the long term one the limit grows by about the square
+ * root of itself, probing for more throughput. Once it rises above, e.g. because the target of an RPC slows down and
+ * calls queue, the limit shrinks in proportion, down to half at a time, so load is shed before queues build. When the
+ * short term RTT falls well below the long term one, e.g. once the target speeds up again, the long term RTT decays
+ * towards it so the limit can recover. Samples taken while less than half the limit is in use do not change it, as
+ * they say nothing about how much more the server could take.
+ * </p>
+ * The limit and both RTT estimates are exposed for monitoring.
+ *
+ * @ThreadSafe
+ */
+public final class GradientLimit {
+	/** How far the short term RTT may rise above the long term RTT before the limit shrinks */
+	public static final double TOLERANCE = 1.5;
+	private static final double SMOOTHING = 0.2;
+	private static final double SHORT_RTT_SMOOTHING = 0.2;
+	private static final int LONG_RTT_WINDOW = 600;
+	private static final double LONG_RTT_DECAY = 0.95;
+	private final int minLimit;
+	private final int maxLimit;
+	private double limit;
+	private double shortRtt;
+	private double longRtt;
+	private long samples;
+	private volatile int currentLimit;
+	private volatile long currentShortRtt;
+	private volatile long currentLongRtt;
+
+	/**
+	 * Constructs a {@link GradientLimit} that starts at {@code initialLimit}
+	 *
+	 * @param initialLimit the limit before any latency is sampled
+	 * @param minLimit     the limit never falls below this, at least 1
+	 * @param maxLimit     the limit never rises above this
+	 */
+	public GradientLimit(final int initialLimit, final int minLimit, final int maxLimit) {
+		if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+			throw new IllegalArgumentException("Limits must satisfy 1 <= min <= initial <= max: " + minLimit + ", "
+											   + initialLimit + ", " + maxLimit);
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.limit = initialLimit;
+		this.currentLimit = initialLimit;
+	}
+
+	/**
+	 * Adapts the limit to the round trip time of a message that has completed
+	 *
+	 * @param rttNanos the nanoseconds from the message's admission to it's completion
+	 * @param inFlight the messages in flight, including this one, when it completed
+	 */
+	public synchronized void onSample(final long rttNanos, final int inFlight) {
+		final double rtt = Math.max(1, rttNanos);
+		if (samples++ == 0) {
+			shortRtt = rtt;
+			longRtt = rtt;
+		}
+		else {
+			shortRtt += (rtt - shortRtt) * SHORT_RTT_SMOOTHING;
+			longRtt += (rtt - longRtt) / Math.min(samples, LONG_RTT_WINDOW);
+		}
+		if (longRtt / shortRtt > 2) {
+			longRtt *= LONG_RTT_DECAY;
+		}
+		if (inFlight >= limit / 2) {
+			final double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+			final double newLimit = limit * gradient + Math.sqrt(limit);
+			limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+		}
+		currentLimit = (int) limit;
+		currentShortRtt = (long) shortRtt;
+		currentLongRtt = (long) longRtt;
+	}
+
+	/** @return the current limit on messages in flight */
+	public int getLimit() {
+		return currentLimit;
+	}
+
+	/**
+	 * @param unit the {@link TimeUnit} to return the RTT in
+	 * @return the short term average round trip time, 0 before any is sampled
+	 */
+	public long getRtt(final TimeUnit unit) {
+		return unit.convert(currentShortRtt, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param unit the {@link TimeUnit} to return the RTT in
+	 * @return the long term average round trip time, taken as the RTT without load, 0 before any is sampled
+	 */
+	public long getNoLoadRtt(final TimeUnit unit) {
+		return unit.convert(currentLongRtt, TimeUnit.NANOSECONDS);
+	}
+}
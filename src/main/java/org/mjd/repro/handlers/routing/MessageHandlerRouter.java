@@ -1,6 +1,7 @@
 package org.mjd.repro.handlers.routing;
 
 import java.nio.channels.SelectionKey;
+import java.util.List;
 
 import org.mjd.repro.handlers.message.MessageHandler;
 
@@ -18,4 +19,19 @@ public interface MessageHandlerRouter<MsgType> {
 	 * @param message the message to route
 	 */
 	void routeToHandler(SelectionKey key, MsgType message);
+
+	/**
+	 * Route the given {@code messages}, all read from the same {@link SelectionKey} in one go, to the necessary
+	 * handlers. Routers that can should hand the batch on as a whole rather than message by message.
+	 * </p>
+	 * The default routes each message in turn with {@link #routeToHandler(SelectionKey, Object)}.
+	 *
+	 * @param key      the {@link SelectionKey} the messages originated from
+	 * @param messages the messages to route, in the order they were read
+	 */
+	default void routeBatch(final SelectionKey key, final List<MsgType> messages) {
+		for (final MsgType message : messages) {
+			routeToHandler(key, message);
+		}
+	}
 }
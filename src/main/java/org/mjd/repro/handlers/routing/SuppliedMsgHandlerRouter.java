@@ -2,13 +2,17 @@ package org.mjd.repro.handlers.routing;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.function.Function;
 
 import org.mjd.repro.async.AsyncMessageJob;
 import org.mjd.repro.async.AsyncMessageJobExecutor;
+import org.mjd.repro.buffer.BufferPool;
 import org.mjd.repro.handlers.message.MessageHandler;
 import org.mjd.repro.handlers.message.MessageHandler.ConnectionContext;
 import org.mjd.repro.writers.ChannelWriter;
@@ -22,6 +26,20 @@ import org.slf4j.LoggerFactory;
  *
  * It's is provided with a source of identifiable {@link MessageHandler}s, a {@link ChannelWriter}, and an
  * {@link AsyncMessageJobExecutor} at construction time.
+ * </p>
+ * A batch of messages, see {@link #routeBatch(SelectionKey, List)}, is split into runs of consecutive messages routed
+ * to the same {@link MessageHandler}. Each run goes to it's handler's
+ * {@link MessageHandler#handleBatch(ConnectionContext, List)} and on to the {@link AsyncMessageJobExecutor} as one
+ * batch, so the order of the messages is kept.
+ * </p>
+ * Given an {@link AdmissionControl}, a message is only handed to it's handler if admitted. A message that is not is
+ * answered at once with it's handler's {@link MessageHandler#overloaded(Object) overloaded} response and the handler
+ * never sees it. An admitted message is released once the {@link Future} of it's handling completes.
+ * </p>
+ * A job that has already completed by the time it's handler returns, with a response the handler has already handed to
+ * the {@link ChannelWriter}, i.e., {@link MessageHandler#RESPONDED}, is not passed to the
+ * {@link AsyncMessageJobExecutor}, as there is nothing left for it to do. So a handler that answers cheap messages
+ * inline, on the selector thread, costs no hand over to another thread at all.
  *
  * @param <MsgType> the type of message this router handles.
  *
@@ -33,6 +51,8 @@ public final class SuppliedMsgHandlerRouter<MsgType> implements MessageHandlerRo
 	private final Map<String, MessageHandler<MsgType>> msgHandlers;
 	private final ChannelWriter<MsgType, SelectionKey> channelWriter;
 	private final AsyncMessageJobExecutor<MsgType> asyncMsgJobExecutor;
+	private final BufferPool bufferPool;
+	private final AdmissionControl admissionControl;
 
 	/**
 	 * Constructs a fully initialised {@link SuppliedMsgHandlerRouter} for types MsgType.
@@ -47,10 +67,51 @@ public final class SuppliedMsgHandlerRouter<MsgType> implements MessageHandlerRo
 									final Map<String, MessageHandler<MsgType>> msgHandlers,
 									final ChannelWriter<MsgType, SelectionKey> channelWriter,
 									final AsyncMessageJobExecutor<MsgType> asyncMsgJobExecutor) {
+		this(handlerRouter, msgHandlers, channelWriter, asyncMsgJobExecutor, null);
+	}
+
+	/**
+	 * Constructs a fully initialised {@link SuppliedMsgHandlerRouter} for types MsgType whose handlers can build their
+	 * responses in buffers from the given {@link BufferPool}, see {@link ConnectionContext#getBufferPool()}.
+	 *
+	 * @param handlerRouter       the {@link Function} that returns the ID of a {@link MessageHandler} to route the
+	 * 							  message to
+	 * @param msgHandlers         a Map of Identifiable {@link MessageHandler} objects
+	 * @param channelWriter       {@link ChannelWriter} that can respond to the message sender
+	 * @param asyncMsgJobExecutor the {@link AsyncMessageJobExecutor} that processes handled messages
+	 * @param bufferPool          the {@link BufferPool} handed to handlers in their {@link ConnectionContext}, or null
+	 */
+	public SuppliedMsgHandlerRouter(final Function<MsgType, String> handlerRouter,
+									final Map<String, MessageHandler<MsgType>> msgHandlers,
+									final ChannelWriter<MsgType, SelectionKey> channelWriter,
+									final AsyncMessageJobExecutor<MsgType> asyncMsgJobExecutor,
+									final BufferPool bufferPool) {
+		this(handlerRouter, msgHandlers, channelWriter, asyncMsgJobExecutor, bufferPool, null);
+	}
+
+	/**
+	 * Constructs a fully initialised {@link SuppliedMsgHandlerRouter} for types MsgType that only hands a message to
+	 * it's handler if the given {@link AdmissionControl} admits it.
+	 *
+	 * @param handlerRouter       the {@link Function} that returns the ID of a {@link MessageHandler} to route the
+	 * 							  message to
+	 * @param msgHandlers         a Map of Identifiable {@link MessageHandler} objects
+	 * @param channelWriter       {@link ChannelWriter} that can respond to the message sender
+	 * @param asyncMsgJobExecutor the {@link AsyncMessageJobExecutor} that processes handled messages
+	 * @param bufferPool          the {@link BufferPool} handed to handlers in their {@link ConnectionContext}, or null
+	 * @param admissionControl    the {@link AdmissionControl} that bounds the messages in flight, or null for no bound
+	 */
+	public SuppliedMsgHandlerRouter(final Function<MsgType, String> handlerRouter,
+									final Map<String, MessageHandler<MsgType>> msgHandlers,
+									final ChannelWriter<MsgType, SelectionKey> channelWriter,
+									final AsyncMessageJobExecutor<MsgType> asyncMsgJobExecutor,
+									final BufferPool bufferPool, final AdmissionControl admissionControl) {
 		this.handlerRouter = handlerRouter;
 		this.msgHandlers = msgHandlers;
 		this.channelWriter = channelWriter;
 		this.asyncMsgJobExecutor = asyncMsgJobExecutor;
+		this.bufferPool = bufferPool;
+		this.admissionControl = admissionControl;
 	}
 
 	@Override
@@ -62,8 +123,155 @@ public final class SuppliedMsgHandlerRouter<MsgType> implements MessageHandlerRo
 		LOG.trace("[{}] Using Async job {} for message {}", key.attachment(), message);
 		final String handlerId = handlerRouter.apply(message);
 		final MessageHandler<MsgType> msgHandler = msgHandlers.get(handlerId);
-		final ConnectionContext<MsgType> connectionContext = new ConnectionContext<>(channelWriter, key);
-		final Future<Optional<ByteBuffer>> handlingJob = msgHandler.handle(connectionContext, message);
-		asyncMsgJobExecutor.add(AsyncMessageJob.from(key, message, handlingJob));
+		if (!admit(key, handlerId, msgHandler, message)) {
+			return;
+		}
+		final ConnectionContext<MsgType> connectionContext = new ConnectionContext<>(channelWriter, key, bufferPool);
+		final long admittedAt = System.nanoTime();
+		final Future<Optional<ByteBuffer>> handlingJob;
+		try {
+			handlingJob = msgHandler.handle(connectionContext, message);
+		}
+		catch (final RuntimeException e) {
+			release(handlerId, 1);
+			throw e;
+		}
+		final Future<Optional<ByteBuffer>> job = toHandOn(handlerId, admittedAt, handlingJob);
+		if (job != null) {
+			asyncMsgJobExecutor.add(AsyncMessageJob.from(key, message, job));
+		}
+	}
+
+	@Override
+	public void routeBatch(final SelectionKey key, final List<MsgType> messages) {
+		if (messages.isEmpty()) {
+			return;
+		}
+		if (msgHandlers.isEmpty()) {
+			LOG.warn("No handlers for {}. {} messages will be discarded.", key.attachment(), messages.size());
+			return;
+		}
+		LOG.trace("[{}] Routing a batch of {} messages", key.attachment(), messages.size());
+		final ConnectionContext<MsgType> connectionContext = new ConnectionContext<>(channelWriter, key, bufferPool);
+		int runStart = 0;
+		String runHandlerId = null;
+		for (int i = 0; i < messages.size(); i++) {
+			final String handlerId = handlerRouter.apply(messages.get(i));
+			if (runHandlerId != null && !runHandlerId.equals(handlerId)) {
+				routeRun(connectionContext, runHandlerId, messages.subList(runStart, i));
+				runStart = i;
+			}
+			runHandlerId = handlerId;
+		}
+		routeRun(connectionContext, runHandlerId, messages.subList(runStart, messages.size()));
+	}
+
+	/**
+	 * Hands a run of consecutive messages for the same {@link MessageHandler} to it as a batch and passes the
+	 * resulting jobs on to the {@link #asyncMsgJobExecutor} together.
+	 */
+	private void routeRun(final ConnectionContext<MsgType> connectionContext, final String handlerId,
+						  final List<MsgType> run) {
+		final MessageHandler<MsgType> msgHandler = msgHandlers.get(handlerId);
+		final List<MsgType> admitted = admitRun(connectionContext.getKey(), handlerId, msgHandler, run);
+		if (admitted.isEmpty()) {
+			return;
+		}
+		final long admittedAt = System.nanoTime();
+		final List<Future<Optional<ByteBuffer>>> handlingJobs;
+		try {
+			handlingJobs = msgHandler.handleBatch(connectionContext, admitted);
+		}
+		catch (final RuntimeException e) {
+			release(handlerId, admitted.size());
+			throw e;
+		}
+		final List<AsyncMessageJob<MsgType>> jobs = new ArrayList<>(admitted.size());
+		for (int i = 0; i < admitted.size(); i++) {
+			final Future<Optional<ByteBuffer>> job = toHandOn(handlerId, admittedAt, handlingJobs.get(i));
+			if (job != null) {
+				jobs.add(AsyncMessageJob.from(connectionContext.getKey(), admitted.get(i), job));
+			}
+		}
+		if (!jobs.isEmpty()) {
+			asyncMsgJobExecutor.addBatch(jobs);
+		}
+	}
+
+	/**
+	 * @return the messages of the run that are admitted, having answered the rest as overloaded
+	 */
+	private List<MsgType> admitRun(final SelectionKey key, final String handlerId,
+								   final MessageHandler<MsgType> msgHandler, final List<MsgType> run) {
+		if (admissionControl == null) {
+			return run;
+		}
+		final List<MsgType> admitted = new ArrayList<>(run.size());
+		for (final MsgType message : run) {
+			if (admit(key, handlerId, msgHandler, message)) {
+				admitted.add(message);
+			}
+		}
+		return admitted;
+	}
+
+	/**
+	 * Admits the message or, if the {@link #admissionControl} rejects it, writes the handler's overloaded response
+	 *
+	 * @return true if the message should be handled
+	 */
+	private boolean admit(final SelectionKey key, final String handlerId, final MessageHandler<MsgType> msgHandler,
+						  final MsgType message) {
+		if (admissionControl == null || admissionControl.tryAdmit(handlerId)) {
+			return true;
+		}
+		LOG.trace("[{}] Overloaded, rejecting message {} for {}", key.attachment(), message, handlerId);
+		channelWriter.prepWrite(key, message, msgHandler.overloaded(message).orElseGet(() -> ByteBuffer.allocate(0)));
+		return false;
+	}
+
+	/**
+	 * @return true if the job has already completed and it's handler has already handed it's response to the
+	 *         {@link ChannelWriter}, so the {@link #asyncMsgJobExecutor} has nothing to do for it
+	 */
+	private static boolean isResponded(final Future<Optional<ByteBuffer>> handlingJob) {
+		if (!handlingJob.isDone() || handlingJob.isCancelled()) {
+			return false;
+		}
+		try {
+			final Optional<ByteBuffer> result = handlingJob.get();
+			return result != null && result.isPresent() && result.get() == MessageHandler.RESPONDED;
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		catch (final ExecutionException e) {
+			// The asyncMsgJobExecutor reports the failure
+			return false;
+		}
+	}
+
+	/**
+	 * Decides, once, whether the job is already responded to. If it is, it's admission is released straight away;
+	 * otherwise it is arranged to be released as the job completes, which may need the job wrapping, so the
+	 * {@link #asyncMsgJobExecutor} must be handed the job returned, which it always reads.
+	 *
+	 * @return the job to hand to the {@link #asyncMsgJobExecutor}, or null if there is nothing left to do for it
+	 */
+	private Future<Optional<ByteBuffer>> toHandOn(final String handlerId, final long admittedAt,
+												  final Future<Optional<ByteBuffer>> handlingJob) {
+		final boolean responded = isResponded(handlingJob);
+		final Future<Optional<ByteBuffer>> job = admissionControl == null
+				? handlingJob : admissionControl.releaseOnCompletion(handlerId, admittedAt, handlingJob);
+		return responded ? null : job;
+	}
+
+	private void release(final String handlerId, final int messages) {
+		if (admissionControl != null) {
+			for (int i = 0; i < messages; i++) {
+				admissionControl.release(handlerId);
+			}
+		}
 	}
 }
@@ -0,0 +1,140 @@
+package org.mjd.repro.handlers.rpcrequest;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.mjd.repro.handlers.message.MessageHandler;
+import org.mjd.repro.handlers.message.ResponseMessage;
+import org.mjd.repro.message.DeadlineRpcRequest;
+import org.mjd.repro.message.RpcRequest;
+import org.mjd.repro.rpc.InvocationException;
+
+/**
+ * The handling shared by the {@link RpcRequest} invokers: invoking inline, deadlines, batches and overload replies.
+ * Subclasses decide how a request is submitted to their executor and how it's method is invoked.
+ *
+ * @param <R> the type of {@link RpcRequest} handled
+ */
+abstract class AbstractRpcRequestInvoker<R extends RpcRequest> implements MessageHandler<R> {
+	private final RpcResponder responder;
+
+	AbstractRpcRequestInvoker(final RpcResponder responder) {
+		this.responder = responder;
+	}
+
+	/**
+	 * Invokes a request for an inline method straight away, returning a completed {@link Future}. Any other request
+	 * is submitted to the executor, racing it's deadline if it is a {@link DeadlineRpcRequest}.
+	 */
+	@Override
+	public Future<Optional<ByteBuffer>> handle(final ConnectionContext<R> connectionContext, final R message) {
+		if (isInline(message)) {
+			try {
+				return Futures.immediateFuture(invoke(connectionContext, message, null));
+			}
+			catch (final RuntimeException e) {
+				return Futures.immediateFailedFuture(e);
+			}
+		}
+		if (message instanceof DeadlineRpcRequest) {
+			return DeadlineCall.submit((DeadlineRpcRequest) message, task -> submit(connectionContext, task),
+									   call -> invoke(connectionContext, message, call),
+									   () -> responder.error(message.getId(), HandlerException.timedOut()));
+		}
+		return submit(connectionContext, () -> invoke(connectionContext, message, null));
+	}
+
+	/**
+	 * Invokes the whole batch of requests, in order, as a single task on the executor. If the executor's futures are
+	 * {@link ListenableFuture}s, so are the results, so they can be written as soon as the batch completes. A batch
+	 * holding a {@link DeadlineRpcRequest} is handled request by request, so each can time out alone, as is one holding
+	 * a request to invoke inline.
+	 */
+	@Override
+	public List<Future<Optional<ByteBuffer>>> handleBatch(final ConnectionContext<R> connectionContext,
+														  final List<R> messages) {
+		if (messages.stream().anyMatch(message -> message instanceof DeadlineRpcRequest || isInline(message))) {
+			return MessageHandler.super.handleBatch(connectionContext, messages);
+		}
+		final Future<List<Optional<ByteBuffer>>> batch = submit(connectionContext, () -> {
+			final List<Optional<ByteBuffer>> results = new ArrayList<>(messages.size());
+			for (final R message : messages) {
+				results.add(invoke(connectionContext, message, null));
+			}
+			return results;
+		});
+		final List<Future<Optional<ByteBuffer>>> results = new ArrayList<>(messages.size());
+		for (int i = 0; i < messages.size(); i++) {
+			final int index = i;
+			final Function<List<Optional<ByteBuffer>>, Optional<ByteBuffer>> resultAt = batchResults -> batchResults.get(index);
+			results.add(batch instanceof ListenableFuture
+					? Futures.transform((ListenableFuture<List<Optional<ByteBuffer>>>) batch, resultAt::apply,
+										MoreExecutors.directExecutor())
+					: Futures.lazyTransform(batch, resultAt::apply));
+		}
+		return results;
+	}
+
+	/**
+	 * Replies with an error of {@link HandlerException#overloaded()}, without invoking the request, so the client's
+	 * call fails fast and can be retried
+	 */
+	@Override
+	public Optional<ByteBuffer> overloaded(final R message) {
+		return responder.error(message.getId(), HandlerException.overloaded());
+	}
+
+	/**
+	 * Submits a task to the invoker's executor
+	 *
+	 * @param connectionContext the {@link ConnectionContext} of the request(s) the task invokes, may be null
+	 * @param task              the task to submit
+	 * @return a {@link Future} of the task's result
+	 */
+	abstract <T> Future<T> submit(ConnectionContext<R> connectionContext, Callable<T> task);
+
+	/**
+	 * Invokes the request's method on the RPC target
+	 *
+	 * @param message the request to invoke
+	 * @return the result of the method
+	 * @throws InvocationException if the method could not be invoked or threw
+	 */
+	abstract Object invokeMethod(R message) throws InvocationException;
+
+	/**
+	 * @param message a request
+	 * @return true if the request is to be invoked on the thread that hands it over, false, the default, to submit it
+	 */
+	boolean isInline(final R message) {
+		return false;
+	}
+
+	/**
+	 * Invokes the request and responds with it's result, unless it has a {@link DeadlineCall} that it's deadline has
+	 * already answered
+	 */
+	private Optional<ByteBuffer> invoke(final ConnectionContext<R> connectionContext, final R message,
+										final DeadlineCall deadlineCall) {
+		ResponseMessage<Object> responseMessage;
+		try {
+			final Object result = invokeMethod(message);
+			responseMessage = new ResponseMessage<>(message.getId(), result);
+		}
+		catch (final InvocationException e) {
+			responseMessage = new ResponseMessage<>(message.getId(), e.getCause());
+		}
+		if (deadlineCall != null && !deadlineCall.claim()) {
+			return Optional.empty();
+		}
+		return responder.respond(connectionContext, message, responseMessage);
+	}
+}
@@ -0,0 +1,128 @@
+package org.mjd.repro.handlers.rpcrequest;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.mjd.repro.message.DeadlineRpcRequest;
+
+/**
+ * The call of a {@link DeadlineRpcRequest}, answered by whichever comes first, it's invocation or it's deadline. The
+ * two race to {@link #claim()} the call and only the winner responds, so a client never gets both a result and a
+ * timeout error.
+ * </p>
+ * When the deadline wins the invocation is cancelled: if it is still queued it never runs, and if it is running the
+ * thread running it is interrupted, for the length of the invocation only. An invocation dequeued after the deadline
+ * is dropped without invoking the target.
+ *
+ * @ThreadSafe
+ */
+final class DeadlineCall {
+	private static final ScheduledExecutorService DEADLINES = newDeadlineTimer();
+	private final SettableFuture<Optional<ByteBuffer>> result = SettableFuture.create();
+	private final AtomicBoolean answered = new AtomicBoolean();
+	private final long deadlineNanos;
+	private final Supplier<Optional<ByteBuffer>> timedOutResponse;
+	/** The thread invoking the request, guarded by this */
+	private Thread runner;
+	/** Whether the {@link #runner} was interrupted by the deadline, guarded by this */
+	private boolean runnerInterrupted;
+
+	private DeadlineCall(final DeadlineRpcRequest request, final Supplier<Optional<ByteBuffer>> timedOutResponse) {
+		this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(request.getTimeoutMillis());
+		this.timedOutResponse = timedOutResponse;
+	}
+
+	/**
+	 * Submits the invocation of the given {@code request} and starts it's deadline
+	 *
+	 * @param request          the request to invoke
+	 * @param submitter        submits a task to the invoker's executor
+	 * @param invocation       invokes the request, responding only if it can {@link #claim()} the call
+	 * @param timedOutResponse the response to the request if it's deadline passes first
+	 * @return a {@link Future} of the response to the request, whichever answered it
+	 */
+	static Future<Optional<ByteBuffer>> submit(final DeadlineRpcRequest request,
+											   final Function<Callable<Optional<ByteBuffer>>, Future<?>> submitter,
+											   final Function<DeadlineCall, Optional<ByteBuffer>> invocation,
+											   final Supplier<Optional<ByteBuffer>> timedOutResponse) {
+		final DeadlineCall call = new DeadlineCall(request, timedOutResponse);
+		final Future<?> invoking = submitter.apply(() -> call.invoke(invocation));
+		final ScheduledFuture<?> deadline = DEADLINES.schedule(() -> call.timeOut(invoking),
+															   call.deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+		call.result.addListener(() -> deadline.cancel(false), MoreExecutors.directExecutor());
+		return call.result;
+	}
+
+	/**
+	 * Claims the call for it's invocation, which must be done before responding
+	 *
+	 * @return true if the invocation may respond, false if the deadline has already answered the call
+	 */
+	boolean claim() {
+		return answered.compareAndSet(false, true);
+	}
+
+	private Optional<ByteBuffer> invoke(final Function<DeadlineCall, Optional<ByteBuffer>> invocation) {
+		synchronized (this) {
+			if (answered.get() || System.nanoTime() - deadlineNanos >= 0) {
+				timeOut(null);
+				return Optional.empty();
+			}
+			runner = Thread.currentThread();
+		}
+		try {
+			final Optional<ByteBuffer> response = invocation.apply(this);
+			result.set(response);
+			return response;
+		}
+		catch (final RuntimeException | Error e) {
+			result.setException(e);
+			throw e;
+		}
+		finally {
+			synchronized (this) {
+				runner = null;
+				if (runnerInterrupted) {
+					// Clear our interrupt so it does not leak into the executor's next task
+					Thread.interrupted();
+				}
+			}
+		}
+	}
+
+	private void timeOut(final Future<?> invoking) {
+		if (!claim()) {
+			return;
+		}
+		result.set(timedOutResponse.get());
+		if (invoking != null) {
+			invoking.cancel(false);
+		}
+		synchronized (this) {
+			if (runner != null) {
+				runnerInterrupted = true;
+				runner.interrupt();
+			}
+		}
+	}
+
+	private static ScheduledExecutorService newDeadlineTimer() {
+		final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+				new ThreadFactoryBuilder().setNameFormat("RpcDeadlines").setDaemon(true).build());
+		timer.setRemoveOnCancelPolicy(true);
+		return Executors.unconfigurableScheduledExecutorService(timer);
+	}
+}
@@ -1,42 +1,107 @@
 package org.mjd.repro.handlers.rpcrequest;
 
-import java.nio.ByteBuffer;
-import java.util.Optional;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
-import org.mjd.repro.handlers.message.MessageHandler;
-import org.mjd.repro.handlers.message.ResponseMessage;
 import org.mjd.repro.message.RpcRequest;
+import org.mjd.repro.rpc.Inline;
 import org.mjd.repro.rpc.InvocationException;
 import org.mjd.repro.rpc.RpcRequestMethodInvoker;
 import org.mjd.repro.serialisation.Marshaller;
+import org.mjd.repro.util.thread.KeyedExecutor;
+import org.mjd.repro.util.thread.OrderedKeyedExecutor;
 
 // TODO move kryo serialisation to strategy
-public final class RpcRequestInvoker<R extends RpcRequest> implements MessageHandler<R> {
-	private final Marshaller marshaller;
+public final class RpcRequestInvoker<R extends RpcRequest> extends AbstractRpcRequestInvoker<R> {
 	private final RpcRequestMethodInvoker methodInvoker;
-	private final ExecutorService executor;
+	private final KeyedExecutor executor;
+	private final Set<String> inlineMethods;
 
 	public RpcRequestInvoker(final ExecutorService executor, final Marshaller marshaller,
 			final RpcRequestMethodInvoker rpcMethodInvoker) {
+		this(KeyedExecutor.unordered(executor), marshaller, rpcMethodInvoker);
+	}
+
+	/**
+	 * Constructs a {@link RpcRequestInvoker} that invokes requests for the given {@code inlineMethods} on the thread
+	 * that hands them to it, i.e., the selector thread, see {@link Inline}, and submits the rest to the given
+	 * {@link ExecutorService}
+	 *
+	 * @param executor         the {@link ExecutorService} to invoke requests on
+	 * @param marshaller       the {@link Marshaller} that marshalls responses
+	 * @param rpcMethodInvoker the {@link RpcRequestMethodInvoker} that invokes requests
+	 * @param inlineMethods    the names of the methods to invoke inline
+	 */
+	public RpcRequestInvoker(final ExecutorService executor, final Marshaller marshaller,
+			final RpcRequestMethodInvoker rpcMethodInvoker, final Set<String> inlineMethods) {
+		this(KeyedExecutor.unordered(executor), marshaller, rpcMethodInvoker, inlineMethods);
+	}
+
+	/**
+	 * Constructs a {@link RpcRequestInvoker} that submits each request to the given {@link KeyedExecutor} keyed by
+	 * it's connection, so, e.g., an {@link OrderedKeyedExecutor} invokes the requests of each client in order.
+	 *
+	 * @param executor         the {@link KeyedExecutor} to invoke requests on
+	 * @param marshaller       the {@link Marshaller} that marshalls responses
+	 * @param rpcMethodInvoker the {@link RpcRequestMethodInvoker} that invokes requests
+	 */
+	public RpcRequestInvoker(final KeyedExecutor executor, final Marshaller marshaller,
+			final RpcRequestMethodInvoker rpcMethodInvoker) {
+		this(executor, marshaller, rpcMethodInvoker, Collections.emptySet());
+	}
+
+	/**
+	 * Constructs a {@link RpcRequestInvoker} that invokes requests for the given {@code inlineMethods} on the thread
+	 * that hands them to it, i.e., the selector thread, see {@link Inline}, and submits the rest to the given
+	 * {@link KeyedExecutor} keyed by their connection.
+	 *
+	 * @param executor         the {@link KeyedExecutor} to invoke requests on
+	 * @param marshaller       the {@link Marshaller} that marshalls responses
+	 * @param rpcMethodInvoker the {@link RpcRequestMethodInvoker} that invokes requests
+	 * @param inlineMethods    the names of the methods to invoke inline
+	 */
+	public RpcRequestInvoker(final KeyedExecutor executor, final Marshaller marshaller,
+			final RpcRequestMethodInvoker rpcMethodInvoker, final Set<String> inlineMethods) {
+		this(executor, marshaller, rpcMethodInvoker, inlineMethods, false);
+	}
+
+	/**
+	 * Constructs a {@link RpcRequestInvoker} as {@link #RpcRequestInvoker(KeyedExecutor, Marshaller,
+	 * RpcRequestMethodInvoker, Set)} that, if {@code pooledResponses}, marshalls responses into buffers from the
+	 * connection's pool and hands them straight to it's writer, see {@link RpcResponder}. Responses then skip the
+	 * server's job executor, so they may be written out of order.
+	 *
+	 * @param executor         the {@link KeyedExecutor} to invoke requests on
+	 * @param marshaller       the {@link Marshaller} that marshalls responses
+	 * @param rpcMethodInvoker the {@link RpcRequestMethodInvoker} that invokes requests
+	 * @param inlineMethods    the names of the methods to invoke inline
+	 * @param pooledResponses  true to hand pooled responses straight to the writer, false to return them
+	 */
+	public RpcRequestInvoker(final KeyedExecutor executor, final Marshaller marshaller,
+			final RpcRequestMethodInvoker rpcMethodInvoker, final Set<String> inlineMethods,
+			final boolean pooledResponses) {
+		super(new RpcResponder(marshaller, pooledResponses));
 		this.executor = executor;
-		this.marshaller = marshaller;
 		this.methodInvoker = rpcMethodInvoker;
+		this.inlineMethods = inlineMethods;
+	}
+
+	@Override
+	<T> Future<T> submit(final ConnectionContext<R> connectionContext, final Callable<T> task) {
+		return executor.submit(connectionContext == null ? null : connectionContext.getKey(), task);
+	}
+
+	@Override
+	Object invokeMethod(final R message) throws InvocationException {
+		return methodInvoker.invoke(message);
 	}
 
+	/** Requests for one of the {@link #inlineMethods} are invoked on the thread that hands them over */
 	@Override
-	public Future<Optional<ByteBuffer>> handle(final ConnectionContext<R> connectionContext, final R message) {
-		return executor.submit(() -> {
-			ResponseMessage<Object> responseMessage;
-			try {
-				final Object result = methodInvoker.invoke(message);
-				responseMessage = new ResponseMessage<>(message.getId(), result);
-			}
-			catch (final InvocationException e) {
-				responseMessage = new ResponseMessage<>(message.getId(), e.getCause());
-			}
-			return Optional.of(ByteBuffer.wrap(marshaller.marshall(responseMessage, ResponseMessage.class)));
-		});
+	boolean isInline(final R message) {
+		return !inlineMethods.isEmpty() && inlineMethods.contains(message.getMethod());
 	}
 }
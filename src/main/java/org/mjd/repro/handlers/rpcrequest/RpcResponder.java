@@ -0,0 +1,80 @@
+package org.mjd.repro.handlers.rpcrequest;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+import org.mjd.repro.buffer.BufferPool;
+import org.mjd.repro.handlers.message.MessageHandler;
+import org.mjd.repro.handlers.message.MessageHandler.ConnectionContext;
+import org.mjd.repro.handlers.message.MessageHandler.HandlerException;
+import org.mjd.repro.handlers.message.ResponseMessage;
+import org.mjd.repro.serialisation.Marshaller;
+
+/**
+ * Marshalls the {@link ResponseMessage}s of the RPC style {@link MessageHandler}s into the result they return, so
+ * every invoker responds the same way.
+ * </p>
+ * By default a response is marshalled into a new buffer and returned, so the server's job executor writes it, e.g.,
+ * in the order the requests were read. With pooled responses it is instead marshalled into a buffer from the
+ * connection's {@link BufferPool} and handed straight to the connection's writer, costing no new arrays, but it may
+ * then overtake responses to earlier requests that are still being handled.
+ *
+ * @ThreadSafe if the {@link Marshaller} is
+ */
+public final class RpcResponder {
+	private final Marshaller marshaller;
+	private final boolean pooledResponses;
+
+	/**
+	 * Constructs a fully initialised {@link RpcResponder} that returns responses in new buffers
+	 *
+	 * @param marshaller the {@link Marshaller} that marshalls responses
+	 */
+	public RpcResponder(final Marshaller marshaller) {
+		this(marshaller, false);
+	}
+
+	/**
+	 * Constructs a fully initialised {@link RpcResponder}
+	 *
+	 * @param marshaller      the {@link Marshaller} that marshalls responses
+	 * @param pooledResponses true to marshall responses into pooled buffers and hand them straight to the writer,
+	 *                        false to return them in new buffers
+	 */
+	public RpcResponder(final Marshaller marshaller, final boolean pooledResponses) {
+		this.marshaller = marshaller;
+		this.pooledResponses = pooledResponses;
+	}
+
+	/**
+	 * Marshalls the response into a new buffer to return. With pooled responses, and a connection with a
+	 * {@link BufferPool}, it is instead marshalled straight into a buffer from the pool, with headroom for the request
+	 * ID and frame header, and handed to the connection's writer.
+	 *
+	 * @param connectionContext the {@link ConnectionContext} of the {@code message}, may be null
+	 * @param message           the message responded to
+	 * @param responseMessage   the response
+	 * @return the result for the {@link MessageHandler} to return
+	 */
+	public <M> Optional<ByteBuffer> respond(final ConnectionContext<M> connectionContext, final M message,
+											final ResponseMessage<?> responseMessage) {
+		if (!pooledResponses || connectionContext == null || connectionContext.getBufferPool() == null) {
+			return Optional.of(ByteBuffer.wrap(marshaller.marshall(responseMessage, ResponseMessage.class)));
+		}
+		return connectionContext.respond(message, marshaller.marshallResponse(responseMessage, ResponseMessage.class,
+																			  connectionContext.getBufferPool()));
+	}
+
+	/**
+	 * Marshalls an error response into a new buffer, for a request that is answered without being invoked, so it can
+	 * be written straight away from any thread
+	 *
+	 * @param requestId the ID of the request answered
+	 * @param ex        the error to answer it with
+	 * @return the result for the {@link MessageHandler} to return
+	 */
+	public Optional<ByteBuffer> error(final long requestId, final HandlerException ex) {
+		final ResponseMessage<Object> responseMessage = ResponseMessage.error(requestId, ex);
+		return Optional.of(ByteBuffer.wrap(marshaller.marshall(responseMessage, ResponseMessage.class)));
+	}
+}
@@ -1,47 +1,55 @@
 package org.mjd.repro.handlers.rpcrequest;
 
-import java.nio.ByteBuffer;
-import java.util.Optional;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.function.Function;
 
-import org.mjd.repro.handlers.message.MessageHandler;
-import org.mjd.repro.handlers.message.ResponseMessage;
 import org.mjd.repro.message.RpcRequest;
 import org.mjd.repro.rpc.InvocationException;
 import org.mjd.repro.rpc.RpcRequestMethodInvoker;
 import org.mjd.repro.serialisation.Marshaller;
 
 // TODO move kryo serialisation to strategy
-public final class SuppliedRpcRequestInvoker<R extends RpcRequest> implements MessageHandler<R> {
+public final class SuppliedRpcRequestInvoker<R extends RpcRequest> extends AbstractRpcRequestInvoker<R> {
 	private final RpcRequestMethodInvoker methodInvoker;
 	private final ExecutorService executor;
-	private final Marshaller marshaller;
 	private final Function<R, Object> rpcTargetSupplier;
 
 	public SuppliedRpcRequestInvoker(final ExecutorService executor, final Marshaller marshaller,
 			final RpcRequestMethodInvoker rpcMethodInvoker, final Function<R, Object> supplier) {
+		this(executor, marshaller, rpcMethodInvoker, supplier, false);
+	}
+
+	/**
+	 * Constructs a {@link SuppliedRpcRequestInvoker} that, if {@code pooledResponses}, marshalls responses into
+	 * buffers from the connection's pool and hands them straight to it's writer, see {@link RpcResponder}. Responses
+	 * then skip the server's job executor, so they may be written out of order.
+	 *
+	 * @param executor         the {@link ExecutorService} to invoke requests on
+	 * @param marshaller       the {@link Marshaller} that marshalls responses
+	 * @param rpcMethodInvoker the {@link RpcRequestMethodInvoker} that invokes requests
+	 * @param supplier         supplies the RPC target of each request
+	 * @param pooledResponses  true to hand pooled responses straight to the writer, false to return them
+	 */
+	public SuppliedRpcRequestInvoker(final ExecutorService executor, final Marshaller marshaller,
+			final RpcRequestMethodInvoker rpcMethodInvoker, final Function<R, Object> supplier,
+			final boolean pooledResponses) {
+		super(new RpcResponder(marshaller, pooledResponses));
 		this.executor = executor;
-		this.marshaller = marshaller;
 		this.methodInvoker = rpcMethodInvoker;
 		this.rpcTargetSupplier = supplier;
 	}
 
 	@Override
-	public Future<Optional<ByteBuffer>> handle(final ConnectionContext<R> connectionContext, final R message) {
-		return executor.submit(() -> {
-			methodInvoker.changeTarget(rpcTargetSupplier.apply(message));
-			// ^ Maybe add a caching option users can configure so we don't need to set this every call.
-			ResponseMessage<Object> responseMessage;
-			try {
-				final Object result = methodInvoker.invoke(message);
-				responseMessage = new ResponseMessage<>(message.getId(), result);
-			}
-			catch (final InvocationException e) {
-				responseMessage = new ResponseMessage<>(message.getId(), e.getCause());
-			}
-			return Optional.of(ByteBuffer.wrap(marshaller.marshall(responseMessage, ResponseMessage.class)));
-		});
+	<T> Future<T> submit(final ConnectionContext<R> connectionContext, final Callable<T> task) {
+		return executor.submit(task);
+	}
+
+	@Override
+	Object invokeMethod(final R message) throws InvocationException {
+		methodInvoker.changeTarget(rpcTargetSupplier.apply(message));
+		// ^ Maybe add a caching option users can configure so we don't need to set this every call.
+		return methodInvoker.invoke(message);
 	}
 }
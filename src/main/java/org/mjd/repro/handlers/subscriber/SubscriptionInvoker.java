@@ -11,6 +11,7 @@ import com.google.common.util.concurrent.MoreExecutors;
 import org.apache.commons.lang3.reflect.MethodUtils;
 import org.mjd.repro.handlers.message.MessageHandler;
 import org.mjd.repro.handlers.message.ResponseMessage;
+import org.mjd.repro.handlers.rpcrequest.RpcResponder;
 import org.mjd.repro.message.RequestWithArgs;
 import org.mjd.repro.serialisation.Marshaller;
 import org.slf4j.Logger;
@@ -29,6 +30,7 @@ import org.slf4j.LoggerFactory;
 public final class SubscriptionInvoker<R extends RequestWithArgs> implements MessageHandler<R> {
 	private static final Logger LOG = LoggerFactory.getLogger(SubscriptionInvoker.class);
 	private final Marshaller marshaller;
+	private final RpcResponder responder;
 	private Object subscriptionService;
 	private Method registrationMethod;
 	private final ExecutorService executor = MoreExecutors.newDirectExecutorService();
@@ -42,6 +44,7 @@ public final class SubscriptionInvoker<R extends RequestWithArgs> implements Mes
 	 */
 	public SubscriptionInvoker(final Marshaller marshaller, final Object rpcTarget) {
 		this.marshaller = marshaller;
+		this.responder = new RpcResponder(marshaller);
 		this.subscriptionService = rpcTarget;
 		final Method[] registrationMethods = MethodUtils.getMethodsWithAnnotation(subscriptionService.getClass(),
 				SubscriptionRegistrar.class);
@@ -62,17 +65,15 @@ public final class SubscriptionInvoker<R extends RequestWithArgs> implements Mes
 				LOG.debug("Invoking subscription for ID '{}' with args {}", subscriptionRequest.getId(),
 						subscriptionRequest.getArgValues());
 				final SubscriptionWriter<R> subscriptionWriter = new SubscriptionWriter<>(marshaller,
-						connectionContext.getKey(), connectionContext.getWriter(), message);
+						connectionContext.getKey(), connectionContext.getWriter(), message,
+						connectionContext.getBufferPool());
 				MethodUtils.invokeMethod(subscriptionService, registrationMethod.getName(), subscriptionWriter);
-				return Optional.of(
-						ByteBuffer.wrap(marshaller.marshall(ResponseMessage.voidMsg(message.getId()), ResponseMessage.class)));
+				return responder.respond(connectionContext, message, ResponseMessage.voidMsg(message.getId()));
 			}
 			catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException | NoSuchMethodException ex) {
 				LOG.error("Error invoking subscription", ex);
 				final HandlerException handlerEx = new HandlerException("Error invoking " + subscriptionRequest, ex);
-				final byte[] bytes = marshaller.marshall(ResponseMessage.error(subscriptionRequest.getId(), handlerEx),
-						ResponseMessage.class);
-				return Optional.of(ByteBuffer.wrap(bytes));
+				return responder.respond(connectionContext, message, ResponseMessage.error(subscriptionRequest.getId(), handlerEx));
 			}
 		});
 	}
@@ -4,7 +4,9 @@ import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
 import java.nio.channels.SelectionKey;
 
+import org.mjd.repro.buffer.BufferPool;
 import org.mjd.repro.handlers.message.ResponseMessage;
+import org.mjd.repro.handlers.response.ResponseBuffer;
 import org.mjd.repro.handlers.subscriber.SubscriptionRegistrar.Subscriber;
 import org.mjd.repro.message.RequestWithArgs;
 import org.mjd.repro.serialisation.Marshaller;
@@ -30,6 +32,7 @@ public final class SubscriptionWriter<R extends RequestWithArgs> implements Subs
 	private final SelectionKey key;
 	private final ChannelWriter<R, SelectionKey> channelWriter;
 	private final R message;
+	private final BufferPool bufferPool;
 
 	/**
 	 * Constructs a fully initialised {@link SubscriptionWriter} ready to process notifications.
@@ -42,15 +45,41 @@ public final class SubscriptionWriter<R extends RequestWithArgs> implements Subs
 	 */
 	public SubscriptionWriter(final Marshaller marshaller, final SelectionKey key,
 			final ChannelWriter<R, SelectionKey> writer, final R message) {
+		this(marshaller, key, writer, message, null);
+	}
+
+	/**
+	 * Constructs a fully initialised {@link SubscriptionWriter} that marshalls notifications straight into buffers
+	 * from the given {@link BufferPool}.
+	 *
+	 * @param marshaller kryo object used to serialise incoming notifications
+	 * @param key        the {@link SelectionKey} associated with the original client subscription request. This links
+	 * 					 the client {@link Channel}
+	 * @param writer     A {@link ChannelWriter} to handle writing back notifications to the client
+	 * @param message    The original {@link RequestWithArgs} message
+	 * @param bufferPool the {@link BufferPool} to marshall notifications into buffers from, or null to marshall them
+	 *                   into new arrays
+	 */
+	public SubscriptionWriter(final Marshaller marshaller, final SelectionKey key,
+			final ChannelWriter<R, SelectionKey> writer, final R message, final BufferPool bufferPool) {
 		this.marshaller = marshaller;
 		this.key = key;
 		this.channelWriter = writer;
 		this.message = message;
+		this.bufferPool = bufferPool;
 	}
 
 	@Override
 	public void receive(final Object notification) {
 		final ResponseMessage<Object> responseMessage = new ResponseMessage<>(message.getId(), notification);
+		if (bufferPool != null) {
+			final ResponseBuffer response = marshaller.marshallResponse(responseMessage, ResponseMessage.class, bufferPool);
+			LOG.trace(SubscriptionWriter.class + " received notification; handling pooled result over to channel writer");
+			synchronized (mutex) {
+				channelWriter.prepWrite(key, message, response);
+			}
+			return;
+		}
 		final ByteBuffer resultByteBuffer = ByteBuffer.wrap(marshaller.marshall(responseMessage, ResponseMessage.class));
 		resultByteBuffer.position(resultByteBuffer.limit());
 		LOG.trace(SubscriptionWriter.class + " received notification; handling result over to channel writer");
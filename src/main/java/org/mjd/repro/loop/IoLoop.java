@@ -0,0 +1,196 @@
+package org.mjd.repro.loop;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mjd.repro.util.chain.Handler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.nio.channels.SelectionKey.OP_READ;
+
+/**
+ * An {@link IoLoop} is a single selector event loop. It owns a {@link Selector} and passes every ready
+ * {@link SelectionKey} to the key protocol {@link Handler} given at construction time.
+ * </p>
+ * Client channels can be handed to an {@link IoLoop} from any thread via {@link #register(SelectableChannel, Object)}.
+ * Registering with a {@link Selector} blocks whilst another thread is inside {@link Selector#select()} so the channel
+ * is queued and registered by the loop thread itself before it next selects.
+ * </p>
+ * Every turn of the loop first runs the tasks waiting on it's {@link LoopTaskQueue}, e.g., registrations and
+ * interest op changes from other threads, and then selects. It does not block in the select if tasks are waiting.
+ * </p>
+ * When asked to, and where the JDK allows it, the loop installs a {@link SelectedKeySet} into it's selector and walks
+ * the selected keys as a plain array rather than through the selector's {@code HashSet} iterator.
+ *
+ * @ThreadSafe for {@link #register(SelectableChannel, Object)} and {@link #getConnectionCount()}. {@link #run()}
+ *             must only be called by one thread.
+ */
+public final class IoLoop implements Runnable {
+	private static final Logger LOG = LoggerFactory.getLogger(IoLoop.class);
+	private final String name;
+	private final Selector selector;
+	private final LoopTaskQueue tasks;
+	private final Handler<SelectionKey> keyProtocol;
+	/** null when the selector's own selected-key set is used */
+	private final SelectedKeySet selectedKeys;
+	private final AtomicInteger pendingRegistrations = new AtomicInteger();
+	private volatile int registeredCount;
+
+	/**
+	 * Constructs a fully initialised {@link IoLoop}. The loop does nothing until {@link #run()} is called.
+	 *
+	 * @param name        identifier for this loop. Used only for logging.
+	 * @param selector    the {@link Selector} this loop selects upon
+	 * @param tasks       the {@link LoopTaskQueue} for {@code selector} that this loop drains every turn
+	 * @param keyProtocol the {@link Handler}, typically a protocol chain, that every selected key is passed to
+	 */
+	public IoLoop(final String name, final Selector selector, final LoopTaskQueue tasks,
+				  final Handler<SelectionKey> keyProtocol) {
+		this(name, selector, tasks, keyProtocol, true);
+	}
+
+	/**
+	 * Constructs a fully initialised {@link IoLoop}. The loop does nothing until {@link #run()} is called.
+	 *
+	 * @param name                  identifier for this loop. Used only for logging.
+	 * @param selector              the {@link Selector} this loop selects upon. It must not have been selected upon
+	 *                              yet.
+	 * @param tasks                 the {@link LoopTaskQueue} for {@code selector} that this loop drains every turn
+	 * @param keyProtocol           the {@link Handler}, typically a protocol chain, that every selected key is passed
+	 *                              to
+	 * @param optimiseSelectedKeys  true to install a {@link SelectedKeySet} into the {@code selector}, if the JDK
+	 *                              allows it
+	 */
+	public IoLoop(final String name, final Selector selector, final LoopTaskQueue tasks,
+				  final Handler<SelectionKey> keyProtocol, final boolean optimiseSelectedKeys) {
+		this.name = name;
+		this.selector = selector;
+		this.tasks = tasks;
+		this.keyProtocol = keyProtocol;
+		this.selectedKeys = optimiseSelectedKeys ? SelectedKeySet.installInto(selector).orElse(null) : null;
+		LOG.debug("[{}] Using {} selected keys", name, selectedKeys == null ? "the selector's own" : "array backed");
+	}
+
+	/**
+	 * Runs the blocking selector loop until the thread is interrupted or the {@link Selector} is closed.
+	 */
+	@Override
+	public void run() {
+		LOG.debug("[{}] IO loop starting", name);
+		try {
+			while (!Thread.interrupted()) {
+				tasks.runPendingTasks();
+				registeredCount = selector.keys().size();
+				if (tasks.isEmpty()) {
+					selector.select();
+				}
+				else {
+					selector.selectNow();
+				}
+				if (selectedKeys == null) {
+					handleReadyKeys(selector.selectedKeys().iterator());
+				}
+				else {
+					handleReadyKeys(selectedKeys);
+				}
+			}
+		}
+		catch (final ClosedSelectorException e) {
+			LOG.debug("[{}] Selector closed when getting keys; probably shutting down", name);
+		}
+		catch (final IOException e) {
+			LOG.error("[{}] Fatal IO loop error: {}", name, e.toString(), e);
+		}
+		LOG.debug("[{}] IO loop finished", name);
+	}
+
+	/**
+	 * Queues the given client {@link SelectableChannel} for registration with this loop's {@link Selector} for
+	 * {@link SelectionKey#OP_READ}. The selector is woken up so the registration happens promptly.
+	 *
+	 * @param clientChannel a non-blocking client channel
+	 * @param attachment    the object to attach to the {@link SelectionKey} once registered
+	 */
+	public void register(final SelectableChannel clientChannel, final Object attachment) {
+		pendingRegistrations.incrementAndGet();
+		tasks.execute(() -> {
+			registerChannel(clientChannel, attachment);
+			pendingRegistrations.decrementAndGet();
+		});
+	}
+
+	/**
+	 * @return the approximate number of channels registered, or waiting to be registered, with this loop
+	 */
+	public int getConnectionCount() {
+		return registeredCount + pendingRegistrations.get();
+	}
+
+	/** @return the {@link Selector} this loop selects upon */
+	public Selector getSelector() {
+		return selector;
+	}
+
+	/** @return the {@link LoopTaskQueue} this loop runs */
+	public LoopTaskQueue getTasks() {
+		return tasks;
+	}
+
+	/** @return true if this loop walks an installed {@link SelectedKeySet} rather than the selector's own keys */
+	public boolean isSelectedKeySetInstalled() {
+		return selectedKeys != null;
+	}
+
+	/** @return true if this loop's {@link Selector} is open */
+	public boolean isOpen() {
+		return selector.isOpen();
+	}
+
+	/**
+	 * Closes this loop's {@link Selector} which will pull the loop out of it's blocking select.
+	 *
+	 * @throws IOException if the {@link Selector} cannot be closed
+	 */
+	public void close() throws IOException {
+		selector.close();
+	}
+
+	private void registerChannel(final SelectableChannel clientChannel, final Object attachment) {
+		try {
+			clientChannel.register(selector, OP_READ, attachment);
+			LOG.trace("[{}] Registered {}", name, attachment);
+		}
+		catch (final ClosedChannelException e) {
+			LOG.debug("[{}] {} closed before it could be registered", name, attachment);
+		}
+	}
+
+	private void handleReadyKeys(final Iterator<SelectionKey> keyIterator) {
+		while (keyIterator.hasNext()) {
+			keyProtocol.handle(keyIterator.next());
+			keyIterator.remove();
+		}
+	}
+
+	private void handleReadyKeys(final SelectedKeySet keys) {
+		try {
+			for (int i = 0; i < keys.size(); i++) {
+				final SelectionKey key = keys.get(i);
+				// Keys cancelled since they were selected are not removed from the array, see SelectedKeySet
+				if (key.isValid()) {
+					keyProtocol.handle(key);
+				}
+			}
+		}
+		finally {
+			keys.reset();
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package org.mjd.repro.loop;
+
+import java.nio.channels.SelectableChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mjd.repro.handlers.op.AcceptProtocol;
+import org.mjd.repro.handlers.op.AcceptProtocol.Registrar;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link IoLoopGroup} is a fixed collection of worker {@link IoLoop}s. It is a {@link Registrar} so an
+ * {@link AcceptProtocol} can hand newly accepted client channels to it; each channel is given to one of the worker
+ * loops as decided by the group's {@link Balancing} strategy.
+ *
+ * @ThreadSafe so several accepting threads can share one group.
+ */
+public final class IoLoopGroup implements Registrar {
+	private static final Logger LOG = LoggerFactory.getLogger(IoLoopGroup.class);
+	private final List<IoLoop> loops;
+	private final Balancing balancing;
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * Strategies for choosing which {@link IoLoop} a new client is registered with.
+	 */
+	public enum Balancing {
+		/** Each new client is given to the next loop in turn. */
+		ROUND_ROBIN,
+		/** Each new client is given to the loop currently serving the fewest connections. */
+		LEAST_CONNECTIONS
+	}
+
+	/**
+	 * Constructs a fully initialised {@link IoLoopGroup} of the given {@link IoLoop}s.
+	 *
+	 * @param loops     the worker loops in this group. Must not be empty.
+	 * @param balancing how new clients are spread across the {@code loops}
+	 */
+	public IoLoopGroup(final List<IoLoop> loops, final Balancing balancing) {
+		if (loops.isEmpty()) {
+			throw new IllegalArgumentException("An IoLoopGroup requires at least one IoLoop");
+		}
+		this.loops = Collections.unmodifiableList(loops);
+		this.balancing = balancing;
+	}
+
+	@Override
+	public void register(final SelectableChannel clientChannel, final Object attachment) {
+		final IoLoop loop = nextLoop();
+		LOG.trace("Handing {} to IO loop {}", attachment, loops.indexOf(loop));
+		loop.register(clientChannel, attachment);
+	}
+
+	/** @return the worker {@link IoLoop}s in this group */
+	public List<IoLoop> getLoops() {
+		return loops;
+	}
+
+	private IoLoop nextLoop() {
+		if (balancing == Balancing.LEAST_CONNECTIONS) {
+			IoLoop leastLoaded = loops.get(0);
+			for (final IoLoop loop : loops) {
+				if (loop.getConnectionCount() < leastLoaded.getConnectionCount()) {
+					leastLoaded = loop;
+				}
+			}
+			return leastLoaded;
+		}
+		return loops.get(Math.floorMod(next.getAndIncrement(), loops.size()));
+	}
+}
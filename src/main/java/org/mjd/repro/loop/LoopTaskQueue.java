@@ -0,0 +1,90 @@
+package org.mjd.repro.loop;
+
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link LoopTaskQueue} is a multi-producer, single-consumer queue of tasks owned by a selector loop thread, see
+ * {@link IoLoop}. Any thread may {@link #execute(Runnable)} a task; the loop thread runs them via
+ * {@link #runPendingTasks()} before it next selects. This lets other threads change a {@link Selector}'s keys, e.g.,
+ * their interest ops, without contending on the selector's locks.
+ * </p>
+ * Selector wakeups are coalesced. Only the first task queued after the loop drains the queue wakes the
+ * {@link Selector}; tasks queued before the loop gets round to draining ride along with that wakeup. A task queued by
+ * the loop thread itself, e.g. a response written whilst handling a read, wakes nothing, as the loop drains the queue
+ * before it next selects.
+ *
+ * @ThreadSafe for {@link #execute(Runnable)}. {@link #runPendingTasks()} must only be called by the loop thread.
+ */
+public final class LoopTaskQueue implements Executor {
+	private static final Logger LOG = LoggerFactory.getLogger(LoopTaskQueue.class);
+	/** Bounds one drain so a flood of tasks cannot starve the selector. */
+	private static final int MAX_TASKS_PER_RUN = 4096;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean wakeupPending = new AtomicBoolean();
+	private final Selector selector;
+	/** The thread that last drained the queue */
+	private volatile Thread loopThread;
+
+	/**
+	 * Constructs a fully initialised {@link LoopTaskQueue}.
+	 *
+	 * @param selector the {@link Selector} the owning loop blocks on, woken up when there is work to do.
+	 */
+	public LoopTaskQueue(final Selector selector) {
+		this.selector = selector;
+	}
+
+	/**
+	 * Queues the given {@code task} to be run on the loop thread. The selector is woken up if this is the first task
+	 * since the loop last drained the queue, unless it is queued by the loop thread.
+	 *
+	 * @param task the task to run on the loop thread
+	 */
+	@Override
+	public void execute(final Runnable task) {
+		tasks.add(task);
+		if (Thread.currentThread() != loopThread && wakeupPending.compareAndSet(false, true)) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Runs the queued tasks, up to {@value #MAX_TASKS_PER_RUN} of them. Any left over remain queued and
+	 * {@link #isEmpty()} will be false. Tasks that throw are logged and do not stop the remaining tasks running.
+	 * </p>
+	 * Must only be called by the loop thread.
+	 *
+	 * @return the number of tasks run
+	 */
+	public int runPendingTasks() {
+		if (loopThread != Thread.currentThread()) {
+			loopThread = Thread.currentThread();
+		}
+		// Reset before draining so any task added from here on wakes the selector again
+		wakeupPending.set(false);
+		int tasksRun = 0;
+		Runnable task;
+		while (tasksRun < MAX_TASKS_PER_RUN && (task = tasks.poll()) != null) {
+			try {
+				task.run();
+			}
+			catch (final RuntimeException e) {
+				LOG.error("Loop task failed: {}", e.toString(), e);
+			}
+			tasksRun++;
+		}
+		return tasksRun;
+	}
+
+	/** @return true if there are no tasks waiting to be run */
+	public boolean isEmpty() {
+		return tasks.isEmpty();
+	}
+}
@@ -0,0 +1,148 @@
+package org.mjd.repro.loop;
+
+import java.lang.reflect.Field;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link SelectedKeySet} is an array backed replacement for a {@link Selector}'s selected-key set. The JDK's own
+ * set is a {@code HashSet}; every selected key is hashed on the way in and every key removed through an
+ * {@link Iterator} on the way out, on every turn of the selector loop. This set only appends to an array so the loop
+ * can walk the array and {@link #reset()} it instead.
+ * </p>
+ * It is installed via {@link #installInto(Selector)}, which reflectively swaps the set into the JDK selector's
+ * {@code selectedKeys} and {@code publicSelectedKeys} fields. That is not possible on every JDK, e.g., where
+ * {@code sun.nio.ch} is not opened to this library, so callers must fall back to {@link Selector#selectedKeys()} when
+ * no set is installed.
+ * </p>
+ * Like the selector's own selected-key set, {@link #contains(Object)} and {@link #remove(Object)} are never true. The
+ * selector only asks whilst updating keys during a select, and the loop empties this set after every select, so no
+ * key is ever selected twice. Keys the selector deregisters stay in the array; they are no longer valid and must be
+ * skipped by the loop.
+ *
+ * @NotThreadSafe the set must only be used by the selector loop thread, as is the case for
+ *                {@link Selector#selectedKeys()}.
+ */
+public final class SelectedKeySet extends AbstractSet<SelectionKey> {
+	private static final Logger LOG = LoggerFactory.getLogger(SelectedKeySet.class);
+	private static final int INITIAL_CAPACITY = 1024;
+	private SelectionKey[] keys = new SelectionKey[INITIAL_CAPACITY];
+	private int size;
+
+	SelectedKeySet() {
+		// Use SelectedKeySet.installInto(Selector)
+	}
+
+	/**
+	 * Replaces the selected-key set of the given {@link Selector} with a new {@link SelectedKeySet}. This must happen
+	 * before the selector is first selected upon.
+	 *
+	 * @param selector the {@link Selector} to install a {@link SelectedKeySet} into
+	 * @return the installed {@link SelectedKeySet}, or empty if this JDK does not allow it
+	 */
+	public static Optional<SelectedKeySet> installInto(final Selector selector) {
+		try {
+			final Class<?> selectorImpl = Class.forName("sun.nio.ch.SelectorImpl", false,
+														ClassLoader.getSystemClassLoader());
+			if (!selectorImpl.isInstance(selector)) {
+				LOG.debug("{} is not a JDK selector; using it's own selected keys", selector);
+				return Optional.empty();
+			}
+			final Field selectedKeys = selectorImpl.getDeclaredField("selectedKeys");
+			final Field publicSelectedKeys = selectorImpl.getDeclaredField("publicSelectedKeys");
+			selectedKeys.setAccessible(true);
+			publicSelectedKeys.setAccessible(true);
+			final SelectedKeySet keySet = new SelectedKeySet();
+			selectedKeys.set(selector, keySet);
+			publicSelectedKeys.set(selector, keySet);
+			return Optional.of(keySet);
+		}
+		catch (final ReflectiveOperationException | RuntimeException e) {
+			// RuntimeException covers the Java 9+ InaccessibleObjectException when sun.nio.ch is not opened to us
+			LOG.debug("Cannot install a selected-key set into {}: {}", selector, e.toString());
+			return Optional.empty();
+		}
+	}
+
+	@Override
+	public boolean add(final SelectionKey key) {
+		if (key == null) {
+			return false;
+		}
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size << 1);
+		}
+		keys[size++] = key;
+		return true;
+	}
+
+	/**
+	 * Always false, see the class documentation.
+	 */
+	@Override
+	public boolean contains(final Object o) {
+		return false;
+	}
+
+	/**
+	 * Always false, see the class documentation.
+	 */
+	@Override
+	public boolean remove(final Object o) {
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index position of the key, from 0 to {@link #size()} exclusive
+	 * @return the selected key at the given {@code index}
+	 */
+	public SelectionKey get(final int index) {
+		return keys[index];
+	}
+
+	/**
+	 * Empties this set so it is ready for the next select. The keys are released for garbage collection.
+	 */
+	public void reset() {
+		Arrays.fill(keys, 0, size, null);
+		size = 0;
+	}
+
+	@Override
+	public void clear() {
+		reset();
+	}
+
+	@Override
+	public Iterator<SelectionKey> iterator() {
+		return new Iterator<SelectionKey>() {
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			public SelectionKey next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return keys[next++];
+			}
+		};
+	}
+}
@@ -0,0 +1,38 @@
+package org.mjd.repro.message;
+
+/**
+ * An {@link RpcRequest} with a deadline, for a client that will not wait on the response for longer than
+ * {@link #getTimeoutMillis()}. The timeout runs from when the server routes the request to it's handler, so the client
+ * and server clocks need not agree, though time spent on the network is not counted.
+ * </p>
+ * Once the deadline passes an unanswered request is answered with a timeout error and it's invocation is cancelled,
+ * interrupting the target if it is running. A request whose deadline has passed by the time it is dequeued is not
+ * invoked at all, so an overloaded server does not spend time on answers nobody is waiting for.
+ *
+ * @Immutable
+ * @ThreadSafe
+ */
+public class DeadlineRpcRequest extends RpcRequest {
+	private static final long serialVersionUID = 1L;
+
+	private final long timeoutMillis;
+
+	public DeadlineRpcRequest(final long id, final String method, final long timeoutMillis) {
+		this(id, method, new Object[0], timeoutMillis);
+	}
+
+	public DeadlineRpcRequest(final long id, final String method, final Object[] argVals, final long timeoutMillis) {
+		super(id, method, argVals);
+		if (timeoutMillis < 1) {
+			throw new IllegalArgumentException("The timeout must be positive: " + timeoutMillis);
+		}
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * @return the milliseconds the server has to answer this request, from when it is routed
+	 */
+	public final long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+}
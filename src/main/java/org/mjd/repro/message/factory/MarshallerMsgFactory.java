@@ -1,9 +1,13 @@
 package org.mjd.repro.message.factory;
 
+import java.nio.ByteBuffer;
+
 import org.mjd.repro.serialisation.Marshaller;
 
 /**
  * A {@link MessageFactory} that uses a {@link Marshaller} to create messages of type MsgType from an array of bytes.
+ * Messages created from a {@link ByteBuffer} are passed straight to the {@link Marshaller} so one that can unmarshall
+ * in place avoids copying the message body.
  *
  * @param <MsgType> the type of messages this {@link MessageFactory} creates.
  */
@@ -27,4 +31,9 @@ public final class MarshallerMsgFactory<MsgType> implements MessageFactory<MsgTy
 	public MsgType createMessage(final byte[] bytesRead) {
 		return marshaller.unmarshall(bytesRead, type);
 	}
+
+	@Override
+	public MsgType createMessage(final ByteBuffer body) {
+		return marshaller.unmarshall(body, type);
+	}
 }
@@ -1,7 +1,15 @@
 package org.mjd.repro.message.factory;
 
+import java.nio.ByteBuffer;
+
+import org.mjd.repro.readers.header.FlaggedHeaderCodec;
+
 /**
  * Creates {@link Message} instances of type T from a byte array.
+ * </p>
+ * Messages can also be created directly from a {@link ByteBuffer} view over the server's receive buffer, see
+ * {@link #createMessage(ByteBuffer)}. Factories that can decode from a buffer should override it to avoid copying
+ * every message body into an intermediate array; others keep working through the default, copying, adapter.
  *
  * @param <T> the type of the Message.
  */
@@ -16,4 +24,37 @@ public interface MessageFactory<T> {
 	}
 
 	T createMessage(byte[] bytesRead) throws MessageCreationException;
+
+	/**
+	 * Creates a message from the remaining bytes of the given read-only {@code body}, that is, from it's position to
+	 * it's limit. The buffer is a view over the receive buffer which is reused once this method returns, so
+	 * implementations must not keep a reference to it.
+	 * </p>
+	 * The default copies the bytes into a new array and calls {@link #createMessage(byte[])}.
+	 *
+	 * @param body read-only view of exactly one message body
+	 * @return the message
+	 * @throws MessageCreationException if the message cannot be created
+	 */
+	default T createMessage(final ByteBuffer body) throws MessageCreationException {
+		final byte[] bytesRead = new byte[body.remaining()];
+		body.duplicate().get(bytesRead);
+		return createMessage(bytesRead);
+	}
+
+	/**
+	 * Creates a message from the given read-only {@code body} of a frame whose header carried the given
+	 * {@code flags}, see {@link FlaggedHeaderCodec}. The same rules apply to {@code body} as for
+	 * {@link #createMessage(ByteBuffer)}.
+	 * </p>
+	 * The default ignores the flags and calls {@link #createMessage(ByteBuffer)}.
+	 *
+	 * @param body  read-only view of exactly one message body
+	 * @param flags the flags from the frame header, 0 if the header carries none
+	 * @return the message
+	 * @throws MessageCreationException if the message cannot be created
+	 */
+	default T createMessage(final ByteBuffer body, final int flags) throws MessageCreationException {
+		return createMessage(body);
+	}
 }
@@ -0,0 +1,297 @@
+package org.mjd.repro.readers;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+import org.mjd.repro.buffer.BufferPool;
+import org.mjd.repro.handlers.message.MessageHandler.ConnectionContext;
+import org.mjd.repro.handlers.message.StreamingMessageHandler;
+import org.mjd.repro.message.factory.MessageFactory;
+import org.mjd.repro.message.factory.MessageFactory.MessageCreationException;
+import org.mjd.repro.readers.header.FrameHeader;
+import org.mjd.repro.readers.header.HeaderCodec;
+import org.mjd.repro.readers.header.IntHeaderReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link FrameDecoder} decodes the stream of {@code [header][body]} frames read from one client connection. Headers
+ * are decoded by a {@link HeaderCodec}, by default an {@link IntHeaderReader}'s 4 byte body size.
+ * </p>
+ * Each call to {@link #decode(ByteBuffer, Consumer)} is given the bytes of one read. Every complete frame in them is
+ * decoded in place, from a read-only view of the body, and handed on. Bytes of a trailing partial frame are appended
+ * to a cumulation buffer and the next read is appended behind them, so a frame split over any number of reads is
+ * decoded once it is whole, from the one buffer. The cumulation buffer is borrowed from a {@link BufferPool} only
+ * while a partial frame is pending. It grows when a frame outgrows it and is only compacted when appending would
+ * otherwise run off the end of it.
+ * </p>
+ * Pipelined frames therefore decode without allocating anything per frame; only a read that needs a new view, or a
+ * cumulation buffer that needs to grow, allocates.
+ * </p>
+ * A frame longer than the maximum frame size is rejected, with an {@link InvalidFrameException}, as soon as it's
+ * header is read and before anything is allocated for it. When
+ * {@link #streamBodiesOver(int, StreamingMessageHandler, ConnectionContext) streaming} is enabled, bodies over the
+ * streaming threshold are not cumulated or decoded at all; each read's share of the body is handed to a
+ * {@link StreamingMessageHandler} as it arrives.
+ * <pre>
+ *  one read:   | hdr | body | hdr | body | hdr | bo |
+ *                \_ decoded _/ \_ decoded _/ \_ cumulated until the rest of the body arrives
+ * </pre>
+ *
+ * @param <T> the type of message decoded
+ *
+ * @NotThreadSafe a {@link FrameDecoder} belongs to one connection and must only be used by the loop thread serving it.
+ */
+public final class FrameDecoder<T> {
+	private static final Logger LOG = LoggerFactory.getLogger(FrameDecoder.class);
+	private final String id;
+	private final MessageFactory<T> messageFactory;
+	private final BufferPool bufferPool;
+	private final int maxFrameSize;
+	private final HeaderCodec headerCodec;
+	private final FrameHeader header = new FrameHeader();
+	private int streamingThreshold = Integer.MAX_VALUE;
+	private StreamingMessageHandler<T> streamHandler;
+	private ConnectionContext<T> streamContext;
+	/** Bytes of the body being streamed that are still to be read, 0 when not streaming */
+	private int streamRemaining;
+	/** Pending bytes of a partial frame, from position to limit; null when there are none */
+	private ByteBuffer cumulation;
+	private ByteBuffer cumulationView;
+
+	/**
+	 * Constructs a fully initialised {@link FrameDecoder}.
+	 *
+	 * @param id             identifier of the connection, used only for logging
+	 * @param messageFactory the {@link MessageFactory} that decodes each frame body
+	 * @param bufferPool     the {@link BufferPool} the cumulation buffer is borrowed from
+	 */
+	public FrameDecoder(final String id, final MessageFactory<T> messageFactory, final BufferPool bufferPool) {
+		this(id, messageFactory, bufferPool, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Constructs a fully initialised {@link FrameDecoder} that rejects frames with bodies over {@code maxFrameSize}.
+	 *
+	 * @param id             identifier of the connection, used only for logging
+	 * @param messageFactory the {@link MessageFactory} that decodes each frame body
+	 * @param bufferPool     the {@link BufferPool} the cumulation buffer is borrowed from
+	 * @param maxFrameSize   the largest body, in bytes, that is accepted
+	 */
+	public FrameDecoder(final String id, final MessageFactory<T> messageFactory, final BufferPool bufferPool,
+						final int maxFrameSize) {
+		this(id, messageFactory, bufferPool, maxFrameSize, new IntHeaderReader(id));
+	}
+
+	/**
+	 * Constructs a fully initialised {@link FrameDecoder} that decodes frame headers with the given
+	 * {@code headerCodec} and rejects frames with bodies over {@code maxFrameSize}.
+	 *
+	 * @param id             identifier of the connection, used only for logging
+	 * @param messageFactory the {@link MessageFactory} that decodes each frame body
+	 * @param bufferPool     the {@link BufferPool} the cumulation buffer is borrowed from
+	 * @param maxFrameSize   the largest body, in bytes, that is accepted
+	 * @param headerCodec    the {@link HeaderCodec} that decodes each frame header
+	 */
+	public FrameDecoder(final String id, final MessageFactory<T> messageFactory, final BufferPool bufferPool,
+						final int maxFrameSize, final HeaderCodec headerCodec) {
+		this.id = id;
+		this.messageFactory = messageFactory;
+		this.bufferPool = bufferPool;
+		this.maxFrameSize = maxFrameSize;
+		this.headerCodec = headerCodec;
+	}
+
+	/**
+	 * Streams, rather than decodes, every body larger than {@code threshold} bytes to the given {@code handler}.
+	 * Streamed bodies are still subject to the maximum frame size.
+	 *
+	 * @param threshold         bodies larger than this are streamed
+	 * @param handler           the {@link StreamingMessageHandler} to stream bodies to
+	 * @param connectionContext the {@link ConnectionContext} of this decoder's connection, passed to the
+	 *                          {@code handler}
+	 */
+	public void streamBodiesOver(final int threshold, final StreamingMessageHandler<T> handler,
+								 final ConnectionContext<T> connectionContext) {
+		this.streamingThreshold = threshold;
+		this.streamHandler = handler;
+		this.streamContext = connectionContext;
+	}
+
+	/**
+	 * Decodes every complete frame from the remaining bytes of the given {@code in}, preceded by any bytes left over
+	 * from earlier calls. Bytes of a trailing partial frame are kept for the next call. On return {@code in} has been
+	 * fully consumed and may be reused.
+	 *
+	 * @param in       bytes read from the connection, ready for reading
+	 * @param messages receives each decoded message, in the order the frames were read
+	 * @return the number of messages decoded
+	 * @throws InvalidFrameException    if a frame header is corrupt, or has a negative length or one longer than the
+	 *                                  maximum frame size. The connection's stream cannot be decoded any further.
+	 * @throws MessageCreationException if the {@link MessageFactory} cannot decode a frame's body
+	 */
+	public int decode(final ByteBuffer in, final Consumer<? super T> messages) {
+		if (!in.hasRemaining()) {
+			return 0;
+		}
+		int decoded;
+		if (cumulation == null) {
+			decoded = decodeFrames(in, in.asReadOnlyBuffer(), messages);
+			if (in.hasRemaining()) {
+				cumulate(in);
+			}
+		}
+		else {
+			cumulate(in);
+			decoded = decodeFrames(cumulation, cumulationView, messages);
+			if (!cumulation.hasRemaining()) {
+				releaseCumulation();
+			}
+		}
+		return decoded;
+	}
+
+	/** @return the number of bytes of a partial frame waiting for the rest of it to be read */
+	public int getPending() {
+		return cumulation == null ? 0 : cumulation.remaining();
+	}
+
+	/** @return true if part of a body has been streamed and the rest is yet to be read */
+	public boolean isStreaming() {
+		return streamRemaining > 0;
+	}
+
+	/**
+	 * Gives the cumulation buffer, if any, back to the {@link BufferPool} and discards any pending bytes. Called when
+	 * the connection closes, which also aborts any body being streamed.
+	 */
+	public void release() {
+		if (streamRemaining > 0) {
+			streamRemaining = 0;
+			streamHandler.bodyAborted(streamContext);
+		}
+		releaseCumulation();
+	}
+
+	private void releaseCumulation() {
+		if (cumulation != null) {
+			bufferPool.release(cumulation);
+			cumulation = null;
+			cumulationView = null;
+		}
+	}
+
+	private int decodeFrames(final ByteBuffer frames, final ByteBuffer view, final Consumer<? super T> messages) {
+		int decoded = 0;
+		while (frames.hasRemaining()) {
+			if (streamRemaining > 0) {
+				streamBody(frames, view);
+				continue;
+			}
+			if (!headerCodec.decode(frames, header)) {
+				break;
+			}
+			final int bodySize = header.getBodySize();
+			checkFrameSize(bodySize);
+			final int bodyStart = frames.position() + header.getHeaderSize();
+			if (streamHandler != null && bodySize > streamingThreshold) {
+				LOG.trace("[{}] Streaming body of {} bytes", id, bodySize);
+				frames.position(bodyStart);
+				streamRemaining = bodySize;
+				streamHandler.bodyStarted(streamContext, bodySize);
+				continue;
+			}
+			if (frames.limit() - bodyStart < bodySize) {
+				LOG.trace("[{}] Have {} of {} body bytes, waiting for more", id, frames.limit() - bodyStart, bodySize);
+				break;
+			}
+			view.limit(bodyStart + bodySize).position(bodyStart);
+			final T message = messageFactory.createMessage(view, header.getFlags());
+			frames.position(bodyStart + bodySize);
+			decoded++;
+			messages.accept(message);
+		}
+		return decoded;
+	}
+
+	private void checkFrameSize(final int bodySize) {
+		if (bodySize < 0) {
+			throw new InvalidFrameException("Corrupt frame, negative length " + bodySize);
+		}
+		if (bodySize > maxFrameSize) {
+			throw new InvalidFrameException("Frame of " + bodySize + " bytes is over the maximum of " + maxFrameSize);
+		}
+	}
+
+	/**
+	 * Hands as much of the body being streamed as there is in {@code frames} to the {@link #streamHandler}.
+	 *
+	 * @param frames buffer positioned at the next bytes of the body
+	 * @param view   read-only view of {@code frames} to hand over
+	 */
+	private void streamBody(final ByteBuffer frames, final ByteBuffer view) {
+		final int chunkStart = frames.position();
+		final int chunkSize = Math.min(frames.remaining(), streamRemaining);
+		view.limit(chunkStart + chunkSize).position(chunkStart);
+		streamHandler.bodyChunk(streamContext, view);
+		frames.position(chunkStart + chunkSize);
+		streamRemaining -= chunkSize;
+		if (streamRemaining == 0) {
+			LOG.trace("[{}] Finished streaming body", id);
+			streamHandler.bodyEnded(streamContext);
+		}
+	}
+
+	/**
+	 * Appends the remaining bytes of {@code in} to the {@link #cumulation} buffer, which is acquired, compacted or
+	 * grown as needed.
+	 *
+	 * @param in the bytes to append
+	 */
+	private void cumulate(final ByteBuffer in) {
+		final int incoming = in.remaining();
+		if (cumulation == null) {
+			useCumulation(bufferPool.acquire(sizeFor(in, incoming)));
+			cumulation.limit(0);
+		}
+		else if (cumulation.capacity() - cumulation.limit() < incoming) {
+			final int pending = cumulation.remaining();
+			if (cumulation.capacity() - pending >= incoming) {
+				LOG.trace("[{}] Compacting {} pending bytes", id, pending);
+				cumulation.compact().flip();
+			}
+			else {
+				final ByteBuffer grown = bufferPool.acquire(sizeFor(cumulation, pending + incoming));
+				LOG.trace("[{}] Growing cumulation buffer from {} to {} bytes", id, cumulation.capacity(),
+						  grown.capacity());
+				grown.put(cumulation).flip();
+				bufferPool.release(cumulation);
+				useCumulation(grown);
+			}
+		}
+		final int pendingStart = cumulation.position();
+		cumulation.position(cumulation.limit()).limit(cumulation.capacity());
+		cumulation.put(in);
+		cumulation.limit(cumulation.position()).position(pendingStart);
+	}
+
+	/**
+	 * Sizes a cumulation buffer so that, once the length of the partial frame is known, it grows once to fit the whole
+	 * frame rather than once per read.
+	 *
+	 * @param partialFrame buffer positioned at the start of the partial frame
+	 * @param bytes        the bytes the cumulation buffer must hold now
+	 * @return the size of cumulation buffer to acquire
+	 */
+	private int sizeFor(final ByteBuffer partialFrame, final int bytes) {
+		if (headerCodec.decode(partialFrame, header)) {
+			return Math.max(bytes, header.getHeaderSize() + header.getBodySize());
+		}
+		return bytes;
+	}
+
+	private void useCumulation(final ByteBuffer buffer) {
+		cumulation = buffer;
+		cumulationView = buffer.asReadOnlyBuffer();
+	}
+}
@@ -0,0 +1,17 @@
+package org.mjd.repro.readers;
+
+/**
+ * Thrown by a {@link FrameDecoder} when a frame header announces a body that cannot be valid, that is, a negative
+ * length or one larger than the maximum frame size. The stream cannot be decoded any further and the connection
+ * should be closed.
+ */
+public final class InvalidFrameException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @param message description of the invalid frame
+	 */
+	public InvalidFrameException(final String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,56 @@
+package org.mjd.repro.readers.header;
+
+import java.nio.ByteBuffer;
+
+import org.mjd.repro.message.factory.MessageFactory;
+
+/**
+ * {@link HeaderCodec} for an extended header: the body size as a varint, see {@link VarIntHeaderCodec}, followed by a
+ * single byte of frame flags. The flags are the protocol's own to define, e.g. a compressed or one-way bit, and are
+ * handed to the {@link MessageFactory} along with the body.
+ * <pre>
+ * +-----------+-------+------------------+
+ * | 1-5 bytes | 1 byte|                  |
+ * |  varint   | flags |       body       |
+ * +-----------+-------+------------------+
+ * </pre>
+ *
+ * @ThreadSafe
+ */
+public final class FlaggedHeaderCodec implements HeaderCodec {
+	/** Maximum size, in bytes, of the header */
+	public static final int MAX_SIZE = VarIntHeaderCodec.MAX_SIZE + 1;
+	/** Largest flags value the header can carry */
+	public static final int MAX_FLAGS = 0xFF;
+
+	@Override
+	public int getMaxSize() {
+		return MAX_SIZE;
+	}
+
+	@Override
+	public int encodedSize(final int bodySize, final int flags) {
+		return VarIntHeaderCodec.sizeOf(bodySize) + 1;
+	}
+
+	@Override
+	public boolean decode(final ByteBuffer buffer, final FrameHeader header) {
+		final int start = buffer.position();
+		final int sizeBytes = VarIntHeaderCodec.decodeVarInt(buffer, start);
+		if (sizeBytes == 0 || buffer.limit() - start <= sizeBytes) {
+			return false;
+		}
+		header.set(sizeBytes + 1, VarIntHeaderCodec.varIntValue(buffer, start, sizeBytes),
+				   buffer.get(start + sizeBytes) & MAX_FLAGS);
+		return true;
+	}
+
+	@Override
+	public void encode(final ByteBuffer buffer, final int bodySize, final int flags) {
+		if (flags < 0 || flags > MAX_FLAGS) {
+			throw new IllegalArgumentException("Flags must fit in a byte: " + flags);
+		}
+		VarIntHeaderCodec.encodeVarInt(buffer, bodySize);
+		buffer.put((byte) flags);
+	}
+}
@@ -0,0 +1,46 @@
+package org.mjd.repro.readers.header;
+
+/**
+ * The decoded header of one frame, as filled in by a {@link HeaderCodec}. A {@link FrameHeader} is reused for every
+ * frame a connection reads so decoding headers allocates nothing.
+ *
+ * @NotThreadSafe
+ */
+public final class FrameHeader {
+	private int headerSize;
+	private int bodySize;
+	private int flags;
+
+	/**
+	 * Sets all the values of this header.
+	 *
+	 * @param headerSize the size, in bytes, the header took on the wire
+	 * @param bodySize   the size, in bytes, of the body following the header
+	 * @param flags      the frame flags, 0 if the header carries none
+	 */
+	public void set(final int headerSize, final int bodySize, final int flags) {
+		this.headerSize = headerSize;
+		this.bodySize = bodySize;
+		this.flags = flags;
+	}
+
+	/** @return the size, in bytes, the header took on the wire */
+	public int getHeaderSize() {
+		return headerSize;
+	}
+
+	/** @return the size, in bytes, of the body following the header */
+	public int getBodySize() {
+		return bodySize;
+	}
+
+	/** @return the frame flags, 0 if the header carries none */
+	public int getFlags() {
+		return flags;
+	}
+
+	@Override
+	public String toString() {
+		return "FrameHeader [headerSize=" + headerSize + ", bodySize=" + bodySize + ", flags=" + flags + "]";
+	}
+}
@@ -0,0 +1,57 @@
+package org.mjd.repro.readers.header;
+
+import java.nio.ByteBuffer;
+
+import org.mjd.repro.readers.FrameDecoder;
+import org.mjd.repro.readers.InvalidFrameException;
+
+/**
+ * A {@link HeaderCodec} decodes and encodes the header that prefixes every frame on the wire. It is the stateless
+ * counterpart of a {@link HeaderReader}: rather than gathering header bytes over several reads, it peeks at a header
+ * in a buffer that the {@link FrameDecoder} already cumulates and simply reports when the header is not yet whole.
+ * This lets headers be of variable length, e.g. {@link VarIntHeaderCodec}, and carry more than the body size, e.g.
+ * {@link FlaggedHeaderCodec}.
+ * </p>
+ * The same codec decodes requests and encodes responses, so the client and the server must agree on it.
+ *
+ * @ThreadSafe implementations must be stateless; one codec is shared by every connection of a server.
+ */
+public interface HeaderCodec {
+
+	/**
+	 * @return the largest number of bytes a header encoded by this codec can take
+	 */
+	int getMaxSize();
+
+	/**
+	 * By default {@link #getMaxSize()}, which suits codecs whose headers are all the same size.
+	 *
+	 * @param bodySize the size, in bytes, of the body that follows the header
+	 * @param flags    the frame flags
+	 * @return the number of bytes {@link #encode(ByteBuffer, int, int)} takes to encode the given header
+	 */
+	default int encodedSize(final int bodySize, final int flags) {
+		return getMaxSize();
+	}
+
+	/**
+	 * Decodes the header at the position of the given {@code buffer}, without moving it's position. Only the bytes up to
+	 * the buffer's limit may be looked at.
+	 *
+	 * @param buffer buffer positioned at the start of a frame
+	 * @param header receives the decoded header, only written to when the header is whole
+	 * @return true if the whole header was in the buffer and has been decoded into {@code header}, false if more bytes
+	 *         must be read first
+	 * @throws InvalidFrameException if the bytes cannot be a valid header
+	 */
+	boolean decode(ByteBuffer buffer, FrameHeader header);
+
+	/**
+	 * Encodes a header at the position of the given {@code buffer}, moving it's position past the header.
+	 *
+	 * @param buffer   the buffer to encode into, with at least {@link #getMaxSize()} bytes remaining
+	 * @param bodySize the size, in bytes, of the body that follows the header
+	 * @param flags    the frame flags. Codecs that do not carry flags ignore them.
+	 */
+	void encode(ByteBuffer buffer, int bodySize, int flags);
+}
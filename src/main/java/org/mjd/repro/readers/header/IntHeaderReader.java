@@ -13,8 +13,11 @@ import org.slf4j.LoggerFactory;
  *
  * As mandated by {@link HeaderReader} this implementation will work across multiple calls to
  * {@link #readHeader(ByteBuffer)} and/or {@link #readHeader(ByteBuffer, int)}.
+ * </p>
+ * It is also the default {@link HeaderCodec} of a server, decoding and encoding a 4 byte big-endian body size with no
+ * flags. Only it's {@link HeaderReader} side holds state; as a {@link HeaderCodec} one instance may be shared.
  */
-public final class IntHeaderReader implements HeaderReader<Integer> {
+public final class IntHeaderReader implements HeaderReader<Integer>, HeaderCodec {
 	private static final Logger LOG = LoggerFactory.getLogger(IntHeaderReader.class);
 	private static final int headerSize = Integer.BYTES;
 
@@ -109,6 +112,25 @@ public final class IntHeaderReader implements HeaderReader<Integer> {
 		return headerSize;
 	}
 
+	@Override
+	public int getMaxSize() {
+		return headerSize;
+	}
+
+	@Override
+	public boolean decode(final ByteBuffer buffer, final FrameHeader header) {
+		if (buffer.remaining() < headerSize) {
+			return false;
+		}
+		header.set(headerSize, buffer.getInt(buffer.position()), 0);
+		return true;
+	}
+
+	@Override
+	public void encode(final ByteBuffer buffer, final int bodySize, final int flags) {
+		buffer.putInt(bodySize);
+	}
+
 	private static boolean thereIsOnlyPartOfTheDataInThe(final ByteBuffer buffer) {
 		return buffer.remaining() < headerSize;
 	}
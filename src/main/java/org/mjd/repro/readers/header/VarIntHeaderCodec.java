@@ -0,0 +1,124 @@
+package org.mjd.repro.readers.header;
+
+import java.nio.ByteBuffer;
+
+import org.mjd.repro.readers.InvalidFrameException;
+
+/**
+ * {@link HeaderCodec} for a header that is just the body size as a protobuf style base 128 varint. Each byte carries 7
+ * bits of the size, least significant group first, with the top bit set on every byte but the last. Bodies under 128
+ * bytes therefore cost a single header byte, rather than the 4 of an {@link IntHeaderReader}, and no body a server
+ * accepts needs more than 5.
+ * <pre>
+ *  300 = 0b10_0101100  =>  | 1 0101100 | 0 0000010 |
+ *                             more        last
+ * </pre>
+ *
+ * @ThreadSafe
+ */
+public final class VarIntHeaderCodec implements HeaderCodec {
+	/** Maximum size, in bytes, of a varint encoded int */
+	public static final int MAX_SIZE = 5;
+	private static final int MORE = 0x80;
+	private static final int SEVEN_BITS = 0x7F;
+
+	@Override
+	public int getMaxSize() {
+		return MAX_SIZE;
+	}
+
+	@Override
+	public int encodedSize(final int bodySize, final int flags) {
+		return sizeOf(bodySize);
+	}
+
+	@Override
+	public boolean decode(final ByteBuffer buffer, final FrameHeader header) {
+		final int start = buffer.position();
+		final int headerSize = decodeVarInt(buffer, start);
+		if (headerSize == 0) {
+			return false;
+		}
+		header.set(headerSize, varIntValue(buffer, start, headerSize), 0);
+		return true;
+	}
+
+	@Override
+	public void encode(final ByteBuffer buffer, final int bodySize, final int flags) {
+		encodeVarInt(buffer, bodySize);
+	}
+
+	/**
+	 * @param value the value to encode
+	 * @return the number of bytes {@code value} takes as a varint
+	 */
+	public static int sizeOf(final int value) {
+		if ((value & (~0 << 7)) == 0) {
+			return 1;
+		}
+		if ((value & (~0 << 14)) == 0) {
+			return 2;
+		}
+		if ((value & (~0 << 21)) == 0) {
+			return 3;
+		}
+		if ((value & (~0 << 28)) == 0) {
+			return 4;
+		}
+		return MAX_SIZE;
+	}
+
+	/**
+	 * Writes {@code value} as a varint at the position of {@code buffer}.
+	 *
+	 * @param buffer the buffer to write to
+	 * @param value  the value to write
+	 */
+	static void encodeVarInt(final ByteBuffer buffer, final int value) {
+		int remaining = value;
+		while ((remaining & ~SEVEN_BITS) != 0) {
+			buffer.put((byte) ((remaining & SEVEN_BITS) | MORE));
+			remaining >>>= 7;
+		}
+		buffer.put((byte) remaining);
+	}
+
+	/**
+	 * Finds the end of the varint at {@code start} of {@code buffer}.
+	 *
+	 * @param buffer the buffer to read, it's position is not moved
+	 * @param start  the index of the first byte of the varint
+	 * @return the number of bytes in the varint, or 0 if the buffer ends before it does
+	 * @throws InvalidFrameException if the varint is longer than an int allows
+	 */
+	static int decodeVarInt(final ByteBuffer buffer, final int start) {
+		final int available = Math.min(buffer.limit() - start, MAX_SIZE);
+		for (int i = 0; i < available; i++) {
+			final byte b = buffer.get(start + i);
+			if ((b & MORE) == 0) {
+				if (i == MAX_SIZE - 1 && (b & 0xF0) != 0) {
+					throw new InvalidFrameException("Corrupt frame, varint length overflows an int");
+				}
+				return i + 1;
+			}
+		}
+		if (available == MAX_SIZE) {
+			throw new InvalidFrameException("Corrupt frame, varint length is longer than " + MAX_SIZE + " bytes");
+		}
+		return 0;
+	}
+
+	/**
+	 * @param buffer the buffer holding a whole varint
+	 * @param start  the index of the first byte of the varint
+	 * @param size   the number of bytes in the varint, as returned by {@link #decodeVarInt(ByteBuffer, int)}
+	 * @return the value of the varint
+	 */
+	static int varIntValue(final ByteBuffer buffer, final int start, final int size) {
+		int value = 0;
+		for (int i = 0; i < size; i++) {
+			value |= (buffer.get(start + i) & SEVEN_BITS) << (7 * i);
+		}
+		return value;
+	}
+}
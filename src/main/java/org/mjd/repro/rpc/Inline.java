@@ -0,0 +1,25 @@
+package org.mjd.repro.rpc;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The {@link Inline} annotation marks a method of an RPC target as cheap enough, e.g. a getter or counter, to be
+ * invoked straight away on the selector thread that read the request, rather than handed to the invoker's executor.
+ * If the handler has pooled responses, see {@link org.mjd.repro.handlers.rpcrequest.RpcResponder}, it's response is
+ * also queued for writing from that thread, skipping the server's job executor too.
+ * </p>
+ * An inline method must not block, as every other client of the selector loop waits whilst it runs. With pooled
+ * responses it's response may overtake responses to requests from the same client that are still being invoked;
+ * otherwise the job executor writes it in turn. Methods are matched by name, as
+ * {@link org.mjd.repro.message.RpcRequest}s name them, so an overloaded method must be annotated on every public
+ * overload or none; a handler is refused for a target that annotates only some, lest an unannotated, possibly blocking,
+ * overload run on the selector thread.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Inline {
+	// Marker annotation
+}
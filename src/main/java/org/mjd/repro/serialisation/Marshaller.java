@@ -1,9 +1,69 @@
 package org.mjd.repro.serialisation;
 
+import java.nio.ByteBuffer;
+
+import org.mjd.repro.buffer.BufferPool;
+import org.mjd.repro.handlers.response.ResponseBuffer;
+
 public interface Marshaller {
 
 	<T> byte[] marshall(T object, Class<T> type);
 
 	<T> T unmarshall(byte[] bytesRead, Class<T> type);
 
+	/**
+	 * Unmarshalls an object from the remaining bytes of the given {@code bytesRead}, that is, from it's position to
+	 * it's limit. The buffer may be a read-only view over a reused receive buffer, implementations must not keep a
+	 * reference to it.
+	 * </p>
+	 * The default copies the bytes into a new array and calls {@link #unmarshall(byte[], Class)}. Override it to
+	 * decode in place.
+	 *
+	 * @param bytesRead the bytes to unmarshall
+	 * @param type      the type of object to unmarshall
+	 * @return the unmarshalled object
+	 */
+	default <T> T unmarshall(final ByteBuffer bytesRead, final Class<T> type) {
+		final byte[] bytes = new byte[bytesRead.remaining()];
+		bytesRead.duplicate().get(bytes);
+		return unmarshall(bytes, type);
+	}
+
+	/**
+	 * Marshalls an object into the given {@code buffer}, from it's position, growing it through the given
+	 * {@code pool} if it does not fit, see {@link BufferPool#ensureRemaining(ByteBuffer, int)}.
+	 * </p>
+	 * The default marshalls into a new array with {@link #marshall(Object, Class)} and copies it in. Override it to
+	 * marshall in place, so that marshalling costs no new arrays.
+	 *
+	 * @param object the object to marshall
+	 * @param type   the type of the object
+	 * @param buffer a buffer from the {@code pool} to marshall into, from it's position
+	 * @param pool   the {@link BufferPool} to grow the {@code buffer} from
+	 * @return the buffer marshalled into, the given one or a larger one from the {@code pool}, positioned after the
+	 *         marshalled bytes
+	 */
+	default <T> ByteBuffer marshall(final T object, final Class<T> type, final ByteBuffer buffer,
+									final BufferPool pool) {
+		final byte[] bytes = marshall(object, type);
+		return pool.ensureRemaining(buffer, bytes.length).put(bytes);
+	}
+
+	/**
+	 * Marshalls an object into a buffer from the given {@code pool}, leaving {@link ResponseBuffer#HEADROOM} in front
+	 * of it for a request ID and frame header to be written in place. The buffer goes back to the pool once the
+	 * response is written, see {@link ResponseBuffer#release()}.
+	 *
+	 * @param object the object to marshall
+	 * @param type   the type of the object
+	 * @param pool   the {@link BufferPool} to marshall into a buffer from
+	 * @return a pooled {@link ResponseBuffer} of the marshalled object
+	 */
+	default <T> ResponseBuffer marshallResponse(final T object, final Class<T> type, final BufferPool pool) {
+		final ByteBuffer start = pool.acquire(Math.max(pool.getMinBufferSize(), ResponseBuffer.HEADROOM * 2));
+		start.position(ResponseBuffer.HEADROOM);
+		final ByteBuffer marshalled = marshall(object, type, start, pool);
+		marshalled.limit(marshalled.position()).position(ResponseBuffer.HEADROOM);
+		return ResponseBuffer.pooled(marshalled, ResponseBuffer.HEADROOM, pool);
+	}
 }
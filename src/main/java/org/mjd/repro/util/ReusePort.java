@@ -0,0 +1,59 @@
+package org.mjd.repro.util;
+
+import java.io.IOException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Utility functions for the SO_REUSEPORT socket option.
+ * </p>
+ * {@code StandardSocketOptions.SO_REUSEPORT} only exists from Java 9 onwards and, even then, not every platform
+ * supports it. It is therefore looked up reflectively so this library still runs on Java 8; callers should check
+ * {@link #isSupportedBy(NetworkChannel)} and fall back when it returns false.
+ */
+public final class ReusePort {
+	private static final Logger LOG = LoggerFactory.getLogger(ReusePort.class);
+	private static final Optional<SocketOption<Boolean>> SO_REUSEPORT = lookupOption();
+
+	private ReusePort() {
+		// Utility functions
+	}
+
+	/**
+	 * @param channel the channel to check, typically an unbound server socket channel
+	 * @return true if this runtime exposes SO_REUSEPORT and the given {@code channel} supports it
+	 */
+	public static boolean isSupportedBy(final NetworkChannel channel) {
+		return SO_REUSEPORT.isPresent() && channel.supportedOptions().contains(SO_REUSEPORT.get());
+	}
+
+	/**
+	 * Enables SO_REUSEPORT on the given {@code channel}. This must happen before the channel is bound.
+	 *
+	 * @param channel the unbound channel to enable SO_REUSEPORT on
+	 * @throws IOException if the option cannot be set
+	 * @throws UnsupportedOperationException if the option is not supported, see {@link #isSupportedBy(NetworkChannel)}
+	 */
+	public static void enable(final NetworkChannel channel) throws IOException {
+		if (!isSupportedBy(channel)) {
+			throw new UnsupportedOperationException("SO_REUSEPORT is not supported by " + channel);
+		}
+		channel.setOption(SO_REUSEPORT.get(), true);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Optional<SocketOption<Boolean>> lookupOption() {
+		try {
+			return Optional.of((SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null));
+		}
+		catch (final NoSuchFieldException | IllegalAccessException e) {
+			LOG.debug("SO_REUSEPORT is not available in this runtime");
+			return Optional.empty();
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package org.mjd.repro.util.thread;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link KeyedExecutor} runs tasks submitted with a key, e.g. the client connection a task is for. Implementations
+ * decide what the key means; an {@link OrderedKeyedExecutor} runs the tasks of each key in order.
+ */
+public interface KeyedExecutor {
+
+	/**
+	 * Submits a task to be run for the given {@code key}
+	 *
+	 * @param <T>  the type of the task's result
+	 * @param key  the key the task is for, may be null
+	 * @param task the task to run
+	 * @return a {@link Future} of the task's result
+	 */
+	<T> Future<T> submit(Object key, Callable<T> task);
+
+	/**
+	 * Adapts an {@link ExecutorService} that ignores keys, so tasks for the same key may run in any order, or at once
+	 *
+	 * @param executor the {@link ExecutorService} to submit every task to
+	 * @return a {@link KeyedExecutor} that submits to the given {@code executor}
+	 */
+	static KeyedExecutor unordered(final ExecutorService executor) {
+		return new KeyedExecutor() {
+			@Override
+			public <T> Future<T> submit(final Object key, final Callable<T> task) {
+				return executor.submit(task);
+			}
+		};
+	}
+}
@@ -0,0 +1,169 @@
+package org.mjd.repro.util.thread;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link KeyedExecutor} that runs the tasks of each key strictly in the order they were submitted, one at a time,
+ * whilst the tasks of different keys run in parallel on a shared pool. No thread is dedicated to a key: each key with
+ * tasks waiting has a queue that is run as a single task on the pool, which drains it and retires it once it is empty.
+ * A queue hands it's pool thread back after {@link #MAX_TASKS_PER_TURN} tasks, going to the back of the pool's queue
+ * if it has more, so a key with a steady stream of tasks cannot keep a thread from the others.
+ * </p>
+ * A null key is a key like any other. The {@link ListenableFuture}s returned let a caller act on a task's completion
+ * without waiting for it.
+ * </p>
+ * If the pool rejects a key's queue, e.g., because it is shut down or saturated, the queue is retired and the tasks
+ * left in it are dropped, their {@link Future}s cancelled, so nothing waits on them forever. A task whose submission
+ * was rejected is rejected to it's caller; a later task for the key starts a new queue.
+ *
+ * @ThreadSafe
+ */
+public final class OrderedKeyedExecutor implements KeyedExecutor {
+	/** The number of a key's tasks run in a row before it's queue hands back it's pool thread */
+	public static final int MAX_TASKS_PER_TURN = 16;
+	private static final Logger LOG = LoggerFactory.getLogger(OrderedKeyedExecutor.class);
+	private static final Object NULL_KEY = new Object();
+	private final ConcurrentMap<Object, KeyQueue> queues = new ConcurrentHashMap<>();
+	private final Executor pool;
+
+	/**
+	 * Constructs a fully initialised {@link OrderedKeyedExecutor}
+	 *
+	 * @param pool the {@link Executor} whose threads run the tasks, shared by every key
+	 */
+	public OrderedKeyedExecutor(final Executor pool) {
+		this.pool = pool;
+	}
+
+	@Override
+	public <T> ListenableFuture<T> submit(final Object key, final Callable<T> task) {
+		final ListenableFutureTask<T> future = ListenableFutureTask.create(task);
+		execute(key, future);
+		return future;
+	}
+
+	/**
+	 * Runs the given {@code task} once every task submitted before it for the same {@code key} has run
+	 *
+	 * @param key  the key the task is for, may be null
+	 * @param task the task to run
+	 * @throws RejectedExecutionException if the pool rejects the key's queue, which is then abandoned
+	 */
+	public void execute(final Object key, final Runnable task) {
+		final Object queueKey = key == null ? NULL_KEY : key;
+		while (true) {
+			final KeyQueue queue = queues.computeIfAbsent(queueKey, KeyQueue::new);
+			final boolean schedule;
+			synchronized (queue) {
+				if (queue.retired) {
+					// Drained and removed since we found it, a new queue will take it's place
+					continue;
+				}
+				queue.tasks.add(task);
+				schedule = !queue.running;
+				queue.running = true;
+			}
+			if (schedule) {
+				try {
+					pool.execute(queue);
+				}
+				catch (final RejectedExecutionException e) {
+					queue.abandon(e);
+					throw e;
+				}
+			}
+			return;
+		}
+	}
+
+	/** @return the number of keys with tasks waiting or running */
+	public int getActiveKeys() {
+		return queues.size();
+	}
+
+	/**
+	 * The tasks waiting for one key, run as one task on the {@link #pool}. Once drained it is retired and removed so
+	 * idle keys, e.g., closed connections, hold nothing.
+	 *
+	 * @NotThreadSafe guarded by itself
+	 */
+	private final class KeyQueue implements Runnable {
+		private final Object key;
+		private final Queue<Runnable> tasks = new ArrayDeque<>();
+		private boolean running;
+		private boolean retired;
+
+		KeyQueue(final Object key) {
+			this.key = key;
+		}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < MAX_TASKS_PER_TURN; i++) {
+				final Runnable next;
+				synchronized (this) {
+					next = tasks.poll();
+					if (next == null) {
+						running = false;
+						retired = true;
+					}
+				}
+				if (next == null) {
+					queues.remove(key, this);
+					return;
+				}
+				runSafely(next);
+			}
+			try {
+				pool.execute(this);
+			}
+			catch (final RejectedExecutionException e) {
+				abandon(e);
+			}
+		}
+
+		/**
+		 * Retires this queue after the pool rejected it, dropping the tasks left in it and cancelling those that are
+		 * {@link Future}s, as they would otherwise never run
+		 */
+		private void abandon(final RejectedExecutionException e) {
+			final List<Runnable> abandoned;
+			synchronized (this) {
+				abandoned = new ArrayList<>(tasks);
+				tasks.clear();
+				running = false;
+				retired = true;
+			}
+			queues.remove(key, this);
+			LOG.warn("Pool rejected the tasks for key {}, dropping {} tasks: {}", key, abandoned.size(), e.toString());
+			for (final Runnable task : abandoned) {
+				if (task instanceof Future) {
+					((Future<?>) task).cancel(false);
+				}
+			}
+		}
+
+		private void runSafely(final Runnable task) {
+			try {
+				task.run();
+			}
+			catch (final RuntimeException e) {
+				LOG.error("Task for key {} failed", key, e);
+			}
+		}
+	}
+}
@@ -1,5 +1,11 @@
 package org.mjd.repro.util.thread;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -8,6 +14,9 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * Simple Thread utilities and syntactic sugar.
  */
 public final class Threads {
+	/** {@code Thread.isVirtual()}, or null if the runtime has no virtual threads */
+	private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+
 	private Threads() {
 		// Util class
 	}
@@ -15,4 +24,49 @@ public final class Threads {
 	public static ThreadFactory called(final String name) {
 		return new ThreadFactoryBuilder().setNameFormat(name).build();
 	}
+
+	/**
+	 * Creates an {@link ExecutorService} that runs each task on a new virtual thread, if the runtime has them, that is,
+	 * Java 21 or later. The build targets Java 8, so the executor is looked up reflectively.
+	 *
+	 * @return an {@link ExecutorService} that starts a virtual thread per task, or empty if the runtime has no virtual
+	 *         threads, or they are a preview feature that is not enabled
+	 */
+	public static Optional<ExecutorService> newVirtualThreadPerTaskExecutor() {
+		try {
+			return Optional.of((ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null));
+		}
+		catch (final ReflectiveOperationException | UnsupportedOperationException e) {
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Whether the given thread is a virtual thread. The build targets Java 8, so {@code Thread.isVirtual()} is looked up
+	 * reflectively, once.
+	 *
+	 * @param thread the {@link Thread} to check
+	 * @return true if {@code thread} is a virtual thread, false if it is a platform thread or the runtime has no virtual
+	 *         threads
+	 */
+	public static boolean isVirtual(final Thread thread) {
+		if (IS_VIRTUAL == null) {
+			return false;
+		}
+		try {
+			return (boolean) IS_VIRTUAL.invokeExact(thread);
+		}
+		catch (final Throwable e) {
+			return false;
+		}
+	}
+
+	private static MethodHandle findIsVirtual() {
+		try {
+			return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+		}
+		catch (final ReflectiveOperationException e) {
+			return null;
+		}
+	}
 }
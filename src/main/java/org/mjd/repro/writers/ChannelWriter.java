@@ -2,6 +2,14 @@ package org.mjd.repro.writers;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
+import java.util.List;
+
+import org.mjd.repro.buffer.BufferPool;
+import org.mjd.repro.handlers.message.MessageHandler;
+import org.mjd.repro.handlers.message.MessageHandler.ConnectionContext;
+import org.mjd.repro.handlers.response.FileRegion;
+import org.mjd.repro.handlers.response.ResponseBuffer;
+import org.mjd.repro.serialisation.Marshaller;
 
 public interface ChannelWriter<MsgType, K extends SelectionKey> {
 
@@ -14,6 +22,34 @@ public interface ChannelWriter<MsgType, K extends SelectionKey> {
 	 */
 	void prepWrite(SelectionKey key, MsgType message, ByteBuffer resultToWrite);
 
+	/**
+	 * Prepares the responses to several messages from the same key to be written together. Implementations that can
+	 * should queue them with a single hand over to the selector loop. The default calls
+	 * {@link #prepWrite(SelectionKey, Object, ByteBuffer)} for each in turn.
+	 *
+	 * @param key            the {@link SelectionKey} to write the responses to
+	 * @param messages       the messages responded to
+	 * @param resultsToWrite the response to each of the {@code messages}, in the same order, ready for reading
+	 */
+	default void prepWrites(final SelectionKey key, final List<MsgType> messages, final List<ByteBuffer> resultsToWrite) {
+		for (int i = 0; i < messages.size(); i++) {
+			prepWrite(key, messages.get(i), resultsToWrite.get(i));
+		}
+	}
+
+	/**
+	 * Prepares a response already held in a {@link ResponseBuffer} to be written, e.g., one marshalled into a pooled
+	 * buffer with headroom, see {@link Marshaller#marshallResponse(Object, Class, BufferPool)}, or one whose body is a
+	 * {@link FileRegion}, see {@link ResponseBuffer#of(FileRegion)}. The {@code response} is released once written, or
+	 * discarded. {@link MessageHandler}s that write their own responses call this through their
+	 * {@link ConnectionContext}.
+	 *
+	 * @param key      the {@link SelectionKey} to write the response to
+	 * @param message  the message responded to
+	 * @param response the response, which the {@link ChannelWriter} now owns
+	 */
+	void prepWrite(SelectionKey key, MsgType message, ResponseBuffer response);
+
 	void write(K key);
 
 }
@@ -0,0 +1,157 @@
+package org.mjd.repro.writers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.WritableByteChannel;
+
+import org.mjd.repro.handlers.response.FileRegion;
+import org.mjd.repro.handlers.response.ResponseBuffer;
+import org.mjd.repro.readers.header.HeaderCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of a {@link Writer} that writes a response ending in a {@link FileRegion}, see
+ * {@link ResponseBuffer#of(FileRegion)}, framed as a {@link SizeHeaderWriter} frames a response. The header, encoded
+ * with the given {@link HeaderCodec} for the size of the whole body, is prepended into the {@link ResponseBuffer}
+ * along with anything refiners prepended, and written first; the file's bytes then follow with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which the JDK turns into a {@code sendfile} to a
+ * socket, so they are never copied onto the heap.
+ * </p>
+ * Like every {@link Writer}, each {@link #write()} writes what the channel takes and stops when it takes nothing more.
+ * A transfer left part way resumes from where it stopped the next time the channel is writable. As the transfer must
+ * be made by this {@link Writer}, it exposes no {@link #getBuffers() buffers} to be gathered with other responses.
+ * </p>
+ * As with a {@link SizeHeaderWriter}, a failed write is not reset for another attempt: part of the frame may already
+ * be on the wire, so the error is thrown and the connection closed. The {@link FileRegion} is released once it is
+ * sent, or via {@link #release()} if the response is discarded.
+ *
+ * @NotThreadSafe
+ */
+public final class FileRegionWriter implements Writer {
+	private static final Logger LOG = LoggerFactory.getLogger(FileRegionWriter.class);
+
+	private final WritableByteChannel channel;
+	private final Object id;
+	/** The header followed by anything prepended to the file's bytes */
+	private final ByteBuffer[] head;
+	private final ResponseBuffer response;
+	private final FileRegion fileRegion;
+	private long transferred;
+
+	/**
+	 * Constructs a fully initialised {@link FileRegionWriter} that can write the given {@link ResponseBuffer} to the
+	 * given {@link Channel}, prefixed by a header encoded with the given {@code headerCodec}. The header is prepended
+	 * into the {@code response}.
+	 *
+	 * @param id          identifier for this {@link Writer}. Used only for logging.
+	 * @param channel     the {@link Channel} to write the data to
+	 * @param response    the {@link ResponseBuffer} to write to the {@link Channel}, ending in a {@link FileRegion}
+	 * @param headerCodec the {@link HeaderCodec} that encodes the header
+	 */
+	public FileRegionWriter(final Object id, final WritableByteChannel channel, final ResponseBuffer response,
+							final HeaderCodec headerCodec) {
+		if (response.getFileRegion() == null) {
+			throw new IllegalArgumentException("Response " + response + " does not end in a file region");
+		}
+		this.id = id;
+		this.channel = channel;
+		this.response = response;
+		this.fileRegion = response.getFileRegion();
+		final int bodySize = response.remaining();
+		headerCodec.encode(response.prepend(headerCodec.encodedSize(bodySize, 0)), bodySize, 0);
+		this.head = response.getSegments();
+		LOG.trace("[{}] Writer created for {}; the body is '{}' bytes", id, fileRegion, bodySize);
+	}
+
+	@Override
+	public void write() throws IOException {
+		if (writeHead() && transfer()) {
+			LOG.trace("[{}] {} sent", id, fileRegion);
+			release();
+		}
+	}
+
+	/**
+	 * Writes as much of the {@link #head} as the channel takes
+	 *
+	 * @return true if the whole {@link #head} has been written
+	 * @throws IOException if the channel cannot be written to
+	 */
+	private boolean writeHead() throws IOException {
+		for (final ByteBuffer buffer : head) {
+			while (buffer.hasRemaining()) {
+				final long written = channel instanceof GatheringByteChannel
+						? ((GatheringByteChannel) channel).write(head)
+						: channel.write(buffer);
+				if (written == 0) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Transfers as much of the rest of the {@link #fileRegion} as the channel takes
+	 *
+	 * @return true if the whole {@link #fileRegion} has been transferred
+	 * @throws IOException if the file cannot be read, has shrunk, or the channel cannot be written to
+	 */
+	private boolean transfer() throws IOException {
+		final FileChannel file = fileRegion.getFile();
+		while (transferred < fileRegion.getCount()) {
+			final long position = fileRegion.getPosition() + transferred;
+			final long sent = file.transferTo(position, fileRegion.getCount() - transferred, channel);
+			LOG.trace("[{}] Transferred {} bytes, {} of {} in all", id, sent, transferred + sent, fileRegion.getCount());
+			if (sent == 0) {
+				if (file.size() <= position) {
+					throw new IOException(fileRegion + " is past the end of it's file, which has shrunk to "
+										  + file.size() + " bytes");
+				}
+				return false;
+			}
+			transferred += sent;
+		}
+		return true;
+	}
+
+	@Override
+	public long remaining() {
+		long remaining = fileRegion.getCount() - transferred;
+		for (final ByteBuffer buffer : head) {
+			remaining += buffer.remaining();
+		}
+		return remaining;
+	}
+
+	@Override
+	public boolean isComplete() {
+		return remaining() == 0;
+	}
+
+	@Override
+	public void release() {
+		response.release();
+	}
+
+	/**
+	 * Static factory method for creating {@link FileRegionWriter}s. Offers a more declarative syntactic sugar for
+	 * clients that may have a Selection key rather than a {@link Channel}
+	 *
+	 * @param key         the {@link SelectionKey} that associated with the {@link Channel} the writer should use
+	 * @param response    the {@link ResponseBuffer} to write to the {@link Channel}, ending in a {@link FileRegion}
+	 * @param headerCodec the {@link HeaderCodec} that encodes the header
+	 * @return a new {@link FileRegionWriter}
+	 *
+	 * @see FileRegionWriter#FileRegionWriter(Object, WritableByteChannel, ResponseBuffer, HeaderCodec)
+	 */
+	public static FileRegionWriter from(final SelectionKey key, final ResponseBuffer response,
+										final HeaderCodec headerCodec) {
+		return new FileRegionWriter(key.attachment(), (WritableByteChannel) key.channel(), response, headerCodec);
+	}
+}
@@ -3,126 +3,328 @@ package org.mjd.repro.writers;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
-import java.nio.channels.Channel;
 import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Queue;
+import java.util.concurrent.Executor;
 import java.util.function.BiFunction;
 
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ListMultimap;
+import org.mjd.repro.connection.Connection;
+import org.mjd.repro.handlers.response.FileRegion;
+import org.mjd.repro.handlers.response.ResponseBuffer;
+import org.mjd.repro.handlers.response.ResponseBufferRefiner;
 import org.mjd.repro.handlers.response.ResponseRefiner;
+import org.mjd.repro.loop.LoopTaskQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static java.nio.channels.SelectionKey.OP_READ;
 import static java.nio.channels.SelectionKey.OP_WRITE;
+import static org.mjd.repro.util.SelectionKeys.closeChannel;
 
 /**
  * The {@link RefiningChannelWriter} is an implementation of a {@link ChannelWriter}.
  *
  * It is able to maintain a collection of {@link Writer} instances associated with a {@link SelectionKey} and
- * trigger each of them to write when requested.</br>
+ * trigger each of them to write when requested. The {@link Writer}s are queued on the {@link Connection} attached to
+ * the key.</br>
  * As part of writing, this class can refined the response data before sending it to the Writer. This is configured
- * by passing a list of {@link ResponseRefiner} instances at construction time.
- *
+ * by passing a list of {@link ResponseBufferRefiner} instances at construction time. Each response is wrapped in a
+ * {@link ResponseBuffer} that the refiners, and then the {@link Writer}, prepend into without copying it; a
+ * {@link ResponseRefiner} joins the chain through {@link ResponseBufferRefiner#adapt(ResponseRefiner)}. A response
+ * handed over already in a {@link ResponseBuffer}, see {@link #prepWrite(SelectionKey, Object, ResponseBuffer)}, is
+ * refined the same way, into whatever headroom it's producer reserved; one whose body is a {@link FileRegion} is
+ * refined in front of the file's bytes, and it's {@link Writer} sends the file straight from disk.
+ * </p>
+ * {@link #prepWrite(SelectionKey, Object, ByteBuffer)} may be called from any thread. The response is refined on the
+ * calling thread and it's {@link Writer} handed to the key's {@link Connection} through a lock-free queue of it's own,
+ * see {@link Connection#queuePending(Writer)}, so threads writing to different clients never contend. The first
+ * {@link Writer} queued since the loop last drained that queue also hands a task to the selector loop's task
+ * {@link Executor}, which moves every pending {@link Writer} to the outbound queue and adds
+ * {@link SelectionKey#OP_WRITE} to the key's interest ops on the loop thread; {@link Writer}s queued in the meantime
+ * ride along with that task, and the responses to a batch of messages, see
+ * {@link #prepWrites(SelectionKey, List, List)}, need only one. All other {@link Writer} bookkeeping happens on the
+ * loop thread, which owns the {@link Connection}, and needs no locking.
+ * </p>
+ * When the key's channel is a {@link GatheringByteChannel} the buffers of every queued {@link Writer} that exposes them,
+ * see {@link Writer#getBuffers()}, are written together with gathering writes, so a connection with many queued
+ * responses is flushed in one system call rather than one or two per response.
+ * </p>
+ * Writes never block the loop. When the channel takes no more, whatever is left stays queued and
+ * {@link SelectionKey#OP_WRITE} stays set, so writing carries on when the channel is next writable; it is cleared
+ * once the queue drains. The bytes queued for each {@link Connection} are counted and, given watermarks, a client with
+ * more than the high watermark queued is no longer read from, so it cannot queue responses faster than it reads them.
+ * Reading resumes once the queue falls to the low watermark.
  *
  * @param <MsgType>
  * @param <K>
  */
 public final class RefiningChannelWriter<MsgType, K extends SelectionKey> implements ChannelWriter<MsgType, K> {
 	private static final Logger LOG = LoggerFactory.getLogger(RefiningChannelWriter.class);
+	/** Most buffers gathered into one write, the usual IOV_MAX; the JDK writes no more per call anyway */
+	private static final int MAX_GATHERED_BUFFERS = 1024;
+	private static final int INITIAL_GATHER_SIZE = 64;
 
-	private final ReentrantReadWriteLock responseWritersLock = new ReentrantReadWriteLock();
-	private final ListMultimap<Channel, Writer> responseWriters = ArrayListMultimap.create();
-	private final Selector selector;
-	private final List<ResponseRefiner<MsgType>> responseRefiners;
-	private final BiFunction<SelectionKey, ByteBuffer, Writer> writerSupplier;
+	private final Executor loopTasks;
+	private final List<ResponseBufferRefiner<MsgType>> responseRefiners;
+	private final BiFunction<SelectionKey, ResponseBuffer, Writer> writerSupplier;
+	private final long lowWatermark;
+	private final long highWatermark;
+	/** Scratch array of the buffers of one gathering write, only used by the loop thread */
+	private ByteBuffer[] gather = new ByteBuffer[INITIAL_GATHER_SIZE];
 
 	/**
-	 * @param selector
-	 * @param refiners
-	 * @param writerSupplier
+	 * Constructs a {@link RefiningChannelWriter} that queues any number of outbound bytes without suspending reads.
+	 *
+	 * @param loopTasks      {@link Executor} that runs tasks on the selector loop thread, e.g., a {@link LoopTaskQueue}
+	 * @param refiners       {@link ResponseBufferRefiner}s applied, in order, to every response
+	 * @param writerSupplier creates the {@link Writer} for a key and it's refined response
 	 */
-	public RefiningChannelWriter(final Selector selector, final List<ResponseRefiner<MsgType>> refiners,
-								 final BiFunction<SelectionKey, ByteBuffer, Writer> writerSupplier) {
-		this.selector = selector;
+	public RefiningChannelWriter(final Executor loopTasks, final List<ResponseBufferRefiner<MsgType>> refiners,
+								 final BiFunction<SelectionKey, ResponseBuffer, Writer> writerSupplier) {
+		this(loopTasks, refiners, writerSupplier, Long.MAX_VALUE - 1, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Constructs a {@link RefiningChannelWriter} that stops reading from a client once more than
+	 * {@code highWatermark} bytes are queued to be written to it, and starts again once no more than
+	 * {@code lowWatermark} bytes are.
+	 *
+	 * @param loopTasks      {@link Executor} that runs tasks on the selector loop thread, e.g., a {@link LoopTaskQueue}
+	 * @param refiners       {@link ResponseBufferRefiner}s applied, in order, to every response
+	 * @param writerSupplier creates the {@link Writer} for a key and it's refined response
+	 * @param lowWatermark   queued outbound bytes at or below which a suspended client is read from again
+	 * @param highWatermark  queued outbound bytes above which a client is no longer read from
+	 */
+	public RefiningChannelWriter(final Executor loopTasks, final List<ResponseBufferRefiner<MsgType>> refiners,
+								 final BiFunction<SelectionKey, ResponseBuffer, Writer> writerSupplier,
+								 final long lowWatermark, final long highWatermark) {
+		this.loopTasks = loopTasks;
 		this.responseRefiners = Collections.unmodifiableList(refiners);
 		this.writerSupplier = writerSupplier;
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
 	}
 
 	@Override
 	public void write(final K key) {
 		try {
-			responseWritersLock.writeLock().lock();
-			final List<Writer> rspWriters = responseWriters.get(key.channel());
+			final Connection connection = Connection.of(key);
+			final Queue<Writer> rspWriters = connection.getOutbound();
 			LOG.trace("There are {} write jobs for the {} key/channel", rspWriters.size(), key.attachment());
-			final Iterator<Writer> it = rspWriters.iterator();
-			while (it.hasNext()) {
-				it.next().write();
-				it.remove();
+			final boolean gathering = key.channel() instanceof GatheringByteChannel;
+			Writer writer;
+			boolean channelFull = false;
+			while (!channelFull && (writer = rspWriters.peek()) != null) {
+				if (gathering && writer.getBuffers() != null) {
+					channelFull = !writeGathered((GatheringByteChannel) key.channel(), connection, rspWriters);
+				}
+				else {
+					channelFull = !writeSelf(writer, connection, rspWriters);
+				}
 			}
-			LOG.trace("Response writers for {} are complete, resetting to read ops only", key.attachment());
-			key.interestOps(OP_READ);
+			updateInterest(key, connection);
 		}
 		catch (final CancelledKeyException e) {
 			LOG.warn("Key {} cancelled during write. Channel probably closed or server is shutting down", key.attachment());
 		}
 		catch (final IOException e) {
-			e.printStackTrace();
-			return;
+			LOG.warn("[{}] Error writing responses, closing the connection: {}", key.attachment(), e.toString());
+			Connection.of(key).discardOutbound();
+			closeChannel(key);
+		}
+	}
+
+	/**
+	 * Has the {@link Writer} at the head of the queue write itself, removing it if it completes.
+	 *
+	 * @param writer     the {@link Writer} at the head of the queue
+	 * @param connection the {@link Connection} the {@link Writer} is queued on
+	 * @param rspWriters the queue of {@link Writer}s
+	 * @return true if the {@link Writer} completed, false if the channel would not take all of it
+	 * @throws IOException if the channel cannot be written to
+	 */
+	private static boolean writeSelf(final Writer writer, final Connection connection, final Queue<Writer> rspWriters)
+			throws IOException {
+		final long before = writer.remaining();
+		writer.write();
+		if (!writer.isComplete()) {
+			connection.outboundWritten(before - writer.remaining());
+			return false;
+		}
+		connection.outboundWritten(before);
+		rspWriters.remove();
+		connection.responseWritten();
+		return true;
+	}
+
+	/**
+	 * Gathers the buffers of the run of queued {@link Writer}s at the head of the queue that expose them, up to
+	 * {@value #MAX_GATHERED_BUFFERS} buffers, and writes them with as few gathering writes as the channel allows,
+	 * stopping if the channel takes nothing more. Each {@link Writer} drained is then removed and released; one left
+	 * part written stays at the head of the queue to be finished when the channel is next writable.
+	 *
+	 * @param channel    the channel to write to
+	 * @param connection the {@link Connection} the {@link Writer}s are queued on
+	 * @param rspWriters the queue of {@link Writer}s, the first of which exposes it's buffers
+	 * @return true if every gathered {@link Writer} was drained, false if the channel would not take them all
+	 * @throws IOException if the channel cannot be written to
+	 */
+	private boolean writeGathered(final GatheringByteChannel channel, final Connection connection,
+								  final Queue<Writer> rspWriters) throws IOException {
+		int buffers = 0;
+		int writers = 0;
+		for (final Writer writer : rspWriters) {
+			final ByteBuffer[] writerBuffers = writer.getBuffers();
+			if (writerBuffers == null
+					|| (writers > 0 && buffers + writerBuffers.length > MAX_GATHERED_BUFFERS)) {
+				break;
+			}
+			ensureGatherCapacity(buffers + writerBuffers.length);
+			System.arraycopy(writerBuffers, 0, gather, buffers, writerBuffers.length);
+			buffers += writerBuffers.length;
+			writers++;
+		}
+		int offset = 0;
+		try {
+			while (offset < buffers) {
+				final long written = channel.write(gather, offset, buffers - offset);
+				LOG.trace("Gathered write of {} bytes from {} buffers", written, buffers - offset);
+				connection.outboundWritten(written);
+				while (offset < buffers && !gather[offset].hasRemaining()) {
+					offset++;
+				}
+				if (written == 0) {
+					break;
+				}
+			}
 		}
 		finally {
-			responseWritersLock.writeLock().unlock();
+			Arrays.fill(gather, 0, buffers, null);
+		}
+		for (int i = 0; i < writers && rspWriters.peek().isComplete(); i++) {
+			rspWriters.remove().release();
+			connection.responseWritten();
+		}
+		return offset == buffers;
+	}
+
+	/**
+	 * Keeps {@link SelectionKey#OP_WRITE} only whilst there is something left to write, and suspends or resumes
+	 * {@link SelectionKey#OP_READ} as the queued outbound bytes cross the watermarks.
+	 *
+	 * @param key        the key that has just been written to
+	 * @param connection the {@link Connection} attached to the key
+	 */
+	private void updateInterest(final SelectionKey key, final Connection connection) {
+		int ops = key.interestOps();
+		if (connection.getOutbound().isEmpty()) {
+			LOG.trace("Response writers for {} are complete, removing write interest", key.attachment());
+			ops &= ~OP_WRITE;
+		}
+		else {
+			LOG.trace("[{}] Channel is full with {} bytes still queued", key.attachment(), connection.getOutboundBytes());
+		}
+		if (connection.isReadSuspended() && connection.getOutboundBytes() <= lowWatermark) {
+			LOG.debug("[{}] Outbound bytes down to {}, resuming reads", key.attachment(), connection.getOutboundBytes());
+			connection.resumeReads();
+			ops |= OP_READ;
+		}
+		key.interestOps(ops);
+	}
+
+	private void ensureGatherCapacity(final int capacity) {
+		if (gather.length < capacity) {
+			gather = Arrays.copyOf(gather, Math.max(capacity, gather.length * 2));
 		}
 	}
 
 	@Override
 	public void prepWrite(final SelectionKey key, final MsgType message, final ByteBuffer resultToWrite) {
-		final ByteBuffer bufferToWriteBack = refineResponse(message, resultToWrite);
+		final ResponseBuffer bufferToWriteBack = refineResponse(message, resultToWrite);
 		LOG.trace("Buffer post refinement, pre write {}", bufferToWriteBack);
-		add(key, writerSupplier.apply(key, bufferToWriteBack));
+		queue(key, writerSupplier.apply(key, bufferToWriteBack));
+	}
+
+	@Override
+	public void prepWrite(final SelectionKey key, final MsgType message, final ResponseBuffer response) {
+		final ResponseBuffer bufferToWriteBack = refineResponse(message, response);
+		LOG.trace("Response buffer post refinement, pre write {}", bufferToWriteBack);
+		queue(key, writerSupplier.apply(key, bufferToWriteBack));
+	}
+
+	@Override
+	public void prepWrites(final SelectionKey key, final List<MsgType> messages, final List<ByteBuffer> resultsToWrite) {
+		LOG.trace("[{}] Queueing {} response writers together", key.attachment(), messages.size());
+		final Connection connection = Connection.of(key);
+		boolean drainDue = false;
+		for (int i = 0; i < messages.size(); i++) {
+			final Writer writer = writerSupplier.apply(key, refineResponse(messages.get(i), resultsToWrite.get(i)));
+			drainDue |= connection.queuePending(writer);
+		}
+		// One drain, scheduled once they are all queued, moves the whole batch
+		if (drainDue) {
+			loopTasks.execute(() -> flushPending(key));
+		}
+	}
+
+	/**
+	 * Hands the {@link Writer} to the key's {@link Connection}, scheduling a drain of it's pending {@link Writer}s on
+	 * the loop thread unless one is already due. May be called by any thread.
+	 *
+	 * @param key    the {@link SelectionKey} to write to
+	 * @param writer the {@link Writer} for the response
+	 */
+	private void queue(final SelectionKey key, final Writer writer) {
+		if (Connection.of(key).queuePending(writer)) {
+			loopTasks.execute(() -> flushPending(key));
+		}
+	}
+
+	/**
+	 * Moves the {@link Writer}s pending on the key's {@link Connection} to it's outbound queue, registers interest in
+	 * writing and suspends reading if the high watermark is passed. Runs on the loop thread.
+	 *
+	 * @param key the {@link SelectionKey} to write to
+	 */
+	private void flushPending(final SelectionKey key) {
+		final Connection connection = Connection.of(key);
 		try {
 			key.interestOps(key.interestOps() | OP_WRITE);
 		}
 		catch (final CancelledKeyException | ClosedSelectorException ex) {
 			LOG.warn("Server was about to write response to client {} but it's key was cancelled. Removing all "
 					+ "writers for this key", key.attachment());
-			responseWritersLock.writeLock().lock();
-			try {
-				responseWriters.removeAll(key.channel());
-			}
-			finally {
-				responseWritersLock.writeLock().unlock();
-			}
+			connection.discardOutbound();
 			return;
 		}
-		selector.wakeup();
+		final Queue<Writer> rspWriters = connection.getOutbound();
+		connection.drainPending(writer -> {
+			connection.outboundQueued(writer.remaining());
+			rspWriters.add(writer);
+		});
+		LOG.trace("[{}] There are now {} response writers", key.attachment(), rspWriters.size());
+		if (!connection.isReadSuspended() && connection.getOutboundBytes() > highWatermark) {
+			LOG.debug("[{}] {} outbound bytes queued, suspending reads", key.attachment(), connection.getOutboundBytes());
+			connection.suspendReads();
+			key.interestOps(key.interestOps() & ~OP_READ);
+		}
 	}
 
-	private void add(final SelectionKey key, final Writer writer) {
-		responseWritersLock.writeLock().lock();
-		try {
-			responseWriters.put(key.channel(), writer);
-			LOG.trace("[{}] There are now {} response writers", key.attachment(), responseWriters.get(key.channel()).size(), key);
-		}
-		finally {
-			responseWritersLock.writeLock().unlock();
-		}
+	private ResponseBuffer refineResponse(final MsgType message, final ByteBuffer resultToWrite) {
+		return refineResponse(message, ResponseBuffer.wrap(resultToWrite));
 	}
 
-	private ByteBuffer refineResponse(final MsgType message, final ByteBuffer resultToWrite) {
-		ByteBuffer refinedBuffer = resultToWrite;
-		for (final ResponseRefiner<MsgType> responseHandler : responseRefiners) {
-			LOG.trace("Buffer post message handler pre response refininer {}", refinedBuffer);
+	private ResponseBuffer refineResponse(final MsgType message, final ResponseBuffer response) {
+		for (final ResponseBufferRefiner<MsgType> responseRefiner : responseRefiners) {
+			LOG.trace("Buffer post message handler pre response refininer {}", response);
 			LOG.debug("Passing message value '{}' to response refiner", message);
-			refinedBuffer = responseHandler.execute(message, refinedBuffer);
-			refinedBuffer.flip();
+			responseRefiner.refine(message, response);
 		}
-		return refinedBuffer;
+		return response;
 	}
 }
@@ -3,9 +3,16 @@ package org.mjd.repro.writers;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.WritableByteChannel;
 
+import org.mjd.repro.buffer.BufferPool;
+import org.mjd.repro.handlers.response.FileRegion;
+import org.mjd.repro.handlers.response.ResponseBuffer;
+import org.mjd.repro.readers.header.HeaderCodec;
+import org.mjd.repro.readers.header.IntHeaderReader;
+import org.mjd.repro.readers.header.VarIntHeaderCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,20 +31,41 @@ import org.slf4j.LoggerFactory;
  * +---------+ +--------------------------------+
  * </pre>
  *
- * The writer is capable of writing over multple calls if required.
+ * The writer is capable of writing over multple calls if required; each {@link #write()} writes what the channel
+ * takes and stops when it takes nothing more, so a full non-blocking socket never makes it spin. On a {@link GatheringByteChannel} the header and
+ * body go out in a single gathering write, so a small response is never split across two segments, and they are
+ * exposed through {@link #getBuffers()} so a {@link ChannelWriter} can gather them with other queued responses.
+ * </p>
+ * The header shown is that of the default {@link IntHeaderReader} codec; given another {@link HeaderCodec} the size is
+ * encoded by it instead, e.g. as the single byte varint a {@link VarIntHeaderCodec} uses for small bodies.
+ * </p>
+ * Given a {@link ResponseBuffer} the header is prepended into it, in it's headroom if it has enough, so the body is
+ * never copied to frame it and a response with headroom goes out as one contiguous buffer.
+ * </p>
+ * When created with a {@link BufferPool}, a heap response is instead copied, after the header, into a pooled direct
+ * buffer, which the writer releases once the response is written, or via {@link #release()} if it is discarded. This
+ * copy replaces the one the JDK would otherwise make into a temporary direct buffer on every write. A response that
+ * is already direct, e.g., marshalled into a pooled buffer, is written as it is and released, see
+ * {@link ResponseBuffer#release()}, along with the writer.
+ * </p>
+ * A failed write is not reset for another attempt: part of the frame may already be on the wire, so the error is
+ * thrown and the connection closed, as for a {@link FileRegionWriter}.
  *
  * @NotThreadSafe
  */
 public final class SizeHeaderWriter implements Writer {
 	private static final Logger LOG = LoggerFactory.getLogger(SizeHeaderWriter.class);
+	private static final HeaderCodec INT_HEADER = new IntHeaderReader();
 
-	private static final int HEADER_LENGTH = Integer.BYTES;
-	private final ByteBuffer buffer;
+	private final BufferPool bufferPool;
 	private final WritableByteChannel channel;
 	private final Object id;
-	private final ByteBuffer headerBuffer = ByteBuffer.allocate(Integer.BYTES);
-	private final int expectedWrite;
+	private final ResponseBuffer response;
+	/** The header followed by the body, as segments or, when pooled, as one pooled buffer */
+	private final ByteBuffer[] buffers;
 	private int bytesWritten;
+	private boolean complete;
+	private boolean released;
 
 	/**
 	 * Constructs a fully initialised {@link SizeHeaderWriter} that can write the given {@link ByteBuffer} to the given
@@ -48,61 +76,202 @@ public final class SizeHeaderWriter implements Writer {
 	 * @param bufferToWrite the {@link ByteBuffer} to write to the {@link Channel}
 	 */
 	public SizeHeaderWriter(final Object id, final WritableByteChannel channel, final ByteBuffer bufferToWrite) {
+		this(id, channel, bufferToWrite, null);
+	}
+
+	/**
+	 * Constructs a fully initialised {@link SizeHeaderWriter} that can write the given {@link ResponseBuffer} to the
+	 * given {@link Channel}.
+	 *
+	 * @param id       identifier for this {@link Writer}. Used only for logging.
+	 * @param channel  the {@link Channel} to write the data to
+	 * @param response the {@link ResponseBuffer} to write to the {@link Channel}
+	 */
+	public SizeHeaderWriter(final Object id, final WritableByteChannel channel, final ResponseBuffer response) {
+		this(id, channel, response, null, INT_HEADER);
+	}
+
+	/**
+	 * Constructs a fully initialised {@link SizeHeaderWriter} that can write the given {@link ByteBuffer} to the given
+	 * {@link Channel}. A heap {@code bufferToWrite} is copied into a direct buffer borrowed from the given
+	 * {@code bufferPool}.
+	 *
+	 * @param id            identifier for this {@link Writer}. Used only for logging.
+	 * @param channel       the {@link Channel} to write the data to
+	 * @param bufferToWrite the {@link ByteBuffer} to write to the {@link Channel}
+	 * @param bufferPool    the {@link BufferPool} to borrow a direct buffer from, or null to write
+	 *                      {@code bufferToWrite} as it is
+	 */
+	public SizeHeaderWriter(final Object id, final WritableByteChannel channel, final ByteBuffer bufferToWrite,
+							final BufferPool bufferPool) {
+		this(id, channel, bufferToWrite, bufferPool, INT_HEADER);
+	}
+
+	/**
+	 * Constructs a fully initialised {@link SizeHeaderWriter} that can write the given {@link ByteBuffer} to the given
+	 * {@link Channel}, prefixed by a header encoded with the given {@code headerCodec}.
+	 *
+	 * @param id            identifier for this {@link Writer}. Used only for logging.
+	 * @param channel       the {@link Channel} to write the data to
+	 * @param bufferToWrite the {@link ByteBuffer} to write to the {@link Channel}
+	 * @param bufferPool    the {@link BufferPool} to borrow a direct buffer from, or null to write
+	 *                      {@code bufferToWrite} as it is
+	 * @param headerCodec   the {@link HeaderCodec} that encodes the header
+	 */
+	public SizeHeaderWriter(final Object id, final WritableByteChannel channel, final ByteBuffer bufferToWrite,
+							final BufferPool bufferPool, final HeaderCodec headerCodec) {
+		this(id, channel, ResponseBuffer.wrap(bufferToWrite), bufferPool, headerCodec);
+	}
+
+	/**
+	 * Constructs a fully initialised {@link SizeHeaderWriter} that can write the given {@link ResponseBuffer} to the
+	 * given {@link Channel}, prefixed by a header encoded with the given {@code headerCodec}. The header is prepended
+	 * into the {@code response}.
+	 *
+	 * @param id          identifier for this {@link Writer}. Used only for logging.
+	 * @param channel     the {@link Channel} to write the data to
+	 * @param response    the {@link ResponseBuffer} to write to the {@link Channel}
+	 * @param bufferPool  the {@link BufferPool} to borrow a direct buffer from, or null to write {@code response} as
+	 *                    it is
+	 * @param headerCodec the {@link HeaderCodec} that encodes the header
+	 * @throws IllegalArgumentException if the {@code response} ends in a {@link FileRegion}, which a
+	 *                                  {@link FileRegionWriter} writes
+	 */
+	public SizeHeaderWriter(final Object id, final WritableByteChannel channel, final ResponseBuffer response,
+							final BufferPool bufferPool, final HeaderCodec headerCodec) {
+		if (response.getFileRegion() != null) {
+			throw new IllegalArgumentException("Response " + response + " must be written by a FileRegionWriter");
+		}
 		this.id = id;
 		this.channel = channel;
-		this.buffer = bufferToWrite;
-		headerBuffer.mark();
-		buffer.mark();
-		final int bodySize = buffer.limit();
-		expectedWrite = bodySize + HEADER_LENGTH;
-		headerBuffer.putInt(bodySize).flip();
+		this.response = response;
+		final int bodySize = response.remaining();
+		final int headerSize = headerCodec.encodedSize(bodySize, 0);
+		final int expectedWrite = headerSize + bodySize;
+		final ByteBuffer[] body = response.getSegments();
+		if (bufferPool != null && allHeap(body) && expectedWrite <= bufferPool.getMaxBufferSize()) {
+			// The body is copied anyway, so the header goes straight into the copy rather than in front of the body
+			this.bufferPool = bufferPool;
+			final ByteBuffer pooled = bufferPool.acquire(expectedWrite);
+			headerCodec.encode(pooled, bodySize, 0);
+			for (final ByteBuffer segment : body) {
+				pooled.put(segment.duplicate());
+			}
+			pooled.flip();
+			buffers = new ByteBuffer[] {pooled};
+			response.release();
+		}
+		else {
+			this.bufferPool = null;
+			headerCodec.encode(response.prepend(headerSize), bodySize, 0);
+			buffers = response.getSegments();
+		}
 		LOG.trace("[{}] Writer created for response; expected write is '{}' bytes of which {} is the body",
 				  id, expectedWrite, bodySize);
 	}
 
+	private static boolean allHeap(final ByteBuffer[] segments) {
+		for (final ByteBuffer segment : segments) {
+			if (segment.isDirect()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	@Override
-	public void write() {
-		try {
-			writeHeader();
-			writeBody();
+	public void write() throws IOException {
+		if (channel instanceof GatheringByteChannel) {
+			writeGathered((GatheringByteChannel) channel);
 		}
-		catch (final IOException e) {
-			headerBuffer.reset();
-			buffer.reset();
-			LOG.error("[{}] Error writing {}; buffers have been reset for any reattempts", id, buffer, e);
+		else {
+			writeInOrder();
+		}
+		if (isComplete()) {
+			release();
 		}
 	}
 
 	/**
-	 * Writes the complete {@link #headerBuffer}
+	 * Writes as much of the {@link #buffers} as the channel takes with gathering writes
 	 *
 	 * @throws IOException
 	 */
-	private void writeHeader() throws IOException {
-		while (headerBuffer.hasRemaining()) {
-			bytesWritten += channel.write(headerBuffer);
-			LOG.trace("Writing header {}, total written {}", headerBuffer, bytesWritten);
+	private void writeGathered(final GatheringByteChannel gatheringChannel) throws IOException {
+		while (hasRemaining()) {
+			final long written = gatheringChannel.write(buffers);
+			bytesWritten += written;
+			LOG.trace("[{}] Writing header and body, total written {}", id, bytesWritten);
+			if (written == 0) {
+				return;
+			}
 		}
 	}
 
 	/**
-	 * writes the complete {@link #buffer}
+	 * Writes as much of the {@link #buffers}, one at a time, as the channel takes
 	 *
 	 * @throws IOException
 	 */
-	private void writeBody() throws IOException {
-		while (buffer.hasRemaining()) {
-			bytesWritten += channel.write(buffer);
-			LOG.trace("Writing body {}, total written (inc header) {}", buffer, bytesWritten);
+	private void writeInOrder() throws IOException {
+		for (final ByteBuffer buffer : buffers) {
+			while (buffer.hasRemaining()) {
+				final int written = channel.write(buffer);
+				bytesWritten += written;
+				LOG.trace("[{}] Writing {}, total written {}", id, buffer, bytesWritten);
+				if (written == 0) {
+					return;
+				}
+			}
 		}
 	}
 
+	private boolean hasRemaining() {
+		for (final ByteBuffer buffer : buffers) {
+			if (buffer.hasRemaining()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void release() {
+		if (!released) {
+			// A pool clears the buffers it takes back, so settle completion whilst their positions still say how much
+			// was written
+			isComplete();
+			released = true;
+			if (bufferPool != null) {
+				bufferPool.release(buffers[0]);
+			}
+			response.release();
+		}
+	}
+
+	@Override
+	public ByteBuffer[] getBuffers() {
+		return buffers;
+	}
+
+	@Override
+	public long remaining() {
+		if (isComplete()) {
+			return 0;
+		}
+		long remaining = 0;
+		for (final ByteBuffer buffer : buffers) {
+			remaining += buffer.remaining();
+		}
+		return remaining;
+	}
+
 	@Override
 	public boolean isComplete() {
-		if (bytesWritten > expectedWrite) {
-			LOG.error("[{}] We wrote too much, somehow. This is wrong! {}/{}", id, bytesWritten, expectedWrite);
+		if (!complete && !released) {
+			complete = !hasRemaining();
 		}
-		return bytesWritten == expectedWrite;
+		return complete;
 	}
 
 	/**
@@ -118,4 +287,56 @@ public final class SizeHeaderWriter implements Writer {
 	public static SizeHeaderWriter from(final SelectionKey key, final ByteBuffer bufferToWrite) {
 		return new SizeHeaderWriter(key.attachment(), (WritableByteChannel) key.channel(), bufferToWrite);
 	}
+
+	/**
+	 * Static factory method for creating {@link SizeHeaderWriter}s that write heap buffers from a pooled direct
+	 * buffer.
+	 *
+	 * @param key           the {@link SelectionKey} that associated with the {@link Channel} the writer should use
+	 * @param bufferToWrite the {@link ByteBuffer} to write to the {@link Channel}
+	 * @param bufferPool    the {@link BufferPool} to borrow a direct buffer from
+	 * @return a new {@link SizeHeaderWriter}
+	 *
+	 * @see SizeHeaderWriter#SizeHeaderWriter(Object, WritableByteChannel, ByteBuffer, BufferPool)
+	 */
+	public static SizeHeaderWriter from(final SelectionKey key, final ByteBuffer bufferToWrite,
+										final BufferPool bufferPool) {
+		return new SizeHeaderWriter(key.attachment(), (WritableByteChannel) key.channel(), bufferToWrite, bufferPool);
+	}
+
+	/**
+	 * Static factory method for creating {@link SizeHeaderWriter}s that write heap buffers from a pooled direct
+	 * buffer, prefixed by a header encoded with the given {@code headerCodec}.
+	 *
+	 * @param key           the {@link SelectionKey} that associated with the {@link Channel} the writer should use
+	 * @param bufferToWrite the {@link ByteBuffer} to write to the {@link Channel}
+	 * @param bufferPool    the {@link BufferPool} to borrow a direct buffer from
+	 * @param headerCodec   the {@link HeaderCodec} that encodes the header
+	 * @return a new {@link SizeHeaderWriter}
+	 *
+	 * @see SizeHeaderWriter#SizeHeaderWriter(Object, WritableByteChannel, ByteBuffer, BufferPool, HeaderCodec)
+	 */
+	public static SizeHeaderWriter from(final SelectionKey key, final ByteBuffer bufferToWrite,
+										final BufferPool bufferPool, final HeaderCodec headerCodec) {
+		return new SizeHeaderWriter(key.attachment(), (WritableByteChannel) key.channel(), bufferToWrite, bufferPool,
+									headerCodec);
+	}
+
+	/**
+	 * Static factory method for creating {@link SizeHeaderWriter}s that prepend their header into a
+	 * {@link ResponseBuffer} and write heap responses from a pooled direct buffer.
+	 *
+	 * @param key         the {@link SelectionKey} that associated with the {@link Channel} the writer should use
+	 * @param response    the {@link ResponseBuffer} to write to the {@link Channel}
+	 * @param bufferPool  the {@link BufferPool} to borrow a direct buffer from
+	 * @param headerCodec the {@link HeaderCodec} that encodes the header
+	 * @return a new {@link SizeHeaderWriter}
+	 *
+	 * @see SizeHeaderWriter#SizeHeaderWriter(Object, WritableByteChannel, ResponseBuffer, BufferPool, HeaderCodec)
+	 */
+	public static SizeHeaderWriter from(final SelectionKey key, final ResponseBuffer response,
+										final BufferPool bufferPool, final HeaderCodec headerCodec) {
+		return new SizeHeaderWriter(key.attachment(), (WritableByteChannel) key.channel(), response, bufferPool,
+									headerCodec);
+	}
 }
@@ -1,6 +1,7 @@
 package org.mjd.repro.writers;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * A {@link Writer} is an incredibly simple type that can write something entirely implementation specific.
@@ -10,7 +11,9 @@ import java.io.IOException;
 public interface Writer
 {
     /**
-     * Carry out the write. The details of this are implementation specific.
+     * Carry out the write. The details of this are implementation specific. A {@link Writer} on a non-blocking channel
+     * writes as much as the channel takes and returns, rather than waiting for it to take the rest; it is then
+     * incomplete, and written again when the channel is next writable.
      *
      * @throws IOException thrown is the write has an error.
      */
@@ -20,4 +23,43 @@ public interface Writer
      * @return true if the {@link Writer} is complete. This implies futher calls to write will not do anything.
      */
     boolean isComplete();
+
+    /**
+     * Releases any resources, e.g., pooled buffers, held by this {@link Writer}. Called when the {@link Writer} is
+     * discarded before it completes, or once it's {@link #getBuffers() buffers} have been written for it; a
+     * {@link Writer} that completes it's own {@link #write()} releases it's own. By default there is nothing to release.
+     */
+    default void release() {
+        // Nothing to release
+    }
+
+    /**
+     * A {@link Writer} whose output is a fixed sequence of buffers can expose them so that the buffers of several
+     * {@link Writer}s are written to a channel together, in one gathering write, instead of each {@link Writer}
+     * writing it's own. Whoever writes the buffers drains them in order and then calls {@link #release()}; the
+     * {@link Writer} is complete once they are all drained.
+     * </p>
+     * By default a {@link Writer} has no such buffers and must {@link #write()} itself.
+     *
+     * @return the buffers still to be written, in order, or null if this {@link Writer} must write itself
+     */
+    default ByteBuffer[] getBuffers() {
+        return null;
+    }
+
+    /**
+     * By default the bytes left in the {@link #getBuffers() buffers}, or 0 for a {@link Writer} without them.
+     *
+     * @return the bytes this {@link Writer} still has to write, as far as it knows
+     */
+    default long remaining() {
+        final ByteBuffer[] buffers = getBuffers();
+        long remaining = 0;
+        if (buffers != null) {
+            for (final ByteBuffer buffer : buffers) {
+                remaining += buffer.remaining();
+            }
+        }
+        return remaining;
+    }
 }
\ No newline at end of file
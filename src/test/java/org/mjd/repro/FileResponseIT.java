@@ -0,0 +1,98 @@
+package org.mjd.repro;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.Futures;
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+import org.mjd.repro.handlers.message.MessageHandler.ConnectionContext;
+import org.mjd.repro.handlers.response.FileRegion;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.afterEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+import static org.awaitility.Awaitility.await;
+import static org.awaitility.Duration.TEN_SECONDS;
+import static org.mjd.repro.util.thread.Threads.called;
+
+/**
+ * Shows a multi megabyte file served as a {@link FileRegion} response reaching the client intact, framed like any
+ * other response, with the responses either side of it still framed correctly. Request 0 asks for the file, any other
+ * request is echoed back.
+ */
+@RunWith(OleasterRunner.class)
+public final class FileResponseIT {
+	private static final int FILE_SIZE = 8 << 20;
+	private ExecutorService serverService;
+	private Server<Integer> server;
+	private Path snapshot;
+	private FileChannel snapshotFile;
+	private byte[] snapshotBytes;
+
+	// TEST INSTANCE BLOCK
+	{
+		beforeEach(() -> {
+			snapshotBytes = new byte[FILE_SIZE];
+			new Random(1978).nextBytes(snapshotBytes);
+			snapshot = Files.createTempFile("FileResponseIT", ".snapshot");
+			Files.write(snapshot, snapshotBytes);
+			snapshotFile = FileChannel.open(snapshot, StandardOpenOption.READ);
+			server = new Server<>(Ints::fromByteArray);
+			server.addHandler((final ConnectionContext<Integer> ctx, final Integer msg) -> {
+				if (msg == 0) {
+					return ctx.respond(msg, FileRegion.of(snapshotFile, 0, FILE_SIZE));
+				}
+				return Futures.immediateFuture(Optional.of(ByteBuffer.wrap(Ints.toByteArray(msg))));
+			});
+			serverService = Executors.newSingleThreadExecutor(called("Server"));
+			serverService.execute(server::start);
+			await().atMost(TEN_SECONDS).until(server::isAvailable);
+		});
+
+		afterEach(() -> {
+			serverService.shutdownNow();
+			await().atMost(TEN_SECONDS).until(server::isShutdown);
+			snapshotFile.close();
+			Files.deleteIfExists(snapshot);
+		});
+
+		describe("When a client asks for a file served as a file region", () -> {
+			it("should receive the whole file as one response, between the responses either side of it", () -> {
+				try (Socket socket = new Socket("localhost", server.getPort())) {
+					final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+					final DataInputStream in = new DataInputStream(socket.getInputStream());
+					for (final int request : new int[] {7, 0, 8}) {
+						out.writeInt(Integer.BYTES);
+						out.writeInt(request);
+						out.flush();
+						if (request == 0) {
+							expect(in.readInt()).toEqual(FILE_SIZE);
+							final byte[] received = new byte[FILE_SIZE];
+							in.readFully(received);
+							expect(Arrays.equals(received, snapshotBytes)).toBeTrue();
+						}
+						else {
+							expect(in.readInt()).toEqual(Integer.BYTES);
+							expect(in.readInt()).toEqual(request);
+						}
+					}
+				}
+			});
+		});
+	}
+}
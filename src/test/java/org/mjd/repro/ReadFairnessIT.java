@@ -0,0 +1,178 @@
+package org.mjd.repro;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.Futures;
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+import org.mjd.repro.handlers.message.MessageHandler.ConnectionContext;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.afterEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+import static org.awaitility.Awaitility.await;
+import static org.awaitility.Duration.TEN_SECONDS;
+import static org.mjd.repro.util.thread.Threads.called;
+
+/**
+ * Shows that one client sending requests as fast as it can does not starve the other clients of the same selector
+ * loop. The heavy client keeps it's connection saturated with pipelined requests, and drains the replies, whilst light
+ * clients make one request at a time and time each round trip. Without a read budget the loop never gets past the
+ * heavy client and the light clients' requests are not answered at all.
+ * </p>
+ * Rather than a fixed bound, which a loaded machine can blow, the light clients' p99 latency is measured against the
+ * heavy client's own round trip, estimated from the bytes it has waiting and the rate they are answered. A light
+ * request that is served fairly never waits as long as the heavy client waits behind it's own backlog; a starved one
+ * waits longer, however fast or slow the machine.
+ */
+@RunWith(OleasterRunner.class)
+public final class ReadFairnessIT {
+	private static final int LIGHT_CLIENTS = 4;
+	private static final int LIGHT_REQUESTS = 100;
+	private final AtomicBoolean heavyRunning = new AtomicBoolean();
+	private final AtomicLong heavyBytesSent = new AtomicLong();
+	private final AtomicLong heavyBytesReceived = new AtomicLong();
+	private ExecutorService serverService;
+	private ExecutorService clientService;
+	private Server<Integer> server;
+	private SocketChannel heavyClient;
+
+	// TEST INSTANCE BLOCK
+	{
+		beforeEach(() -> {
+			heavyRunning.set(true);
+			heavyBytesSent.set(0);
+			heavyBytesReceived.set(0);
+			server = new Server<>(Ints::fromByteArray, ServerConfig.builder().readBudget(16 << 10, 16).build());
+			server.addHandler((final ConnectionContext<Integer> ctx, final Integer msg) ->
+								  Futures.immediateFuture(Optional.of(ByteBuffer.wrap(Ints.toByteArray(msg)))));
+			serverService = Executors.newSingleThreadExecutor(called("Server"));
+			serverService.execute(server::start);
+			await().atMost(TEN_SECONDS).until(server::isAvailable);
+			clientService = Executors.newCachedThreadPool(called("FairnessClient"));
+			heavyClient = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()));
+			clientService.execute(this::saturate);
+			clientService.execute(this::drain);
+			await().atMost(TEN_SECONDS).until(() -> heavyBytesReceived.get() > 1 << 20);
+		});
+
+		afterEach(() -> {
+			heavyRunning.set(false);
+			heavyClient.close();
+			clientService.shutdownNow();
+			serverService.shutdownNow();
+			await().atMost(TEN_SECONDS).until(server::isShutdown);
+			clientService.awaitTermination(10, TimeUnit.SECONDS);
+		});
+
+		describe("When a heavy client saturates it's connection", () -> {
+			describe("and light clients on the same loop make one request at a time", () -> {
+				it("should keep the light clients' p99 latency below the heavy client's round trip", () -> {
+					final long heavyStart = System.nanoTime();
+					final long heavyReceivedAtStart = heavyBytesReceived.get();
+					final List<Future<List<Long>>> lightRuns = new ArrayList<>();
+					for (int i = 0; i < LIGHT_CLIENTS; i++) {
+						lightRuns.add(clientService.submit(this::timeLightRequests));
+					}
+					final List<Long> latencies = new ArrayList<>();
+					for (final Future<List<Long>> run : lightRuns) {
+						latencies.addAll(run.get(60, TimeUnit.SECONDS));
+					}
+					final long heavyRoundTrip = heavyRoundTripNanos(System.nanoTime() - heavyStart,
+																	heavyBytesReceived.get() - heavyReceivedAtStart);
+					Collections.sort(latencies);
+					final long p99 = latencies.get(latencies.size() * 99 / 100);
+					expect(latencies.size()).toEqual(LIGHT_CLIENTS * LIGHT_REQUESTS);
+					expect(p99).toBeSmallerThan(heavyRoundTrip);
+					expect(heavyRunning.get()).toBeTrue();
+				});
+			});
+		});
+	}
+
+	/**
+	 * Estimates the heavy client's round trip by Little's law: the bytes it has sent but not had answered, each
+	 * request and reply being the same size, over the rate they were answered whilst the light clients ran.
+	 *
+	 * @param elapsedNanos  how long the light clients ran for
+	 * @param receivedBytes the reply bytes the heavy client received meanwhile
+	 * @return the time a request of the heavy client waits for it's reply, in nanoseconds
+	 */
+	private long heavyRoundTripNanos(final long elapsedNanos, final long receivedBytes) {
+		final long waitingBytes = heavyBytesSent.get() - heavyBytesReceived.get();
+		return (long) ((double) waitingBytes * elapsedNanos / Math.max(1, receivedBytes));
+	}
+
+	/** Writes pipelined requests to the heavy client's connection for as long as the test runs */
+	private void saturate() {
+		final ByteBuffer requests = ByteBuffer.allocate(64 << 10);
+		while (requests.remaining() >= Integer.BYTES * 2) {
+			requests.putInt(Integer.BYTES).putInt(requests.position());
+		}
+		requests.flip();
+		try {
+			while (heavyRunning.get()) {
+				requests.rewind();
+				while (requests.hasRemaining()) {
+					heavyBytesSent.addAndGet(heavyClient.write(requests));
+				}
+			}
+		}
+		catch (final IOException e) {
+			heavyRunning.set(false);
+		}
+	}
+
+	/** Reads, and throws away, every reply to the heavy client */
+	private void drain() {
+		final ByteBuffer replies = ByteBuffer.allocateDirect(64 << 10);
+		try {
+			int read;
+			while ((read = heavyClient.read(replies)) >= 0) {
+				heavyBytesReceived.addAndGet(read);
+				replies.clear();
+			}
+		}
+		catch (final IOException e) {
+			// closed at the end of the test
+		}
+	}
+
+	private List<Long> timeLightRequests() throws IOException {
+		final List<Long> latencies = new ArrayList<>(LIGHT_REQUESTS);
+		try (Socket socket = new Socket("localhost", server.getPort())) {
+			socket.setTcpNoDelay(true);
+			final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			final DataInputStream in = new DataInputStream(socket.getInputStream());
+			for (int i = 0; i < LIGHT_REQUESTS; i++) {
+				final long start = System.nanoTime();
+				out.writeInt(Integer.BYTES);
+				out.writeInt(i);
+				out.flush();
+				expect(in.readInt()).toEqual(Integer.BYTES);
+				expect(in.readInt()).toEqual(i);
+				latencies.add(System.nanoTime() - start);
+			}
+		}
+		return latencies;
+	}
+}
@@ -26,6 +26,7 @@ import static org.awaitility.Awaitility.await;
 import static org.awaitility.Duration.ONE_MINUTE;
 import static org.awaitility.Duration.TEN_SECONDS;
 import static org.mjd.repro.util.thread.Threads.called;
+import static org.mockito.Answers.CALLS_REAL_METHODS;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
@@ -37,7 +38,7 @@ import static org.mockito.Mockito.when;
 @RunWith(OleasterRunner.class)
 public final class ServerMessageHandlerRoutingTest {
 
-	@Mock private MessageFactory<Integer> mockMsgFactory;
+	@Mock(answer = CALLS_REAL_METHODS) private MessageFactory<Integer> mockMsgFactory;
 	@Mock private MessageHandler<Integer> mockHandlerDef;
 	@Mock private MessageHandler<Integer> mockHandlerOne;
 	@Mock private Future<Optional<ByteBuffer>> mockAsyncHandle;
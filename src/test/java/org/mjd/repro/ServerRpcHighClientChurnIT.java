@@ -24,6 +24,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.junit.runner.RunWith;
 import org.mjd.repro.handlers.factories.RpcHandlers;
 import org.mjd.repro.handlers.message.MessageHandler;
+import org.mjd.repro.loop.IoLoopGroup.Balancing;
 import org.mjd.repro.message.RpcRequest;
 import org.mjd.repro.message.factory.MarshallerMsgFactory;
 import org.mjd.repro.serialisation.Marshaller;
@@ -69,7 +70,6 @@ public class ServerRpcHighClientChurnIT {
 				kryos.free(kryos.obtain());
 			}
 			serverService = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("Server").build());
-			startServer();
 		});
 
 		afterEach(() -> {
@@ -78,27 +78,61 @@ public class ServerRpcHighClientChurnIT {
 
 		describe("When a valid kryo RPC request/reply RpcRequest is sent to the server by multple clients", () -> {
 			it("should reply correctly to all of them", () -> {
-				final int numClients = 1200;
-				final ExecutorService executor = Executors.newFixedThreadPool(600);
-
-				final BlockingQueue<Future<?>> clientJobs = new ArrayBlockingQueue<>(numClients);
-				for (int i = 0; i < numClients; i++) {
-					clientJobs.add(executor.submit(new RpcClientRequestJob(kryos, reqId, port)));
-				}
-
-				final Iterator<Future<?>> it = clientJobs.iterator();
-				while (it.hasNext()) {
-					final Future<?> clientJob = it.next();
-					((Socket) clientJob.get()).close();
-					it.remove();
-				}
+				startServer(ServerConfig.defaults());
+				sendRequestsFromClients(1200);
 			});
 		});
+
+		describe("When a server that responds as calls complete is sent valid kryo RPC request/reply RpcRequest by multple clients", () -> {
+			it("should reply correctly to all of them", () -> {
+				startServer(ServerConfig.builder().respondOnCompletion(true).ioLoops(4).build());
+				sendRequestsFromClients(1200);
+			});
+		});
+
+		describe("When a server with multiple IO loops is sent valid kryo RPC request/reply RpcRequest by multple clients", () -> {
+			it("should reply correctly to all of them when clients are handed out round robin", () -> {
+				startServer(ServerConfig.builder().ioLoops(4).build());
+				sendRequestsFromClients(1200);
+			});
+			it("should reply correctly to all of them when clients are handed to the least loaded loop", () -> {
+				startServer(ServerConfig.builder().ioLoops(4).balancing(Balancing.LEAST_CONNECTIONS).build());
+				sendRequestsFromClients(1200);
+			});
+		});
+
+		describe("When a server with multiple listeners is sent valid kryo RPC request/reply RpcRequest by multple clients", () -> {
+			it("should reply correctly to all of them when each listener serves it's own clients", () -> {
+				startServer(ServerConfig.builder().listeners(4).build());
+				sendRequestsFromClients(1200);
+			});
+			it("should reply correctly to all of them when listeners hand clients to IO loops", () -> {
+				startServer(ServerConfig.builder().listeners(2).ioLoops(4).build());
+				sendRequestsFromClients(1200);
+			});
+		});
+	}
+
+	private void sendRequestsFromClients(final int numClients) throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(600);
+
+		final BlockingQueue<Future<?>> clientJobs = new ArrayBlockingQueue<>(numClients);
+		for (int i = 0; i < numClients; i++) {
+			clientJobs.add(executor.submit(new RpcClientRequestJob(kryos, reqId, port)));
+		}
+
+		final Iterator<Future<?>> it = clientJobs.iterator();
+		while (it.hasNext()) {
+			final Future<?> clientJob = it.next();
+			((Socket) clientJob.get()).close();
+			it.remove();
+		}
+		executor.shutdown();
 	}
 
-	private void startServer() {
-		rpcServer = new Server<>(new MarshallerMsgFactory<>(marshaller, RpcRequest.class)).addHandler(rpcInvoker)
-				.addHandler(prepend::requestId);
+	private void startServer(final ServerConfig config) {
+		rpcServer = new Server<>(new MarshallerMsgFactory<>(marshaller, RpcRequest.class), config).addHandler(rpcInvoker)
+				.addRefiner(prepend::requestIdInPlace);
 
 		serverService.submit(() -> {
 			try {
@@ -184,7 +184,7 @@ public class ServerRpcSingleClientIT
         rpcServer = new Server<>(new MarshallerMsgFactory<>(marshaller, RpcRequest.class));
 
         rpcServer.addHandler(rpcInvoker::handle)
-        		 .addHandler(prepend::requestId);
+        		 .addRefiner(prepend::requestIdInPlace);
 
         serverService.submit(() -> rpcServer.start());
 
@@ -0,0 +1,35 @@
+package org.mjd.repro;
+
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+
+import com.google.common.primitives.Ints;
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.afterEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+
+@RunWith(OleasterRunner.class)
+public final class ServerTest {
+	private ServerSocketChannel occupier;
+
+	// TEST INSTANCE BLOCK
+	{
+		describe("When a server is created on an address that is already in use", () -> {
+			beforeEach(() -> {
+				occupier = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0));
+			});
+			afterEach(() -> occupier.close());
+			it("should fail to construct, rather than be left without a bound server channel", () -> {
+				final InetSocketAddress inUse = (InetSocketAddress) occupier.getLocalAddress();
+				expect(() -> new Server<>(inUse, Ints::fromByteArray, msg -> "default", ServerConfig.defaults()))
+						.toThrow(UncheckedIOException.class);
+			});
+		});
+	}
+}
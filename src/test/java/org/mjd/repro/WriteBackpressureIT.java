@@ -0,0 +1,120 @@
+package org.mjd.repro;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.Futures;
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+import org.mjd.repro.handlers.message.MessageHandler.ConnectionContext;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.afterEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+import static org.awaitility.Awaitility.await;
+import static org.awaitility.Duration.TEN_SECONDS;
+import static org.mjd.repro.util.thread.Threads.called;
+
+/**
+ * Shows that a client which sends requests without reading the responses cannot make the server queue responses
+ * without limit. Each 8 byte request is answered with a {@link #RESPONSE_SIZE} byte response; once the server has more
+ * than it's high watermark queued for the client it stops reading the client's requests, so the socket buffers fill
+ * and the client can send no more. Without the watermarks the server would keep reading, and queueing, for as long as
+ * the client kept sending.
+ */
+@RunWith(OleasterRunner.class)
+public final class WriteBackpressureIT {
+	private static final int RESPONSE_SIZE = 64;
+	private static final long SEND_LIMIT = 16 << 20;
+	private static final long STALL_MILLIS = 1000;
+	private static final long SEND_DEADLINE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+	private ExecutorService serverService;
+	private Server<Integer> server;
+	private SocketChannel client;
+
+	// TEST INSTANCE BLOCK
+	{
+		beforeEach(() -> {
+			server = new Server<>(Ints::fromByteArray, ServerConfig.builder().writeWatermarks(4 << 10, 8 << 10).build());
+			server.addHandler((final ConnectionContext<Integer> ctx, final Integer msg) ->
+								  Futures.immediateFuture(Optional.of(ByteBuffer.allocate(RESPONSE_SIZE).putInt(0, msg))));
+			serverService = Executors.newSingleThreadExecutor(called("Server"));
+			serverService.execute(server::start);
+			await().atMost(TEN_SECONDS).until(server::isAvailable);
+			client = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()));
+			client.configureBlocking(false);
+		});
+
+		afterEach(() -> {
+			client.close();
+			serverService.shutdownNow();
+			await().atMost(TEN_SECONDS).until(server::isShutdown);
+		});
+
+		describe("When a client sends requests without reading the responses", () -> {
+			it("should stop being read from, and be read from again once it reads the responses", () -> {
+				final long sent = sendUntilStalled();
+				expect(sent).toBeSmallerThan(SEND_LIMIT);
+				expect(sent % (Integer.BYTES * 2)).toEqual(0L);
+				final long expectedResponses = sent / (Integer.BYTES * 2);
+				expect(readResponses(expectedResponses)).toEqual(expectedResponses);
+			});
+		});
+	}
+
+	/**
+	 * Writes requests until the connection takes no more for {@link #STALL_MILLIS}, {@link #SEND_LIMIT} bytes are sent
+	 * or {@link #SEND_DEADLINE_MILLIS} pass. Only whole requests are counted; a request left part sent is never
+	 * finished, as the server may have stopped reading, so it goes unanswered.
+	 */
+	private long sendUntilStalled() throws IOException, InterruptedException {
+		final ByteBuffer requests = ByteBuffer.allocate(8 << 10);
+		while (requests.hasRemaining()) {
+			requests.putInt(Integer.BYTES).putInt(requests.position());
+		}
+		requests.flip();
+		long sent = 0;
+		final long deadline = System.currentTimeMillis() + SEND_DEADLINE_MILLIS;
+		long lastProgress = System.currentTimeMillis();
+		while (sent < SEND_LIMIT && System.currentTimeMillis() - lastProgress < STALL_MILLIS
+				&& System.currentTimeMillis() < deadline) {
+			if (!requests.hasRemaining()) {
+				requests.rewind();
+			}
+			final int written = client.write(requests);
+			if (written > 0) {
+				sent += written;
+				lastProgress = System.currentTimeMillis();
+			}
+			else {
+				TimeUnit.MILLISECONDS.sleep(10);
+			}
+		}
+		return sent - sent % (Integer.BYTES * 2);
+	}
+
+	private long readResponses(final long expected) throws IOException {
+		final ByteBuffer responses = ByteBuffer.allocateDirect(64 << 10);
+		final long frameSize = Integer.BYTES + RESPONSE_SIZE;
+		final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+		long received = 0;
+		while (received < expected * frameSize && System.currentTimeMillis() < deadline) {
+			final int read = client.read(responses);
+			if (read < 0) {
+				break;
+			}
+			received += read;
+			responses.clear();
+		}
+		return received / frameSize;
+	}
+}
@@ -0,0 +1,142 @@
+package org.mjd.repro.async;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.google.common.util.concurrent.SettableFuture;
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+import org.mjd.repro.handlers.message.MessageHandler;
+import org.mjd.repro.writers.ChannelWriter;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.afterEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.before;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+@RunWith(OleasterRunner.class)
+public final class CompletionMessageJobExecutorTest {
+	private static final Integer FAKE_MSG = 1;
+	private static final Integer SECOND_MSG = 2;
+	private final ByteBuffer fakeResult = ByteBuffer.allocate(0);
+	private final ByteBuffer secondResult = ByteBuffer.allocate(1);
+	private CompletionMessageJobExecutor<Integer> executorUnderTest;
+	private SettableFuture<Optional<ByteBuffer>> firstFuture;
+	private CompletableFuture<Optional<ByteBuffer>> secondFuture;
+	@Mock private ChannelWriter<Integer, SelectionKey> mockChannelWriter;
+	@Spy private SelectionKey selectionKey;
+
+	// UNIT TEST INSTANCE BLOCK
+	{
+		before(() -> {
+			MockitoAnnotations.initMocks(this);
+		});
+
+		describe("when a started " + CompletionMessageJobExecutor.class.getName(), () -> {
+			beforeEach(() -> {
+				reset(mockChannelWriter);
+				firstFuture = SettableFuture.create();
+				secondFuture = new CompletableFuture<>();
+				executorUnderTest = new CompletionMessageJobExecutor<>(mockChannelWriter, true);
+				executorUnderTest.start();
+			});
+			afterEach(() -> executorUnderTest.stop());
+
+			describe("receives jobs that complete in the reverse order they were added", () -> {
+				beforeEach(() -> {
+					executorUnderTest.add(new AsyncMessageJob<>(selectionKey, FAKE_MSG, firstFuture));
+					executorUnderTest.add(new AsyncMessageJob<>(selectionKey, SECOND_MSG, secondFuture));
+				});
+				it("should write nothing until a job completes", () -> {
+					verify(mockChannelWriter, never()).prepWrite(any(), any(), any(ByteBuffer.class));
+				});
+				it("should write each result as it's job completes, without waiting for the earlier job", () -> {
+					secondFuture.complete(Optional.of(secondResult));
+					verify(mockChannelWriter).prepWrite(selectionKey, SECOND_MSG, secondResult);
+					verify(mockChannelWriter, never()).prepWrite(selectionKey, FAKE_MSG, fakeResult);
+					firstFuture.set(Optional.of(fakeResult));
+					final InOrder order = inOrder(mockChannelWriter);
+					order.verify(mockChannelWriter).prepWrite(selectionKey, SECOND_MSG, secondResult);
+					order.verify(mockChannelWriter).prepWrite(selectionKey, FAKE_MSG, fakeResult);
+				});
+			});
+			describe("receives a job that completes without a result", () -> {
+				beforeEach(() -> {
+					executorUnderTest.add(new AsyncMessageJob<>(selectionKey, FAKE_MSG, firstFuture));
+					firstFuture.set(Optional.empty());
+				});
+				it("should acknowledge it with an empty response", () -> {
+					verify(mockChannelWriter).prepWrite(selectionKey, FAKE_MSG, ByteBuffer.allocate(0));
+				});
+			});
+			describe("receives a job whose handler has already responded", () -> {
+				beforeEach(() -> {
+					executorUnderTest.add(new AsyncMessageJob<>(selectionKey, FAKE_MSG, firstFuture));
+					firstFuture.set(Optional.of(MessageHandler.RESPONDED));
+				});
+				it("should not write anything, not even an acknowledgement", () -> {
+					verify(mockChannelWriter, never()).prepWrite(any(), any(), any(ByteBuffer.class));
+				});
+			});
+			describe("receives a job that fails", () -> {
+				beforeEach(() -> {
+					executorUnderTest.add(new AsyncMessageJob<>(selectionKey, FAKE_MSG, secondFuture));
+					secondFuture.completeExceptionally(new IllegalStateException("Job failed"));
+				});
+				it("should not write anything for it", () -> {
+					verify(mockChannelWriter, never()).prepWrite(any(), any(), any(ByteBuffer.class));
+				});
+			});
+			describe("receives a job whose future cannot call back", () -> {
+				final FutureTask<Optional<ByteBuffer>> plainFuture = new FutureTask<>(() -> Optional.of(fakeResult));
+				beforeEach(() -> {
+					final Future<Optional<ByteBuffer>> future = plainFuture;
+					executorUnderTest.add(new AsyncMessageJob<>(selectionKey, FAKE_MSG, future));
+					plainFuture.run();
+				});
+				it("should still write it's result once it completes", () -> {
+					verify(mockChannelWriter, timeout(5000)).prepWrite(selectionKey, FAKE_MSG, fakeResult);
+				});
+			});
+			describe("receives a batch of jobs, one of which has already completed", () -> {
+				beforeEach(() -> {
+					firstFuture.set(Optional.of(fakeResult));
+					executorUnderTest.addBatch(Arrays.asList(new AsyncMessageJob<>(selectionKey, FAKE_MSG, firstFuture),
+															 new AsyncMessageJob<>(selectionKey, SECOND_MSG, secondFuture)));
+				});
+				it("should write the completed result straight away and the other once it completes", () -> {
+					verify(mockChannelWriter).prepWrite(selectionKey, FAKE_MSG, fakeResult);
+					verify(mockChannelWriter, never()).prepWrite(selectionKey, SECOND_MSG, secondResult);
+					secondFuture.complete(Optional.of(secondResult));
+					verify(mockChannelWriter).prepWrite(selectionKey, SECOND_MSG, secondResult);
+				});
+			});
+			describe("is stopped before a job completes", () -> {
+				beforeEach(() -> {
+					executorUnderTest.add(new AsyncMessageJob<>(selectionKey, FAKE_MSG, firstFuture));
+					executorUnderTest.stop();
+					firstFuture.set(Optional.of(fakeResult));
+				});
+				it("should not write it's result", () -> {
+					verify(mockChannelWriter, never()).prepWrite(any(), any(), any(ByteBuffer.class));
+				});
+			});
+		});
+	}
+}
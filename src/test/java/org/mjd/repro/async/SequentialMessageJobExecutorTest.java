@@ -2,8 +2,9 @@ package org.mjd.repro.async;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
+import java.util.Arrays;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -11,6 +12,7 @@ import java.util.concurrent.TimeoutException;
 
 import com.mscharhag.oleaster.runner.OleasterRunner;
 import org.junit.runner.RunWith;
+import org.mjd.repro.handlers.message.MessageHandler;
 import org.mjd.repro.writers.ChannelWriter;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -23,6 +25,8 @@ import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
 import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
@@ -31,28 +35,31 @@ import static org.mockito.Mockito.when;
 @RunWith(OleasterRunner.class)
 public final class SequentialMessageJobExecutorTest {
 	private static final Integer FAKE_MSG = 1;
+	private static final Integer SECOND_MSG = 2;
+	private static final Integer THIRD_MSG = 3;
+	private static final Integer LATER_MSG = 4;
 	private final Optional<ByteBuffer> fakeResult = Optional.of(ByteBuffer.allocate(0));
 	private final Optional<ByteBuffer> fakeVoidResult = Optional.empty();
-	private Selector selector;
 	private SequentialMessageJobExecutor<Integer> executorUnderTest;
 	private AsyncMessageJob<Integer> fakeJob;
 	@Mock private ChannelWriter<Integer, SelectionKey> mockChannelWriter;
 	@Spy private SelectionKey selectionKey;
 	@Mock private Future<Optional<ByteBuffer>> mockFuture;
+	@Mock private Future<Optional<ByteBuffer>> mockSecondFuture;
+	@Mock private Future<Optional<ByteBuffer>> mockThirdFuture;
 
 
 	// UNIT TEST INSTANCE BLOCK
 	{
 		before(() -> {
 			MockitoAnnotations.initMocks(this);
-			selector = Selector.open();
 			fakeJob = new AsyncMessageJob<>(selectionKey, FAKE_MSG, mockFuture);
 		});
 
 
 		describe("when a started " + SequentialMessageJobExecutor.class.getName(), () -> {
 			beforeEach(() -> {
-				executorUnderTest = new SequentialMessageJobExecutor<>(selector, mockChannelWriter, true);
+				executorUnderTest = new SequentialMessageJobExecutor<>(mockChannelWriter, true);
 			});
 			afterEach(() -> executorUnderTest.stop());
 
@@ -61,9 +68,10 @@ public final class SequentialMessageJobExecutorTest {
 					when(mockFuture.get(anyLong(), any(TimeUnit.class))).thenThrow(ExecutionException.class);
 					executorUnderTest.add(fakeJob);
 				});
-				it("should put the job back on the queue to be processed next time around", () -> {
+				it("should log the error and write nothing for the job", () -> {
 					executorUnderTest.start();
-					verify(mockChannelWriter, never()).prepWrite(selectionKey, FAKE_MSG, fakeResult.get());
+					verify(mockFuture, timeout(5000)).get(anyLong(), any(TimeUnit.class));
+					verify(mockChannelWriter, after(500).never()).prepWrite(selectionKey, FAKE_MSG, fakeResult.get());
 				});
 			});
 			describe("receives one job that has NOT finished processing", () -> {
@@ -93,6 +101,16 @@ public final class SequentialMessageJobExecutorTest {
 					});
 
 				});
+				describe("whose handler has already responded", () -> {
+					beforeEach(() -> {
+						when(mockFuture.get(anyLong(), any(TimeUnit.class))).thenReturn(Optional.of(MessageHandler.RESPONDED));
+						executorUnderTest.start();
+					});
+					it("should not write anything, not even an acknowledgement", () -> {
+						verify(mockFuture, timeout(5000)).get(anyLong(), any(TimeUnit.class));
+						verify(mockChannelWriter, after(500).never()).prepWrite(any(), any(), any(ByteBuffer.class));
+					});
+				});
 				describe("and has a result to write back", () -> {
 					beforeEach(() -> {
 						when(mockFuture.get(anyLong(), any(TimeUnit.class))).thenReturn(fakeResult);
@@ -104,6 +122,54 @@ public final class SequentialMessageJobExecutorTest {
 					});
 				});
 			});
+			describe("receives a batch of jobs that have finished processing", () -> {
+				beforeEach(() -> {
+					when(mockFuture.get(anyLong(), any(TimeUnit.class))).thenReturn(fakeResult);
+					when(mockSecondFuture.get(anyLong(), any(TimeUnit.class))).thenReturn(fakeVoidResult);
+					executorUnderTest.addBatch(Arrays.asList(fakeJob,
+															 new AsyncMessageJob<>(selectionKey, SECOND_MSG, mockSecondFuture)));
+					executorUnderTest.start();
+				});
+				it("should write all the results to the channel writer together", () -> {
+					verify(mockChannelWriter, timeout(5000)).prepWrites(selectionKey, Arrays.asList(FAKE_MSG, SECOND_MSG),
+																	   Arrays.asList(fakeResult.get(), ByteBuffer.allocate(0)));
+					verify(mockChannelWriter, never()).prepWrite(any(), any(), any(ByteBuffer.class));
+				});
+			});
+			describe("receives a batch whose second job has NOT finished processing", () -> {
+				beforeEach(() -> {
+					when(mockFuture.get(anyLong(), any(TimeUnit.class))).thenReturn(fakeResult);
+					when(mockSecondFuture.get(anyLong(), any(TimeUnit.class)))
+										.thenThrow(TimeoutException.class)
+										.thenReturn(fakeResult);
+					executorUnderTest.addBatch(Arrays.asList(fakeJob,
+															 new AsyncMessageJob<>(selectionKey, SECOND_MSG, mockSecondFuture)));
+					executorUnderTest.start();
+				});
+				it("should write the finished result and put the rest of the batch back on the queue", () -> {
+					verify(mockChannelWriter, timeout(5000)).prepWrite(selectionKey, FAKE_MSG, fakeResult.get());
+					verify(mockChannelWriter, timeout(5000)).prepWrite(selectionKey, SECOND_MSG, fakeResult.get());
+				});
+			});
+			describe("receives a batch whose middle job throws an exception when processing", () -> {
+				beforeEach(() -> {
+					when(mockFuture.get(anyLong(), any(TimeUnit.class))).thenReturn(fakeResult);
+					when(mockSecondFuture.get(anyLong(), any(TimeUnit.class))).thenThrow(ExecutionException.class);
+					when(mockThirdFuture.get(anyLong(), any(TimeUnit.class))).thenReturn(fakeResult);
+					executorUnderTest.addBatch(Arrays.asList(fakeJob,
+															 new AsyncMessageJob<>(selectionKey, SECOND_MSG, mockSecondFuture),
+															 new AsyncMessageJob<>(selectionKey, THIRD_MSG, mockThirdFuture)));
+					executorUnderTest.add(new AsyncMessageJob<>(selectionKey, LATER_MSG,
+																CompletableFuture.completedFuture(fakeResult)));
+					executorUnderTest.start();
+				});
+				it("should write the rest of the batch, and the jobs after it, without the failed job's result", () -> {
+					verify(mockChannelWriter, timeout(5000)).prepWrites(selectionKey, Arrays.asList(FAKE_MSG, THIRD_MSG),
+																	   Arrays.asList(fakeResult.get(), fakeResult.get()));
+					verify(mockChannelWriter, timeout(5000)).prepWrite(selectionKey, LATER_MSG, fakeResult.get());
+					verify(mockChannelWriter, never()).prepWrite(any(), eq(SECOND_MSG), any(ByteBuffer.class));
+				});
+			});
 		});
 
 	}
@@ -0,0 +1,55 @@
+package org.mjd.repro.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Minimal blocking client for benchmarks. Writes and reads [int length][body] frames.
+ */
+public final class BenchmarkClient implements Closeable {
+	private final Socket socket;
+	private final DataOutputStream out;
+	private final DataInputStream in;
+
+	public BenchmarkClient(final int port) throws IOException {
+		socket = new Socket();
+		socket.setTcpNoDelay(true);
+		socket.connect(new InetSocketAddress("localhost", port));
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+	}
+
+	public BenchmarkClient writeFrame(final byte[] body) throws IOException {
+		out.writeInt(body.length);
+		out.write(body);
+		return this;
+	}
+
+	public BenchmarkClient writeIntFrame(final int value) throws IOException {
+		out.writeInt(Integer.BYTES);
+		out.writeInt(value);
+		return this;
+	}
+
+	public BenchmarkClient flush() throws IOException {
+		out.flush();
+		return this;
+	}
+
+	public byte[] readFrame() throws IOException {
+		final byte[] body = new byte[in.readInt()];
+		in.readFully(body);
+		return body;
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+}
@@ -0,0 +1,21 @@
+package org.mjd.repro.benchmarks;
+
+import com.google.common.primitives.Longs;
+import org.mjd.repro.handlers.message.ResponseMessage;
+import org.mjd.repro.serialisation.Marshaller;
+
+/**
+ * Minimal {@link Marshaller} for RPC benchmarks. Marshalls a {@link ResponseMessage} as the id of the request it
+ * answers, so the client can match it without a serialiser.
+ */
+public final class BenchmarkIdMarshaller implements Marshaller {
+	@Override
+	public <T> byte[] marshall(final T object, final Class<T> type) {
+		return Longs.toByteArray(((ResponseMessage<?>) object).getId());
+	}
+
+	@Override
+	public <T> T unmarshall(final byte[] bytesRead, final Class<T> type) {
+		throw new UnsupportedOperationException("Requests are decoded by the message factory");
+	}
+}
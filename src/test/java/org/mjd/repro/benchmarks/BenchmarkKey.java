@@ -0,0 +1,54 @@
+package org.mjd.repro.benchmarks;
+
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * Minimal {@link SelectionKey} for benchmarks, for a channel that is never registered with a selector. Interest ops
+ * are simply held.
+ */
+public final class BenchmarkKey extends SelectionKey {
+	private final SelectableChannel channel;
+	private int interestOps = OP_READ;
+
+	public BenchmarkKey(final SelectableChannel channel) {
+		this.channel = channel;
+	}
+
+	@Override
+	public SelectableChannel channel() {
+		return channel;
+	}
+
+	@Override
+	public Selector selector() {
+		return null;
+	}
+
+	@Override
+	public boolean isValid() {
+		return true;
+	}
+
+	@Override
+	public void cancel() {
+		// Never registered
+	}
+
+	@Override
+	public int interestOps() {
+		return interestOps;
+	}
+
+	@Override
+	public SelectionKey interestOps(final int ops) {
+		interestOps = ops;
+		return this;
+	}
+
+	@Override
+	public int readyOps() {
+		return 0;
+	}
+}
@@ -0,0 +1,216 @@
+package org.mjd.repro.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.mjd.repro.connection.Connection;
+import org.mjd.repro.writers.RefiningChannelWriter;
+import org.mjd.repro.writers.SizeHeaderWriter;
+import org.mjd.repro.writers.Writer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Write calls made, and so syscalls, per response when a {@link RefiningChannelWriter} flushes {@link #responses}
+ * queued responses for one connection. The channel is the sink of a real {@link Pipe}, drained by another thread, and
+ * counts every write made to it.
+ * </p>
+ * In {@code legacy} mode each {@link SizeHeaderWriter} writes it's header and then it's body with separate writes, as
+ * before responses were gathered, so each response costs two write calls. In {@code gathering} mode the writer gathers
+ * the header and body of every queued response into one write, so the cost per response falls with the queue depth.
+ * Divide the {@code writeCalls} rate by the {@code responsesWritten} rate for the write calls per response.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class GatheringWriteBenchmark {
+	@Param({ "legacy", "gathering" })
+	public String mode;
+
+	@Param({ "1", "50" })
+	public int responses;
+
+	@Param({ "64" })
+	public int responseSize;
+
+	private Pipe pipe;
+	private CountingSink sink;
+	private Thread drainer;
+	private SelectionKey key;
+	private RefiningChannelWriter<Object, SelectionKey> channelWriter;
+	private List<Object> messages;
+	private List<ByteBuffer> results;
+
+	/** Write calls made and responses written, see {@link GatheringWriteBenchmark} */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class WriteCalls {
+		public long writeCalls;
+		public long responsesWritten;
+	}
+
+	@Setup(Level.Trial)
+	public void openPipe() throws IOException {
+		pipe = Pipe.open();
+		sink = new CountingSink(pipe.sink());
+		drainer = new Thread(this::drain, "GatheringWriteDrainer");
+		drainer.setDaemon(true);
+		drainer.start();
+		key = new BenchmarkKey(sink);
+		key.attach(new Connection(1));
+		if ("legacy".equals(mode)) {
+			final WritableByteChannel plainChannel = new PlainChannel(sink);
+			channelWriter = new RefiningChannelWriter<>(Runnable::run, Collections.emptyList(),
+					(k, b) -> new UngatheredWriter(new SizeHeaderWriter(k.attachment(), plainChannel, b)));
+		}
+		else {
+			channelWriter = new RefiningChannelWriter<>(Runnable::run, Collections.emptyList(),
+					(k, b) -> new SizeHeaderWriter(k.attachment(), sink, b));
+		}
+		messages = new ArrayList<>(responses);
+		results = new ArrayList<>(responses);
+		for (int i = 0; i < responses; i++) {
+			messages.add(i);
+			results.add(ByteBuffer.allocateDirect(responseSize));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void closePipe() throws IOException {
+		pipe.sink().close();
+		pipe.source().close();
+	}
+
+	@Benchmark
+	public long flush(final WriteCalls counters) {
+		for (final ByteBuffer result : results) {
+			result.clear();
+		}
+		final long before = sink.writeCalls;
+		channelWriter.prepWrites(key, messages, results);
+		channelWriter.write(key);
+		counters.writeCalls += sink.writeCalls - before;
+		counters.responsesWritten += responses;
+		return sink.writeCalls;
+	}
+
+	private void drain() {
+		final ByteBuffer drained = ByteBuffer.allocateDirect(64 << 10);
+		try {
+			while (pipe.source().read(drained) >= 0) {
+				drained.clear();
+			}
+		}
+		catch (final IOException e) {
+			// closed at the end of the trial
+		}
+	}
+
+	/** Pipe sink that counts every write made through it */
+	private static final class CountingSink extends Pipe.SinkChannel {
+		private final Pipe.SinkChannel delegate;
+		private long writeCalls;
+
+		CountingSink(final Pipe.SinkChannel delegate) {
+			super(delegate.provider());
+			this.delegate = delegate;
+		}
+
+		@Override
+		public int write(final ByteBuffer src) throws IOException {
+			writeCalls++;
+			return delegate.write(src);
+		}
+
+		@Override
+		public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+			writeCalls++;
+			return delegate.write(srcs, offset, length);
+		}
+
+		@Override
+		public long write(final ByteBuffer[] srcs) throws IOException {
+			return write(srcs, 0, srcs.length);
+		}
+
+		@Override
+		protected void implCloseSelectableChannel() throws IOException {
+			delegate.close();
+		}
+
+		@Override
+		protected void implConfigureBlocking(final boolean block) throws IOException {
+			delegate.configureBlocking(block);
+		}
+	}
+
+	/** View of a channel that cannot gather writes */
+	private static final class PlainChannel implements WritableByteChannel {
+		private final WritableByteChannel delegate;
+
+		PlainChannel(final WritableByteChannel delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public int write(final ByteBuffer src) throws IOException {
+			return delegate.write(src);
+		}
+
+		@Override
+		public boolean isOpen() {
+			return delegate.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException {
+			delegate.close();
+		}
+	}
+
+	/** Hides the buffers of a {@link Writer} so it is written by itself */
+	private static final class UngatheredWriter implements Writer {
+		private final Writer delegate;
+
+		UngatheredWriter(final Writer delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void write() throws IOException {
+			delegate.write();
+		}
+
+		@Override
+		public boolean isComplete() {
+			return delegate.isComplete();
+		}
+
+		@Override
+		public void release() {
+			delegate.release();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package org.mjd.repro.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.mjd.repro.buffer.BufferPool;
+import org.mjd.repro.message.factory.MessageFactory;
+import org.mjd.repro.readers.FrameDecoder;
+import org.mjd.repro.readers.header.FlaggedHeaderCodec;
+import org.mjd.repro.readers.header.HeaderCodec;
+import org.mjd.repro.readers.header.IntHeaderReader;
+import org.mjd.repro.readers.header.VarIntHeaderCodec;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of each {@link HeaderCodec} on a small-message workload: {@link #frames} pipelined frames with bodies of 8 to
+ * {@link #maxBodySize} bytes, the sizes most of our clients send. {@link #encode} frames every body into one buffer as
+ * the response path does and {@link #decode} decodes that buffer, a {@link #readSize} read at a time, through a
+ * {@link FrameDecoder} as the request path does.
+ * </p>
+ * Alongside the operation rate, the {@code wireBytes} counter reports the rate at which frame bytes are decoded;
+ * divided by the operation rate it gives the bytes a batch takes on the wire, so the bandwidth a codec saves can be
+ * weighed against any CPU it costs. With the default 8-120 byte bodies the varint header takes one byte in place of
+ * four, about 5% of each frame.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class HeaderCodecBenchmark {
+	private static final MessageFactory<Integer> BODY_SIZE = new MessageFactory<Integer>() {
+		@Override
+		public Integer createMessage(final byte[] bytesRead) {
+			return bytesRead.length;
+		}
+
+		@Override
+		public Integer createMessage(final ByteBuffer body) {
+			return body.remaining();
+		}
+	};
+
+	@Param({ "int", "varint", "flagged" })
+	public String codec;
+
+	@Param({ "1000" })
+	public int frames;
+
+	@Param({ "120" })
+	public int maxBodySize;
+
+	@Param({ "4096" })
+	public int readSize;
+
+	private HeaderCodec headerCodec;
+	private int[] bodySizes;
+	private ByteBuffer body;
+	private ByteBuffer encoded;
+	private ByteBuffer read;
+	private FrameDecoder<Integer> decoder;
+
+	/** Frame bytes decoded, see {@link HeaderCodecBenchmark} */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class WireBytes {
+		public long wireBytes;
+	}
+
+	@Setup(Level.Trial)
+	public void encodeFrames() {
+		switch (codec) {
+			case "varint":
+				headerCodec = new VarIntHeaderCodec();
+				break;
+			case "flagged":
+				headerCodec = new FlaggedHeaderCodec();
+				break;
+			default:
+				headerCodec = new IntHeaderReader();
+		}
+		final Random random = new Random(42);
+		bodySizes = new int[frames];
+		for (int i = 0; i < frames; i++) {
+			bodySizes[i] = 8 + random.nextInt(maxBodySize - 7);
+		}
+		body = ByteBuffer.allocate(maxBodySize);
+		encoded = ByteBuffer.allocate(frames * (maxBodySize + headerCodec.getMaxSize()));
+		encode();
+		encoded.flip();
+		read = ByteBuffer.allocate(readSize);
+		decoder = new FrameDecoder<>("benchmark", BODY_SIZE, new BufferPool(), Integer.MAX_VALUE, headerCodec);
+	}
+
+	@Benchmark
+	public ByteBuffer encode() {
+		encoded.clear();
+		for (final int bodySize : bodySizes) {
+			headerCodec.encode(encoded, bodySize, 0);
+			body.clear().limit(bodySize);
+			encoded.put(body);
+		}
+		return encoded;
+	}
+
+	@Benchmark
+	public int decode(final WireBytes counters, final Blackhole blackhole) {
+		final ByteBuffer wire = encoded.duplicate();
+		int decoded = 0;
+		while (wire.hasRemaining()) {
+			read.clear();
+			final int chunk = Math.min(read.remaining(), wire.remaining());
+			final int end = wire.position() + chunk;
+			final ByteBuffer slice = wire.duplicate();
+			slice.limit(end);
+			read.put(slice).flip();
+			wire.position(end);
+			decoded += decoder.decode(read, blackhole::consume);
+		}
+		counters.wireBytes += encoded.limit();
+		return decoded;
+	}
+}
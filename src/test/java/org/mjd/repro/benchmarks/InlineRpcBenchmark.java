@@ -0,0 +1,123 @@
+package org.mjd.repro.benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.primitives.Longs;
+import org.mjd.repro.Server;
+import org.mjd.repro.handlers.factories.RpcHandlers;
+import org.mjd.repro.message.RpcRequest;
+import org.mjd.repro.rpc.Inline;
+import org.mjd.repro.serialisation.Marshaller;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static org.awaitility.Awaitility.await;
+import static org.mjd.repro.util.thread.Threads.called;
+
+/**
+ * Round trip time of an RPC call to a getter, so cheap that the cost of the call is the server's overhead. One client
+ * sends a call and waits for it's response before sending the next.
+ * </p>
+ * {@code pooled} invokes the getter on the invoker's thread pool, so the request is handed from the selector thread to
+ * the pool and the response waited for and handed back. {@code inline} marks the getter {@link Inline}, so it is
+ * invoked on the selector thread and it's response queued for writing there, skipping every hand over. Both use
+ * {@link RpcHandlers#newPooledResponseRpcInvoker(Marshaller, Object, int)} so responses skip the job executor.
+ * </p>
+ * Requests are [int length][long id] frames and responses echo the id, marshalled without a serialisation library so
+ * the benchmark runs on any JDK.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InlineRpcBenchmark {
+	private static final int FRAME_SIZE = Integer.BYTES + Long.BYTES;
+
+	@Param({ "pooled", "inline" })
+	public String lane;
+
+	private final ByteBuffer request = ByteBuffer.allocate(FRAME_SIZE);
+	private final ByteBuffer response = ByteBuffer.allocate(FRAME_SIZE);
+	private Server<RpcRequest> server;
+	private ExecutorService serverService;
+	private SocketChannel client;
+	private long id;
+
+	/** An RPC target whose getter is invoked on the invoker's pool */
+	public static class PooledCounter {
+		private final AtomicLong count = new AtomicLong();
+
+		public long count() {
+			return count.incrementAndGet();
+		}
+	}
+
+	/** An RPC target whose getter is invoked on the selector thread */
+	public static final class InlineCounter extends PooledCounter {
+		@Inline
+		@Override
+		public long count() {
+			return super.count();
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		final PooledCounter target = "inline".equals(lane) ? new InlineCounter() : new PooledCounter();
+		server = new Server<>(body -> new RpcRequest(Longs.fromByteArray(body), "count"));
+		server.addHandler(RpcHandlers.newPooledResponseRpcInvoker(new BenchmarkIdMarshaller(), target, 4));
+		serverService = Executors.newSingleThreadExecutor(called("Server"));
+		serverService.execute(server::start);
+		await().until(server::isAvailable);
+		client = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()));
+		client.socket().setTcpNoDelay(true);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		client.close();
+		server.shutDown();
+		serverService.shutdownNow();
+	}
+
+	/**
+	 * Calls the getter and waits for it's response
+	 *
+	 * @return the id echoed in the response
+	 */
+	@Benchmark
+	public long call() throws IOException {
+		request.clear();
+		request.putInt(Long.BYTES).putLong(++id).flip();
+		while (request.hasRemaining()) {
+			client.write(request);
+		}
+		response.clear();
+		while (response.hasRemaining()) {
+			if (client.read(response) < 0) {
+				throw new IOException("Server closed the connection");
+			}
+		}
+		return response.getLong(Integer.BYTES);
+	}
+}
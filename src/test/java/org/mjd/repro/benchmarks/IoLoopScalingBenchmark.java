@@ -0,0 +1,88 @@
+package org.mjd.repro.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.Futures;
+import org.mjd.repro.Server;
+import org.mjd.repro.ServerConfig;
+import org.mjd.repro.handlers.message.MessageHandler.ConnectionContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static org.awaitility.Awaitility.await;
+import static org.mjd.repro.util.thread.Threads.called;
+
+/**
+ * Requests per second of an echo server as the number of worker IO loops grows. 0 loops is the default single
+ * selector server. Each benchmark thread is one client doing blocking request/reply round trips.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(32)
+public class IoLoopScalingBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class ServerState {
+		@Param({ "0", "1", "2", "4", "8" })
+		public int ioLoops;
+		public Server<Integer> server;
+		private ExecutorService serverService;
+
+		@Setup(Level.Trial)
+		public void startServer() {
+			server = new Server<>(Ints::fromByteArray, ServerConfig.builder().ioLoops(ioLoops).build());
+			server.addHandler((final ConnectionContext<Integer> ctx, final Integer msg) -> Futures.immediateFuture(Optional.of(ByteBuffer.wrap(Ints.toByteArray(msg)))));
+			serverService = Executors.newSingleThreadExecutor(called("Server"));
+			serverService.execute(server::start);
+			await().until(server::isAvailable);
+		}
+
+		@TearDown(Level.Trial)
+		public void stopServer() {
+			server.shutDown();
+			serverService.shutdownNow();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ClientState {
+		public BenchmarkClient client;
+		private int value;
+
+		@Setup(Level.Trial)
+		public void connect(final ServerState serverState) throws IOException {
+			client = new BenchmarkClient(serverState.server.getPort());
+		}
+
+		@TearDown(Level.Trial)
+		public void disconnect() throws IOException {
+			client.close();
+		}
+	}
+
+	@Benchmark
+	public byte[] requestReply(final ClientState state) throws IOException {
+		return state.client.writeIntFrame(state.value++).flush().readFrame();
+	}
+}
@@ -0,0 +1,129 @@
+package org.mjd.repro.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.mjd.repro.async.AsyncMessageJob;
+import org.mjd.repro.async.AsyncMessageJobExecutor;
+import org.mjd.repro.async.CompletionMessageJobExecutor;
+import org.mjd.repro.async.SequentialMessageJobExecutor;
+import org.mjd.repro.handlers.response.ResponseBuffer;
+import org.mjd.repro.writers.ChannelWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of fast calls mixed with slow ones, from a call's job being added to an {@link AsyncMessageJobExecutor} to
+ * it's response being handed to the channel writer. Every {@link #slowEvery}th call sleeps for {@link #SLOW_MILLIS}
+ * on a pool of {@link #HANDLER_THREADS} handler threads, with no more than that many slow calls outstanding; the rest
+ * return at once.
+ * </p>
+ * {@code sequential} waits on each job in turn, polling for up to 500 ms, so a fast call's response waits behind any
+ * slow call added before it. {@code completion} writes each response from the thread that completes it's job, so a
+ * fast call's latency is not affected by the slow calls around it.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JobCompletionLatencyBenchmark {
+	private static final int HANDLER_THREADS = 4;
+	private static final long SLOW_MILLIS = 5;
+	private static final Optional<ByteBuffer> RESPONSE = Optional.of(ByteBuffer.allocate(0));
+
+	@Param({ "sequential", "completion" })
+	public String executor;
+
+	@Param({ "10" })
+	public int slowEvery;
+
+	private final SelectionKey key = new BenchmarkKey(null);
+	private final AtomicInteger lastWritten = new AtomicInteger(-1);
+	private final Semaphore slowCalls = new Semaphore(HANDLER_THREADS);
+	private ListeningExecutorService handlers;
+	private AsyncMessageJobExecutor<Integer> executorUnderTest;
+	private int calls;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		handlers = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(HANDLER_THREADS));
+		final ChannelWriter<Integer, SelectionKey> writer = new LatestWriter();
+		executorUnderTest = "sequential".equals(executor) ? new SequentialMessageJobExecutor<>(writer, true)
+														  : new CompletionMessageJobExecutor<>(writer, true);
+		executorUnderTest.start();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		executorUnderTest.stop();
+		handlers.shutdownNow();
+	}
+
+	/**
+	 * Adds a slow call, if it's it's turn and there is room for another, then a fast call, and waits for the fast
+	 * call's response
+	 *
+	 * @return the id of the fast call
+	 */
+	@Benchmark
+	public int fastCall() {
+		if (++calls % slowEvery == 0 && slowCalls.tryAcquire()) {
+			executorUnderTest.add(AsyncMessageJob.from(key, -calls, handlers.submit(() -> {
+				try {
+					Thread.sleep(SLOW_MILLIS);
+					return RESPONSE;
+				}
+				finally {
+					slowCalls.release();
+				}
+			})));
+		}
+		final int id = calls;
+		executorUnderTest.add(AsyncMessageJob.from(key, id, handlers.submit(() -> RESPONSE)));
+		while (lastWritten.get() != id) {
+			LockSupport.parkNanos(1_000);
+		}
+		return id;
+	}
+
+	/** Notes the latest fast call whose response was written */
+	private final class LatestWriter implements ChannelWriter<Integer, SelectionKey> {
+		@Override
+		public void prepWrite(final SelectionKey key, final Integer message, final ByteBuffer resultToWrite) {
+			if (message > 0) {
+				lastWritten.set(message);
+			}
+		}
+
+		@Override
+		public void prepWrite(final SelectionKey key, final Integer message, final ResponseBuffer response) {
+			response.release();
+		}
+
+		@Override
+		public void write(final SelectionKey key) {
+			// Nothing is written
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package org.mjd.repro.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.mjd.repro.connection.Connection;
+import org.mjd.repro.loop.LoopTaskQueue;
+import org.mjd.repro.writers.RefiningChannelWriter;
+import org.mjd.repro.writers.Writer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Contention between threads queueing responses, each for a client of it's own, whilst one loop thread drains them.
+ * Run by 1, 8 and 32 producer threads.
+ * </p>
+ * {@code globalLock} queues them as the writer used to, in a map of per key queues guarded by one write lock that the
+ * loop thread also takes to drain them, so every producer contends with every other. {@code perConnection} queues
+ * them through a {@link RefiningChannelWriter}, on the lock-free pending queue of each {@link Connection}, so
+ * producers only contend with producers writing to the same client and with the loop thread's task queue once per
+ * drain.
+ * </p>
+ * A producer waits whilst {@link #MAX_OUTSTANDING} of it's responses are undrained so the queues stay bounded.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OutboundQueueBenchmark {
+	private static final int CONNECTIONS = 32;
+	private static final int MAX_OUTSTANDING = 4096;
+	private static final Writer NO_OP_WRITER = new NoOpWriter();
+	private static final ByteBuffer RESPONSE = ByteBuffer.allocate(0);
+
+	@Param({ "globalLock", "perConnection" })
+	public String mode;
+
+	private final SelectionKey[] keys = new SelectionKey[CONNECTIONS];
+	private final AtomicLong[] outstanding = new AtomicLong[CONNECTIONS];
+	private final ReentrantReadWriteLock responseWritersLock = new ReentrantReadWriteLock();
+	private final Map<SelectionKey, Queue<Writer>> responseWriters = new HashMap<>();
+	private Selector selector;
+	private LoopTaskQueue loopTasks;
+	private RefiningChannelWriter<Object, SelectionKey> channelWriter;
+	private volatile boolean running;
+	private Thread loop;
+
+	/** The client a producer thread writes to */
+	@State(Scope.Thread)
+	public static class Producer {
+		int client;
+
+		@Setup(Level.Trial)
+		public void pickClient(final ThreadParams threadParams) {
+			client = threadParams.getThreadIndex() % CONNECTIONS;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void startLoop() throws IOException {
+		selector = Selector.open();
+		loopTasks = new LoopTaskQueue(selector);
+		channelWriter = new RefiningChannelWriter<>(loopTasks, Collections.emptyList(), (k, b) -> NO_OP_WRITER);
+		for (int i = 0; i < CONNECTIONS; i++) {
+			keys[i] = new BenchmarkKey(null);
+			keys[i].attach(new Connection(i));
+			outstanding[i] = new AtomicLong();
+			responseWriters.put(keys[i], new ArrayDeque<>());
+		}
+		running = true;
+		loop = new Thread("globalLock".equals(mode) ? this::drainLocked : this::drainConnections, "OutboundLoop");
+		loop.start();
+	}
+
+	@TearDown(Level.Trial)
+	public void stopLoop() throws IOException, InterruptedException {
+		running = false;
+		loop.join();
+		selector.close();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void producers1(final Producer producer) {
+		produce(producer);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public void producers8(final Producer producer) {
+		produce(producer);
+	}
+
+	@Benchmark
+	@Threads(32)
+	public void producers32(final Producer producer) {
+		produce(producer);
+	}
+
+	private void produce(final Producer producer) {
+		final AtomicLong clientOutstanding = outstanding[producer.client];
+		while (clientOutstanding.get() >= MAX_OUTSTANDING && running) {
+			Thread.yield();
+		}
+		clientOutstanding.incrementAndGet();
+		final SelectionKey key = keys[producer.client];
+		if ("globalLock".equals(mode)) {
+			responseWritersLock.writeLock().lock();
+			try {
+				responseWriters.get(key).add(NO_OP_WRITER);
+			}
+			finally {
+				responseWritersLock.writeLock().unlock();
+			}
+		}
+		else {
+			channelWriter.prepWrite(key, null, RESPONSE);
+		}
+	}
+
+	/** The loop thread of {@code globalLock}, draining every queue under the write lock */
+	private void drainLocked() {
+		while (running) {
+			clearWakeup();
+			responseWritersLock.writeLock().lock();
+			try {
+				for (int i = 0; i < CONNECTIONS; i++) {
+					outstanding[i].addAndGet(-drain(responseWriters.get(keys[i])));
+				}
+			}
+			finally {
+				responseWritersLock.writeLock().unlock();
+			}
+		}
+	}
+
+	/** The loop thread of {@code perConnection}, running the writer's tasks then draining each outbound queue */
+	private void drainConnections() {
+		while (running) {
+			clearWakeup();
+			loopTasks.runPendingTasks();
+			for (int i = 0; i < CONNECTIONS; i++) {
+				outstanding[i].addAndGet(-drain(Connection.of(keys[i]).getOutbound()));
+			}
+		}
+	}
+
+	private static int drain(final Queue<Writer> writers) {
+		int drained = 0;
+		while (writers.poll() != null) {
+			drained++;
+		}
+		return drained;
+	}
+
+	/** Selects as the loop would, clearing any wakeup */
+	private void clearWakeup() {
+		try {
+			selector.selectNow();
+		}
+		catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Writer with nothing to write */
+	private static final class NoOpWriter implements Writer {
+		@Override
+		public void write() {
+			// Nothing to write
+		}
+
+		@Override
+		public boolean isComplete() {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package org.mjd.repro.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.mjd.repro.handlers.factories.RpcHandlers;
+import org.mjd.repro.handlers.message.MessageHandler;
+import org.mjd.repro.handlers.message.MessageHandler.ConnectionContext;
+import org.mjd.repro.message.RpcRequest;
+import org.mjd.repro.serialisation.Marshaller;
+import org.mjd.repro.support.KryoMarshaller;
+import org.mjd.repro.support.RpcKryo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the {@link RpcHandlers} invokers when {@link #CONNECTIONS} clients each have a request in flight.
+ * Each call blocks for {@link #CALL_MICROS}, as a call waiting on I/O would, so throughput depends on how many calls
+ * run at once rather than on the number of CPUs.
+ * </p>
+ * {@code singleThread} keeps each client's requests in order by invoking every request on one thread.
+ * {@code fixedThreads} invokes them on {@link #threads} threads, in parallel but in no order. {@code connectionOrdered}
+ * invokes them on {@link #threads} threads, in parallel across clients but in order for each.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RpcInvokerOrderingBenchmark {
+	private static final int CONNECTIONS = 1000;
+	private static final long CALL_MICROS = 50;
+
+	@Param({ "singleThread", "fixedThreads", "connectionOrdered" })
+	public String invoker;
+
+	@Param({ "8" })
+	public int threads;
+
+	private final List<ConnectionContext<RpcRequest>> connections = new ArrayList<>(CONNECTIONS);
+	private final List<Future<Optional<ByteBuffer>>> calls = new ArrayList<>(CONNECTIONS);
+	private final RpcRequest request = new RpcRequest(1L, "call");
+	private MessageHandler<RpcRequest> invokerUnderTest;
+
+	/** The RPC target, whose calls block briefly */
+	public static final class BlockingService {
+		public int call() {
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(CALL_MICROS));
+			return 1;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		final Marshaller marshaller = new KryoMarshaller(threads, RpcKryo::configure);
+		final BlockingService target = new BlockingService();
+		switch (invoker) {
+			case "singleThread":
+				invokerUnderTest = RpcHandlers.singleThreadRpcInvoker(marshaller, target);
+				break;
+			case "fixedThreads":
+				invokerUnderTest = RpcHandlers.newFixedThreadRpcInvoker(marshaller, target, threads);
+				break;
+			default:
+				invokerUnderTest = RpcHandlers.newConnectionOrderedRpcInvoker(marshaller, target, threads);
+		}
+		for (int i = 0; i < CONNECTIONS; i++) {
+			connections.add(new ConnectionContext<>(null, new BenchmarkKey(null)));
+		}
+	}
+
+	/**
+	 * Sends a request from every client and waits for all of the responses
+	 *
+	 * @return the number of responses
+	 */
+	@Benchmark
+	@OperationsPerInvocation(CONNECTIONS)
+	public int requestFromEveryConnection() throws Exception {
+		calls.clear();
+		for (final ConnectionContext<RpcRequest> connection : connections) {
+			calls.add(invokerUnderTest.handle(connection, request));
+		}
+		int responses = 0;
+		for (final Future<Optional<ByteBuffer>> call : calls) {
+			responses += call.get().isPresent() ? 1 : 0;
+		}
+		return responses;
+	}
+}
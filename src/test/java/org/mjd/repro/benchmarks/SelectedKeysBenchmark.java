@@ -0,0 +1,107 @@
+package org.mjd.repro.benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.Futures;
+import org.mjd.repro.Server;
+import org.mjd.repro.ServerConfig;
+import org.mjd.repro.handlers.message.MessageHandler.ConnectionContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static org.awaitility.Awaitility.await;
+import static org.mjd.repro.util.thread.Threads.called;
+
+/**
+ * Throughput of a single loop echo server with, and without, the array backed selected-key set. One operation sends a
+ * request on each of {@link #connections} clients and then reads every reply, so each select returns many ready keys.
+ * </p>
+ * Client and server share the benchmark JVM, so 10k connections needs an open file limit above 20k, e.g.,
+ * {@code ulimit -n 32768}. Use {@code -p connections=...} to run with fewer.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SelectedKeysBenchmark {
+	@Param({ "true", "false" })
+	public boolean optimisedSelectedKeys;
+
+	@Param({ "10000" })
+	public int connections;
+
+	private final List<SocketChannel> clients = new ArrayList<>();
+	private final ByteBuffer request = ByteBuffer.allocate(Integer.BYTES * 2);
+	private final ByteBuffer reply = ByteBuffer.allocate(Integer.BYTES * 2);
+	private Server<Integer> server;
+	private ExecutorService serverService;
+
+	@Setup(Level.Trial)
+	public void startServerAndConnect() throws IOException {
+		server = new Server<>(Ints::fromByteArray,
+							  ServerConfig.builder().optimisedSelectedKeys(optimisedSelectedKeys).build());
+		server.addHandler((final ConnectionContext<Integer> ctx, final Integer msg) -> Futures.immediateFuture(Optional.of(ByteBuffer.wrap(Ints.toByteArray(msg)))));
+		serverService = Executors.newSingleThreadExecutor(called("Server"));
+		serverService.execute(server::start);
+		await().until(server::isAvailable);
+		for (int i = 0; i < connections; i++) {
+			final SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()));
+			client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			clients.add(client);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void disconnectAndStopServer() throws IOException {
+		for (final SocketChannel client : clients) {
+			client.close();
+		}
+		clients.clear();
+		server.shutDown();
+		serverService.shutdownNow();
+	}
+
+	@Benchmark
+	public int requestReplyOnEveryConnection() throws IOException {
+		for (int i = 0; i < clients.size(); i++) {
+			request.clear();
+			request.putInt(Integer.BYTES).putInt(i).flip();
+			while (request.hasRemaining()) {
+				clients.get(i).write(request);
+			}
+		}
+		int checksum = 0;
+		for (final SocketChannel client : clients) {
+			reply.clear();
+			while (reply.hasRemaining()) {
+				client.read(reply);
+			}
+			checksum += reply.getInt(Integer.BYTES);
+		}
+		return checksum;
+	}
+}
@@ -0,0 +1,175 @@
+package org.mjd.repro.benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.primitives.Longs;
+import org.mjd.repro.Server;
+import org.mjd.repro.ServerConfig;
+import org.mjd.repro.handlers.factories.RpcHandlers;
+import org.mjd.repro.handlers.message.MessageHandler;
+import org.mjd.repro.message.RpcRequest;
+import org.mjd.repro.serialisation.Marshaller;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static org.awaitility.Awaitility.await;
+import static org.mjd.repro.util.thread.Threads.called;
+
+/**
+ * Calls per second of an RPC server whose calls block for {@link #CALL_MILLIS}, e.g. on JDBC, with {@link #clients}
+ * clients each keeping one call in flight. Clients are driven by a single selector thread, so the number of clients is
+ * not limited by client threads. Each client needs two file descriptors in this process, one for each end of it's
+ * connection, so the default of 10k clients needs a limit above 20k; pass, e.g., {@code -p clients=4000} otherwise.
+ * </p>
+ * {@code fixedThreads} invokes calls in a pool of {@link #threads} platform threads, see
+ * {@link RpcHandlers#newFixedThreadRpcInvoker(Marshaller, Object, int)}, so no more than that many calls are in flight
+ * and throughput is capped at {@code threads / CALL_MILLIS}. {@code virtualThreads} invokes each call on a virtual
+ * thread, see {@link RpcHandlers#newVirtualThreadRpcInvoker(Marshaller, Object, int)}; it falls back to
+ * {@code fixedThreads} unless run on Java 21 or later, i.e., with a Java 21 {@code java} on the path.
+ * </p>
+ * Requests are [int length][long id] frames and responses echo the id, marshalled without a serialisation library so
+ * the benchmark runs on any JDK.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VirtualThreadRpcBenchmark {
+	private static final long CALL_MILLIS = 20;
+	private static final int FRAME_SIZE = Integer.BYTES + Long.BYTES;
+
+	@Param({ "fixedThreads", "virtualThreads" })
+	public String invoker;
+
+	@Param({ "10000" })
+	public int clients;
+
+	@Param({ "200" })
+	public int threads;
+
+	private final Semaphore responses = new Semaphore(0);
+	private final List<SocketChannel> channels = new ArrayList<>();
+	private Server<RpcRequest> server;
+	private ExecutorService serverService;
+	private Selector clientSelector;
+	private Thread clientDriver;
+
+	/** The RPC target, whose calls block */
+	public static final class BlockingService {
+		public long call() throws InterruptedException {
+			Thread.sleep(CALL_MILLIS);
+			return CALL_MILLIS;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		final Marshaller marshaller = new BenchmarkIdMarshaller();
+		final MessageHandler<RpcRequest> handler = "fixedThreads".equals(invoker)
+				? RpcHandlers.newFixedThreadRpcInvoker(marshaller, new BlockingService(), threads)
+				: RpcHandlers.newVirtualThreadRpcInvoker(marshaller, new BlockingService(), threads);
+		server = new Server<>(body -> new RpcRequest(Longs.fromByteArray(body), "call"),
+							  ServerConfig.builder().respondOnCompletion(true).build());
+		server.addHandler(handler);
+		serverService = Executors.newSingleThreadExecutor(called("Server"));
+		serverService.execute(server::start);
+		await().until(server::isAvailable);
+
+		clientSelector = Selector.open();
+		for (int i = 0; i < clients; i++) {
+			final SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()));
+			channel.configureBlocking(false);
+			channel.register(clientSelector, SelectionKey.OP_READ, ByteBuffer.allocate(FRAME_SIZE));
+			channels.add(channel);
+		}
+		clientDriver = new Thread(this::driveClients, "ClientDriver");
+		clientDriver.start();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		clientDriver.interrupt();
+		clientDriver.join();
+		for (final SocketChannel channel : channels) {
+			channel.close();
+		}
+		clientSelector.close();
+		server.shutDown();
+		serverService.shutdownNow();
+	}
+
+	/**
+	 * Waits for a response to any client's call
+	 */
+	@Benchmark
+	public void call() throws InterruptedException {
+		responses.acquire();
+	}
+
+	/**
+	 * Sends every client's first call, then sends each client it's next call as soon as it's response is read
+	 */
+	private void driveClients() {
+		try {
+			long id = 0;
+			for (final SocketChannel channel : channels) {
+				sendCall(channel, ++id);
+			}
+			while (!Thread.currentThread().isInterrupted()) {
+				clientSelector.select();
+				final Iterator<SelectionKey> selected = clientSelector.selectedKeys().iterator();
+				while (selected.hasNext()) {
+					final SelectionKey key = selected.next();
+					selected.remove();
+					final ByteBuffer response = (ByteBuffer) key.attachment();
+					if (((SocketChannel) key.channel()).read(response) < 0) {
+						throw new IOException("Server closed a client's connection");
+					}
+					if (!response.hasRemaining()) {
+						response.clear();
+						responses.release();
+						sendCall((SocketChannel) key.channel(), ++id);
+					}
+				}
+			}
+		}
+		catch (final IOException e) {
+			if (!Thread.currentThread().isInterrupted()) {
+				throw new IllegalStateException("Client driver failed", e);
+			}
+		}
+	}
+
+	private static void sendCall(final SocketChannel channel, final long id) throws IOException {
+		final ByteBuffer request = ByteBuffer.allocate(FRAME_SIZE).putInt(Long.BYTES).putLong(id);
+		request.flip();
+		while (request.hasRemaining()) {
+			channel.write(request);
+		}
+	}
+}
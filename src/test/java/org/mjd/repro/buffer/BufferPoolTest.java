@@ -0,0 +1,201 @@
+package org.mjd.repro.buffer;
+
+import java.nio.ByteBuffer;
+
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+
+@RunWith(OleasterRunner.class)
+public class BufferPoolTest {
+	private BufferPool poolUnderTest;
+	private ByteBuffer acquired;
+
+	// TEST INSTANCE BLOCK
+	{
+		beforeEach(() -> {
+			poolUnderTest = new BufferPool(256, 4096, 8192, 1);
+		});
+
+		describe("When a buffer is acquired from an empty pool", () -> {
+			beforeEach(() -> {
+				acquired = poolUnderTest.acquire(300);
+			});
+			it("should be a direct buffer rounded up to the next size class", () -> {
+				expect(acquired.isDirect()).toBeTrue();
+				expect(acquired.capacity()).toEqual(512);
+				expect(acquired.remaining()).toEqual(512);
+			});
+			it("should count a miss and an outstanding buffer", () -> {
+				expect(poolUnderTest.getMisses()).toEqual(1L);
+				expect(poolUnderTest.getHits()).toEqual(0L);
+				expect(poolUnderTest.getOutstanding()).toEqual(1L);
+				expect(poolUnderTest.getPooledMemory()).toEqual(512L);
+			});
+			describe("and released and acquired again", () -> {
+				beforeEach(() -> {
+					acquired.putInt(42);
+					poolUnderTest.release(acquired);
+				});
+				it("should reuse the same, cleared, buffer", () -> {
+					final ByteBuffer reacquired = poolUnderTest.acquire(512);
+					expect(reacquired == acquired).toBeTrue();
+					expect(reacquired.position()).toEqual(0);
+					expect(poolUnderTest.getHits()).toEqual(1L);
+					expect(poolUnderTest.getPooledMemory()).toEqual(512L);
+				});
+				it("should no longer be outstanding", () -> {
+					expect(poolUnderTest.getOutstanding()).toEqual(0L);
+				});
+			});
+		});
+
+		describe("When a buffer is released by another thread", () -> {
+			beforeEach(() -> {
+				acquired = poolUnderTest.acquire(256);
+				final ByteBuffer second = poolUnderTest.acquire(256);
+				final Thread releaser = new Thread(() -> {
+					poolUnderTest.release(acquired);
+					poolUnderTest.release(second);
+				});
+				releaser.start();
+				releaser.join();
+			});
+			it("should be shared with this thread once that thread's cache is full", () -> {
+				final ByteBuffer reacquired = poolUnderTest.acquire(256);
+				expect(poolUnderTest.getHits()).toEqual(1L);
+				expect(reacquired.isDirect()).toBeTrue();
+			});
+		});
+
+		describe("When more is asked of a pool than it's memory cap", () -> {
+			beforeEach(() -> {
+				poolUnderTest.acquire(4096);
+				poolUnderTest.acquire(4096);
+				acquired = poolUnderTest.acquire(4096);
+			});
+			it("should fall back to an unpooled heap buffer", () -> {
+				expect(acquired.isDirect()).toBeFalse();
+				expect(poolUnderTest.isPooled(acquired)).toBeFalse();
+				expect(poolUnderTest.getPooledMemory()).toEqual(8192L);
+			});
+			it("should ignore the unpooled buffer when it is released", () -> {
+				poolUnderTest.release(acquired);
+				expect(poolUnderTest.getOutstanding()).toEqual(2L);
+			});
+		});
+
+		describe("When a buffer larger than the largest size class is asked for", () -> {
+			beforeEach(() -> {
+				acquired = poolUnderTest.acquire(5000);
+			});
+			it("should be an unpooled heap buffer of the size asked for", () -> {
+				expect(acquired.isDirect()).toBeFalse();
+				expect(acquired.capacity()).toEqual(5000);
+				expect(poolUnderTest.getOutstanding()).toEqual(0L);
+				expect(poolUnderTest.getMisses()).toEqual(1L);
+			});
+		});
+
+		describe("When a buffer being written to is made sure of room", () -> {
+			beforeEach(() -> {
+				acquired = poolUnderTest.acquire(256);
+				acquired.putLong(42L);
+			});
+			it("should be kept if it has the room", () -> {
+				expect(poolUnderTest.ensureRemaining(acquired, 256 - Long.BYTES) == acquired).toBeTrue();
+			});
+			it("should be swapped for a larger one, with it's bytes copied across and itself released, if not", () -> {
+				final ByteBuffer grown = poolUnderTest.ensureRemaining(acquired, 300);
+				expect(grown.capacity()).toEqual(512);
+				expect(grown.position()).toEqual(Long.BYTES);
+				expect(grown.getLong(0)).toEqual(42L);
+				expect(poolUnderTest.getOutstanding()).toEqual(1L);
+				expect(poolUnderTest.acquire(256) == acquired).toBeTrue();
+			});
+		});
+
+		describe("When a buffer the pool did not allocate is released", () -> {
+			beforeEach(() -> {
+				acquired = poolUnderTest.acquire(256);
+			});
+			it("should ignore a direct buffer of a size class", () -> {
+				final ByteBuffer foreign = ByteBuffer.allocateDirect(256);
+				expect(poolUnderTest.isPooled(foreign)).toBeFalse();
+				poolUnderTest.release(foreign);
+				expect(poolUnderTest.getOutstanding()).toEqual(1L);
+				expect(poolUnderTest.acquire(256) == foreign).toBeFalse();
+			});
+			it("should ignore a view of a pooled buffer", () -> {
+				final ByteBuffer view = acquired.duplicate();
+				expect(poolUnderTest.isPooled(view)).toBeFalse();
+				poolUnderTest.release(view);
+				poolUnderTest.release(acquired.asReadOnlyBuffer());
+				expect(poolUnderTest.getOutstanding()).toEqual(1L);
+				expect(poolUnderTest.acquire(256) == acquired).toBeFalse();
+			});
+		});
+
+		describe("When a buffer is released twice", () -> {
+			beforeEach(() -> {
+				acquired = poolUnderTest.acquire(256);
+				poolUnderTest.release(acquired);
+				poolUnderTest.release(acquired);
+			});
+			it("should only be taken back once", () -> {
+				expect(poolUnderTest.getOutstanding()).toEqual(0L);
+				final ByteBuffer first = poolUnderTest.acquire(256);
+				final ByteBuffer second = poolUnderTest.acquire(256);
+				expect(first == second).toBeFalse();
+				expect(poolUnderTest.getOutstanding()).toEqual(2L);
+			});
+		});
+
+		describe("When a thread that cached buffers has died", () -> {
+			beforeEach(() -> {
+				acquired = poolUnderTest.acquire(4096);
+				final ByteBuffer second = poolUnderTest.acquire(4096);
+				final Thread releaser = new Thread(() -> {
+					poolUnderTest.release(acquired);
+					poolUnderTest.release(second);
+				});
+				releaser.start();
+				releaser.join();
+			});
+			it("should reclaim it's cache rather than fall back to unpooled buffers once the cap is reached", () -> {
+				poolUnderTest.acquire(4096);
+				final ByteBuffer reclaimed = poolUnderTest.acquire(4096);
+				expect(reclaimed.isDirect()).toBeTrue();
+				expect(poolUnderTest.isPooled(reclaimed)).toBeTrue();
+				expect(poolUnderTest.getPooledMemory()).toEqual(8192L);
+				expect(poolUnderTest.getHits()).toEqual(2L);
+			});
+		});
+
+		describe("When short lived threads cache buffers and die, each after the last", () -> {
+			beforeEach(() -> {
+				poolUnderTest = new BufferPool(256, 4096, 1 << 20, 1);
+				for (int i = 0; i < 10; i++) {
+					final Thread shortLived = new Thread(() -> poolUnderTest.release(poolUnderTest.acquire(4096)));
+					shortLived.start();
+					shortLived.join();
+				}
+			});
+			it("should let go of each dead thread, and reuse it's cache, as the next thread's cache is created", () -> {
+				expect(poolUnderTest.getThreadCacheCount()).toEqual(1);
+				expect(poolUnderTest.getHits()).toEqual(9L);
+				expect(poolUnderTest.getPooledMemory()).toEqual(4096L);
+			});
+		});
+
+		describe("When a pool is created with sizes that are not powers of two", () -> {
+			it("should refuse them", () -> {
+				expect(() -> new BufferPool(300, 4096, 8192, 1)).toThrow(IllegalArgumentException.class);
+			});
+		});
+	}
+}
@@ -0,0 +1,110 @@
+package org.mjd.repro.connection;
+
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.primitives.Ints;
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+import org.mjd.repro.buffer.BufferPool;
+import org.mjd.repro.readers.FrameDecoder;
+import org.mjd.repro.writers.Writer;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+@RunWith(OleasterRunner.class)
+public class ConnectionTest {
+	@Mock private SelectionKey mockKey;
+	@Mock private Writer mockWriter;
+	private final FrameDecoder<Integer> testDecoder = new FrameDecoder<>("test", Ints::fromByteArray, new BufferPool());
+	private Connection connectionUnderTest;
+
+	// TEST INSTANCE BLOCK
+	{
+		beforeEach(() -> {
+			MockitoAnnotations.initMocks(this);
+			connectionUnderTest = new Connection(42);
+			mockKey.attach(connectionUnderTest);
+		});
+
+		describe("When a Connection is attached to a key", () -> {
+			it("should be found from the key", () -> {
+				expect(Connection.of(mockKey)).toEqual(connectionUnderTest);
+			});
+			it("should identify the client by it's id", () -> {
+				expect(connectionUnderTest.getId()).toEqual(42L);
+				expect(connectionUnderTest.toString()).toEqual("client 42");
+			});
+		});
+
+		describe("When a Connection is given a frame decoder", () -> {
+			beforeEach(() -> {
+				connectionUnderTest.setDecoder(testDecoder);
+			});
+			it("should hold on to it's decoder until it is removed", () -> {
+				final FrameDecoder<Integer> decoder = connectionUnderTest.getDecoder();
+				expect(decoder).toEqual(testDecoder);
+				connectionUnderTest.setDecoder(null);
+				expect(connectionUnderTest.getDecoder() == null).toBeTrue();
+			});
+		});
+
+		describe("When a Connection discards it's outbound writers", () -> {
+			beforeEach(() -> {
+				connectionUnderTest.getOutbound().add(mockWriter);
+				connectionUnderTest.discardOutbound();
+			});
+			it("should release and remove them", () -> {
+				verify(mockWriter).release();
+				expect(connectionUnderTest.getOutbound().isEmpty()).toBeTrue();
+			});
+		});
+
+		describe("When other threads hand a Connection writers", () -> {
+			final List<Writer> drained = new ArrayList<>();
+			beforeEach(() -> {
+				drained.clear();
+			});
+			it("should ask only the first, since the last drain, to schedule a drain", () -> {
+				expect(connectionUnderTest.queuePending(mockWriter)).toBeTrue();
+				expect(connectionUnderTest.queuePending(mockWriter)).toBeFalse();
+				expect(connectionUnderTest.drainPending(drained::add)).toEqual(2);
+				expect(connectionUnderTest.queuePending(mockWriter)).toBeTrue();
+			});
+			it("should drain them in the order they were queued", () -> {
+				final Writer secondWriter = mock(Writer.class);
+				connectionUnderTest.queuePending(mockWriter);
+				connectionUnderTest.queuePending(secondWriter);
+				connectionUnderTest.drainPending(drained::add);
+				expect(drained.get(0)).toEqual(mockWriter);
+				expect(drained.get(1)).toEqual(secondWriter);
+			});
+			it("should release them if it discards it's outbound writers", () -> {
+				connectionUnderTest.queuePending(mockWriter);
+				connectionUnderTest.discardOutbound();
+				verify(mockWriter).release();
+				expect(connectionUnderTest.drainPending(drained::add)).toEqual(0);
+			});
+		});
+
+		describe("When a Connection counts messages", () -> {
+			beforeEach(() -> {
+				connectionUnderTest.messageRead();
+				connectionUnderTest.messageRead();
+				connectionUnderTest.responseWritten();
+			});
+			it("should report the counts", () -> {
+				expect(connectionUnderTest.getMessagesRead()).toEqual(2L);
+				expect(connectionUnderTest.getResponsesWritten()).toEqual(1L);
+			});
+		});
+	}
+}
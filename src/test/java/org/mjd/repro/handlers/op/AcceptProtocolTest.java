@@ -8,6 +8,7 @@ import java.nio.channels.ServerSocketChannel;
 
 import com.mscharhag.oleaster.runner.OleasterRunner;
 import org.junit.runner.RunWith;
+import org.mjd.repro.connection.Connection;
 import org.mjd.repro.util.chain.Handler;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -19,7 +20,7 @@ import static com.mscharhag.oleaster.matcher.Matchers.expect;
 import static com.mscharhag.oleaster.runner.StaticRunnerSupport.before;
 import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
 import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
-import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -69,8 +70,8 @@ public class AcceptProtocolTest {
 						it("should configure the client to non-blocking", () -> {
 							verify(mockClientChannel).configureBlocking(false);
 						});
-						it("should register the client with the selector for read ops and set a string ID", () -> {
-							verify(mockClientChannel).register(eq(mockSelector), eq(OP_READ), anyString());
+						it("should register the client with the selector for read ops and attach a Connection", () -> {
+							verify(mockClientChannel).register(eq(mockSelector), eq(OP_READ), any(Connection.class));
 						});
 						it("should NOT pass on the key to the next handler", () -> {
 							verify(mockNextHandler, never()).handle(mockKey);
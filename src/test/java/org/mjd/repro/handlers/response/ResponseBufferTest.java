@@ -0,0 +1,141 @@
+package org.mjd.repro.handlers.response;
+
+import java.nio.ByteBuffer;
+
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+import org.mjd.repro.buffer.BufferPool;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+
+/**
+ * Unit tests for the {@link ResponseBuffer}
+ */
+@RunWith(OleasterRunner.class)
+public class ResponseBufferTest {
+	private static final int PAYLOAD = 1978;
+	private ByteBuffer payload;
+	private ResponseBuffer responseUnderTest;
+
+	// TEST INSTANCE BLOCK
+	{
+		beforeEach(() -> {
+			payload = (ByteBuffer) ByteBuffer.allocate(Integer.BYTES).putInt(PAYLOAD).flip();
+		});
+
+		describe("When a ResponseBuffer", () -> {
+			describe("without headroom has bytes prepended", () -> {
+				beforeEach(() -> {
+					responseUnderTest = ResponseBuffer.wrap(payload).prependLong(42L).prependInt(12);
+				});
+				it("should put them in one segment in front of the untouched payload", () -> {
+					final ByteBuffer[] segments = responseUnderTest.getSegments();
+					expect(segments.length).toEqual(2);
+					expect(segments[1] == payload).toBeTrue();
+					expect(segments[0].getInt()).toEqual(12);
+					expect(segments[0].getLong()).toEqual(42L);
+					expect(payload.getInt(0)).toEqual(PAYLOAD);
+				});
+				it("should count every byte in the response", () -> {
+					expect(responseUnderTest.remaining()).toEqual(Integer.BYTES * 2 + Long.BYTES);
+				});
+				it("should copy the segments together for code that needs a single buffer", () -> {
+					final ByteBuffer whole = responseUnderTest.toByteBuffer();
+					expect(whole.getInt()).toEqual(12);
+					expect(whole.getLong()).toEqual(42L);
+					expect(whole.getInt()).toEqual(PAYLOAD);
+					expect(payload.position()).toEqual(0);
+				});
+			});
+
+			describe("with headroom has bytes prepended", () -> {
+				final ByteBuffer withHeadroom = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+				beforeEach(() -> {
+					withHeadroom.clear();
+					withHeadroom.position(Long.BYTES);
+					withHeadroom.putInt(PAYLOAD).position(Long.BYTES);
+					responseUnderTest = ResponseBuffer.wrap(withHeadroom, Long.BYTES).prependLong(42L);
+				});
+				it("should write them in place, keeping the response in one buffer", () -> {
+					expect(responseUnderTest.getSegments().length).toEqual(1);
+					expect(withHeadroom.position()).toEqual(0);
+					expect(withHeadroom.getLong(0)).toEqual(42L);
+					expect(responseUnderTest.getHeadroom()).toEqual(0);
+				});
+				it("should hand out the response without copying for code that needs a single buffer", () -> {
+					final ByteBuffer whole = responseUnderTest.toByteBuffer();
+					expect(whole.array() == withHeadroom.array()).toBeTrue();
+					expect(whole.getLong()).toEqual(42L);
+				});
+				it("should add a segment once the headroom is used up", () -> {
+					responseUnderTest.prependInt(7);
+					expect(responseUnderTest.getSegments().length).toEqual(2);
+					expect(responseUnderTest.toByteBuffer().getInt()).toEqual(7);
+				});
+			});
+
+			describe("is replaced", () -> {
+				beforeEach(() -> {
+					responseUnderTest = ResponseBuffer.wrap(payload).prependLong(42L);
+					responseUnderTest.replace(ByteBuffer.allocate(2));
+				});
+				it("should hold only the new response", () -> {
+					expect(responseUnderTest.getSegments().length).toEqual(1);
+					expect(responseUnderTest.remaining()).toEqual(2);
+					expect(responseUnderTest.getHeadroom()).toEqual(0);
+				});
+			});
+
+			describe("ends in a file region", () -> {
+				final FileRegion fileRegion = FileRegion.of(null, 0, 1000);
+				beforeEach(() -> {
+					responseUnderTest = ResponseBuffer.of(fileRegion).prependLong(42L).prependInt(12);
+				});
+				it("should prepend in place, in one segment in front of the region", () -> {
+					expect(responseUnderTest.getSegments().length).toEqual(1);
+					expect(responseUnderTest.getFileRegion() == fileRegion).toBeTrue();
+					expect(responseUnderTest.getSegments()[0].getInt()).toEqual(12);
+				});
+				it("should count the region's bytes in the response", () -> {
+					expect(responseUnderTest.remaining()).toEqual(Integer.BYTES + Long.BYTES + 1000);
+				});
+				it("should refuse to be held in a single buffer", () -> {
+					expect(() -> responseUnderTest.toByteBuffer()).toThrow(IllegalStateException.class);
+					expect(() -> responseUnderTest.replace(payload)).toThrow(IllegalStateException.class);
+				});
+			});
+
+			describe("of a pooled buffer is released", () -> {
+				final BufferPool[] pools = new BufferPool[1];
+				final ByteBuffer[] pooled = new ByteBuffer[1];
+				beforeEach(() -> {
+					pools[0] = new BufferPool();
+					final BufferPool pool = pools[0];
+					pooled[0] = pool.acquire(pool.getMinBufferSize());
+					pooled[0].position(ResponseBuffer.HEADROOM);
+					pooled[0].putInt(PAYLOAD).flip().position(ResponseBuffer.HEADROOM);
+					responseUnderTest = ResponseBuffer.pooled(pooled[0], ResponseBuffer.HEADROOM, pool).prependLong(42L);
+					responseUnderTest.release();
+				});
+				it("should give the buffer back to it's pool", () -> {
+					final BufferPool pool = pools[0];
+					expect(pool.getOutstanding()).toEqual(0L);
+					expect(pool.acquire(pool.getMinBufferSize()) == pooled[0]).toBeTrue();
+				});
+				it("should do nothing when released again", () -> {
+					responseUnderTest.release();
+					expect(pools[0].getOutstanding()).toEqual(0L);
+				});
+			});
+
+			describe("is given more headroom than the buffer has before it's position", () -> {
+				it("should refuse it", () -> {
+					expect(() -> ResponseBuffer.wrap(payload, 1)).toThrow(IllegalArgumentException.class);
+				});
+			});
+		});
+	}
+}
@@ -4,6 +4,7 @@ import java.nio.ByteBuffer;
 
 import com.mscharhag.oleaster.runner.OleasterRunner;
 import org.junit.runner.RunWith;
+import org.mjd.repro.handlers.response.ResponseBuffer;
 import org.mjd.repro.handlers.response.provided.RpcRequestRefiners.Prepend;
 import org.mjd.repro.message.RequestWithArgs;
 import org.mjd.repro.message.RpcRequest;
@@ -24,6 +25,7 @@ public class RpcRequestRefinersTest {
 	private ByteBuffer buffer;
 	private Prepend prependRefinerUnderTest;
 	private ByteBuffer result;
+	private ResponseBuffer response;
 
 	// TEST INSTANCE BLOCK
 	{
@@ -54,6 +56,25 @@ public class RpcRequestRefinersTest {
 					expect(result.hasRemaining()).toBeTrue();
 				});
 			});
+			describe("prepends a request ID in place", () -> {
+				final ByteBuffer withHeadroom = ByteBuffer.allocate(SIZE_OF_REQ_ID + Integer.BYTES);
+				beforeEach(() -> {
+					withHeadroom.clear();
+					withHeadroom.position(SIZE_OF_REQ_ID);
+					withHeadroom.putInt(5).position(SIZE_OF_REQ_ID);
+					response = ResponseBuffer.wrap(withHeadroom, SIZE_OF_REQ_ID);
+					prependRefinerUnderTest.requestIdInPlace(rpcRequest, response);
+				});
+				it("should write the request ID into the response's headroom", () -> {
+					expect(response.getSegments().length).toEqual(1);
+					expect(response.getHeadroom()).toEqual(0);
+					expect(withHeadroom.getLong(0)).toEqual(5478L);
+				});
+				it("should leave the original data after it", () -> {
+					expect(response.remaining()).toEqual(SIZE_OF_REQ_ID + Integer.BYTES);
+					expect(withHeadroom.getInt(SIZE_OF_REQ_ID)).toEqual(5);
+				});
+			});
 		});
 	}
 }
@@ -0,0 +1,126 @@
+package org.mjd.repro.handlers.routing;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.SettableFuture;
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+
+@RunWith(OleasterRunner.class)
+public final class AdmissionControlTest {
+	private static final String HANDLER_ID = "theHandler";
+	private static final String LIMITED_HANDLER_ID = "theLimitedHandler";
+	private AdmissionControl controlUnderTest;
+
+	// UNIT TEST INSTANCE BLOCK
+	{
+		describe("when an " + AdmissionControl.class.getName() + " allows 3 messages in flight, 1 for a handler", () -> {
+			beforeEach(() -> {
+				controlUnderTest = AdmissionControl.builder().maxInFlight(3).maxInFlight(LIMITED_HANDLER_ID, 1).build();
+			});
+			it("should admit messages up to the global limit and reject the rest", () -> {
+				expect((boolean) controlUnderTest.tryAdmit(HANDLER_ID)).toBeTrue();
+				expect((boolean) controlUnderTest.tryAdmit(HANDLER_ID)).toBeTrue();
+				expect((boolean) controlUnderTest.tryAdmit(HANDLER_ID)).toBeTrue();
+				expect((boolean) controlUnderTest.tryAdmit(HANDLER_ID)).toBeFalse();
+				expect(controlUnderTest.getInFlight()).toEqual(3);
+				expect(controlUnderTest.getRejections()).toEqual(1L);
+			});
+			it("should admit messages for a limited handler up to it's own limit", () -> {
+				expect((boolean) controlUnderTest.tryAdmit(LIMITED_HANDLER_ID)).toBeTrue();
+				expect((boolean) controlUnderTest.tryAdmit(LIMITED_HANDLER_ID)).toBeFalse();
+				expect((boolean) controlUnderTest.tryAdmit(HANDLER_ID)).toBeTrue();
+				expect(controlUnderTest.getInFlight(LIMITED_HANDLER_ID)).toEqual(1);
+				expect(controlUnderTest.getRejections(LIMITED_HANDLER_ID)).toEqual(1L);
+				expect(controlUnderTest.getRejections(HANDLER_ID)).toEqual(0L);
+				expect(controlUnderTest.getInFlight()).toEqual(2);
+			});
+			it("should admit a message again once one is released", () -> {
+				controlUnderTest.tryAdmit(LIMITED_HANDLER_ID);
+				controlUnderTest.release(LIMITED_HANDLER_ID);
+				expect((boolean) controlUnderTest.tryAdmit(LIMITED_HANDLER_ID)).toBeTrue();
+				expect(controlUnderTest.getInFlight()).toEqual(1);
+			});
+			describe("releasing an admitted message once it's job completes", () -> {
+				beforeEach(() -> controlUnderTest.tryAdmit(HANDLER_ID));
+				it("should release a listenable job when it completes", () -> {
+					final SettableFuture<Optional<ByteBuffer>> job = SettableFuture.create();
+					controlUnderTest.releaseOnCompletion(HANDLER_ID, System.nanoTime(), job);
+					expect(controlUnderTest.getInFlight(HANDLER_ID)).toEqual(1);
+					job.set(Optional.empty());
+					expect(controlUnderTest.getInFlight(HANDLER_ID)).toEqual(0);
+				});
+				it("should release a completable job when it fails", () -> {
+					final CompletableFuture<Optional<ByteBuffer>> job = new CompletableFuture<>();
+					controlUnderTest.releaseOnCompletion(HANDLER_ID, System.nanoTime(), job);
+					job.completeExceptionally(new IllegalStateException("Job failed"));
+					expect(controlUnderTest.getInFlight(HANDLER_ID)).toEqual(0);
+				});
+				it("should release a plain job once, when it's result is got", () -> {
+					final FutureTask<Optional<ByteBuffer>> job = new FutureTask<>(Optional::empty);
+					final Future<Optional<ByteBuffer>> releasing =
+							controlUnderTest.releaseOnCompletion(HANDLER_ID, System.nanoTime(), job);
+					job.run();
+					expect(controlUnderTest.getInFlight(HANDLER_ID)).toEqual(1);
+					releasing.get();
+					releasing.get();
+					expect(controlUnderTest.getInFlight(HANDLER_ID)).toEqual(0);
+				});
+				it("should release a job that has already completed straight away", () -> {
+					controlUnderTest.releaseOnCompletion(HANDLER_ID, System.nanoTime(),
+														 CompletableFuture.completedFuture(Optional.empty()));
+					expect(controlUnderTest.getInFlight()).toEqual(0);
+				});
+			});
+		});
+		describe("when an " + AdmissionControl.class.getName() + " has an adaptive limit", () -> {
+			beforeEach(() -> {
+				controlUnderTest = AdmissionControl.builder().maxInFlight(10).adaptiveLimit(new GradientLimit(2, 1, 100))
+												   .build();
+			});
+			it("should admit messages up to the adaptive limit", () -> {
+				expect(controlUnderTest.getLimit()).toEqual(2);
+				expect((boolean) controlUnderTest.tryAdmit(HANDLER_ID)).toBeTrue();
+				expect((boolean) controlUnderTest.tryAdmit(HANDLER_ID)).toBeTrue();
+				expect((boolean) controlUnderTest.tryAdmit(HANDLER_ID)).toBeFalse();
+			});
+			it("should sample the latency of each job as it completes", () -> {
+				controlUnderTest.tryAdmit(HANDLER_ID);
+				final CompletableFuture<Optional<ByteBuffer>> job = new CompletableFuture<>();
+				controlUnderTest.releaseOnCompletion(HANDLER_ID, System.nanoTime(), job);
+				expect(controlUnderTest.getGradientLimit().getRtt(TimeUnit.NANOSECONDS)).toEqual(0L);
+				job.complete(Optional.empty());
+				expect(controlUnderTest.getGradientLimit().getRtt(TimeUnit.NANOSECONDS)).toBeGreaterThan(0L);
+				expect(controlUnderTest.getInFlight()).toEqual(0);
+			});
+			it("should time a job from it's admission, not from when it's handler returned", () -> {
+				controlUnderTest.tryAdmit(HANDLER_ID);
+				final long admitted = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(50);
+				controlUnderTest.releaseOnCompletion(HANDLER_ID, admitted, CompletableFuture.completedFuture(Optional.empty()));
+				expect(controlUnderTest.getGradientLimit().getRtt(TimeUnit.MILLISECONDS)).toBeGreaterThan(49L);
+			});
+			it("should cap the adaptive limit at the fixed limit", () -> {
+				for (int i = 0; i < 1000; i++) {
+					controlUnderTest.getGradientLimit().onSample(1000, 100);
+				}
+				expect(controlUnderTest.getGradientLimit().getLimit()).toBeGreaterThan(10);
+				expect(controlUnderTest.getLimit()).toEqual(10);
+			});
+		});
+		describe("when an " + AdmissionControl.class.getName() + " is built with a limit below 1", () -> {
+			it("should throw an IllegalArgumentException", () -> {
+				expect(() -> AdmissionControl.builder().maxInFlight(0)).toThrow(IllegalArgumentException.class);
+			});
+		});
+	}
+}
@@ -0,0 +1,85 @@
+package org.mjd.repro.handlers.routing;
+
+import java.util.concurrent.TimeUnit;
+
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+
+@RunWith(OleasterRunner.class)
+public final class GradientLimitTest {
+	private static final long FAST_RTT = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long SLOW_RTT = TimeUnit.MILLISECONDS.toNanos(10);
+	private GradientLimit limitUnderTest;
+
+	// UNIT TEST INSTANCE BLOCK
+	{
+		describe("when a " + GradientLimit.class.getName() + " starting at 20", () -> {
+			beforeEach(() -> {
+				limitUnderTest = new GradientLimit(20, 5, 200);
+			});
+			describe("samples a steady latency with the limit in use", () -> {
+				beforeEach(() -> sampleAtLimit(FAST_RTT, 50));
+				it("should raise the limit", () -> {
+					expect(limitUnderTest.getLimit()).toBeGreaterThan(20);
+				});
+				it("should estimate the RTT", () -> {
+					expect(limitUnderTest.getRtt(TimeUnit.MILLISECONDS)).toEqual(1L);
+					expect(limitUnderTest.getNoLoadRtt(TimeUnit.MILLISECONDS)).toEqual(1L);
+				});
+				describe("then the latency rises", () -> {
+					final int[] limitBefore = new int[1];
+					beforeEach(() -> {
+						limitBefore[0] = limitUnderTest.getLimit();
+						sampleAtLimit(SLOW_RTT, 20);
+					});
+					it("should lower the limit, but no lower than it's minimum", () -> {
+						expect(limitUnderTest.getLimit()).toBeSmallerThan(limitBefore[0]);
+						expect(limitUnderTest.getLimit()).toBeGreaterThan(4);
+					});
+					describe("then falls again", () -> {
+						final int[] limitWhenSlow = new int[1];
+						beforeEach(() -> {
+							limitWhenSlow[0] = limitUnderTest.getLimit();
+							sampleAtLimit(FAST_RTT, 200);
+						});
+						it("should recover the limit", () -> {
+							expect(limitUnderTest.getLimit()).toBeGreaterThan(limitWhenSlow[0]);
+						});
+					});
+				});
+			});
+			describe("samples a steady latency with little of the limit in use", () -> {
+				beforeEach(() -> {
+					for (int i = 0; i < 50; i++) {
+						limitUnderTest.onSample(FAST_RTT, 1);
+					}
+				});
+				it("should leave the limit alone", () -> {
+					expect(limitUnderTest.getLimit()).toEqual(20);
+				});
+			});
+			describe("samples a steady latency for long enough", () -> {
+				beforeEach(() -> sampleAtLimit(FAST_RTT, 1000));
+				it("should not raise the limit above it's maximum", () -> {
+					expect(limitUnderTest.getLimit()).toEqual(200);
+				});
+			});
+		});
+		describe("when a " + GradientLimit.class.getName() + " is constructed with an initial limit below it's minimum", () -> {
+			it("should throw an IllegalArgumentException", () -> {
+				expect(() -> new GradientLimit(1, 5, 10)).toThrow(IllegalArgumentException.class);
+			});
+		});
+	}
+
+	private void sampleAtLimit(final long rttNanos, final int samples) {
+		for (int i = 0; i < samples; i++) {
+			limitUnderTest.onSample(rttNanos, limitUnderTest.getLimit());
+		}
+	}
+}
@@ -2,8 +2,10 @@ package org.mjd.repro.handlers.routing;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 import java.util.function.Function;
 
@@ -17,13 +19,17 @@ import org.mjd.repro.writers.ChannelWriter;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
 import static com.mscharhag.oleaster.runner.StaticRunnerSupport.before;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
 import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
 import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -31,6 +37,7 @@ import static org.mockito.Mockito.when;
 public class SuppliedMsgHandlerRouterTest {
 
 	private static final String HANDLER_ID = "theHandler";
+	private static final String OTHER_HANDLER_ID = "theOtherHandler";
 	private SuppliedMsgHandlerRouter<Integer> routerWithHandlers;
 	private SuppliedMsgHandlerRouter<Integer> routerOhneHandlers;
 	@Mock private Function<Integer, String> mockHandlerRouter;
@@ -38,20 +45,30 @@ public class SuppliedMsgHandlerRouterTest {
 	@Mock private AsyncMessageJobExecutor<Integer> mockAsyncMsgJobExecutor;
 	@Mock private SelectionKey mockKey;
 	@Mock private MessageHandler<Integer> mockMsgHandler;
+	@Mock private MessageHandler<Integer> mockOtherMsgHandler;
 	@Mock private Future<Optional<ByteBuffer>> mockFuture;
 	private Map<String, MessageHandler<Integer>> mockMsgHandlers;
+	private final ByteBuffer overloadedResponse = ByteBuffer.allocate(1);
+	private AdmissionControl admissionControl;
+	private CompletableFuture<Optional<ByteBuffer>> admittedJob;
+	private SuppliedMsgHandlerRouter<Integer> routerWithAdmissionControl;
 
 	// TEST INSTANCE BLOCK
 	{
 		before(() -> {
 			MockitoAnnotations.initMocks(this);
 			when(mockHandlerRouter.apply(anyInt())).thenReturn(HANDLER_ID);
-			mockMsgHandlers = ImmutableMap.of(HANDLER_ID, mockMsgHandler);
+			when(mockHandlerRouter.apply(3)).thenReturn(OTHER_HANDLER_ID);
+			mockMsgHandlers = ImmutableMap.of(HANDLER_ID, mockMsgHandler, OTHER_HANDLER_ID, mockOtherMsgHandler);
 			routerWithHandlers = new SuppliedMsgHandlerRouter<>(mockHandlerRouter, mockMsgHandlers, mockChannelWriter,
 														     	mockAsyncMsgJobExecutor);
 			routerOhneHandlers = new SuppliedMsgHandlerRouter<>(mockHandlerRouter, ImmutableMap.of(), mockChannelWriter,
 																mockAsyncMsgJobExecutor);
 			when(mockMsgHandler.handle(any(MessageHandler.ConnectionContext.class), eq(1))).thenReturn(mockFuture);
+			when(mockMsgHandler.handleBatch(any(MessageHandler.ConnectionContext.class), eq(Arrays.asList(1, 2))))
+					.thenReturn(Arrays.asList(mockFuture, mockFuture));
+			when(mockOtherMsgHandler.handleBatch(any(MessageHandler.ConnectionContext.class), eq(Arrays.asList(3))))
+					.thenReturn(Arrays.asList(mockFuture));
 		});
 
 		describe("Routing a message when there are configured handlers", () -> {
@@ -75,5 +92,105 @@ public class SuppliedMsgHandlerRouterTest {
 				});
 			});
 		});
+
+		describe("Routing a batch of messages", () -> {
+			before(() -> {
+				routerWithHandlers.routeBatch(mockKey, Arrays.asList(1, 2, 3));
+			});
+			it("should hand each run of messages for the same handler to it as a batch", () -> {
+				verify(mockMsgHandler).handleBatch(any(MessageHandler.ConnectionContext.class), eq(Arrays.asList(1, 2)));
+				verify(mockOtherMsgHandler).handleBatch(any(MessageHandler.ConnectionContext.class), eq(Arrays.asList(3)));
+				verify(mockMsgHandler, never()).handle(any(MessageHandler.ConnectionContext.class), anyInt());
+			});
+			it("should add the jobs of each run to the asyncMessageJobExecutor together", () -> {
+				verify(mockAsyncMsgJobExecutor).addBatch(Arrays.asList(AsyncMessageJob.from(mockKey, 1, mockFuture),
+																	   AsyncMessageJob.from(mockKey, 2, mockFuture)));
+				verify(mockAsyncMsgJobExecutor).addBatch(Arrays.asList(AsyncMessageJob.from(mockKey, 3, mockFuture)));
+			});
+		});
+
+		describe("Routing messages whose handler has responded by the time it returns", () -> {
+			final Future<Optional<ByteBuffer>> respondedJob =
+					CompletableFuture.completedFuture(Optional.of(MessageHandler.RESPONDED));
+			beforeEach(() -> {
+				reset(mockMsgHandler, mockAsyncMsgJobExecutor);
+				when(mockMsgHandler.handle(any(MessageHandler.ConnectionContext.class), eq(1))).thenReturn(respondedJob);
+				when(mockMsgHandler.handleBatch(any(MessageHandler.ConnectionContext.class), eq(Arrays.asList(1, 2))))
+						.thenReturn(Arrays.asList(respondedJob, mockFuture));
+			});
+			it("should not hand the job to the asyncMessageJobExecutor", () -> {
+				routerWithHandlers.routeToHandler(mockKey, 1);
+				verify(mockAsyncMsgJobExecutor, never()).add(any(AsyncMessageJob.class));
+			});
+			it("should only hand the batch's unfinished jobs to the asyncMessageJobExecutor", () -> {
+				routerWithHandlers.routeBatch(mockKey, Arrays.asList(1, 2));
+				verify(mockAsyncMsgJobExecutor).addBatch(Arrays.asList(AsyncMessageJob.from(mockKey, 2, mockFuture)));
+			});
+		});
+
+		describe("Routing messages with an admission control that admits one message at a time", () -> {
+			beforeEach(() -> {
+				reset(mockMsgHandler, mockChannelWriter, mockAsyncMsgJobExecutor);
+				admittedJob = new CompletableFuture<>();
+				admissionControl = AdmissionControl.builder().maxInFlight(1).build();
+				routerWithAdmissionControl = new SuppliedMsgHandlerRouter<>(mockHandlerRouter, mockMsgHandlers,
+																			mockChannelWriter, mockAsyncMsgJobExecutor,
+																			null, admissionControl);
+				when(mockMsgHandler.overloaded(anyInt())).thenReturn(Optional.of(overloadedResponse));
+				when(mockMsgHandler.handle(any(MessageHandler.ConnectionContext.class), anyInt())).thenReturn(admittedJob);
+				when(mockOtherMsgHandler.handle(any(MessageHandler.ConnectionContext.class), anyInt())).thenReturn(mockFuture);
+				when(mockMsgHandler.handleBatch(any(MessageHandler.ConnectionContext.class), eq(Arrays.asList(1))))
+						.thenReturn(Arrays.asList(admittedJob));
+			});
+			describe("when a second message arrives before the first completes", () -> {
+				beforeEach(() -> {
+					routerWithAdmissionControl.routeToHandler(mockKey, 1);
+					routerWithAdmissionControl.routeToHandler(mockKey, 2);
+				});
+				it("should handle the first message", () -> {
+					verify(mockMsgHandler).handle(any(MessageHandler.ConnectionContext.class), eq(1));
+					verify(mockAsyncMsgJobExecutor).add(AsyncMessageJob.from(mockKey, 1, admittedJob));
+				});
+				it("should reply to the second with it's handler's overloaded response, without handling it", () -> {
+					verify(mockMsgHandler, never()).handle(any(MessageHandler.ConnectionContext.class), eq(2));
+					verify(mockChannelWriter).prepWrite(mockKey, 2, overloadedResponse);
+				});
+				it("should count the message in flight and the rejection", () -> {
+					expect(admissionControl.getInFlight(HANDLER_ID)).toEqual(1);
+					expect(admissionControl.getRejections(HANDLER_ID)).toEqual(1L);
+				});
+				it("should admit messages again once the first completes", () -> {
+					admittedJob.complete(Optional.empty());
+					expect(admissionControl.getInFlight()).toEqual(0);
+					routerWithAdmissionControl.routeToHandler(mockKey, 3);
+					verify(mockOtherMsgHandler).handle(any(MessageHandler.ConnectionContext.class), eq(3));
+				});
+			});
+			describe("when a batch has more messages than are admitted", () -> {
+				beforeEach(() -> {
+					routerWithAdmissionControl.routeBatch(mockKey, Arrays.asList(1, 2));
+				});
+				it("should hand only the admitted messages to the handler", () -> {
+					verify(mockMsgHandler).handleBatch(any(MessageHandler.ConnectionContext.class), eq(Arrays.asList(1)));
+					verify(mockAsyncMsgJobExecutor).addBatch(Arrays.asList(AsyncMessageJob.from(mockKey, 1, admittedJob)));
+				});
+				it("should reply to the rest as overloaded", () -> {
+					verify(mockChannelWriter).prepWrite(mockKey, 2, overloadedResponse);
+				});
+			});
+			describe("when a plain future's handler responds just after it is returned", () -> {
+				final Future<Optional<ByteBuffer>> racingJob = mock(Future.class);
+				beforeEach(() -> {
+					reset(racingJob);
+					when(racingJob.isDone()).thenReturn(false).thenReturn(true);
+					when(racingJob.get()).thenReturn(Optional.of(MessageHandler.RESPONDED));
+					when(mockMsgHandler.handle(any(MessageHandler.ConnectionContext.class), eq(1))).thenReturn(racingJob);
+					routerWithAdmissionControl.routeToHandler(mockKey, 1);
+				});
+				it("should still release the message", () -> {
+					expect(admissionControl.getInFlight()).toEqual(0);
+				});
+			});
+		});
 	}
 }
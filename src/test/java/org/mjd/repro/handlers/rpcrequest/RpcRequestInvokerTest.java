@@ -0,0 +1,190 @@
+package org.mjd.repro.handlers.rpcrequest;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+import org.mjd.repro.buffer.BufferPool;
+import org.mjd.repro.handlers.factories.RpcHandlers;
+import org.mjd.repro.handlers.message.MessageHandler;
+import org.mjd.repro.handlers.message.MessageHandler.ConnectionContext;
+import org.mjd.repro.handlers.response.ResponseBuffer;
+import org.mjd.repro.message.RpcRequest;
+import org.mjd.repro.rpc.Inline;
+import org.mjd.repro.rpc.ReflectionInvoker;
+import org.mjd.repro.serialisation.Marshaller;
+import org.mjd.repro.support.KryoMarshaller;
+import org.mjd.repro.support.RpcKryo;
+import org.mjd.repro.util.thread.KeyedExecutor;
+import org.mjd.repro.util.thread.Threads;
+import org.mjd.repro.writers.ChannelWriter;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.before;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+
+@RunWith(OleasterRunner.class)
+public class RpcRequestInvokerTest {
+	private final Marshaller marshaller = new KryoMarshaller(2, RpcKryo::configure);
+	private final CallingThreads target = new CallingThreads();
+	private final BufferPool pool = new BufferPool();
+	@Mock private ChannelWriter<RpcRequest, SelectionKey> mockWriter;
+	private ConnectionContext<RpcRequest> pooledCtx;
+	private MessageHandler<RpcRequest> invokerUnderTest;
+
+	/** An RPC target that notes the thread each of it's methods was last invoked on */
+	public static final class CallingThreads {
+		private volatile Thread inlineThread;
+		private volatile Thread pooledThread;
+
+		@Inline
+		public int cheap() {
+			inlineThread = Thread.currentThread();
+			return 1;
+		}
+
+		public int expensive() {
+			pooledThread = Thread.currentThread();
+			return 2;
+		}
+	}
+
+	/** An RPC target with an inline method overloaded by one that is not */
+	public static final class PartlyInlineOverloads {
+		@Inline
+		public int lookup(final int key) {
+			return key;
+		}
+
+		public int lookup(final String key) {
+			return key.length();
+		}
+	}
+
+	/** An RPC target with an inline method whose every overload is inline */
+	public static final class InlineOverloads {
+		@Inline
+		public int lookup(final int key) {
+			return key;
+		}
+
+		@Inline
+		public int lookup(final String key) {
+			return key.length();
+		}
+	}
+
+	/** An RPC target whose response outgrows the buffer marshalling starts in */
+	public static final class LargeResponses {
+		private static final String RESPONSE = new String(new char[1000]).replace('\0', 'x');
+
+		public String large() {
+			return RESPONSE;
+		}
+	}
+
+	// TEST INSTANCE BLOCK
+	{
+		before(() -> {
+			MockitoAnnotations.initMocks(this);
+			invokerUnderTest = RpcHandlers.newFixedThreadRpcInvoker(marshaller, target, 1);
+		});
+
+		describe("An RpcRequestInvoker for a target with an inline method", () -> {
+			beforeEach(() -> {
+				reset(mockWriter);
+				pooledCtx = new ConnectionContext<>(mockWriter, null, pool);
+			});
+			describe("receives a request for the inline method", () -> {
+				final RpcRequest request = new RpcRequest(1L, "cheap");
+				it("should invoke it on the calling thread and return it's response, for the job executor to write", () -> {
+					final Future<Optional<ByteBuffer>> actual = invokerUnderTest.handle(pooledCtx, request);
+					expect(target.inlineThread).toEqual(Thread.currentThread());
+					expect(actual.isDone()).toBeTrue();
+					expect(actual.get().get() == MessageHandler.RESPONDED).toBeFalse();
+					expect(actual.get().get().hasRemaining()).toBeTrue();
+					verify(mockWriter, never()).prepWrite(any(), any(), any(ResponseBuffer.class));
+				});
+			});
+			describe("receives a request for any other method", () -> {
+				final RpcRequest request = new RpcRequest(2L, "expensive");
+				it("should invoke it on the invoker's executor", () -> {
+					invokerUnderTest.handle(pooledCtx, request).get(5, TimeUnit.SECONDS);
+					expect(target.pooledThread).toBeNotNull();
+					expect(target.pooledThread == Thread.currentThread()).toBeFalse();
+				});
+			});
+		});
+
+		describe("An RpcRequestInvoker with pooled responses for a target with an inline method", () -> {
+			final MessageHandler<RpcRequest> pooledInvoker = RpcHandlers.newPooledResponseRpcInvoker(marshaller, target, 1);
+			beforeEach(() -> {
+				reset(mockWriter);
+				pooledCtx = new ConnectionContext<>(mockWriter, null, pool);
+			});
+			describe("receives a request for the inline method", () -> {
+				final RpcRequest request = new RpcRequest(1L, "cheap");
+				it("should invoke it on the calling thread and respond before returning", () -> {
+					final Future<Optional<ByteBuffer>> actual = pooledInvoker.handle(pooledCtx, request);
+					expect(target.inlineThread).toEqual(Thread.currentThread());
+					expect(actual.isDone()).toBeTrue();
+					expect(actual.get().get() == MessageHandler.RESPONDED).toBeTrue();
+					verify(mockWriter).prepWrite(isNull(), eq(request), any(ResponseBuffer.class));
+				});
+			});
+		});
+
+		describe("An RpcRequestInvoker for a target with an overloaded inline method", () -> {
+			it("should be refused if an overload is not inline", () -> {
+				expect(() -> RpcHandlers.newFixedThreadRpcInvoker(marshaller, new PartlyInlineOverloads(), 1))
+						.toThrow(IllegalArgumentException.class);
+			});
+			it("should be created if every overload is inline", () -> {
+				expect(RpcHandlers.newFixedThreadRpcInvoker(marshaller, new InlineOverloads(), 1)).toBeNotNull();
+			});
+		});
+
+		describe("A virtual thread RpcRequestInvoker with pooled responses", () -> {
+			final BufferPool virtualPool = new BufferPool();
+			beforeEach(() -> {
+				reset(mockWriter);
+				doAnswer(invocation -> {
+					((ResponseBuffer) invocation.getArgument(2)).release();
+					return null;
+				}).when(mockWriter).prepWrite(any(), any(), any(ResponseBuffer.class));
+				pooledCtx = new ConnectionContext<>(mockWriter, null, virtualPool);
+			});
+			it("should not strand a buffer per call when it's calls grow their buffers", () -> {
+				final ExecutorService executor = Threads.newVirtualThreadPerTaskExecutor()
+													   .orElseGet(() -> Executors.newFixedThreadPool(4));
+				final MessageHandler<RpcRequest> virtualInvoker = new RpcRequestInvoker<>(
+						KeyedExecutor.unordered(executor), marshaller, new ReflectionInvoker(new LargeResponses()),
+						Collections.emptySet(), true);
+				for (long id = 0; id < 1000; id++) {
+					virtualInvoker.handle(pooledCtx, new RpcRequest(id, "large")).get(5, TimeUnit.SECONDS);
+				}
+				expect(virtualPool.getOutstanding()).toEqual(0L);
+				expect(virtualPool.getPooledMemory() <= 16 * 2048).toBeTrue();
+				executor.shutdown();
+			});
+		});
+	}
+}
@@ -1,15 +1,27 @@
 package org.mjd.repro.handlers.rpcrequest;
 
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.mscharhag.oleaster.runner.OleasterRunner;
 import org.junit.runner.RunWith;
+import org.mjd.repro.buffer.BufferPool;
 import org.mjd.repro.handlers.message.MessageHandler;
 import org.mjd.repro.handlers.message.ResponseMessage;
+import org.mjd.repro.handlers.response.ResponseBuffer;
+import org.mjd.repro.message.DeadlineRpcRequest;
 import org.mjd.repro.message.RpcRequest;
 import org.mjd.repro.rpc.InvocationException;
 import org.mjd.repro.rpc.RpcRequestMethodInvoker;
@@ -18,15 +30,23 @@ import org.mjd.repro.support.KryoMarshaller;
 import org.mjd.repro.support.KryoPool;
 import org.mjd.repro.support.KryoRpcUtils;
 import org.mjd.repro.support.RpcKryo;
+import org.mjd.repro.writers.ChannelWriter;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.after;
 import static com.mscharhag.oleaster.runner.StaticRunnerSupport.before;
 import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
 import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
 import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(OleasterRunner.class)
@@ -34,6 +54,8 @@ public class SuppliedRpcRequestInvokerTest {
 	private static final String RPC_TARGET = "ThePhoenixProject";
 
 	@Mock private RpcRequestMethodInvoker mockRpcInvoker;
+	@Mock private ExecutorService countingExecutor;
+	@Mock private ChannelWriter<RpcRequest, SelectionKey> mockWriter;
 
 	private final KryoPool kryos = new KryoPool(true, 10, RpcKryo::configure,
 														  (k) -> {
@@ -49,6 +71,8 @@ public class SuppliedRpcRequestInvokerTest {
 	private final Function<RpcRequest, Object> targetSupplier = (req) -> RPC_TARGET;
 	private final ExecutorService mockExecutor = MoreExecutors.newDirectExecutorService();
 
+	private final CountDownLatch blockExecutor = new CountDownLatch(1);
+	private final CountDownLatch targetInterrupted = new CountDownLatch(1);
 	private MessageHandler.ConnectionContext<RpcRequest> mockConnCtx;
 	private SuppliedRpcRequestInvoker<RpcRequest> invokerUnderTest;
 
@@ -78,6 +102,111 @@ public class SuppliedRpcRequestInvokerTest {
 						expect(actualRspMsg.getValue().get()).toEqual(RPC_TARGET.length());
 					});
 				});
+				describe("in a batch with another request", () -> {
+					before(() -> {
+						when(mockRpcInvoker.invoke(any(RpcRequest.class))).thenReturn(RPC_TARGET.length());
+						when(countingExecutor.submit(any(Callable.class))).then(
+								invocation -> Futures.immediateFuture(((Callable<?>) invocation.getArgument(0)).call()));
+					});
+					it("should invoke both as one task and return a response for each, in order", () -> {
+						invokerUnderTest = new SuppliedRpcRequestInvoker<>(countingExecutor, marshaller, mockRpcInvoker,
+																		   targetSupplier);
+						final List<Future<Optional<ByteBuffer>>> actual = invokerUnderTest.handleBatch(mockConnCtx,
+								Arrays.asList(new RpcRequest(1L, "length"), new RpcRequest(2L, "length")));
+						verify(countingExecutor, times(1)).submit(any(Callable.class));
+						expect(actual.size()).toEqual(2);
+						for (int i = 0; i < actual.size(); i++) {
+							final ResponseMessage<Integer> actualRspMsg = KryoRpcUtils.readBytesWithKryo(kryos.obtain(), actual.get(i).get().get().array(), ResponseMessage.class);
+							expect(actualRspMsg.getId()).toEqual(i + 1L);
+							expect(actualRspMsg.getValue().get()).toEqual(RPC_TARGET.length());
+						}
+					});
+				});
+				describe("on a connection with a buffer pool", () -> {
+					before(() -> {
+						when(mockRpcInvoker.invoke(any(RpcRequest.class))).thenReturn(RPC_TARGET.length());
+					});
+					it("should return the ResponseMessage, for the job executor to write in order", () -> {
+						final MessageHandler.ConnectionContext<RpcRequest> pooledCtx =
+								new MessageHandler.ConnectionContext<>(mockWriter, null, new BufferPool());
+						final Optional<ByteBuffer> actual = invokerUnderTest.handle(pooledCtx, new RpcRequest(0L, "length")).get();
+						final ResponseMessage<Integer> actualRspMsg = KryoRpcUtils.readBytesWithKryo(kryos.obtain(), actual.get().array(), ResponseMessage.class);
+						expect(actualRspMsg.getValue().get()).toEqual(RPC_TARGET.length());
+						verify(mockWriter, never()).prepWrite(any(), any(), any(ResponseBuffer.class));
+					});
+					it("should, with pooled responses, marshall the ResponseMessage into a pooled buffer, with headroom, and hand it to the writer", () -> {
+						invokerUnderTest = new SuppliedRpcRequestInvoker<>(mockExecutor, marshaller, mockRpcInvoker,
+																		   targetSupplier, true);
+						final BufferPool pool = new BufferPool();
+						final MessageHandler.ConnectionContext<RpcRequest> pooledCtx =
+								new MessageHandler.ConnectionContext<>(mockWriter, null, pool);
+						final RpcRequest testMessage = new RpcRequest(0L, "length");
+						final Optional<ByteBuffer> actual = invokerUnderTest.handle(pooledCtx, testMessage).get();
+						expect(actual.get() == MessageHandler.RESPONDED).toBeTrue();
+						final ArgumentCaptor<ResponseBuffer> response = ArgumentCaptor.forClass(ResponseBuffer.class);
+						verify(mockWriter).prepWrite(isNull(), eq(testMessage), response.capture());
+						expect(response.getValue().getHeadroom()).toEqual(ResponseBuffer.HEADROOM);
+						final ByteBuffer marshalled = response.getValue().toByteBuffer();
+						expect(marshalled.isDirect()).toBeTrue();
+						final byte[] bytes = new byte[marshalled.remaining()];
+						marshalled.get(bytes);
+						final ResponseMessage<Integer> actualRspMsg = KryoRpcUtils.readBytesWithKryo(kryos.obtain(), bytes, ResponseMessage.class);
+						expect(actualRspMsg.getId()).toEqual(0L);
+						expect(actualRspMsg.getValue().get()).toEqual(RPC_TARGET.length());
+						response.getValue().release();
+						expect(pool.getOutstanding()).toEqual(0L);
+					});
+				});
+				describe("with a deadline", () -> {
+					final ExecutorService singleThread = Executors.newSingleThreadExecutor();
+					before(() -> {
+						when(mockRpcInvoker.invoke(any(RpcRequest.class))).then(invocation -> {
+							if (((RpcRequest) invocation.getArgument(0)).getId() == 3L) {
+								try {
+									Thread.sleep(10_000);
+								}
+								catch (final InterruptedException e) {
+									targetInterrupted.countDown();
+								}
+							}
+							return RPC_TARGET.length();
+						});
+					});
+					beforeEach(() -> {
+						invokerUnderTest = new SuppliedRpcRequestInvoker<>(singleThread, marshaller, mockRpcInvoker,
+																		   targetSupplier);
+					});
+					after(() -> singleThread.shutdownNow());
+					it("should return the result of a call that completes in time", () -> {
+						final Optional<ByteBuffer> actual = invokerUnderTest.handle(mockConnCtx,
+								new DeadlineRpcRequest(1L, "length", 5000)).get(5, TimeUnit.SECONDS);
+						final ResponseMessage<Integer> actualRspMsg = KryoRpcUtils.readBytesWithKryo(kryos.obtain(), actual.get().array(), ResponseMessage.class);
+						expect(actualRspMsg.getValue().get()).toEqual(RPC_TARGET.length());
+					});
+					it("should answer a call still queued at it's deadline with a timeout error, and never invoke it", () -> {
+						singleThread.submit(() -> blockExecutor.await(10, TimeUnit.SECONDS));
+						final DeadlineRpcRequest testMessage = new DeadlineRpcRequest(2L, "length", 20);
+						final Optional<ByteBuffer> actual = invokerUnderTest.handle(mockConnCtx, testMessage)
+																			.get(5, TimeUnit.SECONDS);
+						blockExecutor.countDown();
+						singleThread.submit(() -> null).get(5, TimeUnit.SECONDS);
+						verify(mockRpcInvoker, never()).invoke(testMessage);
+						final ResponseMessage<Integer> actualRspMsg = KryoRpcUtils.readBytesWithKryo(kryos.obtain(), actual.get().array(), ResponseMessage.class);
+						expect(actualRspMsg.getId()).toEqual(2L);
+						expect(actualRspMsg.getError().get().getMessage()).toEqual(MessageHandler.HandlerException.TIMED_OUT);
+					});
+					it("should answer a call still running at it's deadline with a timeout error and interrupt it", () -> {
+						final Optional<ByteBuffer> actual = invokerUnderTest.handle(mockConnCtx,
+								new DeadlineRpcRequest(3L, "length", 20)).get(5, TimeUnit.SECONDS);
+						final ResponseMessage<Integer> actualRspMsg = KryoRpcUtils.readBytesWithKryo(kryos.obtain(), actual.get().array(), ResponseMessage.class);
+						expect(actualRspMsg.getId()).toEqual(3L);
+						expect(actualRspMsg.getError().get().getMessage()).toEqual(MessageHandler.HandlerException.TIMED_OUT);
+						expect(targetInterrupted.await(5, TimeUnit.SECONDS)).toBeTrue();
+						final boolean nextTaskInterrupted = singleThread.submit(() -> Thread.currentThread().isInterrupted())
+																		.get(5, TimeUnit.SECONDS);
+						expect(nextTaskInterrupted).toBeFalse();
+					});
+				});
 				describe("that throws when executes", () -> {
 					before(() -> {
 						final InvocationException ex = new InvocationException("blah", new IllegalStateException());
@@ -0,0 +1,88 @@
+package org.mjd.repro.loop;
+
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+import org.mjd.repro.loop.IoLoopGroup.Balancing;
+import org.mjd.repro.util.chain.Handler;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.afterEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+
+@RunWith(OleasterRunner.class)
+public class IoLoopGroupTest {
+	@Mock private SelectableChannel mockClientChannel;
+	@Mock private Handler<SelectionKey> mockKeyProtocol;
+	private final List<IoLoop> loops = new ArrayList<>();
+	private IoLoopGroup groupUnderTest;
+
+	// TEST INSTANCE BLOCK
+	{
+		beforeEach(() -> {
+			MockitoAnnotations.initMocks(this);
+			loops.clear();
+			for (int i = 0; i < 3; i++) {
+				final Selector selector = Selector.open();
+				loops.add(new IoLoop("test-" + i, selector, new LoopTaskQueue(selector), mockKeyProtocol));
+			}
+		});
+		afterEach(() -> {
+			for (final IoLoop loop : loops) {
+				loop.close();
+			}
+		});
+
+		describe("When constructing an IoLoopGroup with no loops", () -> {
+			it("should throw an IllegalArgumentException", () -> {
+				expect(() -> new IoLoopGroup(new ArrayList<>(), Balancing.ROUND_ROBIN))
+						.toThrow(IllegalArgumentException.class);
+			});
+		});
+
+		describe("A round robin IoLoopGroup", () -> {
+			beforeEach(() -> {
+				groupUnderTest = new IoLoopGroup(loops, Balancing.ROUND_ROBIN);
+			});
+			describe("that registers as many clients as it has loops", () -> {
+				beforeEach(() -> {
+					for (int i = 0; i < loops.size(); i++) {
+						groupUnderTest.register(mockClientChannel, "client " + i);
+					}
+				});
+				it("should give every loop one client", () -> {
+					for (final IoLoop loop : loops) {
+						expect(loop.getConnectionCount()).toEqual(1);
+					}
+				});
+			});
+		});
+
+		describe("A least connections IoLoopGroup", () -> {
+			beforeEach(() -> {
+				groupUnderTest = new IoLoopGroup(loops, Balancing.LEAST_CONNECTIONS);
+			});
+			describe("whose first two loops are already serving clients", () -> {
+				beforeEach(() -> {
+					loops.get(0).register(mockClientChannel, "client a");
+					loops.get(1).register(mockClientChannel, "client b");
+					groupUnderTest.register(mockClientChannel, "client c");
+				});
+				it("should give the new client to the empty loop", () -> {
+					expect(loops.get(2).getConnectionCount()).toEqual(1);
+					expect(loops.get(0).getConnectionCount()).toEqual(1);
+					expect(loops.get(1).getConnectionCount()).toEqual(1);
+				});
+			});
+		});
+	}
+}
@@ -0,0 +1,79 @@
+package org.mjd.repro.loop;
+
+import java.nio.channels.Selector;
+
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(OleasterRunner.class)
+public class LoopTaskQueueTest {
+	@Mock private Selector mockSelector;
+	@Mock private Runnable mockTask;
+	private LoopTaskQueue queueUnderTest;
+
+	// TEST INSTANCE BLOCK
+	{
+		beforeEach(() -> {
+			MockitoAnnotations.initMocks(this);
+			queueUnderTest = new LoopTaskQueue(mockSelector);
+		});
+
+		describe("When several tasks are queued before the loop drains them", () -> {
+			beforeEach(() -> {
+				queueUnderTest.execute(mockTask);
+				queueUnderTest.execute(mockTask);
+				queueUnderTest.execute(mockTask);
+			});
+			it("should wake up the selector only once", () -> {
+				verify(mockSelector, times(1)).wakeup();
+			});
+			it("should not be empty", () -> {
+				expect(queueUnderTest.isEmpty()).toBeFalse();
+			});
+			describe("and the loop drains them", () -> {
+				beforeEach(() -> {
+					expect(queueUnderTest.runPendingTasks()).toEqual(3);
+				});
+				it("should run every task", () -> {
+					verify(mockTask, times(3)).run();
+				});
+				it("should be empty", () -> {
+					expect(queueUnderTest.isEmpty()).toBeTrue();
+				});
+				it("should wake up the selector again for the next task from another thread", () -> {
+					final Thread otherThread = new Thread(() -> queueUnderTest.execute(mockTask));
+					otherThread.start();
+					otherThread.join();
+					verify(mockSelector, times(2)).wakeup();
+				});
+				it("should not wake up the selector for a task queued by the loop thread", () -> {
+					queueUnderTest.execute(mockTask);
+					verify(mockSelector, times(1)).wakeup();
+					expect(queueUnderTest.isEmpty()).toBeFalse();
+				});
+			});
+		});
+
+		describe("When a queued task throws", () -> {
+			beforeEach(() -> {
+				queueUnderTest.execute(() -> {
+					throw new IllegalStateException("test");
+				});
+				queueUnderTest.execute(mockTask);
+				queueUnderTest.runPendingTasks();
+			});
+			it("should still run the following tasks", () -> {
+				verify(mockTask).run();
+			});
+		});
+	}
+}
@@ -0,0 +1,82 @@
+package org.mjd.repro.loop;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Optional;
+
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.afterEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+import static java.nio.channels.SelectionKey.OP_READ;
+import static org.mockito.Mockito.mock;
+
+@RunWith(OleasterRunner.class)
+public class SelectedKeySetTest {
+	private SelectedKeySet setUnderTest;
+	private Optional<SelectedKeySet> installedSet;
+	private Selector selector;
+	private Pipe pipe;
+
+	// TEST INSTANCE BLOCK
+	{
+		describe("When keys are added to a SelectedKeySet", () -> {
+			final SelectionKey mockKey = mock(SelectionKey.class);
+			beforeEach(() -> {
+				setUnderTest = new SelectedKeySet();
+				for (int i = 0; i < 2000; i++) {
+					setUnderTest.add(mockKey);
+				}
+			});
+			it("should grow to hold them all", () -> {
+				expect(setUnderTest.size()).toEqual(2000);
+				expect(setUnderTest.get(1999)).toEqual(mockKey);
+			});
+			it("should never claim to contain or remove them", () -> {
+				expect(setUnderTest.contains(mockKey)).toBeFalse();
+				expect(setUnderTest.remove(mockKey)).toBeFalse();
+			});
+			it("should iterate over them", () -> {
+				int count = 0;
+				for (final SelectionKey key : setUnderTest) {
+					expect(key).toEqual(mockKey);
+					count++;
+				}
+				expect(count).toEqual(2000);
+			});
+			it("should be empty once reset", () -> {
+				setUnderTest.reset();
+				expect(setUnderTest.isEmpty()).toBeTrue();
+			});
+		});
+
+		describe("When a SelectedKeySet is installed into a selector", () -> {
+			beforeEach(() -> {
+				selector = Selector.open();
+				installedSet = SelectedKeySet.installInto(selector);
+				pipe = Pipe.open();
+				pipe.source().configureBlocking(false);
+				pipe.source().register(selector, OP_READ);
+			});
+			afterEach(() -> {
+				pipe.sink().close();
+				pipe.source().close();
+				selector.close();
+			});
+			it("should collect the selected keys, if the JDK allows it to be installed", () -> {
+				if (installedSet.isPresent()) {
+					expect(selector.selectedKeys()).toEqual(installedSet.get());
+					pipe.sink().write(ByteBuffer.wrap(new byte[] { 1 }));
+					expect(selector.select(1000)).toEqual(1);
+					expect(selector.selectedKeys().size()).toEqual(1);
+				}
+			});
+		});
+	}
+}
@@ -1,5 +1,7 @@
 package org.mjd.repro.message.factory;
 
+import java.nio.ByteBuffer;
+
 import com.mscharhag.oleaster.runner.OleasterRunner;
 import org.junit.runner.RunWith;
 import org.mjd.repro.serialisation.Marshaller;
@@ -37,5 +39,15 @@ public class MarshallerMsgFactoryTest {
 			});
 		});
 
+		describe("when a marshaller factory creates a message from a buffer", () -> {
+			final ByteBuffer fakeBuffer = ByteBuffer.wrap(FAKE_BYTES).asReadOnlyBuffer();
+			before(() -> {
+				factoryUnderTest.createMessage(fakeBuffer);
+			});
+			it("should pass the buffer straight to the associated Marshaller", () -> {
+				verify(mockMarshaller).unmarshall(fakeBuffer, Integer.class);
+			});
+		});
+
 	}
 }
@@ -0,0 +1,284 @@
+package org.mjd.repro.readers;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.primitives.Ints;
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+import org.mjd.repro.buffer.BufferPool;
+import org.mjd.repro.handlers.message.MessageHandler.ConnectionContext;
+import org.mjd.repro.handlers.message.StreamingMessageHandler;
+import org.mjd.repro.message.factory.MessageFactory;
+import org.mjd.repro.readers.header.FlaggedHeaderCodec;
+import org.mjd.repro.readers.header.VarIntHeaderCodec;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(OleasterRunner.class)
+public final class FrameDecoderTest {
+	private static final int FIRST_MSG = 17369615;
+	private static final int SECOND_MSG = 42;
+	private final List<Integer> decoded = new ArrayList<>();
+	private final List<Integer> chunkSizes = new ArrayList<>();
+	@Mock private StreamingMessageHandler<Integer> mockStreamHandler;
+	private final ConnectionContext<Integer> testContext = new ConnectionContext<>(null, null);
+	private BufferPool bufferPool;
+	private FrameDecoder<Integer> decoderUnderTest;
+	private int decodedCount;
+
+	// TEST INSTANCE BLOCK
+	{
+		beforeEach(() -> {
+			MockitoAnnotations.initMocks(this);
+			decoded.clear();
+			chunkSizes.clear();
+			decodedCount = 0;
+			bufferPool = new BufferPool(16, 1024, 4096, 1);
+			decoderUnderTest = new FrameDecoder<>("unittest", Ints::fromByteArray, bufferPool);
+		});
+
+		describe("When a FrameDecoder", () -> {
+			describe("is given a complete frame in one read", () -> {
+				beforeEach(() -> {
+					decode(frames(FIRST_MSG));
+				});
+				it("should decode the message", () -> {
+					expect(decodedCount).toEqual(1);
+					expect(decoded.get(0)).toEqual(FIRST_MSG);
+				});
+				it("should have nothing pending or borrowed", () -> {
+					expect(decoderUnderTest.getPending()).toEqual(0);
+					expect(bufferPool.getOutstanding()).toEqual(0L);
+				});
+			});
+
+			describe("is given several pipelined frames in one read", () -> {
+				beforeEach(() -> {
+					decode(frames(FIRST_MSG, SECOND_MSG, FIRST_MSG));
+				});
+				it("should decode every message, in order", () -> {
+					expect(decodedCount).toEqual(3);
+					expect(decoded.toString()).toEqual("[" + FIRST_MSG + ", " + SECOND_MSG + ", " + FIRST_MSG + "]");
+				});
+				it("should not borrow a cumulation buffer", () -> {
+					expect(bufferPool.getMisses()).toEqual(0L);
+				});
+			});
+
+			describe("is given part [1byte] of the header", () -> {
+				final ByteBuffer frame = frames(FIRST_MSG);
+				beforeEach(() -> {
+					decode(slice(frame, 0, 1));
+				});
+				it("should not decode a message", () -> {
+					expect(decoded.isEmpty()).toBeTrue();
+				});
+				it("should keep the byte pending in a borrowed buffer", () -> {
+					expect(decoderUnderTest.getPending()).toEqual(1);
+					expect(bufferPool.getOutstanding()).toEqual(1L);
+				});
+				describe("then the rest of the header and part of the body", () -> {
+					beforeEach(() -> {
+						decode(slice(frame, 1, 6));
+					});
+					it("should not decode a message", () -> {
+						expect(decoded.isEmpty()).toBeTrue();
+						expect(decoderUnderTest.getPending()).toEqual(6);
+					});
+					describe("followed by the rest of the body and the next frame", () -> {
+						beforeEach(() -> {
+							final ByteBuffer rest = ByteBuffer.allocate(64);
+							rest.put(slice(frame, 6, frame.limit())).put(frames(SECOND_MSG)).flip();
+							decode(rest);
+						});
+						it("should decode both messages", () -> {
+							expect(decoded.toString()).toEqual("[" + FIRST_MSG + ", " + SECOND_MSG + "]");
+						});
+						it("should give the cumulation buffer back", () -> {
+							expect(decoderUnderTest.getPending()).toEqual(0);
+							expect(bufferPool.getOutstanding()).toEqual(0L);
+						});
+					});
+				});
+			});
+
+			describe("is given a frame in single bytes", () -> {
+				beforeEach(() -> {
+					final ByteBuffer frame = frames(FIRST_MSG);
+					for (int i = 0; i < frame.limit(); i++) {
+						decode(slice(frame, i, i + 1));
+					}
+				});
+				it("should decode the message once the last byte arrives", () -> {
+					expect(decodedCount).toEqual(1);
+					expect(decoded.get(0)).toEqual(FIRST_MSG);
+				});
+			});
+
+			describe("is given a frame larger than it's cumulation buffer over several reads", () -> {
+				final ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + 100);
+				beforeEach(() -> {
+					frame.clear();
+					frame.putInt(100).putInt(FIRST_MSG).position(frame.limit());
+					frame.flip();
+					decoderUnderTest = new FrameDecoder<>("unittest", bytes -> bytes.length, bufferPool);
+					decode(slice(frame, 0, 2));
+					decode(slice(frame, 2, 50));
+					decode(slice(frame, 50, frame.limit()));
+				});
+				it("should grow the cumulation buffer and decode the whole body", () -> {
+					expect(decoded.get(0)).toEqual(100);
+					expect(bufferPool.getOutstanding()).toEqual(0L);
+				});
+			});
+
+			describe("is given a frame with a negative length", () -> {
+				it("should refuse to decode it", () -> {
+					expect(() -> decode((ByteBuffer) ByteBuffer.allocate(Integer.BYTES).putInt(-1).flip()))
+							.toThrow(InvalidFrameException.class);
+				});
+			});
+
+			describe("has a maximum frame size", () -> {
+				beforeEach(() -> {
+					decoderUnderTest = new FrameDecoder<>("unittest", Ints::fromByteArray, bufferPool, Integer.BYTES);
+				});
+				it("should decode frames up to the maximum", () -> {
+					decode(frames(FIRST_MSG));
+					expect(decoded.get(0)).toEqual(FIRST_MSG);
+				});
+				it("should reject a larger frame from it's header alone, without borrowing a buffer", () -> {
+					final ByteBuffer header = (ByteBuffer) ByteBuffer.allocate(Integer.BYTES).putInt(1 << 30).flip();
+					expect(() -> decoderUnderTest.decode(header, decoded::add)).toThrow(InvalidFrameException.class);
+					expect(bufferPool.getMisses()).toEqual(0L);
+				});
+			});
+
+			describe("streams bodies over a threshold", () -> {
+				final ByteBuffer largeFrame = ByteBuffer.allocate(Integer.BYTES + 100);
+				beforeEach(() -> {
+					largeFrame.clear();
+					largeFrame.putInt(100).position(largeFrame.limit());
+					largeFrame.flip();
+					doAnswer(invocation -> chunkSizes.add(((ByteBuffer) invocation.getArgument(1)).remaining()))
+							.when(mockStreamHandler).bodyChunk(any(), any());
+					decoderUnderTest.streamBodiesOver(Integer.BYTES, mockStreamHandler, testContext);
+				});
+				describe("and is given a large body over several reads, followed by a small frame", () -> {
+					beforeEach(() -> {
+						decode(slice(largeFrame, 0, 30));
+						decode(slice(largeFrame, 30, 90));
+						final ByteBuffer rest = ByteBuffer.allocate(64);
+						rest.put(slice(largeFrame, 90, largeFrame.limit())).put(frames(SECOND_MSG)).flip();
+						decode(rest);
+					});
+					it("should stream the body in chunks as it arrives", () -> {
+						verify(mockStreamHandler).bodyStarted(testContext, 100);
+						expect(chunkSizes.toString()).toEqual("[26, 60, 14]");
+						verify(mockStreamHandler).bodyEnded(testContext);
+					});
+					it("should decode the small frame as a message", () -> {
+						expect(decoded.toString()).toEqual("[" + SECOND_MSG + "]");
+					});
+					it("should never cumulate the streamed body", () -> {
+						expect(bufferPool.getMisses()).toEqual(0L);
+					});
+				});
+				describe("and is released part way through a body", () -> {
+					beforeEach(() -> {
+						decode(slice(largeFrame, 0, 30));
+						expect(decoderUnderTest.isStreaming()).toBeTrue();
+						decoderUnderTest.release();
+					});
+					it("should abort the stream", () -> {
+						verify(mockStreamHandler).bodyAborted(testContext);
+						verify(mockStreamHandler, never()).bodyEnded(testContext);
+						expect(decoderUnderTest.isStreaming()).toBeFalse();
+					});
+				});
+			});
+
+			describe("decodes headers with a varint header codec", () -> {
+				beforeEach(() -> {
+					decoderUnderTest = new FrameDecoder<>("unittest", Ints::fromByteArray, bufferPool, Integer.MAX_VALUE,
+														  new VarIntHeaderCodec());
+					final ByteBuffer frames = ByteBuffer.allocate(64);
+					frames.put((byte) Integer.BYTES).putInt(FIRST_MSG).put((byte) Integer.BYTES).putInt(SECOND_MSG).flip();
+					decode(slice(frames, 0, 7));
+					decode(slice(frames, 7, frames.limit()));
+				});
+				it("should decode single byte headers, whole and split across reads", () -> {
+					expect(decoded.toString()).toEqual("[" + FIRST_MSG + ", " + SECOND_MSG + "]");
+					expect(bufferPool.getOutstanding()).toEqual(0L);
+				});
+			});
+
+			describe("decodes headers carrying flags", () -> {
+				beforeEach(() -> {
+					final MessageFactory<Integer> flagsFactory = new MessageFactory<Integer>() {
+						@Override
+						public Integer createMessage(final byte[] bytesRead) {
+							return -1;
+						}
+
+						@Override
+						public Integer createMessage(final ByteBuffer body, final int flags) {
+							return flags;
+						}
+					};
+					final FlaggedHeaderCodec codec = new FlaggedHeaderCodec();
+					decoderUnderTest = new FrameDecoder<>("unittest", flagsFactory, bufferPool, Integer.MAX_VALUE, codec);
+					final ByteBuffer frames = ByteBuffer.allocate(64);
+					codec.encode(frames, Integer.BYTES, 7);
+					frames.putInt(FIRST_MSG);
+					codec.encode(frames, 0, 3);
+					decode((ByteBuffer) frames.flip());
+				});
+				it("should hand each frame's flags to the message factory", () -> {
+					expect(decoded.toString()).toEqual("[7, 3]");
+				});
+			});
+
+			describe("is released with a partial frame pending", () -> {
+				beforeEach(() -> {
+					decode(slice(frames(FIRST_MSG), 0, 3));
+					decoderUnderTest.release();
+				});
+				it("should give the cumulation buffer back to the pool", () -> {
+					expect(decoderUnderTest.getPending()).toEqual(0);
+					expect(bufferPool.getOutstanding()).toEqual(0L);
+				});
+			});
+		});
+	}
+
+	private void decode(final ByteBuffer read) {
+		decodedCount += decoderUnderTest.decode(read, decoded::add);
+		expect(read.hasRemaining()).toBeFalse();
+	}
+
+	private static ByteBuffer frames(final int... messages) {
+		final ByteBuffer frames = ByteBuffer.allocate(messages.length * Integer.BYTES * 2);
+		for (final int message : messages) {
+			frames.putInt(Integer.BYTES).putInt(message);
+		}
+		return (ByteBuffer) frames.flip();
+	}
+
+	private static ByteBuffer slice(final ByteBuffer buffer, final int from, final int to) {
+		final ByteBuffer slice = buffer.duplicate();
+		slice.limit(to).position(from);
+		return slice;
+	}
+}
@@ -0,0 +1,56 @@
+package org.mjd.repro.readers.header;
+
+import java.nio.ByteBuffer;
+
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+
+@RunWith(OleasterRunner.class)
+public final class FlaggedHeaderCodecTest {
+	private static final int FLAGS = 0xA5;
+	private final FlaggedHeaderCodec codecUnderTest = new FlaggedHeaderCodec();
+	private final ByteBuffer buffer = ByteBuffer.allocate(16);
+	private final FrameHeader header = new FrameHeader();
+
+	// TEST INSTANCE BLOCK
+	{
+		beforeEach(() -> {
+			buffer.clear();
+		});
+
+		describe("When a FlaggedHeaderCodec encodes a small body's header", () -> {
+			beforeEach(() -> {
+				codecUnderTest.encode(buffer, 100, FLAGS);
+				buffer.flip();
+			});
+			it("should take a size byte and a flags byte", () -> {
+				expect(buffer.remaining()).toEqual(2);
+			});
+			it("should decode the size and flags back", () -> {
+				expect(codecUnderTest.decode(buffer, header)).toBeTrue();
+				expect(header.getHeaderSize()).toEqual(2);
+				expect(header.getBodySize()).toEqual(100);
+				expect(header.getFlags()).toEqual(FLAGS);
+			});
+			describe("and it is decoded before the flags arrive", () -> {
+				beforeEach(() -> {
+					buffer.limit(1);
+				});
+				it("should wait for them", () -> {
+					expect(codecUnderTest.decode(buffer, header)).toBeFalse();
+				});
+			});
+		});
+
+		describe("When a FlaggedHeaderCodec is given flags that do not fit in a byte", () -> {
+			it("should refuse them", () -> {
+				expect(() -> codecUnderTest.encode(buffer, 1, 0x100)).toThrow(IllegalArgumentException.class);
+			});
+		});
+	}
+}
@@ -200,6 +200,24 @@ public final class IntHeaderReaderTest
             	});
             });
 
+            describe("When an IntHeaderReader is used as a header codec", () -> {
+            	final FrameHeader header = new FrameHeader();
+            	it("should not decode a partial header", () -> {
+            		expect(readerUnderTest.decode(partBuffer, header)).toBeFalse();
+            	});
+            	it("should decode a whole header without moving the buffer", () -> {
+            		expect(readerUnderTest.decode(completeBuffer, header)).toBeTrue();
+            		expect(header.getHeaderSize()).toEqual(Integer.BYTES);
+            		expect(header.getBodySize()).toEqual(SINGLE_FIRST_BYTE_VAL);
+            		expect(completeBuffer.position()).toEqual(0);
+            	});
+            	it("should encode the same header it decodes", () -> {
+            		final ByteBuffer encoded = ByteBuffer.allocate(readerUnderTest.getMaxSize());
+            		readerUnderTest.encode(encoded, LAST_THREE_BYTE_VAL, 0);
+            		expect(encoded.flip()).toEqual(ByteBuffer.wrap(lastThreeByteHeader));
+            	});
+            });
+
             describe("When an IntHeaderReader is constructed without an ID", () -> {
             	it("should construct without error", IntHeaderReader::new);
             });
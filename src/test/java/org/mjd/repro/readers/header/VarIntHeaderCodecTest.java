@@ -0,0 +1,88 @@
+package org.mjd.repro.readers.header;
+
+import java.nio.ByteBuffer;
+
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+import org.mjd.repro.readers.InvalidFrameException;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+
+@RunWith(OleasterRunner.class)
+public final class VarIntHeaderCodecTest {
+	private final VarIntHeaderCodec codecUnderTest = new VarIntHeaderCodec();
+	private final ByteBuffer buffer = ByteBuffer.allocate(16);
+	private final FrameHeader header = new FrameHeader();
+
+	// TEST INSTANCE BLOCK
+	{
+		beforeEach(() -> {
+			buffer.clear();
+			header.set(0, 0, 0);
+		});
+
+		describe("When a VarIntHeaderCodec encodes", () -> {
+			it("should encode sizes under 128 in a single byte", () -> {
+				codecUnderTest.encode(buffer, 127, 0);
+				expect(buffer.position()).toEqual(1);
+				expect((int) buffer.get(0)).toEqual(127);
+			});
+			it("should encode 300 as the protobuf bytes 0xAC 0x02", () -> {
+				codecUnderTest.encode(buffer, 300, 0);
+				expect(buffer.position()).toEqual(2);
+				expect(buffer.get(0) & 0xFF).toEqual(0xAC);
+				expect((int) buffer.get(1)).toEqual(0x02);
+			});
+			it("should take the bytes sizeOf says it does", () -> {
+				for (final int size : new int[] {0, 128, 16_384, 2_097_152, 268_435_456, Integer.MAX_VALUE}) {
+					buffer.clear();
+					codecUnderTest.encode(buffer, size, 0);
+					expect(buffer.position()).toEqual(VarIntHeaderCodec.sizeOf(size));
+				}
+			});
+		});
+
+		describe("When a VarIntHeaderCodec decodes", () -> {
+			describe("a whole header", () -> {
+				beforeEach(() -> {
+					codecUnderTest.encode(buffer, Integer.MAX_VALUE, 0);
+					buffer.flip();
+				});
+				it("should decode the size, without moving the buffer", () -> {
+					expect(codecUnderTest.decode(buffer, header)).toBeTrue();
+					expect(header.getBodySize()).toEqual(Integer.MAX_VALUE);
+					expect(header.getHeaderSize()).toEqual(VarIntHeaderCodec.MAX_SIZE);
+					expect(buffer.position()).toEqual(0);
+				});
+			});
+			describe("part of a header", () -> {
+				beforeEach(() -> {
+					codecUnderTest.encode(buffer, 300, 0);
+					buffer.flip().limit(1);
+				});
+				it("should wait for the rest of it", () -> {
+					expect(codecUnderTest.decode(buffer, header)).toBeFalse();
+				});
+			});
+			describe("a header with too many continuation bytes", () -> {
+				beforeEach(() -> {
+					buffer.put(new byte[] {-1, -1, -1, -1, -1}).flip();
+				});
+				it("should reject it", () -> {
+					expect(() -> codecUnderTest.decode(buffer, header)).toThrow(InvalidFrameException.class);
+				});
+			});
+			describe("a header that overflows an int", () -> {
+				beforeEach(() -> {
+					buffer.put(new byte[] {-1, -1, -1, -1, 0x1F}).flip();
+				});
+				it("should reject it", () -> {
+					expect(() -> codecUnderTest.decode(buffer, header)).toThrow(InvalidFrameException.class);
+				});
+			});
+		});
+	}
+}
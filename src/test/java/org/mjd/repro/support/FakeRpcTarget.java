@@ -1,10 +1,9 @@
 package org.mjd.repro.support;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.mjd.repro.handlers.subscriber.SubscriptionRegistrar;
 import org.mjd.repro.handlers.subscriber.SubscriptionRegistrar.Subscriber;
@@ -17,7 +16,7 @@ import org.mjd.repro.support.Broadcaster.Listener;
  */
 public final class FakeRpcTarget<T> implements AutoCloseable, Listener<T> {
 	public static final Map<String, Object> methodNamesAndReturnValues = new HashMap<>();
-	private final List<Subscriber> subs = Collections.synchronizedList(new ArrayList<>());
+	private final List<Subscriber> subs = new CopyOnWriteArrayList<>();
 	private Thing thing;
 
 	public FakeRpcTarget() {
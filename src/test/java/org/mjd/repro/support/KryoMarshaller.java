@@ -1,13 +1,18 @@
 package org.mjd.repro.support;
 
+import java.nio.ByteBuffer;
 import java.util.function.Function;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import org.mjd.repro.buffer.BufferPool;
 import org.mjd.repro.serialisation.Marshaller;
 
 public final class KryoMarshaller implements Marshaller {
 
 	private final KryoPool kryos;
+	/** Per thread scratch output, reused so marshalling into a pooled buffer allocates nothing once it has grown */
+	private final ThreadLocal<Output> outputs = ThreadLocal.withInitial(() -> new Output(1024, -1));
 
 	@SafeVarargs
 	public KryoMarshaller(final int poolSize, final Function<Kryo, Kryo>... configurators) {
@@ -25,6 +30,20 @@ public final class KryoMarshaller implements Marshaller {
 		}
 	}
 
+	@Override
+	public <T> ByteBuffer marshall(final T object, final Class<T> type, final ByteBuffer buffer, final BufferPool pool) {
+		final Kryo kryo = kryos.obtain();
+		try {
+			final Output output = outputs.get();
+			output.clear();
+			kryo.writeObject(output, object);
+			return pool.ensureRemaining(buffer, output.position()).put(output.getBuffer(), 0, output.position());
+		}
+		finally {
+			kryos.free(kryo);
+		}
+	}
+
 	@Override
 	public <T> T unmarshall(final byte[] bytesRead, final Class<T> type) {
 		final Kryo kryo = kryos.obtain();
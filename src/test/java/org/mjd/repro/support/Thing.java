@@ -1,14 +1,13 @@
 package org.mjd.repro.support;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public final class Thing implements Broadcaster {
-	private final List<Listener> subs = Collections.synchronizedList(new ArrayList<>());
+	private final List<Listener> subs = new CopyOnWriteArrayList<>();
 	private final ExecutorService generator = Executors.newSingleThreadExecutor();
 	private final Random random = new Random();
 
@@ -0,0 +1,38 @@
+package org.mjd.repro.util;
+
+import java.nio.channels.ServerSocketChannel;
+
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.afterEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+
+@RunWith(OleasterRunner.class)
+public class ReusePortTest {
+	private ServerSocketChannel channel;
+
+	// TEST INSTANCE BLOCK
+	{
+		beforeEach(() -> {
+			channel = ServerSocketChannel.open();
+		});
+		afterEach(() -> {
+			channel.close();
+		});
+
+		describe("When SO_REUSEPORT is enabled on a server channel", () -> {
+			it("should enable it if supported, otherwise refuse with an UnsupportedOperationException", () -> {
+				if (ReusePort.isSupportedBy(channel)) {
+					ReusePort.enable(channel);
+				}
+				else {
+					expect(() -> ReusePort.enable(channel)).toThrow(UnsupportedOperationException.class);
+				}
+			});
+		});
+	}
+}
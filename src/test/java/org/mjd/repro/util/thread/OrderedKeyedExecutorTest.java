@@ -0,0 +1,155 @@
+package org.mjd.repro.util.thread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.afterEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+import static org.awaitility.Awaitility.await;
+import static org.awaitility.Duration.TEN_SECONDS;
+
+/**
+ * Unit tests for the {@link OrderedKeyedExecutor}
+ */
+@RunWith(OleasterRunner.class)
+public class OrderedKeyedExecutorTest {
+	private static final int TASKS = 1000;
+	private ExecutorService pool;
+	private OrderedKeyedExecutor executorUnderTest;
+
+	// TEST INSTANCE BLOCK
+	{
+		beforeEach(() -> {
+			pool = Executors.newFixedThreadPool(4);
+			executorUnderTest = new OrderedKeyedExecutor(pool);
+		});
+
+		afterEach(() -> {
+			pool.shutdownNow();
+		});
+
+		describe("When an OrderedKeyedExecutor", () -> {
+			describe("is given many tasks for one key", () -> {
+				it("should run them one at a time, in the order they were submitted", () -> {
+					final List<Integer> ran = new ArrayList<>();
+					final AtomicInteger running = new AtomicInteger();
+					final AtomicInteger mostRunning = new AtomicInteger();
+					final List<Future<Integer>> futures = new ArrayList<>();
+					for (int i = 0; i < TASKS; i++) {
+						final int task = i;
+						futures.add(executorUnderTest.submit("client", () -> {
+							mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+							ran.add(task);
+							running.decrementAndGet();
+							return task;
+						}));
+					}
+					for (final Future<Integer> future : futures) {
+						future.get(10, TimeUnit.SECONDS);
+					}
+					expect(mostRunning.get()).toEqual(1);
+					for (int i = 0; i < TASKS; i++) {
+						expect(ran.get(i)).toEqual(i);
+					}
+				});
+			});
+			describe("is given tasks for different keys", () -> {
+				it("should run them in parallel", () -> {
+					final CountDownLatch otherKeyRan = new CountDownLatch(1);
+					final Future<Boolean> waiting = executorUnderTest.submit("client",
+																					 () -> otherKeyRan.await(10, TimeUnit.SECONDS));
+					executorUnderTest.submit("other client", () -> {
+						otherKeyRan.countDown();
+						return null;
+					});
+					expect((boolean) waiting.get(10, TimeUnit.SECONDS)).toBeTrue();
+				});
+			});
+			describe("has run every task it was given", () -> {
+				beforeEach(() -> {
+					for (int i = 0; i < TASKS; i++) {
+						executorUnderTest.submit(i % 10, () -> null);
+					}
+					executorUnderTest.submit(null, () -> null).get(10, TimeUnit.SECONDS);
+				});
+				it("should hold nothing for the idle keys", () -> {
+					await().atMost(TEN_SECONDS).until(() -> executorUnderTest.getActiveKeys() == 0);
+				});
+			});
+			describe("is given a task that fails", () -> {
+				it("should fail it's future and still run the tasks after it", () -> {
+					final Future<Object> failing = executorUnderTest.submit("client", () -> {
+						throw new IllegalStateException("Task failed");
+					});
+					final Future<String> after = executorUnderTest.submit("client", () -> "ran");
+					expect(after.get(10, TimeUnit.SECONDS)).toEqual("ran");
+					expect(() -> failing.get()).toThrow(ExecutionException.class);
+				});
+			});
+			describe("has a task for a key rejected by it's pool", () -> {
+				final AtomicBoolean rejecting = new AtomicBoolean();
+				beforeEach(() -> {
+					rejecting.set(true);
+					executorUnderTest = new OrderedKeyedExecutor(task -> {
+						if (rejecting.get()) {
+							throw new RejectedExecutionException("Pool saturated");
+						}
+						pool.execute(task);
+					});
+				});
+				it("should reject the task to it's caller and run the key's later tasks once the pool accepts them", () -> {
+					expect(() -> executorUnderTest.submit("client", () -> "rejected"))
+							.toThrow(RejectedExecutionException.class);
+					rejecting.set(false);
+					expect(executorUnderTest.submit("client", () -> "ran").get(10, TimeUnit.SECONDS)).toEqual("ran");
+				});
+			});
+			describe("has a key's queue rejected by it's pool part way through", () -> {
+				final AtomicInteger accepted = new AtomicInteger();
+				final List<Future<Object>> futures = new ArrayList<>();
+				beforeEach(() -> {
+					accepted.set(0);
+					futures.clear();
+					executorUnderTest = new OrderedKeyedExecutor(task -> {
+						if (accepted.getAndIncrement() > 0) {
+							throw new RejectedExecutionException("Pool shut down");
+						}
+						pool.execute(task);
+					});
+					final CountDownLatch firstRunning = new CountDownLatch(1);
+					final CountDownLatch release = new CountDownLatch(1);
+					futures.add(executorUnderTest.submit("client", () -> {
+						firstRunning.countDown();
+						return release.await(10, TimeUnit.SECONDS);
+					}));
+					firstRunning.await(10, TimeUnit.SECONDS);
+					for (int i = 1; i < OrderedKeyedExecutor.MAX_TASKS_PER_TURN + 4; i++) {
+						futures.add(executorUnderTest.submit("client", () -> null));
+					}
+					release.countDown();
+				});
+				it("should cancel the tasks left, rather than leave them waiting forever, and hold nothing for the key", () -> {
+					final Future<Object> last = futures.get(futures.size() - 1);
+					await().atMost(TEN_SECONDS).until(last::isCancelled);
+					expect(futures.get(OrderedKeyedExecutor.MAX_TASKS_PER_TURN - 1).isCancelled()).toBeFalse();
+					expect(executorUnderTest.getActiveKeys()).toEqual(0);
+				});
+			});
+		});
+	}
+}
@@ -0,0 +1,55 @@
+package org.mjd.repro.util.thread;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+
+/**
+ * Unit tests for {@link Threads}
+ */
+@RunWith(OleasterRunner.class)
+public class ThreadsTest {
+	private static final boolean HAS_VIRTUAL_THREADS = !System.getProperty("java.specification.version").startsWith("1.")
+			&& Integer.parseInt(System.getProperty("java.specification.version")) >= 21;
+
+	// TEST INSTANCE BLOCK
+	{
+		describe("When a virtual thread per task executor is asked for", () -> {
+			it("should only be given on a runtime with virtual threads", () -> {
+				final Optional<ExecutorService> executor = Threads.newVirtualThreadPerTaskExecutor();
+				expect(executor.isPresent()).toEqual(HAS_VIRTUAL_THREADS);
+				executor.ifPresent(ExecutorService::shutdown);
+			});
+			it("should run tasks when it is given", () -> {
+				final Optional<ExecutorService> executor = Threads.newVirtualThreadPerTaskExecutor();
+				if (executor.isPresent()) {
+					expect(executor.get().submit(() -> "ran").get(10, TimeUnit.SECONDS)).toEqual("ran");
+					executor.get().shutdown();
+				}
+			});
+		});
+
+		describe("When a thread is asked whether it is virtual", () -> {
+			it("should not be if it is a platform thread", () -> {
+				final boolean virtual = Threads.isVirtual(Thread.currentThread());
+				expect(virtual).toBeFalse();
+			});
+			it("should be if it was started by a virtual thread per task executor", () -> {
+				final Optional<ExecutorService> executor = Threads.newVirtualThreadPerTaskExecutor();
+				if (executor.isPresent()) {
+					final boolean virtual = executor.get().submit(() -> Threads.isVirtual(Thread.currentThread()))
+													.get(10, TimeUnit.SECONDS);
+					expect(virtual).toBeTrue();
+					executor.get().shutdown();
+				}
+			});
+		});
+	}
+}
@@ -0,0 +1,181 @@
+package org.mjd.repro.writers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.mscharhag.oleaster.runner.OleasterRunner;
+import org.junit.runner.RunWith;
+import org.mjd.repro.handlers.response.FileRegion;
+import org.mjd.repro.handlers.response.ResponseBuffer;
+import org.mjd.repro.readers.header.IntHeaderReader;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.afterEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
+import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+
+/**
+ * Unit tests for the {@link FileRegionWriter}
+ */
+@RunWith(OleasterRunner.class)
+public class FileRegionWriterTest {
+	private static final int FILE_SIZE = 20_000;
+	private Path file;
+	private CapturingChannel channel;
+	private FileRegionWriter writerUnderTest;
+
+	// TEST INSTANCE BLOCK
+	{
+		beforeEach(() -> {
+			file = Files.createTempFile("FileRegionWriterTest", ".bin");
+			final byte[] contents = new byte[FILE_SIZE];
+			for (int i = 0; i < contents.length; i++) {
+				contents[i] = (byte) i;
+			}
+			Files.write(file, contents);
+			channel = new CapturingChannel(FILE_SIZE * 2);
+		});
+
+		afterEach(() -> {
+			Files.deleteIfExists(file);
+		});
+
+		describe("When a file region writer", () -> {
+			describe("writes a whole file to a channel that takes it all", () -> {
+				final FileRegion[] region = new FileRegion[1];
+				beforeEach(() -> {
+					region[0] = FileRegion.open(file);
+					writerUnderTest = new FileRegionWriter(0, channel, ResponseBuffer.of(region[0]), new IntHeaderReader());
+					writerUnderTest.write();
+				});
+				it("should write the size header followed by the file's bytes", () -> {
+					final ByteBuffer written = channel.written();
+					expect(written.remaining()).toEqual(Integer.BYTES + FILE_SIZE);
+					expect(written.getInt()).toEqual(FILE_SIZE);
+					for (int i = 0; i < FILE_SIZE; i++) {
+						expect(written.get()).toEqual((byte) i);
+					}
+				});
+				it("should complete and close the file it opened", () -> {
+					expect(writerUnderTest.isComplete()).toBeTrue();
+					expect(writerUnderTest.remaining()).toEqual(0L);
+					expect(region[0].getFile().isOpen()).toBeFalse();
+				});
+			});
+			describe("writes a response with bytes prepended to a region of an open file", () -> {
+				final FileChannel[] openFile = new FileChannel[1];
+				beforeEach(() -> {
+					openFile[0] = FileChannel.open(file, StandardOpenOption.READ);
+					final ResponseBuffer response = ResponseBuffer.of(FileRegion.of(openFile[0], 100, 50)).prependLong(42L);
+					writerUnderTest = new FileRegionWriter(0, channel, response, new IntHeaderReader());
+					writerUnderTest.write();
+				});
+				afterEach(() -> {
+					openFile[0].close();
+				});
+				it("should count the prepended bytes in the size header and write them before the region", () -> {
+					final ByteBuffer written = channel.written();
+					expect(written.getInt()).toEqual(Long.BYTES + 50);
+					expect(written.getLong()).toEqual(42L);
+					expect(written.get()).toEqual((byte) 100);
+					expect(written.remaining()).toEqual(49);
+				});
+				it("should leave the file it was given open", () -> {
+					expect(writerUnderTest.isComplete()).toBeTrue();
+					expect(openFile[0].isOpen()).toBeTrue();
+				});
+			});
+			describe("writes to a channel that fills up part way through the file", () -> {
+				beforeEach(() -> {
+					channel = new CapturingChannel(FILE_SIZE / 2);
+					writerUnderTest = new FileRegionWriter(0, channel, ResponseBuffer.of(FileRegion.open(file)),
+														   new IntHeaderReader());
+					writerUnderTest.write();
+				});
+				it("should stop and be incomplete", () -> {
+					expect(writerUnderTest.isComplete()).toBeFalse();
+					expect(writerUnderTest.remaining()).toEqual((long) Integer.BYTES + FILE_SIZE - FILE_SIZE / 2);
+				});
+				it("should resume the transfer where it stopped once the channel is writable", () -> {
+					channel.makeRoom(FILE_SIZE);
+					writerUnderTest.write();
+					expect(writerUnderTest.isComplete()).toBeTrue();
+					final ByteBuffer written = channel.written();
+					expect(written.getInt()).toEqual(FILE_SIZE);
+					for (int i = 0; i < FILE_SIZE; i++) {
+						expect(written.get()).toEqual((byte) i);
+					}
+				});
+			});
+			describe("is left with a region past the end of a file that has shrunk", () -> {
+				beforeEach(() -> {
+					channel = new CapturingChannel(FILE_SIZE / 2);
+					writerUnderTest = new FileRegionWriter(0, channel, ResponseBuffer.of(FileRegion.open(file)),
+														   new IntHeaderReader());
+					writerUnderTest.write();
+					try (FileChannel truncating = FileChannel.open(file, StandardOpenOption.WRITE)) {
+						truncating.truncate(FILE_SIZE / 4);
+					}
+					channel.makeRoom(FILE_SIZE);
+				});
+				it("should fail the write rather than wait for bytes that will never come", () -> {
+					expect(() -> writerUnderTest.write()).toThrow(IOException.class);
+				});
+			});
+			describe("is given a response that does not end in a file region", () -> {
+				it("should refuse it", () -> {
+					expect(() -> new FileRegionWriter(0, channel, ResponseBuffer.wrap(ByteBuffer.allocate(1)),
+													  new IntHeaderReader()))
+							.toThrow(IllegalArgumentException.class);
+				});
+			});
+		});
+	}
+
+	/** Channel that keeps what is written to it and takes no more than it has room for */
+	private static final class CapturingChannel implements WritableByteChannel {
+		private final ByteBuffer captured = ByteBuffer.allocate(FILE_SIZE * 2);
+		private int room;
+
+		CapturingChannel(final int room) {
+			this.room = room;
+		}
+
+		void makeRoom(final int bytes) {
+			room += bytes;
+		}
+
+		ByteBuffer written() {
+			final ByteBuffer written = captured.duplicate();
+			written.flip();
+			return written;
+		}
+
+		@Override
+		public int write(final ByteBuffer src) {
+			final int count = Math.min(room, src.remaining());
+			final ByteBuffer taken = src.duplicate();
+			taken.limit(taken.position() + count);
+			captured.put(taken);
+			src.position(src.position() + count);
+			room -= count;
+			return count;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+			// Nothing to close
+		}
+	}
+}
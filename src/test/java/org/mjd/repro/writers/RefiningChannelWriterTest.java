@@ -2,14 +2,22 @@ package org.mjd.repro.writers;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.function.BiFunction;
 
 import com.google.common.collect.ImmutableList;
 import com.mscharhag.oleaster.runner.OleasterRunner;
 import org.junit.runner.RunWith;
+import org.mjd.repro.connection.Connection;
+import org.mjd.repro.handlers.response.FileRegion;
+import org.mjd.repro.handlers.response.ResponseBuffer;
+import org.mjd.repro.handlers.response.ResponseBufferRefiner;
 import org.mjd.repro.handlers.response.ResponseRefiner;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -17,13 +25,20 @@ import org.mockito.MockitoAnnotations;
 import static java.nio.channels.SelectionKey.OP_READ;
 import static java.nio.channels.SelectionKey.OP_WRITE;
 
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
 import static com.mscharhag.oleaster.runner.StaticRunnerSupport.before;
 import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
 import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
 /**
  * Unit tests for the {@link RefiningChannelWriter} class.
@@ -31,30 +46,36 @@ import static org.mockito.Mockito.when;
 @RunWith(OleasterRunner.class)
 public class RefiningChannelWriterTest {
 
-	@Mock private Selector mockSelector;
+	@Mock private Executor mockLoopTasks;
 	@Mock private ResponseRefiner<String> mockRefiner;
 	@Mock private SelectionKey mockKey;
 	@Mock private Writer mockWriter;
 	@Mock private SelectableChannel mockChannel;
+	@Mock private WritableByteChannel mockWriterChannel;
 
 	private static final String FAKE_MSG = "experience power";
 	private final ByteBuffer fakeResult = ByteBuffer.wrap("Division".getBytes());
 	private RefiningChannelWriter<String, SelectionKey> writerNoRefiners;
 	private RefiningChannelWriter<String, SelectionKey> writerWithRefiner;
-	private BiFunction<SelectionKey, ByteBuffer, Writer> mockWriterSupplier;
+	private BiFunction<SelectionKey, ResponseBuffer, Writer> mockWriterSupplier;
 
 	// TEST INSTANCE BLOCK
 	{
 		before(() -> {
 			MockitoAnnotations.initMocks(this);
 			mockWriterSupplier = (k,b) -> mockWriter;
+			doAnswer((invocation) -> {
+				((Runnable) invocation.getArgument(0)).run();
+				return null;
+			}).when(mockLoopTasks).execute(any(Runnable.class));
 			when(mockRefiner.execute(FAKE_MSG, fakeResult)).thenReturn(fakeResult);
 			when(mockKey.channel()).thenReturn(mockChannel);
+			mockKey.attach(new Connection(1));
 		});
 
 		describe("a RefiningChannelWriter with no refiners", () -> {
 			before(() -> {
-				writerNoRefiners = new RefiningChannelWriter<>(mockSelector, ImmutableList.of(), mockWriterSupplier);
+				writerNoRefiners = new RefiningChannelWriter<>(mockLoopTasks, ImmutableList.of(), mockWriterSupplier);
 			});
 			describe("prepares a write", () -> {
 				before(() -> {
@@ -63,8 +84,20 @@ public class RefiningChannelWriterTest {
 				it("should add OP_WRITE to the selection key interested operations", () -> {
 					verify(mockKey).interestOps(mockKey.interestOps() | OP_WRITE);
 				});
-				it("should wakeup the selector", () -> {
-					verify(mockSelector).wakeup();
+				it("should hand the write to the selector loop", () -> {
+					verify(mockLoopTasks).execute(any(Runnable.class));
+				});
+			});
+			describe("prepares the writes for a batch of responses", () -> {
+				before(() -> {
+					writerNoRefiners.prepWrites(mockKey, ImmutableList.of(FAKE_MSG, FAKE_MSG),
+												ImmutableList.of(fakeResult, fakeResult));
+				});
+				it("should hand them to the selector loop as one task", () -> {
+					verify(mockLoopTasks).execute(any(Runnable.class));
+				});
+				it("should queue a writer for each response", () -> {
+					expect(Connection.of(mockKey).getOutbound().size()).toEqual(2);
 				});
 			});
 			describe("prepares a write for a key that is cancelled", () -> {
@@ -72,18 +105,170 @@ public class RefiningChannelWriterTest {
 					when(mockKey.interestOps(anyInt())).thenThrow(CancelledKeyException.class);
 					writerNoRefiners.prepWrite(mockKey, FAKE_MSG, fakeResult);
 				});
-				it("should NOT wakeup the selector", () -> {
-					verify(mockSelector, never()).wakeup();
-				});
 				it("should remove all writers for this key", () -> {
 					writerNoRefiners.write(mockKey);
 					verify(mockWriter, never()).write();
 				});
 			});
 		});
+		describe("a RefiningChannelWriter whose key's channel can gather writes", () -> {
+			final SelectableChannel gatheringChannel =
+					mock(SelectableChannel.class, withSettings().extraInterfaces(GatheringByteChannel.class));
+			final List<SizeHeaderWriter> writers = new ArrayList<>();
+			before(() -> {
+				writers.clear();
+				when(mockKey.channel()).thenReturn(gatheringChannel);
+				when(((GatheringByteChannel) gatheringChannel).write(any(ByteBuffer[].class), anyInt(), anyInt()))
+						.then(invocation -> {
+							final ByteBuffer[] buffers = invocation.getArgument(0);
+							final int offset = invocation.getArgument(1);
+							final int length = invocation.getArgument(2);
+							long written = 0;
+							for (int i = offset; i < offset + length; i++) {
+								written += buffers[i].remaining();
+								buffers[i].position(buffers[i].limit());
+							}
+							return written;
+						});
+				writerNoRefiners = new RefiningChannelWriter<>(mockLoopTasks, ImmutableList.of(), (k, b) -> {
+					final SizeHeaderWriter writer = new SizeHeaderWriter(0, mockWriterChannel, b);
+					writers.add(writer);
+					return writer;
+				});
+				for (int i = 0; i < 3; i++) {
+					writerNoRefiners.prepWrite(mockKey, FAKE_MSG, ByteBuffer.wrap(FAKE_MSG.getBytes()));
+				}
+				writerNoRefiners.write(mockKey);
+			});
+			it("should write every queued response with one gathering write", () -> {
+				verify((GatheringByteChannel) gatheringChannel, times(1)).write(any(ByteBuffer[].class), eq(0), eq(6));
+				verify(mockWriterChannel, never()).write(any(ByteBuffer.class));
+			});
+			it("should complete and remove every writer", () -> {
+				expect(writers.size()).toEqual(3);
+				writers.forEach(writer -> expect(writer.isComplete()).toBeTrue());
+				expect(Connection.of(mockKey).getOutbound().isEmpty()).toBeTrue();
+				expect(Connection.of(mockKey).getResponsesWritten()).toEqual(3L);
+			});
+		});
+		describe("a RefiningChannelWriter with write watermarks", () -> {
+			final SelectableChannel gatheringChannel =
+					mock(SelectableChannel.class, withSettings().extraInterfaces(GatheringByteChannel.class));
+			final int[] interestOps = new int[1];
+			final int[] channelSpace = new int[1];
+			before(() -> {
+				interestOps[0] = OP_READ;
+				channelSpace[0] = 10;
+				when(mockKey.channel()).thenReturn(gatheringChannel);
+				when(mockKey.interestOps()).then(invocation -> interestOps[0]);
+				when(mockKey.interestOps(anyInt())).then(invocation -> {
+					interestOps[0] = invocation.getArgument(0);
+					return mockKey;
+				});
+				when(((GatheringByteChannel) gatheringChannel).write(any(ByteBuffer[].class), anyInt(), anyInt()))
+						.then(invocation -> {
+							final ByteBuffer[] buffers = invocation.getArgument(0);
+							final int offset = invocation.getArgument(1);
+							final int length = invocation.getArgument(2);
+							long written = 0;
+							for (int i = offset; i < offset + length && channelSpace[0] > 0; i++) {
+								final int chunk = Math.min(buffers[i].remaining(), channelSpace[0]);
+								buffers[i].position(buffers[i].position() + chunk);
+								channelSpace[0] -= chunk;
+								written += chunk;
+							}
+							return written;
+						});
+				writerNoRefiners = new RefiningChannelWriter<>(mockLoopTasks, ImmutableList.of(),
+						(k, b) -> new SizeHeaderWriter(0, mockWriterChannel, b), 20, 40);
+				for (int i = 0; i < 3; i++) {
+					writerNoRefiners.prepWrite(mockKey, FAKE_MSG, ByteBuffer.wrap(FAKE_MSG.getBytes()));
+				}
+			});
+			it("should stop reading from a client with more than the high watermark queued", () -> {
+				expect(Connection.of(mockKey).getOutboundBytes()).toEqual(60L);
+				expect(Connection.of(mockKey).isReadSuspended()).toBeTrue();
+				expect(interestOps[0]).toEqual(OP_WRITE);
+			});
+			describe("and it's channel takes only part of the queued responses", () -> {
+				before(() -> {
+					writerNoRefiners.write(mockKey);
+				});
+				it("should stop writing, rather than spin, once the channel takes nothing more", () -> {
+					verify((GatheringByteChannel) gatheringChannel).write(any(ByteBuffer[].class), eq(0), eq(6));
+					verify((GatheringByteChannel) gatheringChannel).write(any(ByteBuffer[].class), eq(1), eq(5));
+					expect(Connection.of(mockKey).getOutbound().size()).toEqual(3);
+					expect(Connection.of(mockKey).getOutboundBytes()).toEqual(50L);
+				});
+				it("should keep OP_WRITE, and reads suspended, whilst above the low watermark", () -> {
+					expect(interestOps[0]).toEqual(OP_WRITE);
+					expect(Connection.of(mockKey).isReadSuspended()).toBeTrue();
+				});
+				describe("then, when writable again, takes the rest", () -> {
+					before(() -> {
+						channelSpace[0] = Integer.MAX_VALUE;
+						writerNoRefiners.write(mockKey);
+					});
+					it("should finish the part written response and the rest of the queue", () -> {
+						expect(Connection.of(mockKey).getOutbound().isEmpty()).toBeTrue();
+						expect(Connection.of(mockKey).getOutboundBytes()).toEqual(0L);
+						expect(Connection.of(mockKey).getResponsesWritten()).toEqual(3L);
+					});
+					it("should drop OP_WRITE and resume reading", () -> {
+						expect(interestOps[0]).toEqual(OP_READ);
+						expect(Connection.of(mockKey).isReadSuspended()).toBeFalse();
+						expect(Connection.of(mockKey).getReadSuspensions()).toEqual(1L);
+					});
+				});
+			});
+		});
+		describe("a RefiningChannelWriter with refiners that prepend in place", () -> {
+			final List<ResponseBuffer> refined = new ArrayList<>();
+			before(() -> {
+				refined.clear();
+				final ResponseBufferRefiner<String> prependLength = (message, response) -> response.prependInt(message.length());
+				writerWithRefiner = new RefiningChannelWriter<>(mockLoopTasks, ImmutableList.of(prependLength, prependLength),
+																(k, b) -> {
+																	refined.add(b);
+																	return mockWriter;
+																});
+				writerWithRefiner.prepWrite(mockKey, FAKE_MSG, fakeResult);
+			});
+			it("should hand the writer the refined response without copying the result", () -> {
+				final ByteBuffer[] segments = refined.get(0).getSegments();
+				expect(segments.length).toEqual(2);
+				expect(segments[1] == fakeResult).toBeTrue();
+				expect(segments[0].remaining()).toEqual(Integer.BYTES * 2);
+				expect(segments[0].getInt()).toEqual(FAKE_MSG.length());
+			});
+		});
+		describe("a RefiningChannelWriter with refiners that prepend in place prepares a file region write", () -> {
+			final List<ResponseBuffer> refined = new ArrayList<>();
+			final FileRegion fileRegion = FileRegion.of(null, 0, 1 << 20);
+			before(() -> {
+				refined.clear();
+				final ResponseBufferRefiner<String> prependLength = (message, response) -> response.prependInt(message.length());
+				writerWithRefiner = new RefiningChannelWriter<>(mockLoopTasks, ImmutableList.of(prependLength),
+																(k, b) -> {
+																	refined.add(b);
+																	return mockWriter;
+																});
+				writerWithRefiner.prepWrite(mockKey, FAKE_MSG, ResponseBuffer.of(fileRegion));
+			});
+			it("should hand the writer the region with the refiners' bytes in front of it", () -> {
+				expect(refined.get(0).getFileRegion() == fileRegion).toBeTrue();
+				expect(refined.get(0).remaining()).toEqual(Integer.BYTES + (1 << 20));
+				expect(refined.get(0).getSegments()[0].getInt()).toEqual(FAKE_MSG.length());
+			});
+			it("should hand the write to the selector loop", () -> {
+				expect(Connection.of(mockKey).getOutbound().peek() == mockWriter).toBeTrue();
+			});
+		});
 		describe("a RefiningChannelWriter with refiners", () -> {
 			before(() -> {
-				writerWithRefiner = new RefiningChannelWriter<>(mockSelector, ImmutableList.of(mockRefiner), mockWriterSupplier);
+				writerWithRefiner = new RefiningChannelWriter<>(mockLoopTasks,
+																ImmutableList.of(ResponseBufferRefiner.adapt(mockRefiner)),
+																mockWriterSupplier);
 			});
 			describe("prepares a write", () -> {
 				before(() -> {
@@ -92,11 +277,13 @@ public class RefiningChannelWriterTest {
 				it("should add OP_WRITE to the selection key interested operations", () -> {
 					verify(mockKey).interestOps(mockKey.interestOps() | OP_WRITE);
 				});
-				it("should wakeup the selector", () -> {
-					verify(mockSelector).wakeup();
+				it("should hand the write to the selector loop", () -> {
+					verify(mockLoopTasks).execute(any(Runnable.class));
 				});
 				describe("and is then asked to write", () -> {
 					before(() -> {
+						when(mockKey.interestOps()).thenReturn(OP_READ | OP_WRITE);
+						when(mockWriter.isComplete()).thenReturn(true);
 						writerWithRefiner.write(mockKey);
 					});
 					it("should trigger a write on the current response writers", () -> {
@@ -1,10 +1,14 @@
 package org.mjd.repro.writers;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.WritableByteChannel;
 
 import com.mscharhag.oleaster.runner.OleasterRunner;
 import org.junit.runner.RunWith;
+import org.mjd.repro.buffer.BufferPool;
+import org.mjd.repro.readers.header.VarIntHeaderCodec;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -14,6 +18,10 @@ import static com.mscharhag.oleaster.runner.StaticRunnerSupport.beforeEach;
 import static com.mscharhag.oleaster.runner.StaticRunnerSupport.describe;
 import static com.mscharhag.oleaster.runner.StaticRunnerSupport.it;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(OleasterRunner.class)
@@ -26,6 +34,7 @@ public class SizeHeaderWriterTest {
 	{
 		before(() -> {
 			MockitoAnnotations.initMocks(this);
+			testBuffer.clear();
 			testBuffer.putLong(1).putLong(2).putLong(3).putLong(4).flip();
 			when(mockChannel.write(any(ByteBuffer.class)))
 												.then((answer) -> {
@@ -49,6 +58,102 @@ public class SizeHeaderWriterTest {
 					expect(writerUnderTest.isComplete()).toBeTrue();
 				});
 			});
+			describe("is given a buffer pool to write a heap buffer from", () -> {
+				final BufferPool bufferPool = new BufferPool();
+				final WritableByteChannel drainingChannel = mock(WritableByteChannel.class);
+				beforeEach(() -> {
+					when(drainingChannel.write(any(ByteBuffer.class))).then((answer) -> {
+						final ByteBuffer buffer = (ByteBuffer)answer.getArgument(0);
+						final int written = buffer.remaining();
+						buffer.position(buffer.limit());
+						return written;
+					});
+					writerUnderTest = new SizeHeaderWriter(0, drainingChannel, testBuffer, bufferPool);
+				});
+				it("should borrow a pooled buffer until the write completes", () -> {
+					expect(bufferPool.getOutstanding()).toEqual(1L);
+					writerUnderTest.write();
+					expect(writerUnderTest.isComplete()).toBeTrue();
+					expect(bufferPool.getOutstanding()).toEqual(0L);
+				});
+			});
+			describe("is given a varint header codec", () -> {
+				final WritableByteChannel capturingChannel = mock(WritableByteChannel.class);
+				final ByteBuffer written = ByteBuffer.allocate(64);
+				beforeEach(() -> {
+					written.clear();
+					when(capturingChannel.write(any(ByteBuffer.class))).then((answer) -> {
+						final ByteBuffer buffer = (ByteBuffer)answer.getArgument(0);
+						final int count = buffer.remaining();
+						written.put(buffer);
+						return count;
+					});
+					writerUnderTest = new SizeHeaderWriter(0, capturingChannel, testBuffer, null, new VarIntHeaderCodec());
+					writerUnderTest.write();
+				});
+				it("should prefix the body with a single byte size header", () -> {
+					expect(writerUnderTest.isComplete()).toBeTrue();
+					expect(written.position()).toEqual(1 + testBuffer.limit());
+					expect((int) written.get(0)).toEqual(testBuffer.limit());
+				});
+			});
+			describe("writes to a channel that can gather writes", () -> {
+				final GatheringByteChannel gatheringChannel = mock(GatheringByteChannel.class);
+				beforeEach(() -> {
+					when(gatheringChannel.write(any(ByteBuffer[].class))).then((answer) -> {
+						long written = 0;
+						for (final ByteBuffer buffer : (ByteBuffer[])answer.getArgument(0)) {
+							written += buffer.remaining();
+							buffer.position(buffer.limit());
+						}
+						return written;
+					});
+					writerUnderTest = new SizeHeaderWriter(0, gatheringChannel, testBuffer);
+					writerUnderTest.write();
+				});
+				it("should write the header and body in one call", () -> {
+					verify(gatheringChannel).write(any(ByteBuffer[].class));
+					verify(gatheringChannel, never()).write(any(ByteBuffer.class));
+					expect(writerUnderTest.isComplete()).toBeTrue();
+				});
+			});
+			describe("writes to a channel that is full part way through the body", () -> {
+				final WritableByteChannel fullChannel = mock(WritableByteChannel.class);
+				beforeEach(() -> {
+					when(fullChannel.write(any(ByteBuffer.class))).then((answer) -> {
+						final ByteBuffer buffer = (ByteBuffer)answer.getArgument(0);
+						final int written = Math.min(buffer.remaining(), Integer.BYTES);
+						buffer.position(buffer.position() + written);
+						return written;
+					}).thenReturn(0);
+					writerUnderTest = new SizeHeaderWriter(0, fullChannel, testBuffer);
+					writerUnderTest.write();
+				});
+				it("should return, incomplete, instead of spinning on the channel", () -> {
+					verify(fullChannel, times(2)).write(any(ByteBuffer.class));
+					expect(writerUnderTest.isComplete()).toBeFalse();
+					expect(writerUnderTest.remaining()).toEqual((long) testBuffer.limit());
+				});
+			});
+			describe("fails to write to the channel after a partial write", () -> {
+				final WritableByteChannel failingChannel = mock(WritableByteChannel.class);
+				final ByteBuffer failingBuffer = ByteBuffer.allocate(Long.BYTES);
+				beforeEach(() -> {
+					failingBuffer.clear();
+					failingBuffer.putLong(1).flip();
+					when(failingChannel.write(any(ByteBuffer.class))).then(answer -> {
+						final ByteBuffer buffer = (ByteBuffer) answer.getArgument(0);
+						buffer.position(buffer.position() + 2);
+						return 2;
+					}).thenThrow(new IOException("test"));
+					writerUnderTest = new SizeHeaderWriter(0, failingChannel, failingBuffer);
+				});
+				it("should throw, rather than reset it's buffers and resend bytes already on the wire", () -> {
+					expect(() -> writerUnderTest.write()).toThrow(IOException.class);
+					expect(writerUnderTest.isComplete()).toBeFalse();
+					expect(writerUnderTest.remaining()).toEqual((long) Integer.BYTES + Long.BYTES - 2);
+				});
+			});
 		});
 	}
 